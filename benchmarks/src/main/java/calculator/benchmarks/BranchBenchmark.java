@@ -0,0 +1,143 @@
+/*
+Purpose: JMH benchmark of piecewise formulas whose pieces are expensive, written with piecewise so
+only the piece that applies is computed, against the same formulas blended with comparisons,
+(x<a)*A + (x>=a)*(x<b)*B + ..., which compute every piece and throw all but one away. Each score
+is for evaluating the whole set at one point, with the point moving across every piece in turn
+*/
+
+package calculator.benchmarks;
+
+// Importing Libraries
+import calculator.CompiledExpression;
+import calculator.ExpressionParser;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BranchBenchmark {
+
+    // Pieces in u, which is written over with an expression in x
+    private static final String[] PIECES = {
+        "sin(u)*cos(u)+ln(u*u+1)",
+        "sqrt(u*u+1)*arctan(u)-cos(2*u)",
+        "ln(u*u+2)^1.5+sin(u/3)",
+        "cos(u)/(1+u*u/8)+tan(u/10)",
+        "arctan(sin(u)+cos(u))*sqrt(u*u+2)",
+    };
+
+    // Points cycled through, spread over every piece
+    private static final int POINTS = 64;
+
+    @Param({"100"})
+    public int formulas;
+
+    // Pieces in each formula
+    @Param({"2", "8"})
+    public int pieces;
+
+    private CompiledExpression[] lazy;
+    private CompiledExpression[] blended;
+    private CompiledExpression[] lazyGenerated;
+    private CompiledExpression[] blendedGenerated;
+    private double[][] points;
+    private double[] stack;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        ExpressionParser parser = new ExpressionParser("x");
+        lazy = new CompiledExpression[formulas];
+        blended = new CompiledExpression[formulas];
+        lazyGenerated = new CompiledExpression[formulas];
+        blendedGenerated = new CompiledExpression[formulas];
+        int maxStack = 0;
+        for (int i = 0; i < formulas; i++) {
+            StringBuilder piecewise = new StringBuilder("piecewise(");
+            StringBuilder blend = new StringBuilder();
+            for (int p = 0; p < pieces; p++) {
+                String piece = PIECES[random.nextInt(PIECES.length)].replace("u", "(x+" + random.nextInt(5) + ")");
+                String above = p > 0 ? "(x>=" + (p - 1) + ")*" : "";
+                String below = p < pieces - 1 ? "(x<" + p + ")*" : "";
+                if (p < pieces - 1) {
+                    piecewise.append("x<").append(p).append(',');
+                }
+                piecewise.append(piece).append(p < pieces - 1 ? "," : ")");
+                blend.append(p > 0 ? "+" : "").append(above).append(below).append('(').append(piece).append(')');
+            }
+            lazy[i] = parser.compile(piecewise.toString());
+            blended[i] = parser.compile(blend.toString());
+            lazyGenerated[i] = parser.compile(piecewise.toString());
+            blendedGenerated[i] = parser.compile(blend.toString());
+            if (!lazyGenerated[i].generateCode() || !blendedGenerated[i].generateCode()) {
+                throw new IllegalStateException("EXPRESSION TOO BIG TO GENERATE CODE FOR: " + blend.length() + " CHARACTERS");
+            }
+            maxStack = Math.max(maxStack, Math.max(lazy[i].stackSize(), blended[i].stackSize()));
+        }
+        points = new double[POINTS][];
+        for (int i = 0; i < POINTS; i++) {
+            points[i] = new double[] {-1 + pieces * (i + 0.5) / POINTS};
+        }
+        stack = new double[maxStack];
+    }
+
+    private double[] next() {
+        next = (next + 1) & (POINTS - 1);
+        return points[next];
+    }
+
+    @Benchmark
+    public double interpretLazy() {
+        return interpret(lazy, next());
+    }
+
+    @Benchmark
+    public double interpretBlended() {
+        return interpret(blended, next());
+    }
+
+    @Benchmark
+    public double generatedLazy() {
+        return evaluate(lazyGenerated, next());
+    }
+
+    @Benchmark
+    public double generatedBlended() {
+        return evaluate(blendedGenerated, next());
+    }
+
+    private double interpret(CompiledExpression[] set, double[] values) {
+        double sum = 0;
+        for (CompiledExpression expression : set) {
+            sum += expression.interpret(values, stack);
+        }
+        return sum;
+    }
+
+    private double evaluate(CompiledExpression[] set, double[] values) {
+        double sum = 0;
+        for (CompiledExpression expression : set) {
+            sum += expression.evaluate(values, stack);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+Purpose: JMH benchmark of what a Budget costs and what it saves. The normal pairs parse and
+evaluate ordinary expressions, straight and from a cache, with and without a server sized budget,
+and should score the same. The pathological pair feeds the expressions a budget is for, deep
+bracket nesting, a long tower of ^, and a very long sum, and compares working them out in full with
+rejecting them once they go over the budget
+*/
+
+package calculator.benchmarks;
+
+// Importing Libraries
+import calculator.Budget;
+import calculator.Evaluator;
+import calculator.ExpressionCache;
+import calculator.ExpressionException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BudgetBenchmark {
+
+    // Distinct expressions cycled through, a power of two
+    private static final int CORPUS_SIZE = 16;
+
+    // Limits a server might set, well above what the ordinary expressions need
+    private static final Budget BUDGET = Budget.UNLIMITED.withMaxLength(4096).withMaxTokens(1024).withMaxDepth(64)
+        .withMaxOperations(512).withTimeoutNanos(TimeUnit.MILLISECONDS.toNanos(10));
+
+    // Which pathological expression is fed in
+    @Param({"nesting", "tower", "length"})
+    public String attack;
+
+    private String[] expressions;
+    private ExpressionCache cache;
+    private String pathological;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        expressions = ExpressionCorpus.generate(CORPUS_SIZE, 8, 2, ExpressionCorpus.Mix.MIXED, 42);
+        cache = new ExpressionCache(CORPUS_SIZE, Long.MAX_VALUE, ExpressionCache.lru());
+        if (attack.equals("nesting")) {
+            pathological = "([{".repeat(20_000) + "1" + "}])".repeat(20_000);
+        }
+        else if (attack.equals("tower")) {
+            pathological = "2^".repeat(50_000) + "1";
+        }
+        else {
+            pathological = "1.5+".repeat(250_000) + "1";
+        }
+    }
+
+    private String nextExpression() {
+        next = (next + 1) & (CORPUS_SIZE - 1);
+        return expressions[next];
+    }
+
+    @Benchmark
+    public double normal() {
+        return Evaluator.evaluate(nextExpression());
+    }
+
+    @Benchmark
+    public double normalBudgeted() {
+        return Evaluator.evaluate(nextExpression(), null, BUDGET.start());
+    }
+
+    @Benchmark
+    public double cached() {
+        return Evaluator.evaluate(nextExpression(), cache);
+    }
+
+    @Benchmark
+    public double cachedBudgeted() {
+        return Evaluator.evaluate(nextExpression(), cache, BUDGET.start());
+    }
+
+    @Benchmark
+    public double pathological() {
+        return Evaluator.evaluate(pathological);
+    }
+
+    // Rejected expressions answer with where they were stopped
+    @Benchmark
+    public double pathologicalBudgeted() {
+        try {
+            return Evaluator.evaluate(pathological, null, BUDGET.start());
+        }
+        catch (ExpressionException e) {
+            return e.offset();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+Purpose: JMH benchmark comparing parsing every request against looking it up in ExpressionCache,
+for traffic made of a few thousand distinct formulas repeated with a skewed frequency
+*/
+
+package calculator.benchmarks;
+
+// Importing Libraries
+import calculator.CompiledExpression;
+import calculator.ExpressionCache;
+import calculator.ExpressionParser;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class CacheBenchmark {
+
+    // Requests are drawn from this many distinct formulas, most of them from the first few
+    private static final int DISTINCT = 4096;
+    private static final int REQUESTS = 1 << 16;
+
+    @Param({"LRU", "TINY_LFU"})
+    public String policy;
+
+    @Param({"1024", "8192"})
+    public int capacity;
+
+    private String[] requests;
+    private ExpressionCache cache;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+        final ExpressionParser parser = new ExpressionParser();
+        final double[] stack = new double[256];
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] formulas = ExpressionCorpus.generate(DISTINCT, 24, 4, ExpressionCorpus.Mix.MIXED, 42);
+
+        // Skewed choice where formula i is picked about as often as 1/(i+1)
+        Random random = new Random(7);
+        requests = new String[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            int pick = (int) Math.floor(Math.pow(DISTINCT + 1, random.nextDouble())) - 1;
+            requests[i] = formulas[pick];
+        }
+        cache = new ExpressionCache(capacity, Long.MAX_VALUE,
+            policy.equals("LRU") ? ExpressionCache.lru() : ExpressionCache.tinyLfu(capacity));
+    }
+
+    @Benchmark
+    public double parseEveryTime(Cursor cursor) {
+        cursor.next = (cursor.next + 1) & (REQUESTS - 1);
+        return cursor.parser.compile(requests[cursor.next]).evaluate(cursor.stack);
+    }
+
+    @Benchmark
+    public double cached(Cursor cursor) {
+        cursor.next = (cursor.next + 1) & (REQUESTS - 1);
+        CompiledExpression compiled = cache.get(requests[cursor.next]);
+        return compiled.evaluate(cursor.stack);
+    }
+}
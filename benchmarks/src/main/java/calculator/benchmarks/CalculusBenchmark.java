@@ -0,0 +1,133 @@
+/*
+Purpose: JMH benchmark of Calculus against the loops callers used to write around Evaluator, which
+put each point into the formula string and parsed it again. The reparsing versions run the same
+Gauss-Kronrod subdivision and the same bisection, so the difference is the parsing, and for the
+compiled integral the number of threads in its pool
+*/
+
+package calculator.benchmarks;
+
+// Importing Libraries
+import calculator.Calculus;
+import calculator.Evaluator;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CalculusBenchmark {
+
+    private static final String INTEGRAND = "sin(3*x)^2*ln(x+2) + 1/(1+x^2)";
+    private static final double FROM = 0;
+    private static final double TO = 10;
+    private static final double TOLERANCE = 1e-10;
+
+    private static final String EQUATION = "x^3 - 2*x - 5";
+    private static final double LO = 2;
+    private static final double HI = 3;
+
+    // Same nodes and weights as Calculus, outside in, middle last
+    private static final double[] NODES = {0.991455371120812639206854697526329, 0.949107912342758524526189684047851,
+        0.864864423359769072789712788640926, 0.741531185599394439863864773280788, 0.586087235467691130294144845693013,
+        0.405845151377397166906606412076961, 0.207784955007898467600689403773245, 0.0};
+    private static final double[] KRONROD = {0.022935322010529224963732008058970, 0.063092092629978553290700663189204,
+        0.104790010322250183839876322541518, 0.140653259715525918745189590510238, 0.169004726639267902826583426598550,
+        0.190350578064785409913256402421014, 0.204432940075298892414161999234649, 0.209482141084727828012999174891714};
+    private static final double[] GAUSS = {0.129484966168869693270611432679082, 0.279705391489276667901467771423780,
+        0.381830050505118944950369775488975, 0.417959183673469387755102040816327};
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private ForkJoinPool pool;
+    private Calculus calculus;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pool = new ForkJoinPool(threads);
+        calculus = new Calculus(pool);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public double integrate() {
+        return calculus.integrate(INTEGRAND, "x", FROM, TO, TOLERANCE).value;
+    }
+
+    @Benchmark
+    public double integrateReparsing() {
+        return reparsed(INTEGRAND, FROM, TO, TOLERANCE);
+    }
+
+    @Benchmark
+    public double solve() {
+        return calculus.solve(EQUATION, "x", LO, HI, TOLERANCE).root;
+    }
+
+    @Benchmark
+    public double solveReparsing() {
+        double lo = LO;
+        double hi = HI;
+        boolean loNegative = f(EQUATION, lo) < 0;
+        while (hi - lo > TOLERANCE) {
+            double middle = lo + (hi - lo) / 2;
+            if ((f(EQUATION, middle) < 0) == loNegative) {
+                lo = middle;
+            }
+            else {
+                hi = middle;
+            }
+        }
+        return lo;
+    }
+
+    // Gauss-Kronrod subdivision on one thread, with every point written into the formula
+    private static double reparsed(String expression, double a, double b, double tolerance) {
+        double half = (b - a) / 2;
+        double middle = a + half;
+        double center = f(expression, middle);
+        double kronrod = KRONROD[7] * center;
+        double gauss = GAUSS[3] * center;
+        for (int i = 0; i < 7; i++) {
+            double offset = half * NODES[i];
+            double sum = f(expression, middle - offset) + f(expression, middle + offset);
+            kronrod += KRONROD[i] * sum;
+            if ((i & 1) == 1) {
+                gauss += GAUSS[i >> 1] * sum;
+            }
+        }
+        if (Math.abs(kronrod - gauss) * half <= tolerance) {
+            return kronrod * half;
+        }
+        return reparsed(expression, a, middle, tolerance / 2) + reparsed(expression, middle, b, tolerance / 2);
+    }
+
+    // The lexer reads plain decimals only, so the point is written without an exponent
+    private static double f(String expression, double x) {
+        return Evaluator.evaluate(expression.replace("x", "(" + BigDecimal.valueOf(x).toPlainString() + ")"));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+Purpose: JMH benchmark of CellStore. The store is a grid of layers where each cell uses two cells
+of the layer before it. Changing a cell near the outputs should cost about the same whatever the
+size of the store, changing an input touches a widening cone of cells, and recomputeAll is the
+full sweep that an update would cost without the dependency graph
+*/
+
+package calculator.benchmarks;
+
+// Importing Libraries
+import calculator.CellStore;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CellBenchmark {
+
+    // Cells in one layer, big enough for a layer to be split across the pool
+    private static final int WIDTH = 1000;
+
+    @Param({"10000", "100000"})
+    public int cells;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private CellStore store;
+    private double next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        store = parallel ? new CellStore(ForkJoinPool.commonPool()) : new CellStore();
+        Map<String, String> formulas = new HashMap<>();
+        for (int i = 0; i < cells; i++) {
+            if (i < WIDTH) {
+                formulas.put(name(i), Integer.toString(i % 7 + 1));
+            }
+            else {
+                int above = i - WIDTH;
+                int beside = above - above % WIDTH + (above + 1) % WIDTH;
+                formulas.put(name(i), "sin(" + name(above) + ")+" + name(beside) + "*0.5");
+            }
+        }
+        store.setAll(formulas);
+    }
+
+    // Five lowercase letters, never an operator name
+    private static String name(int i) {
+        StringBuilder name = new StringBuilder("c");
+        for (int k = 0; k < 4; k++) {
+            name.append((char) ('a' + i % 26));
+            i /= 26;
+        }
+        return name.toString();
+    }
+
+    // A cell in the layer before the last, two cells depend on it
+    @Benchmark
+    public int updateNearOutput() {
+        return store.set(name(cells - WIDTH - 1), next++);
+    }
+
+    // A cell of the first layer, whose change reaches one more cell with every layer
+    @Benchmark
+    public int updateInput() {
+        return store.set(name(0), next++);
+    }
+
+    @Benchmark
+    public int recomputeAll() {
+        return store.recomputeAll();
+    }
+}
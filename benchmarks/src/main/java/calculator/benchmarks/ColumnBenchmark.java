@@ -0,0 +1,101 @@
+/*
+Purpose: JMH benchmark of sweeping an expression of x and y over a million points. Building and
+parsing a string per point is compared with evaluating the compiled expression one point at a
+time and a column at a time, with plain loops and with the Vector API
+*/
+
+package calculator.benchmarks;
+
+// Importing Libraries
+import calculator.CompiledExpression;
+import calculator.ExpressionParser;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ColumnBenchmark {
+
+    @Param({"1000000"})
+    public int points;
+
+    // A function heavy sweep and an arithmetic heavy one
+    @Param({"sin(x)^2 + ln(y)", "x*x + 2*x*y - y/3 + sqrt(x*x + y*y)"})
+    public String expression;
+
+    private double[] x;
+    private double[] y;
+    private double[] out;
+    private CompiledExpression compiled;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        x = new double[points];
+        y = new double[points];
+        out = new double[points];
+        for (int i = 0; i < points; i++) {
+            x[i] = random.nextDouble() * 10 - 5;
+            y[i] = random.nextDouble() * 10 + 0.5;
+        }
+        compiled = new ExpressionParser("x", "y").compile(expression);
+    }
+
+    // What a sweep costs without variables, substituting each point into the text
+    @Benchmark
+    public double[] stringPerPoint() {
+        ExpressionParser parser = new ExpressionParser();
+        for (int i = 0; i < points; i++) {
+            // Plain notation since the grammar has no exponents
+            String text = expression.replace("x", "(" + BigDecimal.valueOf(x[i]).toPlainString() + ")")
+                .replace("y", "(" + BigDecimal.valueOf(y[i]).toPlainString() + ")");
+            out[i] = parser.compile(text).evaluate();
+        }
+        return out;
+    }
+
+    @Benchmark
+    public double[] pointAtATime() {
+        double[] values = new double[2];
+        double[] stack = new double[compiled.stackSize()];
+        for (int i = 0; i < points; i++) {
+            values[0] = x[i];
+            values[1] = y[i];
+            out[i] = compiled.evaluate(values, stack);
+        }
+        return out;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dcalculator.vector=false")
+    public double[] columnScalar() {
+        compiled.evaluate(x, y, out);
+        return out;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+    public double[] columnVector() {
+        compiled.evaluate(x, y, out);
+        return out;
+    }
+}
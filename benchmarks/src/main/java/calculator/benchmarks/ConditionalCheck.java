@@ -0,0 +1,139 @@
+/*
+Purpose: Differential check of the older createExpression/shuntingYard/computeExpression path
+against Evaluator for formulas with if, min, max, piecewise and comparisons. Formulas are
+generated with minus signs in front of brackets and names after commas, comparisons, brackets and
+other operators, which is where the two paths have read signs differently. Divisions are only by
+positive numbers, since computeExpression works out both branches of an if and would throw for a
+branch Evaluator skips. Prints the formulas that disagree and exits with 1 if there are any. Run
+with
+java -cp benchmarks/target/benchmarks.jar calculator.benchmarks.ConditionalCheck [formulas] [seed]
+*/
+
+package calculator.benchmarks;
+
+// Importing Libraries
+import calculator.Calculator;
+import calculator.Evaluator;
+
+import java.util.SplittableRandom;
+
+public final class ConditionalCheck {
+
+    private static final String[] FUNCTIONS = {"sin", "cos", "arctan", "sqrt", "ln"};
+    private static final String[] COMPARISONS = {"<", "<=", ">", ">=", "==", "!="};
+    private static final String[] OPERATORS = {"+", "-", "*"};
+
+    // Disagreements printed before the rest are only counted
+    private static final int SHOWN = 20;
+
+    private ConditionalCheck() {
+    }
+
+    public static void main(String[] args) {
+        int formulas = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        SplittableRandom random = new SplittableRandom(args.length > 1 ? Long.parseLong(args[1]) : 42);
+        int failed = 0;
+        for (int i = 0; i < formulas; i++) {
+            String formula = expression(random, 3);
+            String legacy = legacy(formula);
+            String single = single(formula);
+            if (!agree(legacy, single)) {
+                if (++failed <= SHOWN) {
+                    System.out.println(formula + "  computeExpression " + legacy + "  Evaluator " + single);
+                }
+            }
+        }
+        System.out.printf("CONDITIONAL CHECK: %d formulas, %d disagree%n", formulas, failed);
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    // A random expression nested up to depth calls deep
+    private static String expression(SplittableRandom random, int depth) {
+        StringBuilder out = new StringBuilder(term(random, depth));
+        int terms = random.nextInt(3);
+        for (int t = 0; t < terms; t++) {
+            out.append(OPERATORS[random.nextInt(OPERATORS.length)]).append(term(random, depth));
+        }
+        if (random.nextInt(4) == 0) {
+            out.append('/').append(1 + random.nextInt(4));
+        }
+        return out.toString();
+    }
+
+    // A number or a bracket, function or conditional, with a minus in front one time in three
+    private static String term(SplittableRandom random, int depth) {
+        String term;
+        switch (depth <= 0 ? 0 : random.nextInt(8)) {
+            case 0:
+                return number(random);
+            case 1:
+                term = "(" + expression(random, depth - 1) + ")";
+                break;
+            case 2:
+                term = FUNCTIONS[random.nextInt(FUNCTIONS.length)] + "(" + expression(random, depth - 1) + ")";
+                break;
+            case 3:
+                term = "if(" + condition(random, depth - 1) + "," + expression(random, depth - 1) + "," + expression(random, depth - 1) + ")";
+                break;
+            case 4:
+            case 5:
+                StringBuilder call = new StringBuilder(random.nextBoolean() ? "min(" : "max(");
+                int arguments = 2 + random.nextInt(3);
+                for (int a = 0; a < arguments; a++) {
+                    call.append(a > 0 ? "," : "").append(expression(random, depth - 1));
+                }
+                term = call.append(')').toString();
+                break;
+            default:
+                StringBuilder pieces = new StringBuilder("piecewise(");
+                int conditions = 1 + random.nextInt(3);
+                for (int c = 0; c < conditions; c++) {
+                    pieces.append(condition(random, depth - 1)).append(',').append(expression(random, depth - 1)).append(',');
+                }
+                term = pieces.append(expression(random, depth - 1)).append(')').toString();
+                break;
+        }
+        return random.nextInt(3) == 0 ? "-" + term : term;
+    }
+
+    private static String condition(SplittableRandom random, int depth) {
+        return expression(random, depth) + COMPARISONS[random.nextInt(COMPARISONS.length)] + expression(random, depth);
+    }
+
+    private static String number(SplittableRandom random) {
+        return random.nextBoolean() ? Integer.toString(random.nextInt(4)) : Integer.toString(random.nextInt(10)) + "." + random.nextInt(10);
+    }
+
+    private static String legacy(String formula) {
+        try {
+            return Double.toString(Calculator.computeExpression(Calculator.shuntingYard(Calculator.createExpression(formula))));
+        }
+        catch (RuntimeException e) {
+            return e.getClass().getSimpleName();
+        }
+    }
+
+    private static String single(String formula) {
+        try {
+            return Double.toString(Evaluator.evaluate(formula));
+        }
+        catch (RuntimeException e) {
+            return e.getClass().getSimpleName();
+        }
+    }
+
+    // The optimizer may fold constants in another order, so results only have to be close
+    private static boolean agree(String legacy, String single) {
+        if (legacy.equals(single)) {
+            return true;
+        }
+        try {
+            double a = Double.parseDouble(legacy);
+            double b = Double.parseDouble(single);
+            return Math.abs(a - b) <= 1e-9 * Math.max(1, Math.abs(b));
+        }
+        catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+Purpose: JMH benchmark of evaluating a formula set that shares most of its fragments. separate
+evaluates each formula's own CompiledExpression, the way a formula set is evaluated without a DAG,
+and shared evaluates the ExpressionDag holding all of them, where every shared fragment is worked
+out once per batch. Scores are for the whole set
+*/
+
+package calculator.benchmarks;
+
+// Importing Libraries
+import calculator.CompiledExpression;
+import calculator.ExpressionDag;
+import calculator.ExpressionParser;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class DagBenchmark {
+
+    @Param({"10000"})
+    public int formulas;
+
+    // Size of the pool of fragments the formulas are joined from
+    @Param({"100", "1000"})
+    public int fragments;
+
+    private CompiledExpression[] compiled;
+    private ExpressionDag dag;
+    private ExpressionDag.Batch batch;
+    private double[] stack;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] corpus = ExpressionCorpus.overlapping(formulas, fragments, 4, 24, 42);
+        compiled = new CompiledExpression[formulas];
+        dag = new ExpressionDag();
+        int maxStack = 0;
+        for (int i = 0; i < formulas; i++) {
+            compiled[i] = ExpressionParser.parse(corpus[i]);
+            maxStack = Math.max(maxStack, compiled[i].stackSize());
+            dag.add(compiled[i]);
+        }
+        stack = new double[maxStack];
+        batch = dag.newBatch();
+    }
+
+    @Benchmark
+    public double separate() {
+        double sum = 0;
+        for (CompiledExpression expression : compiled) {
+            sum += expression.evaluate(stack);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double shared() {
+        batch.evaluate();
+        return batch.value(formulas - 1);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+Purpose: Heap footprint of a large formula set held three ways: as the token lists the shunting
+yard produces, one List<String> per formula, as one CompiledExpression per formula, and in an
+ExpressionDag, where the fragments the formulas share are stored once. The corpus joins fragments
+drawn from a small pool, the way generated formula sets repeat the same blocks. Each form is
+measured as the live heap it adds after a full collection, and the time to evaluate every formula
+once is printed next to it. Run with
+java -cp benchmarks/target/benchmarks.jar calculator.benchmarks.DagFootprint [formulas] [fragments]
+*/
+
+package calculator.benchmarks;
+
+// Importing Libraries
+import calculator.Calculator;
+import calculator.CompiledExpression;
+import calculator.ExpressionDag;
+import calculator.ExpressionParser;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+public final class DagFootprint {
+
+    private static final int PER_EXPRESSION = 4;
+    private static final int TERMS = 24;
+    private static final int ROUNDS = 20;
+
+    // The form being measured, and a sink for the sums of the timing loops
+    private static Object held;
+    static double blackhole;
+
+    private DagFootprint() {
+    }
+
+    public static void main(String[] args) {
+        int formulas = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int fragments = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        String[] corpus = ExpressionCorpus.overlapping(formulas, fragments, PER_EXPRESSION, TERMS, 42);
+        long characters = 0;
+        for (String formula : corpus) {
+            characters += formula.length();
+        }
+        System.out.printf("DAG FOOTPRINT: %d formulas of %d fragments from a pool of %d, %.0f characters each%n",
+            formulas, PER_EXPRESSION, fragments, (double) characters / formulas);
+
+        long tokenBytes = tokenLists(corpus);
+        long compiledBytes = compiled(corpus);
+        double separateMillis = evaluateCompiled((CompiledExpression[]) held);
+        report("compiled", compiledBytes, formulas, "%.1f ms to evaluate all", separateMillis);
+        held = null;
+        long dagBytes = dag(corpus);
+        ExpressionDag dag = (ExpressionDag) held;
+        double sharedMillis = evaluateDag(dag);
+        report("dag", dagBytes, formulas, "%.1f ms to evaluate all", sharedMillis);
+        System.out.println(dag.footprint());
+        System.out.printf("DAG SAVES: %.1fx the heap of the token lists, %.1fx of the compiled form, %.1fx the evaluation time%n",
+            (double) tokenBytes / dagBytes, (double) compiledBytes / dagBytes, separateMillis / sharedMillis);
+    }
+
+    // Each form is built in its own method and kept in held, so nothing of the form before it
+    // is still reachable from a local variable when it is measured
+    private static long tokenLists(String[] corpus) {
+        long before = usedHeap();
+        List<List<String>> tokens = new ArrayList<>(corpus.length);
+        for (String formula : corpus) {
+            tokens.add(Calculator.shuntingYard(Calculator.createExpression(formula)));
+        }
+        held = tokens;
+        long bytes = usedHeap() - before;
+        long count = 0;
+        for (List<String> list : tokens) {
+            count += list.size();
+        }
+        report("token lists", bytes, corpus.length, "%d tokens", count);
+        held = null;
+        return bytes;
+    }
+
+    private static long compiled(String[] corpus) {
+        long before = usedHeap();
+        CompiledExpression[] compiled = new CompiledExpression[corpus.length];
+        for (int i = 0; i < corpus.length; i++) {
+            compiled[i] = ExpressionParser.parse(corpus[i]);
+        }
+        held = compiled;
+        return usedHeap() - before;
+    }
+
+    private static long dag(String[] corpus) {
+        long before = usedHeap();
+        ExpressionDag dag = new ExpressionDag();
+        for (String formula : corpus) {
+            dag.add(formula);
+        }
+        held = dag;
+        return usedHeap() - before;
+    }
+
+    // Milliseconds to evaluate every formula once, each on its own
+    private static double evaluateCompiled(CompiledExpression[] compiled) {
+        double[] stack = new double[256];
+        double sum = 0;
+        long started = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (CompiledExpression expression : compiled) {
+                sum += expression.interpret(stack);
+            }
+        }
+        blackhole = sum;
+        return (System.nanoTime() - started) / 1e6 / ROUNDS;
+    }
+
+    // Milliseconds to evaluate every formula once, shared fragments once between them
+    private static double evaluateDag(ExpressionDag dag) {
+        ExpressionDag.Batch batch = dag.newBatch();
+        double sum = 0;
+        long started = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            batch.evaluate();
+            sum += batch.value(round);
+        }
+        blackhole = sum;
+        return (System.nanoTime() - started) / 1e6 / ROUNDS;
+    }
+
+    private static void report(String form, long bytes, int formulas, String format, Object value) {
+        System.out.printf("%-12s %9.1f MB %8.0f bytes per formula, " + format + "%n", form, bytes / 1e6, (double) bytes / formulas, value);
+    }
+
+    // Heap in use after everything unreachable has been collected
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+Purpose: JMH benchmark of Evaluator.evaluate on good and bad input. A malformed formula and a
+division by zero are rejected with an exception that skips the stack trace, so they should cost
+about as much as evaluating a valid formula of the same length
+*/
+
+package calculator.benchmarks;
+
+// Importing Libraries
+import calculator.EvaluationException;
+import calculator.Evaluator;
+import calculator.ExpressionException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class EvaluatorBenchmark {
+
+    // Same length and shape, only the last one evaluates
+    private static final String MALFORMED = "2*{sin(1)+[3/*4]}";
+    private static final String DIVIDE_BY_ZERO = "2*{sin(1)+[3/(4-4)]}";
+    private static final String VALID = "2*{sin(1)+[3/4]}";
+
+    @Benchmark
+    public double valid() {
+        return Evaluator.evaluate(VALID);
+    }
+
+    @Benchmark
+    public long malformed() {
+        try {
+            Evaluator.evaluate(MALFORMED);
+            return -1;
+        }
+        catch (ExpressionException e) {
+            return e.offset();
+        }
+    }
+
+    @Benchmark
+    public String divideByZero() {
+        try {
+            Evaluator.evaluate(DIVIDE_BY_ZERO);
+            return null;
+        }
+        catch (EvaluationException e) {
+            return e.getMessage();
+        }
+    }
+}
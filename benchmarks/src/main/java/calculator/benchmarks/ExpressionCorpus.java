@@ -0,0 +1,161 @@
+/*
+Purpose: Generates repeatable corpora of expressions for the benchmarks, varying the number of
+terms, how deeply (), [], and {} are nested, and which family of operators is used
+*/
+
+package calculator.benchmarks;
+
+// Importing Libraries
+import java.util.Random;
+
+public final class ExpressionCorpus {
+
+    // Families of operators an expression can draw from
+    public enum Mix {BASIC, TRIG, LOG, MIXED}
+
+    private static final String[] BASIC_OPERATORS = {"+", "-", "*", "/", "^"};
+    private static final String[] TRIG_FUNCTIONS = {"sin", "cos", "tan", "cot", "arcsin", "arccos", "arctan", "arcctg"};
+    private static final String[] LOG_FUNCTIONS = {"ln", "log", "sqrt"};
+    private static final String[][] GROUPS = {{"(", ")"}, {"[", "]"}, {"{", "}"}};
+
+    private final Random random;
+    private final Mix mix;
+    private final int maxDepth;
+
+    private ExpressionCorpus(long seed, Mix mix, int maxDepth) {
+        this.random = new Random(seed);
+        this.mix = mix;
+        this.maxDepth = maxDepth;
+    }
+
+    // generate function builds count expressions of about terms terms each
+    public static String[] generate(int count, int terms, int maxDepth, Mix mix, long seed) {
+        ExpressionCorpus corpus = new ExpressionCorpus(seed, mix, maxDepth);
+        String[] expressions = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder out = new StringBuilder();
+            // Start with a number, which every tokenizer in the project accepts
+            corpus.number(out);
+            corpus.sum(out, terms - 1, 0);
+            expressions[i] = out.toString();
+        }
+        return expressions;
+    }
+
+    // overlapping function builds count expressions that share most of their text, the way
+    // generated formula sets repeat the same blocks. Each joins perExpression fragments drawn
+    // from a pool of fragments, every one an arctan, sin, or cos of a generated sum, to a number of
+    // its own
+    public static String[] overlapping(int count, int fragments, int perExpression, int terms, long seed) {
+        String[] pool = generate(fragments, terms, 2, Mix.MIXED, seed);
+        String[] wrappers = {"arctan", "sin", "cos"};
+        for (int i = 0; i < fragments; i++) {
+            pool[i] = wrappers[i % wrappers.length] + "{" + pool[i] + "}";
+        }
+        ExpressionCorpus corpus = new ExpressionCorpus(seed + 1, Mix.BASIC, 0);
+        String[] expressions = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder out = new StringBuilder();
+            corpus.number(out);
+            for (int k = 0; k < perExpression; k++) {
+                out.append(corpus.random.nextBoolean() ? '+' : '*').append(pool[corpus.random.nextInt(fragments)]);
+            }
+            expressions[i] = out.toString();
+        }
+        return expressions;
+    }
+
+    // Append operator/term pairs until the budget of terms is used up
+    private void sum(StringBuilder out, int terms, int depth) {
+        boolean afterSmallNumber = false;
+        for (int i = 0; i < terms; i++) {
+            String operator = BASIC_OPERATORS[random.nextInt(BASIC_OPERATORS.length)];
+
+            // A tower such as /0.1^9.5^8.4 underflows to zero, so ^ never follows a denominator or exponent
+            if (afterSmallNumber && operator.equals("^")) {
+                operator = "*";
+            }
+            afterSmallNumber = false;
+
+            // createExpression reads a minus after a closing bracket as a negative number
+            char last = out.charAt(out.length() - 1);
+            if (operator.equals("-") && (last == ')' || last == ']' || last == '}')) {
+                operator = "+";
+            }
+            out.append(operator);
+
+            // Keep denominators and exponents as small positive numbers so results stay finite
+            if (operator.equals("/") || operator.equals("^")) {
+                number(out);
+                afterSmallNumber = true;
+                continue;
+            }
+            int remaining = terms - i - 1;
+            if (depth < maxDepth && remaining > 0 && random.nextInt(3) == 0) {
+                // Spend part of the remaining budget inside a nested group
+                int inner = 1 + random.nextInt(remaining);
+                group(out, inner, depth + 1);
+                i += inner - 1;
+            }
+            else {
+                term(out);
+            }
+        }
+    }
+
+    // Append a nested group, possibly wrapped in a function
+    private void group(StringBuilder out, int terms, int depth) {
+        String[] brackets = GROUPS[depth % GROUPS.length];
+        String function = function();
+        if (function != null) {
+            out.append(function);
+        }
+        out.append(brackets[0]);
+        number(out);
+        sum(out, terms - 1, depth);
+        out.append(brackets[1]);
+    }
+
+    // Append a single number or a function of a number
+    private void term(StringBuilder out) {
+        String function = function();
+        if (function == null) {
+            number(out);
+            return;
+        }
+        out.append(function).append('(');
+        number(out);
+        out.append(')');
+    }
+
+    // Pick a function from the mix, or null for none
+    private String function() {
+        switch (mix) {
+            case TRIG:
+                return TRIG_FUNCTIONS[random.nextInt(TRIG_FUNCTIONS.length)];
+            case LOG:
+                return LOG_FUNCTIONS[random.nextInt(LOG_FUNCTIONS.length)];
+            case MIXED:
+                int pick = random.nextInt(3);
+                if (pick == 0) {
+                    return TRIG_FUNCTIONS[random.nextInt(TRIG_FUNCTIONS.length)];
+                }
+                else if (pick == 1) {
+                    return LOG_FUNCTIONS[random.nextInt(LOG_FUNCTIONS.length)];
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    // Append a positive number between 0.1 and 9.9, kept inside the domain of arcsin and arccos half the time
+    private void number(StringBuilder out) {
+        if (random.nextBoolean()) {
+            out.append("0.").append(1 + random.nextInt(9));
+        }
+        else {
+            out.append(1 + random.nextInt(9)).append('.').append(random.nextInt(10));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+Purpose: JMH benchmark of fast math against java.lang.Math and StrictMath. Each function FastMath
+replaces is run over 1024 inputs from its usual domain, with Math, with StrictMath, and with
+FastMath in forks started with a tolerance of 1e-9 and of 1e-6. Scores are per call
+*/
+
+package calculator.benchmarks;
+
+// Importing Libraries
+import calculator.FastMath;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleUnaryOperator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FastMathBenchmark {
+
+    private static final String FAST = "-Dcalculator.fastMath=1e-9";
+    private static final String COARSE = "-Dcalculator.fastMath=1e-6";
+
+    private static final int SIZE = 1024;
+
+    @Param({"sin", "cos", "tan", "cot", "arcsin", "arccos", "arctan", "arcctg", "ln", "log"})
+    public String function;
+
+    private final double[] xs = new double[SIZE];
+    private DoubleUnaryOperator math;
+    private DoubleUnaryOperator strict;
+    private DoubleUnaryOperator fast;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < SIZE; i++) {
+            switch (function) {
+                case "arcsin":
+                case "arccos":
+                    xs[i] = random.nextDouble(-1, 1);
+                    break;
+                case "arctan":
+                case "arcctg":
+                    xs[i] = random.nextDouble(-20, 20);
+                    break;
+                case "ln":
+                case "log":
+                    xs[i] = Math.pow(10, random.nextDouble(-5, 5));
+                    break;
+                default:
+                    xs[i] = random.nextDouble(-10, 10);
+                    break;
+            }
+        }
+        switch (function) {
+            case "sin":
+                use(Math::sin, StrictMath::sin, FastMath::sin);
+                break;
+            case "cos":
+                use(Math::cos, StrictMath::cos, FastMath::cos);
+                break;
+            case "tan":
+                use(Math::tan, StrictMath::tan, FastMath::tan);
+                break;
+            case "cot":
+                use(x -> 1 / Math.tan(x), x -> 1 / StrictMath.tan(x), FastMath::cot);
+                break;
+            case "arcsin":
+                use(Math::asin, StrictMath::asin, FastMath::asin);
+                break;
+            case "arccos":
+                use(Math::acos, StrictMath::acos, FastMath::acos);
+                break;
+            case "arctan":
+                use(Math::atan, StrictMath::atan, FastMath::atan);
+                break;
+            case "arcctg":
+                use(x -> Math.PI / 2 - Math.atan(x), x -> Math.PI / 2 - StrictMath.atan(x),
+                    FastMath::arccot);
+                break;
+            case "ln":
+                use(Math::log, StrictMath::log, FastMath::log);
+                break;
+            default:
+                use(Math::log10, StrictMath::log10, FastMath::log10);
+                break;
+        }
+    }
+
+    private void use(DoubleUnaryOperator math, DoubleUnaryOperator strict, DoubleUnaryOperator fast) {
+        this.math = math;
+        this.strict = strict;
+        this.fast = fast;
+    }
+
+    // Each fork runs one benchmark, so the call through the operator only ever sees one function
+    private double sweep(DoubleUnaryOperator function) {
+        double sum = 0;
+        for (int i = 0; i < SIZE; i++) {
+            sum += function.applyAsDouble(xs[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @Fork(1)
+    @OperationsPerInvocation(SIZE)
+    public double math() {
+        return sweep(math);
+    }
+
+    @Benchmark
+    @Fork(1)
+    @OperationsPerInvocation(SIZE)
+    public double strictMath() {
+        return sweep(strict);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = FAST)
+    @OperationsPerInvocation(SIZE)
+    public double fastMath() {
+        return sweep(fast);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = COARSE)
+    @OperationsPerInvocation(SIZE)
+    public double fastMathCoarse() {
+        return sweep(fast);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+Purpose: JMH benchmark of GradientEvaluator against finite differences. The expression is the
+Rosenbrock function of n variables with a logarithm in every term, a usual optimizer test.
+gradient is one forward mode pass, finiteDifferences is the central difference an optimizer
+would otherwise take, two evaluations of the compiled expression for every variable, and value
+is a single evaluation for scale
+*/
+
+package calculator.benchmarks;
+
+// Importing Libraries
+import calculator.CompiledExpression;
+import calculator.ExpressionParser;
+import calculator.GradientEvaluator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GradientBenchmark {
+
+    // Step for the central differences, relative to each variable
+    private static final double STEP = 1e-6;
+
+    @Param({"2", "8", "32"})
+    public int variables;
+
+    private CompiledExpression expression;
+    private GradientEvaluator gradient;
+    private double[] values;
+    private double[] derivatives;
+    private double[] stack;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] names = new String[variables];
+        for (int i = 0; i < variables; i++) {
+            names[i] = "x" + (char) ('a' + i / 26) + (char) ('a' + i % 26);
+        }
+        // Sum of 100 (x[i+1] - x[i]^2)^2 + (1 - x[i])^2 + ln(1 + x[i]^2)
+        StringBuilder rosenbrock = new StringBuilder();
+        for (int i = 0; i < variables; i++) {
+            if (i > 0) {
+                rosenbrock.append(" + ");
+            }
+            if (i + 1 < variables) {
+                rosenbrock.append("100*(").append(names[i + 1]).append(" - ").append(names[i]).append("^2)^2 + ");
+            }
+            rosenbrock.append("(1 - ").append(names[i]).append(")^2 + ln(1 + ").append(names[i]).append("^2)");
+        }
+        expression = new ExpressionParser(names).compile(rosenbrock);
+        gradient = new GradientEvaluator(expression);
+        values = new double[variables];
+        for (int i = 0; i < variables; i++) {
+            values[i] = 0.5 + 0.01 * i;
+        }
+        derivatives = new double[variables];
+        stack = new double[expression.stackSize()];
+    }
+
+    @Benchmark
+    public double value() {
+        return expression.evaluate(values, stack);
+    }
+
+    @Benchmark
+    public double gradient() {
+        return gradient.evaluate(values, derivatives) + derivatives[variables - 1];
+    }
+
+    @Benchmark
+    public double finiteDifferences() {
+        for (int i = 0; i < variables; i++) {
+            double x = values[i];
+            double h = STEP * Math.max(1, Math.abs(x));
+            values[i] = x + h;
+            double above = expression.evaluate(values, stack);
+            values[i] = x - h;
+            double below = expression.evaluate(values, stack);
+            values[i] = x;
+            derivatives[i] = (above - below) / (2 * h);
+        }
+        return derivatives[variables - 1];
+    }
+}
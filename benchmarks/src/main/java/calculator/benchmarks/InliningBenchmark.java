@@ -0,0 +1,160 @@
+/*
+Purpose: JMH benchmark of user defined functions against pasting their bodies into the text.
+Every formula is a sum of calls to a few helpers, such as hypot(u, v) = sqrt(sq(u) + sq(v)), with
+small expressions in x as arguments. inlined parses the calls against Definitions, expanded
+parses the same formulas with every call written out in full, the way they are repeated today.
+compile scores are for parsing the whole set and evaluate scores for evaluating it once
+*/
+
+package calculator.benchmarks;
+
+// Importing Libraries
+import calculator.CompiledExpression;
+import calculator.Definitions;
+import calculator.ExpressionParser;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InliningBenchmark {
+
+    private static final String[] DEFINITIONS = {
+        "sq(u) = u*u",
+        "hypot(u, v) = sqrt(sq(u) + sq(v))",
+        "wave(u) = sq(sin(u)) - sq(cos(u))",
+        "gauss(u) = 1/sqrt(2*pi) * 1/(1 + sq(u)/2 + sq(sq(u))/8)",
+    };
+
+    private static final String[] ARGUMENTS = {"x", "x*1.5+0.3", "ln(x+2)", "sqrt(x+1)*0.7", "x^2-x/3", "sin(x)+2"};
+
+    @Param({"1000"})
+    public int formulas;
+
+    // Calls summed in each formula
+    @Param({"4", "16"})
+    public int calls;
+
+    private String[] withCalls;
+    private String[] written;
+    private ExpressionParser inlinedParser;
+    private ExpressionParser expandedParser;
+    private CompiledExpression[] inlined;
+    private CompiledExpression[] expanded;
+    private double[] values = {0.8};
+    private double[] stack;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Definitions definitions = new Definitions();
+        for (String definition : DEFINITIONS) {
+            definitions.define(definition);
+        }
+        Random random = new Random(42);
+        withCalls = new String[formulas];
+        written = new String[formulas];
+        for (int i = 0; i < formulas; i++) {
+            StringBuilder call = new StringBuilder();
+            StringBuilder full = new StringBuilder();
+            for (int c = 0; c < calls; c++) {
+                if (c > 0) {
+                    call.append('+');
+                    full.append('+');
+                }
+                String a = ARGUMENTS[random.nextInt(ARGUMENTS.length)];
+                String b = ARGUMENTS[random.nextInt(ARGUMENTS.length)];
+                switch (random.nextInt(4)) {
+                    case 0:
+                        call.append("sq(").append(a).append(')');
+                        full.append(sq(a));
+                        break;
+                    case 1:
+                        call.append("hypot(").append(a).append(',').append(b).append(')');
+                        full.append("sqrt(").append(sq(a)).append('+').append(sq(b)).append(')');
+                        break;
+                    case 2:
+                        call.append("wave(").append(a).append(')');
+                        full.append(sq("sin(" + a + ")")).append('-').append(sq("cos(" + a + ")"));
+                        break;
+                    default:
+                        call.append("gauss(").append(a).append(')');
+                        full.append("1/sqrt(2*").append(Math.PI).append(")*1/(1+").append(sq(a)).append("/2+")
+                            .append(sq(sq(a))).append("/8)");
+                        break;
+                }
+            }
+            withCalls[i] = call.toString();
+            written[i] = full.toString();
+        }
+        inlinedParser = new ExpressionParser(definitions, "x");
+        expandedParser = new ExpressionParser("x");
+        inlined = new CompiledExpression[formulas];
+        expanded = new CompiledExpression[formulas];
+        int maxStack = 0;
+        for (int i = 0; i < formulas; i++) {
+            inlined[i] = inlinedParser.compile(withCalls[i]);
+            expanded[i] = expandedParser.compile(written[i]);
+            maxStack = Math.max(maxStack, Math.max(inlined[i].stackSize(), expanded[i].stackSize()));
+        }
+        stack = new double[maxStack];
+    }
+
+    // The body of sq written out around an argument
+    private static String sq(String argument) {
+        return "(" + argument + ")*(" + argument + ")";
+    }
+
+    @Benchmark
+    public int compileInlined() {
+        int operations = 0;
+        for (String formula : withCalls) {
+            operations += inlinedParser.compile(formula).operationCount();
+        }
+        return operations;
+    }
+
+    @Benchmark
+    public int compileExpanded() {
+        int operations = 0;
+        for (String formula : written) {
+            operations += expandedParser.compile(formula).operationCount();
+        }
+        return operations;
+    }
+
+    @Benchmark
+    public double evaluateInlined() {
+        double sum = 0;
+        for (CompiledExpression expression : inlined) {
+            sum += expression.evaluate(values, stack);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double evaluateExpanded() {
+        double sum = 0;
+        for (CompiledExpression expression : expanded) {
+            sum += expression.evaluate(values, stack);
+        }
+        return sum;
+    }
+}
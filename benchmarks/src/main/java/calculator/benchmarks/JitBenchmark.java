@@ -0,0 +1,87 @@
+/*
+Purpose: JMH benchmark of the three ways of evaluating an already parsed expression: the legacy
+computeExpression over RPN strings, the CompiledExpression interpreter, and bytecode generated by
+BytecodeGenerator. A small corpus is cycled through so the generated call site sees several classes
+*/
+
+package calculator.benchmarks;
+
+// Importing Libraries
+import calculator.Calculator;
+import calculator.CompiledExpression;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JitBenchmark {
+
+    private static final int CORPUS_SIZE = 8;
+
+    @Param({"16", "256"})
+    public int terms;
+
+    @Param({"BASIC", "MIXED"})
+    public ExpressionCorpus.Mix mix;
+
+    private List<String>[] rpn;
+    private CompiledExpression[] interpreted;
+    private CompiledExpression[] generated;
+    private final double[] stack = new double[4096];
+    private int next;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        String[] expressions = ExpressionCorpus.generate(CORPUS_SIZE, terms, 4, mix, 42);
+        rpn = new List[CORPUS_SIZE];
+        interpreted = new CompiledExpression[CORPUS_SIZE];
+        generated = new CompiledExpression[CORPUS_SIZE];
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            rpn[i] = Calculator.shuntingYard(Calculator.createExpression(expressions[i]));
+            interpreted[i] = CompiledExpression.compile(rpn[i]);
+            generated[i] = CompiledExpression.compile(rpn[i]);
+            if (!generated[i].generateCode()) {
+                throw new IllegalStateException("EXPRESSION TOO BIG TO GENERATE CODE FOR: " + expressions[i].length() + " CHARACTERS");
+            }
+        }
+    }
+
+    private int next() {
+        next = (next + 1) & (CORPUS_SIZE - 1);
+        return next;
+    }
+
+    @Benchmark
+    public double computeExpression() {
+        return Calculator.computeExpression(rpn[next()]);
+    }
+
+    @Benchmark
+    public double interpreter() {
+        return interpreted[next()].interpret(stack);
+    }
+
+    @Benchmark
+    public double generated() {
+        return generated[next()].evaluate(stack);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+Purpose: Load generator for the server mode (Calculator --serve port). Opens a number of
+connections on this host, keeps a fixed number of requests in flight on each of them, and
+reports requests per second with the p50, p99, and p99.9 latency of every request. Run with
+java -cp benchmarks/target/benchmarks.jar calculator.benchmarks.LoadGenerator --port n
+*/
+
+package calculator.benchmarks;
+
+// Importing Libraries
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public final class LoadGenerator {
+
+    // One connection with a thread sending requests and a thread reading the answers
+    private static final class Connection {
+        final Socket socket;
+        final String[] requests;
+        // Requests sent but not yet answered may not go past the pipeline depth
+        final Semaphore window;
+        final AtomicLongArray sent;
+        final long[] latencies;
+        long errors;
+
+        Connection(int port, String[] requests, int pipeline) throws IOException {
+            this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            this.socket.setTcpNoDelay(true);
+            this.requests = requests;
+            this.window = new Semaphore(pipeline);
+            this.sent = new AtomicLongArray(requests.length);
+            this.latencies = new long[requests.length];
+        }
+
+        void send() {
+            try {
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 1 << 13);
+                for (int i = 0; i < requests.length; i++) {
+                    // Flush what has been written before waiting for the window to open
+                    if (!window.tryAcquire()) {
+                        out.flush();
+                        window.acquireUninterruptibly();
+                    }
+                    sent.set(i, System.nanoTime());
+                    out.write(requests[i].getBytes(StandardCharsets.ISO_8859_1));
+                    out.write('\n');
+                }
+                out.flush();
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void receive() {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+                for (int i = 0; i < requests.length; i++) {
+                    String answer = in.readLine();
+                    if (answer == null) {
+                        throw new IOException("ERROR, THE SERVER CLOSED THE CONNECTION AFTER " + i + " ANSWERS.");
+                    }
+                    latencies[i] = System.nanoTime() - sent.get(i);
+                    window.release();
+                    if (answer.startsWith("ERROR")) {
+                        errors++;
+                    }
+                }
+                socket.close();
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private LoadGenerator() {
+    }
+
+    // Options: --port n [--connections n] [--requests per connection] [--pipeline depth]
+    // [--distinct expressions] [--terms n]
+    public static void main(String[] args) throws Exception {
+        int port = -1;
+        int connectionCount = 8;
+        int requestCount = 100000;
+        int pipeline = 16;
+        int distinct = 4096;
+        int terms = 16;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            int value = Integer.parseInt(args[i + 1]);
+            switch (args[i]) {
+                case "--port":
+                    port = value;
+                    break;
+                case "--connections":
+                    connectionCount = value;
+                    break;
+                case "--requests":
+                    requestCount = value;
+                    break;
+                case "--pipeline":
+                    pipeline = value;
+                    break;
+                case "--distinct":
+                    distinct = value;
+                    break;
+                case "--terms":
+                    terms = value;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (port < 0) {
+            System.out.println("USAGE: LoadGenerator --port n [--connections n] [--requests n] [--pipeline depth] [--distinct n] [--terms n]");
+            return;
+        }
+
+        // Every connection draws its requests from the same set of formulas
+        String[] expressions = ExpressionCorpus.generate(distinct, terms, 3, ExpressionCorpus.Mix.MIXED, 42);
+        Connection[] connections = new Connection[connectionCount];
+        for (int c = 0; c < connectionCount; c++) {
+            Random random = new Random(c);
+            String[] requests = new String[requestCount];
+            for (int i = 0; i < requestCount; i++) {
+                requests[i] = expressions[random.nextInt(distinct)];
+            }
+            connections[c] = new Connection(port, requests, pipeline);
+        }
+
+        Thread[] threads = new Thread[connectionCount * 2];
+        long start = System.nanoTime();
+        for (int c = 0; c < connectionCount; c++) {
+            threads[2 * c] = new Thread(connections[c]::send);
+            threads[2 * c + 1] = new Thread(connections[c]::receive);
+            threads[2 * c].start();
+            threads[2 * c + 1].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        // Latencies of every request on every connection, sorted for the percentiles
+        long total = (long) connectionCount * requestCount;
+        long[] latencies = new long[(int) total];
+        long errors = 0;
+        for (int c = 0; c < connectionCount; c++) {
+            System.arraycopy(connections[c].latencies, 0, latencies, c * requestCount, requestCount);
+            errors += connections[c].errors;
+        }
+        Arrays.sort(latencies);
+        System.out.printf("LOAD COMPLETE: %d requests over %d connections, pipeline %d, %d errors in %.3f s (%.0f requests/s)%n",
+            total, connectionCount, pipeline, errors, seconds, total / seconds);
+        System.out.printf("LATENCY: p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us%n",
+            percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 0.999), latencies[latencies.length - 1] / 1e3);
+    }
+
+    // Latency in microseconds that the given fraction of requests came in under
+    private static double percentile(long[] sorted, double fraction) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e3;
+    }
+}
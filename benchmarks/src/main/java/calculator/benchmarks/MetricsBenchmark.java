@@ -0,0 +1,88 @@
+/*
+Purpose: JMH benchmark of what Metrics costs. Every benchmark runs twice, in a fork with metrics
+off and in one started with -Dcalculator.metrics=true, over the cheapest calls there are: parsing
+and evaluating a short expression, and evaluating an already compiled expression of x and y
+*/
+
+package calculator.benchmarks;
+
+// Importing Libraries
+import calculator.CompiledExpression;
+import calculator.Evaluator;
+import calculator.ExpressionParser;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MetricsBenchmark {
+
+    private static final String METRICS_ON = "-Dcalculator.metrics=true";
+
+    // Distinct expressions cycled through, a power of two
+    private static final int CORPUS_SIZE = 16;
+
+    private String[] expressions;
+    private CompiledExpression compiled;
+    private final double[] values = new double[2];
+    private double[] stack;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        expressions = ExpressionCorpus.generate(CORPUS_SIZE, 8, 2, ExpressionCorpus.Mix.MIXED, 42);
+        compiled = new ExpressionParser("x", "y").compile("x*x + 2*x*y - y/3 + sqrt(x*x + y*y)");
+        stack = new double[compiled.stackSize()];
+    }
+
+    private String nextExpression() {
+        next = (next + 1) & (CORPUS_SIZE - 1);
+        return expressions[next];
+    }
+
+    private double[] nextValues() {
+        next++;
+        values[0] = next & 1023;
+        values[1] = 0.5 + (next & 255);
+        return values;
+    }
+
+    @Benchmark
+    @Fork(1)
+    public double parseAndEvaluate() {
+        return Evaluator.evaluate(nextExpression());
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = METRICS_ON)
+    public double parseAndEvaluateWithMetrics() {
+        return Evaluator.evaluate(nextExpression());
+    }
+
+    @Benchmark
+    @Fork(1)
+    public double evaluateCompiled() {
+        return compiled.evaluate(nextValues(), stack);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = METRICS_ON)
+    public double evaluateCompiledWithMetrics() {
+        return compiled.evaluate(nextValues(), stack);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+Purpose: JMH benchmark of ParallelEvaluator.evaluateAll over a fixed corpus with a growing number
+of threads, to check how close the speedup gets to the number of cores
+*/
+
+package calculator.benchmarks;
+
+// Importing Libraries
+import calculator.ParallelEvaluator;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelBenchmark {
+
+    @Param({"1", "2", "4", "8", "16", "32"})
+    public int threads;
+
+    @Param({"100000"})
+    public int expressions;
+
+    private List<String> corpus;
+    private ForkJoinPool pool;
+    private ParallelEvaluator evaluator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        corpus = Arrays.asList(ExpressionCorpus.generate(expressions, 32, 4, ExpressionCorpus.Mix.MIXED, 42));
+        pool = new ForkJoinPool(threads);
+        evaluator = new ParallelEvaluator(pool);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public ParallelEvaluator.Results evaluateAll() {
+        return evaluator.evaluateAll(corpus);
+    }
+}
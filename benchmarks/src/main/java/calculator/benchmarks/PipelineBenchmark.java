@@ -0,0 +1,126 @@
+/*
+Purpose: JMH benchmarks for each stage of the calculator pipeline and for end to end evaluation,
+over generated corpora that vary length, nesting depth, and operator mix. Run with -prof gc to
+see the allocation rate next to the throughput
+*/
+
+package calculator.benchmarks;
+
+// Importing Libraries
+import calculator.Calculator;
+import calculator.CompiledExpression;
+import calculator.ExpressionParser;
+import calculator.Optimizer;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+
+    // Number of distinct expressions cycled through, so one expression can't be learned by the branch predictor
+    private static final int CORPUS_SIZE = 16;
+
+    @Param({"16", "256", "2048"})
+    public int terms;
+
+    @Param({"1", "8"})
+    public int depth;
+
+    @Param({"BASIC", "TRIG", "LOG", "MIXED"})
+    public ExpressionCorpus.Mix mix;
+
+    private String[] expressions;
+    private List<String>[] tokens;
+    private List<String>[] rpn;
+    private CompiledExpression[] compiled;
+    private CompiledExpression[] optimized;
+    private int next;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        expressions = ExpressionCorpus.generate(CORPUS_SIZE, terms, depth, mix, 42);
+        tokens = new List[CORPUS_SIZE];
+        rpn = new List[CORPUS_SIZE];
+        compiled = new CompiledExpression[CORPUS_SIZE];
+        optimized = new CompiledExpression[CORPUS_SIZE];
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            tokens[i] = Calculator.createExpression(expressions[i]);
+            rpn[i] = Calculator.shuntingYard(tokens[i]);
+            compiled[i] = CompiledExpression.compile(rpn[i]);
+            optimized[i] = Optimizer.optimize(compiled[i]);
+        }
+    }
+
+    // Move to the next expression in the corpus
+    private int next() {
+        next = (next + 1) & (CORPUS_SIZE - 1);
+        return next;
+    }
+
+    @Benchmark
+    public List<String> createExpression() {
+        return Calculator.createExpression(expressions[next()]);
+    }
+
+    @Benchmark
+    public List<String> shuntingYard() {
+        return Calculator.shuntingYard(tokens[next()]);
+    }
+
+    @Benchmark
+    public double computeExpression() {
+        return Calculator.computeExpression(rpn[next()]);
+    }
+
+    @Benchmark
+    public double compiledEvaluate() {
+        return compiled[next()].evaluate();
+    }
+
+    @Benchmark
+    public CompiledExpression optimize() {
+        return Optimizer.optimize(compiled[next()]);
+    }
+
+    @Benchmark
+    public double optimizedEvaluate() {
+        return optimized[next()].evaluate();
+    }
+
+    @Benchmark
+    public CompiledExpression parse() {
+        return ExpressionParser.parse(expressions[next()]);
+    }
+
+    // The original pipeline from text to result
+    @Benchmark
+    public double endToEndLegacy() {
+        return Calculator.computeExpression(Calculator.shuntingYard(Calculator.createExpression(expressions[next()])));
+    }
+
+    // Text to result through the single pass parser
+    @Benchmark
+    public double endToEndParser() {
+        return ExpressionParser.parse(expressions[next()]).evaluate();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+Purpose: JMH benchmark of precision mode. The escalating evaluator, which tries double first and
+only redoes uncertain expressions in BigDecimal, is compared with plain double evaluation and
+with always evaluating in BigDecimal. Money style sums of two decimal amounts mostly stay on the
+double path at 12 digits, the mixed corpus with trig and log needs BigDecimal far more often
+*/
+
+package calculator.benchmarks;
+
+// Importing Libraries
+import calculator.CompiledExpression;
+import calculator.ExpressionParser;
+import calculator.PreciseEvaluator;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrecisionBenchmark {
+
+    private static final int COUNT = 1024;
+    private static final double[] NO_VARIABLES = new double[0];
+
+    // Significant digits of the MathContext
+    @Param({"12", "34"})
+    public int digits;
+
+    @Param({"MONEY", "MIXED"})
+    public String corpus;
+
+    private CompiledExpression[] expressions;
+    private PreciseEvaluator evaluator;
+    private double[] stack;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        evaluator = new PreciseEvaluator(new MathContext(digits));
+        String[] candidates = corpus.equals("MONEY") ? money(COUNT, 42)
+            : ExpressionCorpus.generate(COUNT * 4, 8, 2, ExpressionCorpus.Mix.MIXED, 42);
+        // Keep only expressions with an answer, so every path does the same work
+        List<CompiledExpression> kept = new ArrayList<>();
+        int stackSize = 0;
+        for (int i = 0; i < candidates.length && kept.size() < COUNT; i++) {
+            CompiledExpression compiled = ExpressionParser.parse(candidates[i]);
+            try {
+                evaluator.exact(compiled, NO_VARIABLES);
+            }
+            catch (ArithmeticException e) {
+                continue;
+            }
+            kept.add(compiled);
+            stackSize = Math.max(stackSize, compiled.stackSize());
+        }
+        expressions = kept.toArray(new CompiledExpression[0]);
+        stack = new double[stackSize];
+        // Report how often this corpus needs BigDecimal
+        for (CompiledExpression expression : expressions) {
+            evaluator.evaluate(expression, NO_VARIABLES);
+        }
+        System.out.printf("%n%d expressions, %d answered in double, %d escalated to BigDecimal%n",
+            expressions.length, evaluator.fastCount(), evaluator.escalatedCount());
+    }
+
+    // Amounts with two decimals added, subtracted, and multiplied by rates
+    private static String[] money(int count, long seed) {
+        Random random = new Random(seed);
+        String[] expressions = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder out = new StringBuilder(amount(random));
+            for (int term = 0; term < 6; term++) {
+                switch (random.nextInt(3)) {
+                    case 0:
+                        out.append('+').append(amount(random));
+                        break;
+                    case 1:
+                        out.append('-').append(amount(random));
+                        break;
+                    default:
+                        out.append('*').append(BigDecimal.valueOf(random.nextInt(2000), 3).toPlainString());
+                        break;
+                }
+            }
+            expressions[i] = out.toString();
+        }
+        return expressions;
+    }
+
+    private static String amount(Random random) {
+        return BigDecimal.valueOf(random.nextInt(10000000), 2).toPlainString();
+    }
+
+    private CompiledExpression nextExpression() {
+        next = (next + 1) & (COUNT - 1);
+        return expressions[next % expressions.length];
+    }
+
+    @Benchmark
+    public double pureDouble() {
+        return nextExpression().evaluate(stack);
+    }
+
+    @Benchmark
+    public BigDecimal escalating() {
+        return evaluator.evaluate(nextExpression(), NO_VARIABLES);
+    }
+
+    @Benchmark
+    public BigDecimal pureBigDecimal() {
+        return evaluator.exact(nextExpression(), NO_VARIABLES);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+Purpose: Time to ready for a large formula library, parsed the way a restart does it today, with
+createExpression and shuntingYard or the single pass parser, against opening an ExpressionStore
+that was written on an earlier run. Ready means every formula can be evaluated, so the time for
+a first pass over all of them is printed next to each. Run with
+java -cp benchmarks/target/benchmarks.jar calculator.benchmarks.StoreStartup [formulas] [store file]
+*/
+
+package calculator.benchmarks;
+
+// Importing Libraries
+import calculator.Calculator;
+import calculator.CompiledExpression;
+import calculator.ExpressionParser;
+import calculator.ExpressionStore;
+import calculator.Optimizer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+public final class StoreStartup {
+
+    private static final int TERMS = 8;
+    private static final int DEPTH = 2;
+
+    // A sink for the sums of the evaluation passes
+    static double blackhole;
+
+    private StoreStartup() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int formulas = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path file = Paths.get(args.length > 1 ? args[1] : "target/formulas.store");
+        String[] library = ExpressionCorpus.generate(formulas, TERMS, DEPTH, ExpressionCorpus.Mix.MIXED, 42);
+        System.out.printf("STORE STARTUP: %d formulas of %d terms%n", formulas, TERMS);
+
+        long start = System.nanoTime();
+        CompiledExpression[] fromTokens = new CompiledExpression[formulas];
+        for (int i = 0; i < formulas; i++) {
+            fromTokens[i] = CompiledExpression.compile(Calculator.shuntingYard(Calculator.createExpression(library[i])));
+        }
+        report("shuntingYard", start, evaluate(fromTokens));
+        fromTokens = null;
+
+        start = System.nanoTime();
+        ExpressionParser parser = new ExpressionParser();
+        CompiledExpression[] parsed = new CompiledExpression[formulas];
+        for (int i = 0; i < formulas; i++) {
+            parsed[i] = Optimizer.optimize(parser.compile(library[i]));
+        }
+        report("single pass parser", start, evaluate(parsed));
+        parsed = null;
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        start = System.nanoTime();
+        ExpressionStore.write(file, Arrays.asList(library));
+        System.out.printf("%-20s %8.0f ms, %d bytes%n", "write store", (System.nanoTime() - start) / 1e6, Files.size(file));
+
+        // The library is only needed if the file can't be used, which a fresh file always can
+        start = System.nanoTime();
+        ExpressionStore store = ExpressionStore.open(file, () -> Arrays.asList(library));
+        report("open store", start, evaluate(store));
+        start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < formulas; i += 10) {
+            found += store.find(library[i]) == i ? 1 : 0;
+        }
+        System.out.printf("%-20s %8.0f ns per lookup, %d of %d found%n", "find", (System.nanoTime() - start) / (double) found,
+            found, (formulas + 9) / 10);
+    }
+
+    // Evaluate every formula once and return the milliseconds taken
+    private static double evaluate(CompiledExpression[] compiled) {
+        double[] stack = new double[64];
+        long start = System.nanoTime();
+        double sum = 0;
+        for (CompiledExpression expression : compiled) {
+            if (expression.stackSize() > stack.length) {
+                stack = new double[expression.stackSize()];
+            }
+            sum += evaluateOne(expression, stack);
+        }
+        blackhole += sum;
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    private static double evaluate(ExpressionStore store) {
+        double[] stack = new double[store.stackSize()];
+        long start = System.nanoTime();
+        double sum = 0;
+        for (int i = 0; i < store.size(); i++) {
+            try {
+                sum += store.evaluate(i, stack);
+            }
+            catch (ArithmeticException e) {
+                sum += 1;
+            }
+        }
+        blackhole += sum;
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    private static double evaluateOne(CompiledExpression expression, double[] stack) {
+        try {
+            return expression.evaluate(stack);
+        }
+        catch (ArithmeticException e) {
+            return 1;
+        }
+    }
+
+    // Print the time since start, which includes the evaluation pass, and the pass on its own
+    private static void report(String form, long start, double evaluateMillis) {
+        System.out.printf("%-20s %8.0f ms to ready, %.0f ms of it evaluating every formula once%n", form,
+            (System.nanoTime() - start) / 1e6, evaluateMillis);
+    }
+}
@@ -0,0 +1,47 @@
+#!/usr/bin/env bash
+# Purpose: Startup benchmark of the one-shot command line. Builds the AppCDS archive with a
+# training run, then starts the calculator RUNS times in each configuration and prints the
+# average wall time per invocation, the classes loaded, and how many of those were not in a
+# shared archive and had to be read and verified. Run from the project root after mvn package with
+#   benchmarks/startup.sh [runs] [expression]
+
+set -euo pipefail
+
+RUNS=${1:-20}
+EXPRESSION=${2:-"(1+7)/8^9+sin(1)"}
+JAR=source_code_sanchez_jose/target/calculator-1.0-SNAPSHOT.jar
+ARCHIVE=source_code_sanchez_jose/target/calculator.jsa
+
+# Flags that suit a JVM that lives for one expression: no second JIT tier, the simplest
+# collector, and no shared memory file for jstat
+QUICK="-XX:TieredStopAtLevel=1 -XX:+UseSerialGC -XX:-UsePerfData"
+
+if [ ! -f "$JAR" ]; then
+    echo "ERROR, $JAR IS MISSING, RUN mvn package FIRST." >&2
+    exit 1
+fi
+
+# Dump every class a one-shot run loads, on top of the JDK's own archive
+java -XX:ArchiveClassesAtExit="$ARCHIVE" -cp "$JAR" calculator.Calculator "$EXPRESSION" > /dev/null
+echo "ARCHIVE: $ARCHIVE ($(du -k "$ARCHIVE" | cut -f1) KB)"
+
+run() {
+    local name=$1
+    shift
+    local started ended loaded unarchived
+    started=$(date +%s%N)
+    for ((i = 0; i < RUNS; i++)); do
+        java "$@" -cp "$JAR" calculator.Calculator "$EXPRESSION" > /dev/null
+    done
+    ended=$(date +%s%N)
+    loaded=$(java "$@" -Xlog:class+load -cp "$JAR" calculator.Calculator "$EXPRESSION" | grep -c "source:" || true)
+    unarchived=$(java "$@" -Xlog:class+load -cp "$JAR" calculator.Calculator "$EXPRESSION" | grep "source:" | grep -vc "shared objects file" || true)
+    awk -v name="$name" -v nanos=$((ended - started)) -v runs="$RUNS" -v loaded="$loaded" -v unarchived="$unarchived" \
+        'BEGIN { printf "%-10s %7.1f ms %6d classes %5d not archived\n", name, nanos / runs / 1e6, loaded, unarchived }'
+}
+
+echo "STARTUP: $RUNS runs of $EXPRESSION"
+run "default"
+run "quick" $QUICK
+run "cds" -XX:SharedArchiveFile="$ARCHIVE"
+run "cds+quick" -XX:SharedArchiveFile="$ARCHIVE" $QUICK
@@ -0,0 +1,214 @@
+/*
+Purpose: Non interactive batch mode. Reads one expression per line through a buffered file
+channel, evaluates each line, and streams one result per line to the output. A bad line is
+reported in its place in the output and the run carries on
+*/
+
+package calculator;
+
+// Importing Libraries
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+public final class BatchEvaluator {
+
+    // Size of the read buffer, memory use stays at this plus the longest line
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+
+    // Lines handed to a worker at a time in parallel runs
+    private static final int PARALLEL_CHUNK = 4096;
+
+    // Totals for a finished run
+    public static final class Summary {
+        public final long lines;
+        public final long blanks;
+        public final long failures;
+        public final long bytes;
+        public final long nanos;
+
+        Summary(long lines, long blanks, long failures, long bytes, long nanos) {
+            this.lines = lines;
+            this.blanks = blanks;
+            this.failures = failures;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = nanos / 1e9;
+            return String.format("BATCH COMPLETE: %d lines, %d evaluated, %d failed, %d blank in %.3f s (%.0f lines/s, %.1f MB/s)",
+                lines, lines - failures - blanks, failures, blanks, seconds, lines / seconds, bytes / 1e6 / seconds);
+        }
+    }
+
+    private final ExpressionParser parser = new ExpressionParser();
+    private final ExpressionCache cache;
+    private char[] line = new char[256];
+    private CharBuffer lineView = CharBuffer.wrap(line);
+    private int lineLength;
+
+    private long lines;
+    private long blanks;
+    private long failures;
+
+    // run function evaluates every line of input and writes the results to output, or to
+    // standard output when output is null
+    public static Summary run(Path input, Path output) throws IOException {
+        return run(input, output, 1, null);
+    }
+
+    // run function with more than one thread spreads the lines across a fork join pool, the
+    // output is still in input order. With a cache, repeated lines skip parsing
+    public static Summary run(Path input, Path output, int threads, ExpressionCache cache) throws IOException {
+        BatchEvaluator batch = new BatchEvaluator(cache);
+        if (threads > 1) {
+            return batch.evaluateFileInParallel(input, output, threads);
+        }
+        return batch.evaluateFile(input, output);
+    }
+
+    private BatchEvaluator(ExpressionCache cache) {
+        this.cache = cache;
+    }
+
+    private Summary evaluateFile(Path input, Path output) throws IOException {
+        long start = System.nanoTime();
+        long bytes = 0;
+        Writer writer = openWriter(output);
+
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                bytes += buffer.remaining();
+                // Split the chunk into lines, a line cut off at the end of the chunk carries over
+                while (buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    if (b == '\n') {
+                        evaluateLine(writer);
+                    }
+                    else {
+                        append((char) (b & 0xff));
+                    }
+                }
+                buffer.clear();
+            }
+            // The last line may not end with a newline
+            if (lineLength > 0) {
+                evaluateLine(writer);
+            }
+        }
+        finally {
+            writer.flush();
+            if (output != null) {
+                writer.close();
+            }
+        }
+        return new Summary(lines, blanks, failures, bytes, System.nanoTime() - start);
+    }
+
+    private Summary evaluateFileInParallel(Path input, Path output, int threads) throws IOException {
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Writer writer = openWriter(output);
+
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.ISO_8859_1)) {
+            new ParallelEvaluator(pool, cache).evaluateAll(reader.lines().iterator(), PARALLEL_CHUNK,
+                (index, expression, value, error) -> {
+                    try {
+                        lines++;
+                        writeResult(writer, expression, value, error);
+                    }
+                    catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        finally {
+            pool.shutdown();
+            writer.flush();
+            if (output != null) {
+                writer.close();
+            }
+        }
+        return new Summary(lines, blanks, failures, Files.size(input), System.nanoTime() - start);
+    }
+
+    // Write the result for one line, blank lines stay blank so the output lines up with the input
+    private void writeResult(Writer writer, CharSequence expression, double value, String error) throws IOException {
+        if (isBlank(expression)) {
+            blanks++;
+        }
+        else if (error != null) {
+            failures++;
+            writer.write("ERROR LINE " + lines + ": " + error);
+        }
+        else {
+            writer.write(Double.toString(value));
+        }
+        writer.write('\n');
+    }
+
+    private static Writer openWriter(Path output) throws IOException {
+        return output == null
+            ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16)
+            : Files.newBufferedWriter(output, StandardCharsets.UTF_8);
+    }
+
+    // Evaluate the collected line and write its result
+    private void evaluateLine(Writer writer) throws IOException {
+        lines++;
+        lineView.clear().limit(lineLength);
+        lineLength = 0;
+
+        // Blank lines are skipped without being parsed
+        if (isBlank(lineView)) {
+            writeResult(writer, lineView, 0, null);
+            return;
+        }
+        try {
+            CompiledExpression compiled = cache != null ? cache.get(lineView.toString()) : parser.compile(lineView);
+            double result = compiled.evaluate();
+            writeResult(writer, lineView, result, null);
+        }
+        // Report the error in place of the result and keep going
+        catch (IllegalArgumentException | ArithmeticException e) {
+            Metrics.error(e);
+            writeResult(writer, lineView, Double.NaN, e.getMessage());
+        }
+    }
+
+    private void append(char c) {
+        if (lineLength == line.length) {
+            line = Arrays.copyOf(line, lineLength * 2);
+            lineView = CharBuffer.wrap(line);
+        }
+        line[lineLength++] = c;
+    }
+
+    private static boolean isBlank(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,324 @@
+/*
+Purpose: The calculator's functions for BigDecimal, computed with series to any precision. Each
+function works with a few guard digits past the MathContext it is given, so callers round the
+result once at the end. Arguments outside a function's domain throw EvaluationException, since
+BigDecimal has no infinity or NaN
+*/
+
+package calculator;
+
+// Importing Libraries
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.concurrent.ConcurrentHashMap;
+
+final class BigDecimalMath {
+
+    // Digits carried past the requested precision while a function is computed
+    private static final int GUARD_DIGITS = 10;
+
+    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+    private static final BigDecimal TEN = BigDecimal.TEN;
+
+    // pi and ln(10) are reused for every call at the same precision
+    private static final ConcurrentHashMap<Integer, BigDecimal> PI = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, BigDecimal> LN_10 = new ConcurrentHashMap<>();
+
+    private BigDecimalMath() {
+    }
+
+    // Working precision for a call made at precision mc
+    private static MathContext working(MathContext mc, int extra) {
+        return new MathContext(mc.getPrecision() + GUARD_DIGITS + extra, RoundingMode.HALF_EVEN);
+    }
+
+    // Smallest term worth adding to a series summed at precision wc
+    private static BigDecimal epsilon(MathContext wc) {
+        return BigDecimal.ONE.movePointLeft(wc.getPrecision() + 1);
+    }
+
+    static EvaluationException notANumber() {
+        return new EvaluationException("EXPRESSION IS NOT POSSIBLE, ENDED UP AS NOT A NUMBER.");
+    }
+
+    static EvaluationException divideByZero() {
+        return new EvaluationException("ERROR! CANNOT DIVIDE BY ZERO!");
+    }
+
+    // pi from Machin's formula, 16 arctan(1/5) - 4 arctan(1/239)
+    static BigDecimal pi(MathContext mc) {
+        return PI.computeIfAbsent(mc.getPrecision(), precision -> {
+            MathContext wc = working(mc, 0);
+            BigDecimal a = arctanOfReciprocal(5, wc).multiply(BigDecimal.valueOf(16), wc);
+            BigDecimal b = arctanOfReciprocal(239, wc).multiply(BigDecimal.valueOf(4), wc);
+            return a.subtract(b, wc);
+        });
+    }
+
+    // arctan(1/n) = 1/n - 1/(3n^3) + 1/(5n^5) - ...
+    private static BigDecimal arctanOfReciprocal(int n, MathContext wc) {
+        BigDecimal epsilon = epsilon(wc);
+        BigDecimal nSquared = BigDecimal.valueOf((long) n * n);
+        BigDecimal power = BigDecimal.ONE.divide(BigDecimal.valueOf(n), wc);
+        BigDecimal sum = power;
+        for (int k = 1; ; k++) {
+            power = power.divide(nSquared, wc);
+            BigDecimal term = power.divide(BigDecimal.valueOf(2L * k + 1), wc);
+            if (term.compareTo(epsilon) < 0) {
+                return sum;
+            }
+            sum = (k & 1) == 1 ? sum.subtract(term, wc) : sum.add(term, wc);
+        }
+    }
+
+    static BigDecimal sin(BigDecimal x, MathContext mc) {
+        MathContext wc = working(mc, Math.max(0, magnitude(x)));
+        return sinOfReduced(reduce(x, wc), wc);
+    }
+
+    static BigDecimal cos(BigDecimal x, MathContext mc) {
+        MathContext wc = working(mc, Math.max(0, magnitude(x)));
+        return cosOfReduced(reduce(x, wc), wc);
+    }
+
+    static BigDecimal tan(BigDecimal x, MathContext mc) {
+        MathContext wc = working(mc, Math.max(0, magnitude(x)));
+        BigDecimal reduced = reduce(x, wc);
+        BigDecimal cos = cosOfReduced(reduced, wc);
+        if (cos.signum() == 0) {
+            throw divideByZero();
+        }
+        return sinOfReduced(reduced, wc).divide(cos, wc);
+    }
+
+    // cot is 1 / tan, like the double version
+    static BigDecimal cot(BigDecimal x, MathContext mc) {
+        MathContext wc = working(mc, Math.max(0, magnitude(x)));
+        BigDecimal reduced = reduce(x, wc);
+        BigDecimal sin = sinOfReduced(reduced, wc);
+        if (sin.signum() == 0) {
+            throw divideByZero();
+        }
+        return cosOfReduced(reduced, wc).divide(sin, wc);
+    }
+
+    // Bring x into [-pi, pi], large arguments need as many extra digits of pi as they have
+    // digits before the point, which working already added
+    private static BigDecimal reduce(BigDecimal x, MathContext wc) {
+        BigDecimal pi = pi(wc);
+        if (x.abs().compareTo(pi) <= 0) {
+            return x;
+        }
+        BigDecimal twoPi = pi.multiply(TWO, wc);
+        BigDecimal turns = x.divide(twoPi, wc).setScale(0, RoundingMode.HALF_EVEN);
+        return x.subtract(twoPi.multiply(turns, wc), wc);
+    }
+
+    // sin(x) = x - x^3/3! + x^5/5! - ...
+    private static BigDecimal sinOfReduced(BigDecimal x, MathContext wc) {
+        BigDecimal epsilon = epsilon(wc);
+        BigDecimal xSquared = x.multiply(x, wc);
+        BigDecimal term = x;
+        BigDecimal sum = x;
+        for (int k = 1; term.abs().compareTo(epsilon) >= 0; k++) {
+            term = term.multiply(xSquared, wc).divide(BigDecimal.valueOf((2L * k) * (2L * k + 1)), wc).negate();
+            sum = sum.add(term, wc);
+        }
+        return sum;
+    }
+
+    // cos(x) = 1 - x^2/2! + x^4/4! - ...
+    private static BigDecimal cosOfReduced(BigDecimal x, MathContext wc) {
+        BigDecimal epsilon = epsilon(wc);
+        BigDecimal xSquared = x.multiply(x, wc);
+        BigDecimal term = BigDecimal.ONE;
+        BigDecimal sum = BigDecimal.ONE;
+        for (int k = 1; term.abs().compareTo(epsilon) >= 0; k++) {
+            term = term.multiply(xSquared, wc).divide(BigDecimal.valueOf((2L * k - 1) * (2L * k)), wc).negate();
+            sum = sum.add(term, wc);
+        }
+        return sum;
+    }
+
+    static BigDecimal arctan(BigDecimal x, MathContext mc) {
+        return arctanAt(x, working(mc, 0));
+    }
+
+    // arccot is pi/2 - arctan, like the double version
+    static BigDecimal arccot(BigDecimal x, MathContext mc) {
+        MathContext wc = working(mc, 0);
+        return halfPi(wc).subtract(arctanAt(x, wc), wc);
+    }
+
+    static BigDecimal arcsin(BigDecimal x, MathContext mc) {
+        return arcsinAt(x, working(mc, 0));
+    }
+
+    // arccos(x) = pi/2 - arcsin(x), worked out with one pi so arccos(1) is exactly 0
+    static BigDecimal arccos(BigDecimal x, MathContext mc) {
+        MathContext wc = working(mc, 0);
+        return halfPi(wc).subtract(arcsinAt(x, wc), wc);
+    }
+
+    // The inverse functions below work at precision wc without adding guard digits of their own,
+    // so the pi/2 they share cancels exactly
+
+    private static BigDecimal halfPi(MathContext wc) {
+        return pi(wc).divide(TWO, wc);
+    }
+
+    // arctan(x) = +-pi/2 - arctan(1/x) keeps the series argument at most 1
+    private static BigDecimal arctanAt(BigDecimal x, MathContext wc) {
+        if (x.abs().compareTo(BigDecimal.ONE) > 0) {
+            BigDecimal inner = arctanOfSmall(BigDecimal.ONE.divide(x, wc), wc);
+            return (x.signum() > 0 ? halfPi(wc) : halfPi(wc).negate()).subtract(inner, wc);
+        }
+        return arctanOfSmall(x, wc);
+    }
+
+    // arcsin(x) = arctan(x / sqrt(1 - x^2))
+    private static BigDecimal arcsinAt(BigDecimal x, MathContext wc) {
+        int side = x.abs().compareTo(BigDecimal.ONE);
+        if (side > 0) {
+            throw notANumber();
+        }
+        if (side == 0) {
+            return x.signum() > 0 ? halfPi(wc) : halfPi(wc).negate();
+        }
+        BigDecimal root = BigDecimal.ONE.subtract(x.multiply(x, wc), wc).sqrt(wc);
+        return arctanAt(x.divide(root, wc), wc);
+    }
+
+    // arctan(x) = 2 arctan(x / (1 + sqrt(1 + x^2))) halves the argument until the series
+    // x - x^3/3 + x^5/5 - ... converges quickly
+    private static BigDecimal arctanOfSmall(BigDecimal x, MathContext wc) {
+        BigDecimal limit = new BigDecimal("0.1");
+        int doublings = 0;
+        while (x.abs().compareTo(limit) > 0) {
+            x = x.divide(BigDecimal.ONE.add(BigDecimal.ONE.add(x.multiply(x, wc), wc).sqrt(wc), wc), wc);
+            doublings++;
+        }
+        BigDecimal epsilon = epsilon(wc);
+        BigDecimal xSquared = x.multiply(x, wc);
+        BigDecimal power = x;
+        BigDecimal sum = x;
+        for (int k = 1; ; k++) {
+            power = power.multiply(xSquared, wc).negate();
+            BigDecimal term = power.divide(BigDecimal.valueOf(2L * k + 1), wc);
+            if (term.abs().compareTo(epsilon) < 0) {
+                break;
+            }
+            sum = sum.add(term, wc);
+        }
+        return sum.multiply(TWO.pow(doublings), wc);
+    }
+
+    static BigDecimal sqrt(BigDecimal x, MathContext mc) {
+        if (x.signum() < 0) {
+            throw notANumber();
+        }
+        return x.sqrt(working(mc, 0));
+    }
+
+    // ln(m * 10^k) = ln(m) + k ln(10) with m in [1, 10)
+    static BigDecimal ln(BigDecimal x, MathContext mc) {
+        if (x.signum() <= 0) {
+            throw notANumber();
+        }
+        int k = magnitude(x);
+        MathContext wc = working(mc, Math.max(0, String.valueOf(Math.abs(k)).length()));
+        BigDecimal lnM = lnNearOne(x.movePointLeft(k), wc);
+        return k == 0 ? lnM : lnM.add(ln10(wc).multiply(BigDecimal.valueOf(k), wc), wc);
+    }
+
+    static BigDecimal log10(BigDecimal x, MathContext mc) {
+        MathContext wc = working(mc, 0);
+        return ln(x, wc).divide(ln10(wc), wc);
+    }
+
+    private static BigDecimal ln10(MathContext wc) {
+        return LN_10.computeIfAbsent(wc.getPrecision(), precision -> lnNearOne(TEN, wc));
+    }
+
+    // Square roots bring m close to 1, ln(m) = 2^j ln(m^(1/2^j)), then
+    // ln(y) = 2 (z + z^3/3 + z^5/5 + ...) with z = (y - 1) / (y + 1)
+    private static BigDecimal lnNearOne(BigDecimal m, MathContext wc) {
+        if (m.compareTo(BigDecimal.ONE) == 0) {
+            return BigDecimal.ZERO;
+        }
+        BigDecimal limit = new BigDecimal("1.1");
+        BigDecimal lower = BigDecimal.ONE.divide(limit, wc);
+        int roots = 0;
+        while (m.compareTo(limit) > 0 || m.compareTo(lower) < 0) {
+            m = m.sqrt(wc);
+            roots++;
+        }
+        BigDecimal z = m.subtract(BigDecimal.ONE, wc).divide(m.add(BigDecimal.ONE, wc), wc);
+        BigDecimal zSquared = z.multiply(z, wc);
+        BigDecimal epsilon = epsilon(wc);
+        BigDecimal power = z;
+        BigDecimal sum = z;
+        for (int k = 1; ; k++) {
+            power = power.multiply(zSquared, wc);
+            BigDecimal term = power.divide(BigDecimal.valueOf(2L * k + 1), wc);
+            if (term.abs().compareTo(epsilon) < 0) {
+                break;
+            }
+            sum = sum.add(term, wc);
+        }
+        return sum.multiply(TWO.pow(roots + 1), wc);
+    }
+
+    // x^y, exact repeated multiplication for whole exponents and exp(y ln x) otherwise
+    static BigDecimal pow(BigDecimal x, BigDecimal y, MathContext mc) {
+        MathContext wc = working(mc, 0);
+        if (isWhole(y) && y.abs().compareTo(BigDecimal.valueOf(999999999)) <= 0) {
+            int n = y.intValueExact();
+            if (x.signum() == 0) {
+                if (n < 0) {
+                    throw divideByZero();
+                }
+                return n == 0 ? BigDecimal.ONE : BigDecimal.ZERO;
+            }
+            return x.pow(n, wc);
+        }
+        if (x.signum() < 0) {
+            throw notANumber();
+        }
+        if (x.signum() == 0) {
+            if (y.signum() < 0) {
+                throw divideByZero();
+            }
+            return BigDecimal.ZERO;
+        }
+        return exp(y.multiply(ln(x, wc), wc), wc);
+    }
+
+    // exp(x) = exp(x / 2^j)^(2^j), with the small argument summed as 1 + x + x^2/2! + ...
+    static BigDecimal exp(BigDecimal x, MathContext mc) {
+        int halvings = Math.max(0, magnitude(x) * 4 + 8);
+        MathContext wc = working(mc, halvings / 3 + 1);
+        BigDecimal reduced = x.divide(TWO.pow(halvings), wc);
+        BigDecimal epsilon = epsilon(wc);
+        BigDecimal term = BigDecimal.ONE;
+        BigDecimal sum = BigDecimal.ONE;
+        for (int k = 1; term.abs().compareTo(epsilon) >= 0; k++) {
+            term = term.multiply(reduced, wc).divide(BigDecimal.valueOf(k), wc);
+            sum = sum.add(term, wc);
+        }
+        for (int i = 0; i < halvings; i++) {
+            sum = sum.multiply(sum, wc);
+        }
+        return sum;
+    }
+
+    static boolean isWhole(BigDecimal x) {
+        return x.signum() == 0 || x.scale() <= 0 || x.stripTrailingZeros().scale() <= 0;
+    }
+
+    // Power of ten of the leading digit, 0 for numbers in [1, 10) and for zero
+    static int magnitude(BigDecimal x) {
+        return x.signum() == 0 ? 0 : x.precision() - x.scale() - 1;
+    }
+}
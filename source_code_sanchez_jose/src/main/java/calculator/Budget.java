@@ -0,0 +1,182 @@
+/*
+Purpose: Limits on how much work one evaluation may take, so a pathological expression sent to a
+server can't hold a worker for long. A budget caps the input length, the number of tokens, how
+deep operators and brackets may nest, the number of operations in the program, and the wall clock
+time. A budget is immutable and can be shared, start gives the Ticket for one evaluation, which
+carries its deadline and can be cancelled from another thread. Going over a limit throws
+BudgetExceededException. The limits are checked where the parser already does work, a compare per
+operator or bracket, and the clock is only read at the start and after every block of tokens the
+lexer fills, so a budget costs almost nothing on expressions that stay inside it
+*/
+
+package calculator;
+
+public final class Budget {
+
+    // No limits at all, the same as evaluating without a budget
+    public static final Budget UNLIMITED = new Budget(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE,
+        Integer.MAX_VALUE, Long.MAX_VALUE);
+
+    final int maxLength;
+    final int maxTokens;
+    final int maxDepth;
+    final int maxOperations;
+    final long timeoutNanos;
+
+    private Budget(int maxLength, int maxTokens, int maxDepth, int maxOperations, long timeoutNanos) {
+        this.maxLength = maxLength;
+        this.maxTokens = maxTokens;
+        this.maxDepth = maxDepth;
+        this.maxOperations = maxOperations;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    // Longest expression accepted, in characters
+    public Budget withMaxLength(int characters) {
+        return new Budget(positive(characters, "LENGTH"), maxTokens, maxDepth, maxOperations, timeoutNanos);
+    }
+
+    // Most numbers, variables, operators, and brackets an expression may have
+    public Budget withMaxTokens(int tokens) {
+        return new Budget(maxLength, positive(tokens, "TOKEN COUNT"), maxDepth, maxOperations, timeoutNanos);
+    }
+
+    // Most operators and brackets that may be waiting on each other at once, which bounds
+    // ([{...}]) nesting, towers of ^ and chains of functions or unary minus alike
+    public Budget withMaxDepth(int depth) {
+        return new Budget(maxLength, maxTokens, positive(depth, "DEPTH"), maxOperations, timeoutNanos);
+    }
+
+    // Most operations the compiled program may run. Programs have no loops, so this also
+    // bounds the time evaluating it takes
+    public Budget withMaxOperations(int operations) {
+        return new Budget(maxLength, maxTokens, maxDepth, positive(operations, "OPERATION COUNT"), timeoutNanos);
+    }
+
+    // Wall clock time from start until the evaluation has to be finished
+    public Budget withTimeoutNanos(long nanos) {
+        return new Budget(maxLength, maxTokens, maxDepth, maxOperations, positive(nanos, "TIMEOUT"));
+    }
+
+    public int maxLength() {
+        return maxLength;
+    }
+
+    public int maxTokens() {
+        return maxTokens;
+    }
+
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    public int maxOperations() {
+        return maxOperations;
+    }
+
+    public long timeoutNanos() {
+        return timeoutNanos;
+    }
+
+    // start function begins one evaluation under this budget, its deadline counts from now
+    public Ticket start() {
+        return new Ticket(this);
+    }
+
+    private static long positive(long limit, String name) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("ERROR, THE " + name + " LIMIT MUST BE AT LEAST 1.");
+        }
+        return limit;
+    }
+
+    private static int positive(int limit, String name) {
+        return (int) positive((long) limit, name);
+    }
+
+    @Override
+    public String toString() {
+        return "BUDGET: length " + limitText(maxLength) + ", tokens " + limitText(maxTokens) + ", depth " + limitText(maxDepth)
+            + ", operations " + limitText(maxOperations)
+            + ", timeout " + (timeoutNanos == Long.MAX_VALUE ? "none" : millis(timeoutNanos) + " ms");
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+
+    private static String limitText(int limit) {
+        return limit == Integer.MAX_VALUE ? "none" : Integer.toString(limit);
+    }
+
+    // One evaluation under a budget. cancel may be called from any thread, the evaluation
+    // notices at its next check and throws
+    public static final class Ticket {
+
+        final Budget budget;
+        private final boolean timed;
+        private final long deadline;
+        private volatile boolean cancelled;
+
+        private Ticket(Budget budget) {
+            this.budget = budget;
+            this.timed = budget.timeoutNanos != Long.MAX_VALUE;
+            this.deadline = timed ? System.nanoTime() + budget.timeoutNanos : 0;
+        }
+
+        public Budget budget() {
+            return budget;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        // check function throws once the evaluation was cancelled or ran past its deadline,
+        // offset says how far into the expression it had got
+        void check(long offset) {
+            checkCancelled(offset);
+            checkDeadline(offset);
+        }
+
+        // A volatile read, cheap enough to do where reading the clock would not be
+        void checkCancelled(long offset) {
+            if (cancelled) {
+                throw new BudgetExceededException(BudgetExceededException.Limit.CANCELLED, "THE EVALUATION WAS CANCELLED", offset);
+            }
+        }
+
+        void checkDeadline(long offset) {
+            // Compared as a difference, nanoTime may wrap around
+            if (timed && System.nanoTime() - deadline > 0) {
+                throw new BudgetExceededException(BudgetExceededException.Limit.DEADLINE,
+                    "THE EVALUATION RAN PAST ITS DEADLINE OF " + millis(budget.timeoutNanos) + " MS", offset);
+            }
+        }
+
+        // Reject an expression longer than the budget before any of it is read
+        void checkLength(int length) {
+            if (length > budget.maxLength) {
+                throw new BudgetExceededException(BudgetExceededException.Limit.LENGTH,
+                    "THE EXPRESSION IS LONGER THAN THE LIMIT OF " + budget.maxLength + " CHARACTERS", budget.maxLength);
+            }
+        }
+
+        // Reject a compiled program with more operations than the budget. The program's length
+        // is an upper bound on its operations, so the count is only taken when that is over
+        void checkOperations(CompiledExpression compiled) {
+            if (compiled.code.length > budget.maxOperations && compiled.operationCount() > budget.maxOperations) {
+                throw operations(-1);
+            }
+        }
+
+        BudgetExceededException operations(long offset) {
+            return new BudgetExceededException(BudgetExceededException.Limit.OPERATIONS,
+                "THE EXPRESSION HAS MORE THAN THE LIMIT OF " + budget.maxOperations + " OPERATIONS", offset);
+        }
+    }
+}
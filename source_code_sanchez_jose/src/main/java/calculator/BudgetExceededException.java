@@ -0,0 +1,36 @@
+/*
+Purpose: Error for an expression rejected because it went over a Budget. It is an
+ExpressionException, so callers that already turn bad input into an error answer handle it the
+same way, and limit says which of the budget's limits was hit so a server can count or log them
+apart
+*/
+
+package calculator;
+
+public class BudgetExceededException extends ExpressionException {
+
+    private static final long serialVersionUID = 1L;
+
+    // The limits a budget can set, and cancellation from another thread
+    public enum Limit {
+        LENGTH,
+        TOKENS,
+        DEPTH,
+        OPERATIONS,
+        DEADLINE,
+        CANCELLED
+    }
+
+    private final Limit limit;
+
+    // offset is how far into the expression the limit was hit, or -1 when it was after parsing
+    public BudgetExceededException(Limit limit, String message, long offset) {
+        super(offset >= 0 ? "THERE WAS AN ERROR PROCESSING YOUR EQUATION AT POSITION " + offset + ": " + message + "."
+            : "THERE WAS AN ERROR FROM THE EXPRESSION: " + message + ".", offset);
+        this.limit = limit;
+    }
+
+    public Limit limit() {
+        return limit;
+    }
+}
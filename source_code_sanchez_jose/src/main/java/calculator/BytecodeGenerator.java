@@ -0,0 +1,544 @@
+/*
+Purpose: Backend that turns a CompiledExpression into JVM bytecode. The program is written out as
+one straight line method of Math calls and double arithmetic in a hidden class, so HotSpot can
+inline and register allocate the whole formula instead of running the interpreter loop. Shared
+subexpression slots become local variables and variables are read from the values array. The
+jumps of conditionals become branches, described to the verifier by a StackMapTable
+*/
+
+package calculator;
+
+// Importing Libraries
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+
+final class BytecodeGenerator {
+
+    // HotSpot never compiles methods with more bytecode than this, so bigger expressions would
+    // only get slower and stay in the interpreter instead
+    static final int MAX_CODE_LENGTH = 8000;
+
+    // Class file constants
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int JAVA_17 = 61;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    // Instructions used by generated code
+    private static final int DCONST_0 = 0x0e;
+    private static final int DCONST_1 = 0x0f;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC2_W = 0x14;
+    private static final int DLOAD = 0x18;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int DALOAD = 0x31;
+    private static final int DSTORE = 0x39;
+    private static final int DUP2 = 0x5c;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DNEG = 0x77;
+    private static final int IFEQ = 0x99;
+    private static final int GOTO = 0xa7;
+    private static final int DRETURN = 0xaf;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int WIDE = 0xc4;
+
+    // StackMapTable entries, every frame is written in full
+    private static final int FULL_FRAME = 255;
+    private static final int ITEM_DOUBLE = 3;
+    private static final int ITEM_OBJECT = 7;
+
+    private static final String CLASS_NAME = "calculator/GeneratedExpression";
+    private static final String KERNEL = "calculator/CompiledExpression$Kernel";
+    private static final String MATH = "java/lang/Math";
+    // Functions that fast math can replace are called on FastMath when it is on
+    private static final String FUNCTIONS = FastMath.ENABLED ? "calculator/FastMath" : MATH;
+    private static final String HELPERS = "calculator/BytecodeGenerator";
+    private static final String UNARY = "(D)D";
+    private static final String BINARY = "(DD)D";
+    private static final String TEST = "(D)Z";
+
+    // Hidden classes are defined in this package so they can see the Kernel interface and helpers
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    // Constant pool of the class being written, deduplicated by a key describing each entry
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final HashMap<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    // StackMapTable of the method being written, or null when it has no branches
+    private byte[] stackMap;
+
+    private BytecodeGenerator() {
+    }
+
+    // generate function returns a Kernel running the expression as bytecode, or null when the
+    // expression is too big for it to pay off
+    static CompiledExpression.Kernel generate(CompiledExpression expression) {
+        byte[] classFile = new BytecodeGenerator().write(expression);
+        if (classFile == null) {
+            return null;
+        }
+        try {
+            Class<?> generated = LOOKUP.defineHiddenClass(classFile, true).lookupClass();
+            return (CompiledExpression.Kernel) LOOKUP.findConstructor(generated, MethodType.methodType(void.class)).invoke();
+        }
+        catch (RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new IllegalStateException("ERROR GENERATING CODE FOR EXPRESSION", e);
+        }
+    }
+
+    // Division and the functions the interpreter builds out of other operations are called
+    // through these, which keeps generated code free of branches. HotSpot inlines them
+    static double divide(double numerator, double denominator) {
+        // Check if the denominator is zero
+        if (denominator == 0) {
+            throw new EvaluationException("ERROR! CANNOT DIVIDE BY ZERO!");
+        }
+        return numerator / denominator;
+    }
+
+    static double cot(double value) {
+        return FastMath.cot(value);
+    }
+
+    static double arccot(double value) {
+        return FastMath.arccot(value);
+    }
+
+    static double less(double a, double b) {
+        return CompiledExpression.truth(a < b);
+    }
+
+    static double lessEqual(double a, double b) {
+        return CompiledExpression.truth(a <= b);
+    }
+
+    static double greater(double a, double b) {
+        return CompiledExpression.truth(a > b);
+    }
+
+    static double greaterEqual(double a, double b) {
+        return CompiledExpression.truth(a >= b);
+    }
+
+    static double equal(double a, double b) {
+        return CompiledExpression.truth(a == b);
+    }
+
+    static double notEqual(double a, double b) {
+        return CompiledExpression.truth(a != b);
+    }
+
+    static boolean isTrue(double condition) {
+        return CompiledExpression.isTrue(condition);
+    }
+
+    // Write the class file, with evaluate(double[], double[]) implementing the expression
+    private byte[] write(CompiledExpression expression) {
+        try {
+            byte[] body = writeCode(expression);
+            if (body == null) {
+                return null;
+            }
+            int thisClass = classEntry(CLASS_NAME);
+            int superClass = classEntry("java/lang/Object");
+            int kernel = classEntry(KERNEL);
+            int objectInit = methodEntry("java/lang/Object", "<init>", "()V");
+            int init = utf8("<init>");
+            int initType = utf8("()V");
+            int evaluate = utf8("evaluate");
+            int evaluateType = utf8("([D[D)D");
+            int codeAttribute = utf8("Code");
+            int stackMapAttribute = stackMap != null ? utf8("StackMapTable") : 0;
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + pool.size() + body.length);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeShort(0);
+            out.writeShort(JAVA_17);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(kernel);
+            out.writeShort(0);
+
+            // Constructor, which only calls Object's
+            out.writeShort(2);
+            out.writeShort(ACC_PUBLIC);
+            out.writeShort(init);
+            out.writeShort(initType);
+            out.writeShort(1);
+            writeCodeAttribute(out, codeAttribute, 1, 1,
+                new byte[] {(byte) ALOAD_0, (byte) INVOKESPECIAL, (byte) (objectInit >> 8), (byte) objectInit, (byte) RETURN}, 0, null);
+
+            // The expression, its operands need two stack words each plus two for copying a
+            // value into a slot, and slots take two locals each
+            out.writeShort(ACC_PUBLIC | ACC_FINAL);
+            out.writeShort(evaluate);
+            out.writeShort(evaluateType);
+            out.writeShort(1);
+            writeCodeAttribute(out, codeAttribute, 2 * expression.maxStack + 2, 3 + 2 * expression.slotCount, body, stackMapAttribute, stackMap);
+
+            out.writeShort(0);
+            return bytes.toByteArray();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Translate the opcodes, returning null if the method would be too long
+    private byte[] writeCode(CompiledExpression expression) throws IOException {
+        int[] program = expression.code;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(program.length * 3 + 1);
+        DataOutputStream code = new DataOutputStream(bytes);
+        int pc = 0;
+
+        // Where each opcode's bytecode starts and the stack depth before it, for the targets of
+        // jumps, and the branches waiting for their targets as pairs of bytecode offset and pc
+        int[] offsets = expression.branches ? new int[program.length + 1] : null;
+        int[] depths = expression.branches ? new int[program.length + 1] : null;
+        int[] branches = expression.branches ? new int[program.length] : null;
+        int branchCount = 0;
+        int depth = 0;
+
+        // Slots are set before anything else so they hold a double on every path to a branch target
+        if (expression.branches) {
+            for (int slot = 0; slot < expression.slotCount; slot++) {
+                code.writeByte(DCONST_0);
+                writeLocal(code, DSTORE, slot);
+            }
+        }
+
+        while (pc < program.length) {
+            if (bytes.size() > MAX_CODE_LENGTH) {
+                return null;
+            }
+            if (offsets != null) {
+                offsets[pc] = bytes.size();
+                depths[pc] = depth;
+                depth += CompiledExpression.stackEffect(program[pc]);
+            }
+            switch (program[pc++]) {
+                case CompiledExpression.PUSH:
+                    writeConstant(code, expression.constants[program[pc++]]);
+                    break;
+                case CompiledExpression.VAR:
+                    writeVariable(code, program[pc++]);
+                    break;
+                case CompiledExpression.LOAD:
+                    writeLocal(code, DLOAD, program[pc++]);
+                    break;
+                case CompiledExpression.STORE:
+                    code.writeByte(DUP2);
+                    writeLocal(code, DSTORE, program[pc++]);
+                    break;
+                case CompiledExpression.ADD:
+                    code.writeByte(DADD);
+                    break;
+                case CompiledExpression.SUBTRACT:
+                    code.writeByte(DSUB);
+                    break;
+                case CompiledExpression.MULTIPLY:
+                    code.writeByte(DMUL);
+                    break;
+                case CompiledExpression.DIVIDE:
+                    writeCall(code, HELPERS, "divide", BINARY);
+                    break;
+                case CompiledExpression.POWER:
+                    writeCall(code, MATH, "pow", BINARY);
+                    break;
+                case CompiledExpression.NEGATE:
+                    code.writeByte(DNEG);
+                    break;
+                case CompiledExpression.SQRT:
+                    writeCall(code, MATH, "sqrt", UNARY);
+                    break;
+                case CompiledExpression.SIN:
+                    writeCall(code, FUNCTIONS, "sin", UNARY);
+                    break;
+                case CompiledExpression.COS:
+                    writeCall(code, FUNCTIONS, "cos", UNARY);
+                    break;
+                case CompiledExpression.TAN:
+                    writeCall(code, FUNCTIONS, "tan", UNARY);
+                    break;
+                case CompiledExpression.COT:
+                    writeCall(code, HELPERS, "cot", UNARY);
+                    break;
+                case CompiledExpression.ARCSIN:
+                    writeCall(code, FUNCTIONS, "asin", UNARY);
+                    break;
+                case CompiledExpression.ARCCOS:
+                    writeCall(code, FUNCTIONS, "acos", UNARY);
+                    break;
+                case CompiledExpression.ARCTAN:
+                    writeCall(code, FUNCTIONS, "atan", UNARY);
+                    break;
+                case CompiledExpression.ARCCTG:
+                    writeCall(code, HELPERS, "arccot", UNARY);
+                    break;
+                case CompiledExpression.LN:
+                    writeCall(code, FUNCTIONS, "log", UNARY);
+                    break;
+                case CompiledExpression.LOG10:
+                    writeCall(code, FUNCTIONS, "log10", UNARY);
+                    break;
+                case CompiledExpression.LESS:
+                    writeCall(code, HELPERS, "less", BINARY);
+                    break;
+                case CompiledExpression.LESS_EQUAL:
+                    writeCall(code, HELPERS, "lessEqual", BINARY);
+                    break;
+                case CompiledExpression.GREATER:
+                    writeCall(code, HELPERS, "greater", BINARY);
+                    break;
+                case CompiledExpression.GREATER_EQUAL:
+                    writeCall(code, HELPERS, "greaterEqual", BINARY);
+                    break;
+                case CompiledExpression.EQUAL:
+                    writeCall(code, HELPERS, "equal", BINARY);
+                    break;
+                case CompiledExpression.NOT_EQUAL:
+                    writeCall(code, HELPERS, "notEqual", BINARY);
+                    break;
+                case CompiledExpression.MIN:
+                    writeCall(code, MATH, "min", BINARY);
+                    break;
+                case CompiledExpression.MAX:
+                    writeCall(code, MATH, "max", BINARY);
+                    break;
+                // Branches are written with an offset of 0 and patched once their targets are known
+                case CompiledExpression.JUMP_IF_FALSE:
+                    writeCall(code, HELPERS, "isTrue", TEST);
+                    branches[branchCount++] = bytes.size();
+                    branches[branchCount++] = pc + 1 + program[pc++];
+                    code.writeByte(IFEQ);
+                    code.writeShort(0);
+                    break;
+                case CompiledExpression.JUMP:
+                    branches[branchCount++] = bytes.size();
+                    branches[branchCount++] = pc + 1 + program[pc++];
+                    code.writeByte(GOTO);
+                    code.writeShort(0);
+                    break;
+                default:
+                    throw new IllegalStateException("UNKNOWN OPCODE: " + program[pc - 1]);
+            }
+        }
+        if (offsets != null) {
+            offsets[program.length] = bytes.size();
+            depths[program.length] = depth;
+        }
+        code.writeByte(DRETURN);
+        if (bytes.size() > MAX_CODE_LENGTH) {
+            return null;
+        }
+        byte[] body = bytes.toByteArray();
+        if (branchCount > 0) {
+            for (int i = 0; i < branchCount; i += 2) {
+                int offset = offsets[branches[i + 1]] - branches[i];
+                body[branches[i] + 1] = (byte) (offset >> 8);
+                body[branches[i] + 2] = (byte) offset;
+            }
+            stackMap = writeStackMap(expression, branches, branchCount, offsets, depths);
+        }
+        return body;
+    }
+
+    // One full frame for every branch target in order: this, the two arrays, a double in every
+    // slot, and the doubles on the stack there
+    private byte[] writeStackMap(CompiledExpression expression, int[] branches, int branchCount, int[] offsets, int[] depths)
+            throws IOException {
+        boolean[] target = new boolean[offsets.length];
+        for (int i = 0; i < branchCount; i += 2) {
+            target[branches[i + 1]] = true;
+        }
+        int thisClass = classEntry(CLASS_NAME);
+        int doubleArray = classEntry("[D");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int frames = 0;
+        int previous = -1;
+        out.writeShort(0);
+        for (int pc = 0; pc < offsets.length; pc++) {
+            if (!target[pc]) {
+                continue;
+            }
+            out.writeByte(FULL_FRAME);
+            out.writeShort(offsets[pc] - previous - 1);
+            previous = offsets[pc];
+            out.writeShort(3 + expression.slotCount);
+            out.writeByte(ITEM_OBJECT);
+            out.writeShort(thisClass);
+            out.writeByte(ITEM_OBJECT);
+            out.writeShort(doubleArray);
+            out.writeByte(ITEM_OBJECT);
+            out.writeShort(doubleArray);
+            for (int slot = 0; slot < expression.slotCount; slot++) {
+                out.writeByte(ITEM_DOUBLE);
+            }
+            out.writeShort(depths[pc]);
+            for (int entry = 0; entry < depths[pc]; entry++) {
+                out.writeByte(ITEM_DOUBLE);
+            }
+            frames++;
+        }
+        byte[] stackMap = bytes.toByteArray();
+        stackMap[0] = (byte) (frames >> 8);
+        stackMap[1] = (byte) frames;
+        return stackMap;
+    }
+
+    private void writeCodeAttribute(DataOutputStream out, int name, int maxStack, int maxLocals, byte[] code, int stackMapName,
+            byte[] stackMap) throws IOException {
+        out.writeShort(name);
+        out.writeInt(12 + code.length + (stackMap == null ? 0 : 6 + stackMap.length));
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);
+        if (stackMap == null) {
+            out.writeShort(0);
+            return;
+        }
+        out.writeShort(1);
+        out.writeShort(stackMapName);
+        out.writeInt(stackMap.length);
+        out.write(stackMap);
+    }
+
+    // Push a number, 0 and 1 have their own instructions and the rest come from the pool
+    private void writeConstant(DataOutputStream code, double value) throws IOException {
+        if (Double.doubleToRawLongBits(value) == 0) {
+            code.writeByte(DCONST_0);
+        }
+        else if (value == 1) {
+            code.writeByte(DCONST_1);
+        }
+        else {
+            code.writeByte(LDC2_W);
+            code.writeShort(doubleEntry(value));
+        }
+    }
+
+    // Push values[index], the values array is local 1
+    private void writeVariable(DataOutputStream code, int index) throws IOException {
+        code.writeByte(ALOAD_1);
+        if (index < 128) {
+            code.writeByte(BIPUSH);
+            code.writeByte(index);
+        }
+        else {
+            code.writeByte(SIPUSH);
+            code.writeShort(index);
+        }
+        code.writeByte(DALOAD);
+    }
+
+    // Load or store a slot, local 0 is this and locals 1 and 2 are the arguments
+    private void writeLocal(DataOutputStream code, int instruction, int slot) throws IOException {
+        int local = 3 + 2 * slot;
+        if (local < 256) {
+            code.writeByte(instruction);
+            code.writeByte(local);
+        }
+        else {
+            code.writeByte(WIDE);
+            code.writeByte(instruction);
+            code.writeShort(local);
+        }
+    }
+
+    private void writeCall(DataOutputStream code, String owner, String name, String type) throws IOException {
+        code.writeByte(INVOKESTATIC);
+        code.writeShort(methodEntry(owner, name, type));
+    }
+
+    private int utf8(String text) throws IOException {
+        Integer index = poolIndex.get("U" + text);
+        if (index != null) {
+            return index;
+        }
+        poolOut.writeByte(CONSTANT_UTF8);
+        poolOut.writeUTF(text);
+        return addEntry("U" + text, 1);
+    }
+
+    private int classEntry(String name) throws IOException {
+        Integer index = poolIndex.get("C" + name);
+        if (index != null) {
+            return index;
+        }
+        int nameIndex = utf8(name);
+        poolOut.writeByte(CONSTANT_CLASS);
+        poolOut.writeShort(nameIndex);
+        return addEntry("C" + name, 1);
+    }
+
+    private int methodEntry(String owner, String name, String type) throws IOException {
+        String key = "M" + owner + "." + name + type;
+        Integer index = poolIndex.get(key);
+        if (index != null) {
+            return index;
+        }
+        int ownerIndex = classEntry(owner);
+        int nameIndex = utf8(name);
+        int typeIndex = utf8(type);
+        Integer nameAndType = poolIndex.get("N" + name + type);
+        if (nameAndType == null) {
+            poolOut.writeByte(CONSTANT_NAME_AND_TYPE);
+            poolOut.writeShort(nameIndex);
+            poolOut.writeShort(typeIndex);
+            nameAndType = addEntry("N" + name + type, 1);
+        }
+        poolOut.writeByte(CONSTANT_METHODREF);
+        poolOut.writeShort(ownerIndex);
+        poolOut.writeShort(nameAndType);
+        return addEntry(key, 1);
+    }
+
+    // Doubles take up two entries of the pool
+    private int doubleEntry(double value) throws IOException {
+        String key = "D" + Long.toHexString(Double.doubleToRawLongBits(value));
+        Integer index = poolIndex.get(key);
+        if (index != null) {
+            return index;
+        }
+        poolOut.writeByte(CONSTANT_DOUBLE);
+        poolOut.writeDouble(value);
+        return addEntry(key, 2);
+    }
+
+    private int addEntry(String key, int size) {
+        int index = poolCount;
+        poolIndex.put(key, index);
+        poolCount += size;
+        return index;
+    }
+}
@@ -0,0 +1,1245 @@
+/*
+Author: Jose Luis Sanchez
+Date Modified: 11/4/2021
+Purpose: Calculator that does basic arthmetic/trigonometric/logarithmic operations using the Shunting Yard Algorithm
+*/
+
+package calculator;
+
+// Importing Libraries
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.math.MathContext;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+public class Calculator {
+
+    // This section will compute the shunting yard algorithm
+    // This algorithm was created by Andrei Ciobanu
+    // His website is https://www.andreinc.net/2010/10/05/converting-infix-to-rpn-shunting-yard-algorithm
+    // Some modifications were made to accommodate this assignment
+    public enum Associativity {LEFT, RIGHT}
+
+    public enum Operator implements Comparable<Operator> {
+        // List the operators with their symbol, associativity, and their precedence level
+        // Functions rank above power so sin(1)^2 is read as (sin(1))^2, and comparisons rank
+        // below + and - so x+1 < y*2 compares the two sums, with == and != below the rest
+        ADDITION("+", Associativity.LEFT, 0),
+        SUBTRACTION("-", Associativity.LEFT, 0),
+        DIVISION("/", Associativity.LEFT, 5),
+        MULTIPLICATION("*", Associativity.LEFT, 5),
+        POWER("^", Associativity.RIGHT, 10),
+        SQUAREROOT("sqrt", Associativity.RIGHT, 15),
+        SINE("sin", Associativity.RIGHT, 15),
+        COSINE("cos", Associativity.RIGHT, 15),
+        TANGENT("tan", Associativity.RIGHT, 15),
+        COTANGENT("cot", Associativity.RIGHT, 15),
+        ARCSINE("arcsin", Associativity.RIGHT, 15),
+        ARCCOSINE("arccos", Associativity.RIGHT, 15),
+        ARCTANGENT("arctan", Associativity.RIGHT, 15),
+        ARCCOTANGENT("arcctg", Associativity.RIGHT, 15),
+        LOGN("ln", Associativity.RIGHT, 15),
+        LOG10("log", Associativity.RIGHT, 15),
+        LESS("<", Associativity.LEFT, -5),
+        LESS_EQUAL("<=", Associativity.LEFT, -5),
+        GREATER(">", Associativity.LEFT, -5),
+        GREATER_EQUAL(">=", Associativity.LEFT, -5),
+        EQUAL("==", Associativity.LEFT, -10),
+        NOT_EQUAL("!=", Associativity.LEFT, -10),
+        // Functions of several arguments, written with their arguments in brackets. Only the
+        // branch if and piecewise pick is computed, min and max need all of theirs
+        IF("if", Associativity.RIGHT, 15),
+        MINIMUM("min", Associativity.RIGHT, 15),
+        MAXIMUM("max", Associativity.RIGHT, 15),
+        PIECEWISE("piecewise", Associativity.RIGHT, 15),
+        // A minus in front of a bracket or a name. It binds tighter than * and / but looser than
+        // ^, so -(2)^2 is -(2^2). Nothing typed is read as ~, createExpression writes it
+        NEGATION("~", Associativity.RIGHT, 7);
+
+        // Create an instance of each attribute of the operator
+        final Associativity associativity;
+        final int precedence;
+        final String symbol;
+
+        // Create a operator constructor to fill in the operator's attributes
+        Operator(String symbol, Associativity associativity, int precedence) {
+            this.symbol = symbol;
+            this.associativity = associativity;
+            this.precedence = precedence;
+        }
+
+        // Function to compare the precedence level of two difference operators
+        public int comparePrecedence(Operator operator) {
+            return this.precedence - operator.precedence;
+        }
+    }
+
+    // Steps of computeExpression's loop between checks of a budget's deadline and cancellation
+    private static final int CHECK_INTERVAL = 256;
+
+    // Most tokens an expression may grow to from inlining calls. Each use of a parameter copies
+    // its argument, so calls nested inside one another can grow the rpn by a power of the depth
+    static final int INLINE_LIMIT = 4096;
+
+    private static final String[] NO_PARAMETERS = {};
+
+    // Create a Hash Map that stores a string as the key and a operator as its value 
+    // It is filled when the holder class is first used, so a one-shot run that never looks an
+    // operator up doesn't build it. It can't be changed afterwards, and class initialization
+    // publishes it safely, so any number of threads can read it at the same time
+    private static final class OpListHolder {
+        static final Map<String, Operator> OP_LIST = createOpList();
+    }
+
+    static Map<String, Operator> opList() {
+        return OpListHolder.OP_LIST;
+    }
+
+    // Fill OPS with keys (operator symbol) and values (operator attributes)
+    private static Map<String, Operator> createOpList() {
+        Map<String, Operator> operators = new HashMap<>();
+        for(Operator operator : Operator.values()) {
+            operators.put(operator.symbol, operator);
+        }
+        return Collections.unmodifiableMap(operators);
+    }
+
+    // shuntingYard algorithm takes a list of infixed tokens and rearranges them to rpn
+    public static List<String> shuntingYard(List<String> tokens) {
+        if (Metrics.ENABLED) {
+            return Metrics.time(Metrics.Stage.CONVERT, Calculator::convert, tokens);
+        }
+        return convert(tokens);
+    }
+
+    // shuntingYard algorithm that also inlines calls to the functions in the registry, for
+    // tokens that came from createExpression with the same registry
+    public static List<String> shuntingYard(List<String> tokens, Definitions definitions) {
+        Definitions.Table table = definitions.table();
+        if (Metrics.ENABLED) {
+            return Metrics.time(Metrics.Stage.CONVERT, t -> convert(t, table), tokens);
+        }
+        return convert(tokens, table);
+    }
+
+    static List<String> shuntingYard(List<String> tokens, Definitions.Table table) {
+        return convert(tokens, table);
+    }
+
+    private static List<String> convert(List<String> tokens) {
+        return convert(tokens, Definitions.BUILT_IN);
+    }
+
+    private static List<String> convert(List<String> tokens, Definitions.Table table) {
+        Map<String, Operator> opList = opList();
+        try {
+            // Create a list to store the output buffer
+            List<String> output = new ArrayList<>(tokens.size());
+
+            // Create a stack to hold operators
+            Deque<String> stack = new ArrayDeque<>();
+
+            // Where each argument of the calls still open starts in the output
+            Deque<List<Integer>> calls = new ArrayDeque<>();
+            boolean awaitingBracket = false;
+
+            // Loop throught the expressions one token/number/operator at a time
+            for(String token : tokens) {
+                // A function name has to be followed by the bracket holding its arguments
+                boolean opening = "(".equals(token) || "{".equals(token) || "[".equals(token);
+                if (awaitingBracket && !opening) {
+                    throw new ExpressionException("ERROR, THE ARGUMENTS OF " + stack.peek() + " HAVE TO BE IN BRACKETS.", -1);
+                }
+
+                // If OPS contains a token, then go into the loop
+                if(opList.containsKey(token)) {
+                    // Gets the current operator
+                    Operator currOp = opList.get(token);
+
+                    // While the operator stack is not empty AND the OPS map contains a key, continue loop.
+                    // A negation comes before its number, so nothing in front of it is finished yet
+                    while(currOp != Operator.NEGATION && !stack.isEmpty() && opList.containsKey(stack.peek())) {
+                        // Gets the top operator in the opsList
+                        Operator topOp = opList.get(stack.peek());
+                        
+                        // If the current operator's associativity is left AND the current operator's precedence is less than or equal to the top operator in the opsList
+                        // OR the current operator's associativity is right AND the current operator's precedence is less than the top operator in the opsList
+                        if((currOp.associativity == Associativity.LEFT && currOp.comparePrecedence(topOp) <= 0) || 
+                            (currOp.associativity == Associativity.RIGHT && currOp.comparePrecedence(topOp) < 0)) {
+                                // Pop the operator stack and add it into the output
+                                output.add(stack.pop());
+                                continue;
+                            }
+                            // Exit while loop
+                            break;
+                    }
+
+                    // Push the token into the operator stack
+                    stack.push(token);
+
+                    // if, min, max, and piecewise wait for their arguments like a function call
+                    if (CompiledExpression.takesArguments(currOp)) {
+                        awaitingBracket = true;
+                    }
+                } 
+
+                // A function from the registry waits on the stack for its arguments
+                else if (isFunction(table, token)) {
+                    stack.push(token);
+                    awaitingBracket = true;
+                }
+
+                // Check for a left parenthesis, brace, or bracket
+                else if(opening) {
+                    // Add it into the operator stack
+                    stack.push(token);
+                    // The bracket of a call, its first argument starts here
+                    if (awaitingBracket) {
+                        List<Integer> starts = new ArrayList<>();
+                        starts.add(output.size());
+                        calls.push(starts);
+                        awaitingBracket = false;
+                    }
+                }
+
+                // A comma ends one argument of a call and starts the next
+                else if (",".equals(token)) {
+                    while(!stack.isEmpty() && !isOpening(stack.peek())) {
+                        output.add(stack.pop());
+                    }
+                    if (stack.size() < 2 || !isCall(table, secondOf(stack))) {
+                        throw new ExpressionException("ERROR, A COMMA CAN ONLY SEPARATE THE ARGUMENTS OF A FUNCTION.", -1);
+                    }
+                    calls.peek().add(output.size());
+                }
+
+                // Check for a right parenthesis, brace, or bracket
+                else if(")".equals(token) || "}".equals(token) || "]".equals(token)) {
+                    String open = openingOf(token);
+
+                    // Loop while the operator stack isn't empty
+                    // AND the top element in the operator stack doesn't equal the matching left side
+                    while(!stack.isEmpty() && !stack.peek().equals(open)) {
+                        // Pop the operator stack and add it into the output 
+                        output.add(stack.pop());
+                    }
+
+                    // Pop the operator stack
+                    stack.pop();
+
+                    // The closing bracket of a call, its body replaces the arguments
+                    if (!stack.isEmpty() && isFunction(table, stack.peek())) {
+                        inline(table.get(stack.pop()), calls.pop(), output);
+                    }
+                    else if (!stack.isEmpty() && opList.containsKey(stack.peek()) && CompiledExpression.takesArguments(opList.get(stack.peek()))) {
+                        finishOperator(opList.get(stack.pop()), calls.pop().size(), output);
+                    }
+                }
+
+                // If the token is not an operator, then it is a number
+                else {
+                    // Add number into output
+                    output.add(token);
+                }
+            }
+
+            if (awaitingBracket) {
+                throw new ExpressionException("ERROR, THE ARGUMENTS OF " + stack.peek() + " HAVE TO BE IN BRACKETS.", -1);
+            }
+
+            // Loop while the operator stack isn't empty
+            while(!stack.isEmpty()) {
+                // Pop the operator stack and add it into the output
+                output.add(stack.pop());
+            }
+
+            // Return converted RPN expression
+            return output;
+        }
+
+        // Catch any NullPointerExceptions or unmatched closing sides and throw an error
+        catch (NullPointerException | NoSuchElementException e) {
+            throw new ExpressionException("THERE WAS AN ERROR CONVERTING INFIX TO RPN.", -1);
+        }
+    }
+
+    // Replace the arguments of a call at the end of the output with the function's body, where
+    // every use of a parameter gets a copy of its argument. The older path has no slots to keep
+    // an argument in, so one used twice is worked out twice
+    private static void inline(Definitions.Definition function, List<Integer> starts, List<String> output) {
+        if (starts.size() != function.parameters.length) {
+            throw new ExpressionException("ERROR, " + function.name + " TAKES " + function.parameters.length + " ARGUMENTS BUT WAS GIVEN "
+                + starts.size() + ".", -1);
+        }
+        if (function.rpn == null) {
+            throw new ExpressionException("ERROR, THE BODY OF " + function.name + " CAN ONLY BE READ BY THE SINGLE PASS PARSER.", -1);
+        }
+        int first = starts.get(0);
+        int grown = first;
+        for (String token : function.rpn) {
+            if (token.charAt(0) == '$') {
+                int parameter = Integer.parseInt(token.substring(1));
+                grown += (parameter + 1 < starts.size() ? starts.get(parameter + 1) : output.size()) - starts.get(parameter);
+            }
+            else {
+                grown++;
+            }
+        }
+        if (grown > INLINE_LIMIT) {
+            throw new ExpressionException("ERROR, THE CALLS TO " + function.name + " GROW PAST " + INLINE_LIMIT
+                + " TOKENS, ONLY THE SINGLE PASS PARSER CAN READ THEM.", -1);
+        }
+        List<String> arguments = new ArrayList<>(output.subList(first, output.size()));
+        output.subList(first, output.size()).clear();
+        for (String token : function.rpn) {
+            if (token.charAt(0) == '$') {
+                int parameter = Integer.parseInt(token.substring(1));
+                int to = parameter + 1 < starts.size() ? starts.get(parameter + 1) : first + arguments.size();
+                output.addAll(arguments.subList(starts.get(parameter) - first, to - first));
+            }
+            else {
+                output.add(token);
+            }
+        }
+    }
+
+    // The closing bracket of if, min, max, or piecewise. min and max of more than two arguments
+    // are run two at a time, and piecewise is written out as one if inside another. Each if is
+    // left after its three numbers for CompiledExpression to put jumps around its branches
+    private static void finishOperator(Operator operator, int count, List<String> output) {
+        if (operator == Operator.MINIMUM || operator == Operator.MAXIMUM) {
+            if (count < 2) {
+                throw new ExpressionException("ERROR, " + operator.symbol + " TAKES AT LEAST 2 ARGUMENTS.", -1);
+            }
+            for (int i = 1; i < count; i++) {
+                output.add(operator.symbol);
+            }
+            return;
+        }
+        if (operator == Operator.IF ? count != 3 : count < 3 || count % 2 == 0) {
+            throw new ExpressionException(operator == Operator.IF ? "ERROR, if TAKES 3 ARGUMENTS, A CONDITION AND TWO BRANCHES."
+                : "ERROR, piecewise TAKES PAIRS OF A CONDITION AND A VALUE FOLLOWED BY A DEFAULT VALUE.", -1);
+        }
+        for (int i = 1; i < count; i += 2) {
+            output.add(Operator.IF.symbol);
+        }
+    }
+
+    // Check if a token is a function of the registry or an operator called like one
+    private static boolean isCall(Definitions.Table table, String token) {
+        Operator operator = opList().get(token);
+        return operator != null ? CompiledExpression.takesArguments(operator) : isFunction(table, token);
+    }
+
+    private static boolean isFunction(Definitions.Table table, String token) {
+        Definitions.Definition definition = table.get(token);
+        return definition != null && definition.isFunction();
+    }
+
+    private static boolean isOpening(String token) {
+        return token.equals("(") || token.equals("{") || token.equals("[");
+    }
+
+    // The entry under the top of a stack
+    private static String secondOf(Deque<String> stack) {
+        Iterator<String> entries = stack.iterator();
+        entries.next();
+        return entries.next();
+    }
+
+    // Find the left side that matches a right parenthesis, brace, or bracket
+    static String openingOf(String close) {
+        if (close.equals(")")) {
+            return "(";
+        }
+        else if (close.equals("}")) {
+            return "{";
+        }
+        return "[";
+    }
+
+    // confirmExpression checks for several issues with rpn expression given
+    public static void confirmExpression(List<String> exp) {
+        if (Metrics.ENABLED) {
+            Metrics.time(Metrics.Stage.VALIDATE, rpn -> {
+                validate(rpn);
+                return null;
+            }, exp);
+            return;
+        }
+        validate(exp);
+    }
+
+    private static void validate(List<String> exp) {
+        // Variables to test
+        List<String> ops = Arrays.asList("(", ")", "[", "]", "{", "}");
+        // Check for null expressions
+        if (exp == null) {
+            throw new ExpressionException("THERE WAS AN ERROR FROM RPN EXPRESSION: RECEIVED A NULL EXPRESSION.", -1);
+        }
+        // Checking for any parenthasis, braces, or brackets
+        for (int i = 0; i < exp.size(); i++) {
+            if (ops.contains(exp.get(i))) {
+                throw new ExpressionException("THERE WAS AN ERROR USING THE RPN EXPRESSION: Leftover parenthesis/brace/bracket.", -1);
+            }
+        }
+    }
+
+    // Main function for calculator
+    public static void main(String[] args) throws IOException {
+        // One-shot mode: Calculator "(1+7)/8^9+sin(1)" prints the value and exits, with status 1
+        // when the expression is bad so shell scripts can check it
+        if (args.length > 0 && !args[0].startsWith("--")) {
+            if (!oneShot(args)) {
+                System.exit(1);
+            }
+            return;
+        }
+
+        // Command line options skip the menu
+        if (args.length > 0) {
+            runArguments(args);
+            return;
+        }
+
+        // User Inputs
+        Scanner scan = new Scanner(System.in);
+        boolean continuation = false;
+
+        // Menu
+        do {
+            System.out.println("----------RPN CALCULATOR----------");
+            System.out.println("--SELECT AN OPTION FROM THE MENU--");
+            System.out.println("1. Compute");
+            System.out.println("2. Help");
+            System.out.println("3. Exit");
+            System.out.print("Selection: ");
+            
+            // Selecting option
+            String selection = scan.nextLine();
+            // Remove whitespace/non-characters and make selection lowercase
+            selection = selection.toLowerCase().replaceAll("\\s+","");
+
+            // Compute
+            if (selection.equals("1") || selection.equals("compute")) {
+                boolean repeat = false;
+                do {
+                    System.out.println("\n\nCOMPUTATION");
+                    System.out.print("Please enter your expression here: ");
+                    String expression = scan.nextLine();
+                    expression = expression.toLowerCase().replaceAll("\\s+","");
+
+                    // Parse and compile the expression in one pass, then calculate it
+                    try {
+                        double result = Evaluator.evaluate(expression);
+
+                        // Check if the result is not a number
+                        if (Double.isNaN(result)) {
+                            System.out.println("EXPRESSION IS NOT POSSIBLE, ENDED UP AS NOT A NUMBER.");
+                        }
+
+                        // Return result
+                        System.out.println("Result: " + result);
+                    }
+                    // Show where a bad expression went wrong, then let the user try again
+                    catch (ExpressionException e) {
+                        System.out.println(e.getMessage());
+                        if (e.offset() >= 0 && e.offset() <= expression.length()) {
+                            System.out.println(expression);
+                            System.out.println(" ".repeat((int) e.offset()) + "^");
+                        }
+                    }
+                    // Math errors such as dividing by zero
+                    catch (EvaluationException e) {
+                        System.out.println(e.getMessage());
+                    }
+
+                    // Do another expression
+                    System.out.println("Would you like to do another expression? (Yes to repeat / Anything else for no)");
+
+                    String choice = scan.nextLine();
+                    choice = choice.toLowerCase().replaceAll("\\s+","");
+
+                    // Check if choice is no or yes
+                    if (choice.equals("yes")) {
+                        repeat = true;
+                    }
+                    else {
+                        repeat = false;
+                    }
+                } while (repeat == true);
+            }
+            
+            // For help
+            else if (selection.equals("2") || selection.equals("help")) {
+                printHelp(System.out);
+            }
+
+            // Exit program
+            else if (selection.equals("3") || selection.equals("exit")) {
+                System.out.println("CLOSING PROGRAM. THANK YOU FOR USING RPN CALCULATOR!");
+                continuation = true;
+            }
+
+            // Else if no selection was made or made incorrectly
+            else {
+                System.out.println("Sorry, but we didn't understand your request.");
+            }
+        } while (continuation == false);
+
+        scan.close();
+    }
+
+    // oneShot function evaluates the expression given on the command line. Words are joined, so
+    // an unquoted Calculator 1 + 2 works too. Returns false if the expression is bad
+    static boolean oneShot(String[] args) {
+        String expression = (args.length == 1 ? args[0] : String.join(" ", args)).toLowerCase();
+        try {
+            System.out.println(Evaluator.evaluate(expression));
+            return true;
+        }
+        // Show where a bad expression went wrong
+        catch (ExpressionException e) {
+            System.err.println(e.getMessage());
+            if (e.offset() >= 0 && e.offset() <= expression.length()) {
+                System.err.println(expression);
+                System.err.println(" ".repeat((int) e.offset()) + "^");
+            }
+        }
+        // Math errors such as dividing by zero
+        catch (EvaluationException e) {
+            System.err.println(e.getMessage());
+        }
+        return false;
+    }
+
+    // printHelp function prints the help text, which is packaged in the jar next to this class so
+    // it is found from any directory, and only read when it is asked for
+    static void printHelp(PrintStream out) throws IOException {
+        InputStream help = Calculator.class.getResourceAsStream("help.txt");
+        if (help == null) {
+            out.println("ERROR, HELP.TXT IS MISSING FROM THE CLASSPATH.");
+            return;
+        }
+        try (BufferedReader read = new BufferedReader(new InputStreamReader(help, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = read.readLine()) != null) {
+                out.println(line);
+            }
+        }
+    }
+
+    // runArguments function handles the non interactive modes
+    static void runArguments(String[] args) throws IOException {
+        // Batch mode: --batch in.txt [--out results.txt] [--threads n] [--cache entries]
+        if (args[0].equals("--batch") && args.length >= 2) {
+            Path input = Paths.get(args[1]);
+            Path output = null;
+            int threads = 1;
+            ExpressionCache cache = null;
+            for (int i = 2; i + 1 < args.length; i += 2) {
+                if (args[i].equals("--out")) {
+                    output = Paths.get(args[i + 1]);
+                }
+                else if (args[i].equals("--threads")) {
+                    threads = Integer.parseInt(args[i + 1]);
+                }
+                else if (args[i].equals("--cache")) {
+                    int entries = Integer.parseInt(args[i + 1]);
+                    cache = new ExpressionCache(entries, Long.MAX_VALUE, ExpressionCache.tinyLfu(entries));
+                }
+            }
+            BatchEvaluator.Summary summary = BatchEvaluator.run(input, output, threads, cache);
+            // Keep the summary out of the results when they go to standard output
+            PrintStream report = output == null ? System.err : System.out;
+            report.println(summary);
+            if (cache != null) {
+                report.println(cache.stats());
+            }
+        }
+
+        // CSV mode: --csv data.csv --expr "expression" [--out results.txt] [--aggregate]
+        else if (args[0].equals("--csv") && args.length >= 2) {
+            Path input = Paths.get(args[1]);
+            String expression = null;
+            Path output = null;
+            boolean aggregate = false;
+            for (int i = 2; i < args.length; i++) {
+                if (args[i].equals("--expr") && i + 1 < args.length) {
+                    expression = args[++i];
+                }
+                else if (args[i].equals("--out") && i + 1 < args.length) {
+                    output = Paths.get(args[++i]);
+                }
+                else if (args[i].equals("--aggregate")) {
+                    aggregate = true;
+                }
+            }
+            if (expression == null) {
+                System.out.println("ERROR, CSV MODE NEEDS AN EXPRESSION GIVEN WITH --expr.");
+                return;
+            }
+            CsvEvaluator.Summary summary;
+            try {
+                summary = CsvEvaluator.run(input, expression, output, aggregate);
+            }
+            // Catch bad expressions and headers
+            catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                return;
+            }
+            // Keep the summary out of the results when they go to standard output
+            PrintStream report = output == null && !aggregate ? System.err : System.out;
+            if (summary.aggregates != null) {
+                report.println(summary.aggregates);
+            }
+            report.println(summary);
+        }
+
+        // Server mode: --serve port [--max-connections n] [--cache entries] [budget limits]
+        else if (args[0].equals("--serve") && args.length >= 2) {
+            int port = Integer.parseInt(args[1]);
+            int maxConnections = EvaluationServer.DEFAULT_MAX_CONNECTIONS;
+            int entries = 4096;
+            Budget budget = Budget.UNLIMITED;
+            for (int i = 2; i + 1 < args.length; i += 2) {
+                if (args[i].equals("--max-connections")) {
+                    maxConnections = Integer.parseInt(args[i + 1]);
+                }
+                else if (args[i].equals("--cache")) {
+                    entries = Integer.parseInt(args[i + 1]);
+                }
+                else if (args[i].equals("--max-length")) {
+                    budget = budget.withMaxLength(Integer.parseInt(args[i + 1]));
+                }
+                else if (args[i].equals("--max-tokens")) {
+                    budget = budget.withMaxTokens(Integer.parseInt(args[i + 1]));
+                }
+                else if (args[i].equals("--max-depth")) {
+                    budget = budget.withMaxDepth(Integer.parseInt(args[i + 1]));
+                }
+                else if (args[i].equals("--max-operations")) {
+                    budget = budget.withMaxOperations(Integer.parseInt(args[i + 1]));
+                }
+                else if (args[i].equals("--timeout-ms")) {
+                    budget = budget.withTimeoutNanos(Long.parseLong(args[i + 1]) * 1_000_000);
+                }
+            }
+            // Every connection shares the cache, a cache of 0 entries turns it off
+            ExpressionCache cache = entries > 0 ? new ExpressionCache(entries, Long.MAX_VALUE, ExpressionCache.tinyLfu(entries)) : null;
+            EvaluationServer server = new EvaluationServer(port, maxConnections, cache, budget);
+            // Report the totals when the server is stopped
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    server.close();
+                }
+                catch (IOException e) {
+                }
+                System.out.println(server.summary());
+                if (cache != null) {
+                    System.out.println(cache.stats());
+                }
+                if (Metrics.ENABLED) {
+                    Metrics.dump(System.out);
+                }
+            }));
+            System.out.println("SERVING ON PORT " + server.port() + " WITH A " + server.threadKind().toUpperCase() + " THREAD PER CONNECTION");
+            if (budget != Budget.UNLIMITED) {
+                System.out.println(budget);
+            }
+            server.serve();
+        }
+
+        // Precision mode: --precise digits "expression"
+        else if (args[0].equals("--precise") && args.length >= 3) {
+            PreciseEvaluator evaluator = new PreciseEvaluator(new MathContext(Integer.parseInt(args[1])));
+            try {
+                System.out.println(evaluator.evaluate(args[2]).toPlainString());
+            }
+            // Catch bad expressions and math errors such as dividing by zero
+            catch (IllegalArgumentException | ArithmeticException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+
+        // Integration: --integrate "expression" variable a b [tolerance]
+        else if (args[0].equals("--integrate") && args.length >= 5) {
+            try {
+                double tolerance = args.length >= 6 ? Double.parseDouble(args[5]) : Calculus.DEFAULT_TOLERANCE;
+                System.out.println(new Calculus().integrate(args[1], args[2], Double.parseDouble(args[3]), Double.parseDouble(args[4]), tolerance));
+            }
+            // Catch bad expressions, bad numbers, and math errors such as dividing by zero
+            catch (IllegalArgumentException | ArithmeticException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+
+        // Root finding: --solve "expression" variable lo hi [tolerance]
+        else if (args[0].equals("--solve") && args.length >= 5) {
+            try {
+                double tolerance = args.length >= 6 ? Double.parseDouble(args[5]) : Calculus.DEFAULT_TOLERANCE;
+                System.out.println(new Calculus().solve(args[1], args[2], Double.parseDouble(args[3]), Double.parseDouble(args[4]), tolerance));
+            }
+            // Catch bad expressions, bad numbers, brackets without a sign change, and math errors
+            catch (IllegalArgumentException | ArithmeticException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+
+        // Help: --help
+        else if (args[0].equals("--help")) {
+            printHelp(System.out);
+        }
+
+        // Else the options were not understood
+        else {
+            System.out.println("USAGE: Calculator \"expression\"");
+            System.out.println("       Calculator [--help]");
+            System.out.println("       Calculator [--batch in.txt [--out results.txt] [--threads n] [--cache entries]]");
+            System.out.println("       Calculator [--csv data.csv --expr \"expression\" [--out results.txt] [--aggregate]]");
+            System.out.println("       Calculator [--serve port [--max-connections n] [--cache entries] [--max-length n] [--max-tokens n]");
+            System.out.println("                  [--max-depth n] [--max-operations n] [--timeout-ms n]]");
+            System.out.println("       Calculator [--precise digits \"expression\"]");
+            System.out.println("       Calculator [--integrate \"expression\" variable a b [tolerance]]");
+            System.out.println("       Calculator [--solve \"expression\" variable lo hi [tolerance]]");
+        }
+    }
+
+    // computeExpression function takes the rpn expression and calculates it
+    public static double computeExpression(List<String> expression) {
+        if (Metrics.ENABLED) {
+            if (expression != null) {
+                Metrics.evaluating(expression);
+            }
+            return Metrics.time(Metrics.Stage.EVALUATE, Calculator::compute, expression);
+        }
+        return compute(expression);
+    }
+
+    // computeExpression function that holds the rpn expression to a budget. Its tokens and
+    // operations are counted before it starts, and the deadline and cancellation are checked as
+    // the loop goes, which takes time quadratic in the length of the expression
+    public static double computeExpression(List<String> expression, Budget.Ticket ticket) {
+        if (expression != null) {
+            Budget budget = ticket.budget;
+            if (expression.size() > budget.maxTokens) {
+                throw new BudgetExceededException(BudgetExceededException.Limit.TOKENS,
+                    "THE EXPRESSION HAS MORE THAN THE LIMIT OF " + budget.maxTokens + " TOKENS", -1);
+            }
+            // Every token that isn't a number is an operation
+            int operations = 0;
+            for (String token : expression) {
+                if (opList().containsKey(token) && ++operations > budget.maxOperations) {
+                    throw ticket.operations(-1);
+                }
+            }
+        }
+        ticket.check(-1);
+        if (Metrics.ENABLED) {
+            if (expression != null) {
+                Metrics.evaluating(expression);
+            }
+            return Metrics.time(Metrics.Stage.EVALUATE, e -> compute(e, ticket), expression);
+        }
+        return compute(expression, ticket);
+    }
+
+    static double compute(List<String> expression) {
+        return compute(expression, null);
+    }
+
+    // Every number of the expression is worked out, so both branches of an if are computed here.
+    // Only CompiledExpression skips the branch that isn't picked
+    private static double compute(List<String> expression, Budget.Ticket ticket) {
+        // Create a list of strings to hold various operators
+        List<String> basicOps = Arrays.asList("+", "-", "*", "/", "^", "<", "<=", ">", ">=", "==", "!=", "min", "max");
+        List<String> trigOps = Arrays.asList("sin", "cos", "tan", "cot", "arcsin", "arccos", "arctan", "arcctg");
+        List<String> logOps = Arrays.asList("ln", "log", "sqrt");
+
+        // Create copyExpression from the original expression
+        List<String> copyExpression = new ArrayList<>();
+
+        // Initialize the index variable
+        int index = 0;
+
+        // Try and catch errors
+        try {
+            // Copy the original expression
+            copyExpression.addAll(expression);
+
+            // Steps taken, the budget is checked every CHECK_INTERVAL of them
+            int steps = 0;
+
+            // Loop while the copied expresion has more than one element
+            while (copyExpression.size() > 1) {
+                if (ticket != null && (++steps & CHECK_INTERVAL - 1) == 0) {
+                    ticket.check(-1);
+                }
+                // Initialize a variable temp to hold values
+                double temp = 0;
+
+                // If the next element is an basic operator
+                if (basicOps.contains(copyExpression.get(index))) {
+                    // Do the operation
+                    // If two numbers are present with an operator
+                    if (index >= 2) {
+                        // Compute the basic operation
+                        temp = basicComputation(Double.parseDouble(copyExpression.get(index-2)), Double.parseDouble(copyExpression.get(index-1)), copyExpression.get(index));
+                        // Index at -2 will have the result, while the two elements in front will be removed from the list
+                        copyExpression.set(index-2, Double.toString(temp));
+                        copyExpression.remove(index-1);
+                        copyExpression.remove(index-1);
+                        // Reset the index
+                        index = 0;
+                    }
+                    // If only one number is present followed by an operator
+                    else if (index == 1) {
+                        // For negative numbers
+                        if (copyExpression.get(index).equals("-")) {
+                            // Ignore the operator and keep the number and make it negative
+                            temp = Double.parseDouble(copyExpression.get(index-1));
+                            temp = 0 - temp;
+                            // Index at -1 will have the result, while the element in front will be removed from the list
+                            copyExpression.set(index-1, Double.toString(temp));
+                            copyExpression.remove(index);
+                            // Reset the index
+                            index = 0;
+                        }
+                        // For positive numbers
+                        else if (copyExpression.get(index).equals("+")) {
+                            // Ignore the operator and keep the number
+                            temp = Double.parseDouble(copyExpression.get(index-1));
+                            // Index at -1 will have the result, while the element in front will be removed from the list
+                            copyExpression.set(index-1, Double.toString(temp));
+                            copyExpression.remove(index);
+                            // Reset the index
+                            index = 0;
+                        }
+                        else {
+                            throw new ExpressionException("ERROR, CANNOT PROCESS EXPRESSION AS THERE IS AN INVALID OPERATOR USED WITH ONLY ONE NUMBER.", -1);
+                        }
+                    }
+                }
+
+                // If there is an if, its condition and both branches are in front of it
+                else if (copyExpression.get(index).equals("if")) {
+                    if (index < 3) {
+                        throw new ExpressionException("ERROR, CANNOT PROCESS EXPRESSION AS if NEEDS A CONDITION AND TWO BRANCHES.", -1);
+                    }
+                    // Keep the branch the condition picks in place of all four
+                    boolean holds = CompiledExpression.isTrue(Double.parseDouble(copyExpression.get(index-3)));
+                    copyExpression.set(index-3, copyExpression.get(holds ? index-2 : index-1));
+                    copyExpression.subList(index-2, index+1).clear();
+                    // Reset index
+                    index = 0;
+                }
+
+                // If there is a negation, the number in front of it changes sign
+                else if (copyExpression.get(index).equals(Operator.NEGATION.symbol)) {
+                    temp = 0 - Double.parseDouble(copyExpression.get(index-1));
+                    // Index at -1 will have the result, while the element in front will be removed from the list
+                    copyExpression.set(index-1, Double.toString(temp));
+                    copyExpression.remove(index);
+                    // Reset index
+                    index = 0;
+                }
+
+                // If their is a trig operator
+                else if (trigOps.contains(copyExpression.get(index))) {
+                    // Compute the trig operation
+                    temp = trigComputation(Double.parseDouble(copyExpression.get(index-1)), copyExpression.get(index));
+                    // Index at -1 will have the result, while the element in front will be removed from the list
+                    copyExpression.set(index-1, Double.toString(temp));
+                    copyExpression.remove(index);
+                    // Reset index
+                    index = 0;
+                }
+
+                // If their is a log operator
+                else if (logOps.contains(copyExpression.get(index))) {
+                    // Compute the log operation
+                    temp = logComputations(Double.parseDouble(copyExpression.get(index-1)), copyExpression.get(index));
+                    // Index at -1 will have the result, while the element in front will be removed from the list
+                    copyExpression.set(index-1, Double.toString(temp));
+                    copyExpression.remove(index);
+                    // Reset index
+                    index = 0;
+                }
+
+                index++;
+            }
+        }
+
+        // Catch for null expressions
+        catch (NullPointerException n) {
+            throw new ExpressionException("THERE WAS AN ERROR FROM RPN EXPRESSION: RECEIVED A NULL EXPRESSION.", -1);
+        }
+
+        // Catch for number formatting issues
+        catch (NumberFormatException n) {
+            throw new ExpressionException("THERE WAS AN ERROR FROM THE RESULT NUMBER: " + n.getMessage(), -1);
+        }
+
+        // Catch an operator without enough numbers in front of it, or numbers left over without
+        // one. Everything after index is still as it came in, so the offset is the token's place
+        // in the rpn
+        catch (IndexOutOfBoundsException n) {
+            throw unmatched(expression.size() - (copyExpression.size() - index));
+        }
+
+        // An empty expression has no result
+        if (copyExpression.isEmpty()) {
+            throw unmatched(0);
+        }
+
+        // Return the result of the expression, callers check for results that are not a number
+        try {
+            return Double.parseDouble(copyExpression.get(0));
+        }
+
+        // Catch any issues such as more than one decimal used for number
+        catch (NumberFormatException n) {
+            throw new ExpressionException("THERE WAS AN ERROR FROM THE RESULT NUMBER: " + n.getMessage(), -1);
+        }
+    }
+
+    private static ExpressionException unmatched(int offset) {
+        return new ExpressionException("ERROR, CANNOT PROCESS EXPRESSION AS THE NUMBERS AND OPERATORS DO NOT MATCH UP.", offset);
+    }
+
+    // basicComputation function
+    public static double basicComputation(double x, double y, String op) {
+        // Result will store the final computation
+        double result = 0;
+
+        // Addition
+        if (op.equals("+")) {
+            result = x + y;
+        }
+
+        // Subtraction
+        else if (op.equals("-")) {
+            result = x - y;
+        }
+
+        // Division
+        else if (op.equals("/")) {
+            // Check if the denominator is zero
+            if (y == 0) {
+                throw new EvaluationException("ERROR! CANNOT DIVIDE BY ZERO!");
+            }
+            result = x / y;
+        }
+
+        // Multiplication
+        else if (op.equals("*")) {
+            result = x * y;
+        }
+
+        // Power
+        else if (op.equals("^")) {
+            result = Math.pow(x, y);
+        }
+
+        // Comparisons give 1 when they hold and 0 when they don't
+        else if (op.equals("<")) {
+            result = CompiledExpression.truth(x < y);
+        }
+        else if (op.equals("<=")) {
+            result = CompiledExpression.truth(x <= y);
+        }
+        else if (op.equals(">")) {
+            result = CompiledExpression.truth(x > y);
+        }
+        else if (op.equals(">=")) {
+            result = CompiledExpression.truth(x >= y);
+        }
+        else if (op.equals("==")) {
+            result = CompiledExpression.truth(x == y);
+        }
+        else if (op.equals("!=")) {
+            result = CompiledExpression.truth(x != y);
+        }
+
+        // Minimum and maximum
+        else if (op.equals("min")) {
+            result = Math.min(x, y);
+        }
+        else if (op.equals("max")) {
+            result = Math.max(x, y);
+        }
+
+        return result;
+    }
+
+    // trigComputation function
+    public static double trigComputation(double x, String op) {
+        // Result will store the final computation
+        double result = 0;
+
+        // All trig functions will return in radians
+        // Sine
+        if (op.equals("sin")) {
+            result = FastMath.sin(x);
+        }
+
+        // Cosine
+        else if (op.equals("cos")) {
+            result = FastMath.cos(x);
+        }
+
+        // Tangent
+        else if (op.equals("tan")) {
+            result = FastMath.tan(x);
+        }
+
+        // Cotangent
+        else if (op.equals("cot")) {
+            result = FastMath.cot(x);
+        }
+
+        // Arcsine
+        else if (op.equals("arcsin")) {
+            result = FastMath.asin(x);
+        }
+
+        // Arccosine
+        else if (op.equals("arccos")) {
+            result = FastMath.acos(x);
+        }
+
+        // Arctangent
+        else if (op.equals("arctan")) {
+            result = FastMath.atan(x);
+        }
+
+        // Arccotangent
+        else if (op.equals("arcctg")) {
+            result = FastMath.arccot(x);
+        }
+
+        return result;
+    }
+
+    // logComputations functions
+    public static double logComputations(double x, String op) {
+        // Result will store the final computation
+        double result = 0;
+
+        // Natural Log
+        if (op.equals("ln")) {
+            result = FastMath.log(x);
+        }
+
+        // Log Base 10
+        else if (op.equals("log")) {
+            result = FastMath.log10(x);
+        }
+
+        // Square root, even though it isnt a log function...
+        else if (op.equals("sqrt")) {
+            result = Math.sqrt(x);
+        }
+
+        return result;
+    }
+
+    // Index of the parameter spelled by the run of letters at text[from], or -1
+    private static int parameterAt(char[] text, int from, String[] parameters) {
+        int end = from;
+        while (end < text.length && text[end] >= 'a' && text[end] <= 'z') {
+            end++;
+        }
+        for (int p = 0; p < parameters.length; p++) {
+            if (parameters[p].length() == end - from && parameters[p].contentEquals(CharBuffer.wrap(text, from, end - from))) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    // createExpression function will take a string expression created by the user and translate
+    // it into a workable array list for the shunting yard algorithm
+    public static List<String> createExpression(String origin) {
+        if (Metrics.ENABLED) {
+            return Metrics.time(Metrics.Stage.TOKENIZE, Calculator::tokenize, origin);
+        }
+        return tokenize(origin);
+    }
+
+    // createExpression function that also reads the functions and constants in the registry.
+    // Constants become their value and functions stay as their name for shuntingYard to inline
+    public static List<String> createExpression(String origin, Definitions definitions) {
+        Definitions.Table table = definitions.table();
+        if (Metrics.ENABLED) {
+            return Metrics.time(Metrics.Stage.TOKENIZE, o -> tokenize(o, table, NO_PARAMETERS), origin);
+        }
+        return tokenize(origin, table, NO_PARAMETERS);
+    }
+
+    private static List<String> tokenize(String origin) {
+        return tokenize(origin, Definitions.BUILT_IN, NO_PARAMETERS);
+    }
+
+    // Check if a minus after this character is the sign of what follows rather than a subtraction,
+    // which is after an opening bracket, a comma, a comparison or another operator
+    private static boolean startsOperand(char previous) {
+        return "([{,+-*/^<>=".indexOf(previous) >= 0;
+    }
+
+    private static ExpressionException invalid(char c, int offset) {
+        return new ExpressionException("THERE WAS AN ERROR PROCESSING YOUR EQUATION HERE: " + c + " is not a valid expression.", offset);
+    }
+
+    // Tokenize against a table of definitions, where the parameters of a function body being
+    // read become $0, $1, and so on
+    static List<String> tokenize(String origin, Definitions.Table table, String[] parameters) {
+        char[] tempOrigin = origin.toCharArray();
+        List<Character> operators = Arrays.asList('+', '-', '/', '*', '(', ')', '{', '}', '[', ']', '^');
+        List<Character> comparisons = Arrays.asList('<', '>', '=', '!');
+        List<String> result = new ArrayList<>();
+
+        // Temparary variable to hold numbers
+        String number = "";
+
+        for (int i = 0; i < tempOrigin.length; i++) {
+            try {
+                // Checking for digits
+                if (Character.isDigit(tempOrigin[i]) || tempOrigin[i] == '.') {
+                    number += tempOrigin[i];
+                }
+
+                // Add digits into expression
+                else if (number.length() > 0) {
+                    result.add(number);
+                    number = "";
+                    i--;
+                }
+
+                // Check if token is contained in the operators list
+                else if (operators.contains(tempOrigin[i])) {
+                    // Check if i-1 isn't out of the array
+                    if (i-1 >= 0 && i-1 < tempOrigin.length) {
+                        // Check for duplicates
+                        if (tempOrigin[i] == tempOrigin[i-1]) {
+                            // Check if subtraction (just in case)
+                            if (tempOrigin[i] == '-') {
+                                result.remove(result.size()-1);
+                                result.add("+");
+                            }
+                            else {
+                                result.add(Character.toString(tempOrigin[i]));
+                            }
+                        }
+
+                        else if (tempOrigin[i] == '-' && startsOperand(tempOrigin[i-1]) && Character.isDigit(tempOrigin[i+1])) {
+                            number += "-";
+                        }
+
+                        // A minus in front of a bracket or a name negates all of it
+                        else if (tempOrigin[i] == '-' && startsOperand(tempOrigin[i-1])) {
+                            result.add(Operator.NEGATION.symbol);
+                        }
+
+                        // Check for the rest
+                        else {
+                            result.add(Character.toString(tempOrigin[i]));
+                        }
+                    }
+
+                    // Else that the operator is either first
+                    else {
+                        // An expression can start with a bracket
+                        if (isOpening(Character.toString(tempOrigin[i]))) {
+                            result.add(Character.toString(tempOrigin[i]));
+                        }
+
+                        // Check for unary subtraction symbol
+                        else if (tempOrigin[i] == '-' && i == 0 && Character.isDigit(tempOrigin[i+1])) {
+                            number += "-"; 
+                        }
+
+                        // Check for double negative to positive
+                        else if (tempOrigin[i] == tempOrigin[i+1]) {
+                            result.add("+");
+                        }
+
+                        // Check if proceeded by a parenthasis or a name, which it negates
+                        else if (tempOrigin[i] == '-' && (isOpening(Character.toString(tempOrigin[i+1])) || tempOrigin[i+1] >= 'a' && tempOrigin[i+1] <= 'z')) {
+                            result.add(Operator.NEGATION.symbol);
+                        }
+
+                        // Invalid operator
+                        else {
+                            throw new ExpressionException("ERROR, CANNOT ADD OPERATOR FIRST UNLESS A NEGATIVE OPERATOR", i);
+                        }
+                    }
+                }
+
+                // Commas separate the arguments of a function
+                else if (tempOrigin[i] == ',') {
+                    result.add(",");
+                }
+
+                // Comparisons, = and ! only count when an = follows them
+                else if (comparisons.contains(tempOrigin[i])) {
+                    if (i + 1 < tempOrigin.length && tempOrigin[i+1] == '=') {
+                        result.add(tempOrigin[i] + "=");
+                        i++;
+                    }
+                    else if (tempOrigin[i] == '<' || tempOrigin[i] == '>') {
+                        result.add(Character.toString(tempOrigin[i]));
+                    }
+                    else {
+                        throw new ExpressionException("THERE WAS AN ERROR PROCESSING YOUR EQUATION HERE: " + tempOrigin[i] + " HAS TO BE FOLLOWED BY =.", i);
+                    }
+                }
+
+                // Checking for parameters, then functions and constants, then other operators that
+                // are longer than one character, such as sqrt or arcctg. The longest name wins
+                else if (tempOrigin[i] >= 'a' && tempOrigin[i] <= 'z') {
+                    int parameter = parameterAt(tempOrigin, i, parameters);
+                    int definition = parameter >= 0 ? -1 : table.match(tempOrigin, i, tempOrigin.length);
+                    Operator operator = parameter >= 0 ? null : Lexer.matchOperator(tempOrigin, i);
+                    if (parameter >= 0) {
+                        result.add("$" + parameter);
+                        i += parameters[parameter].length() - 1;
+                    }
+                    else if (definition >= 0 && (operator == null || table.entries[definition].name.length() > operator.symbol.length())) {
+                        Definitions.Definition named = table.entries[definition];
+                        result.add(named.isFunction() ? named.name : Double.toString(named.value));
+                        i += named.name.length() - 1;
+                    }
+                    else if (operator != null) {
+                        result.add(operator.symbol);
+                        i += operator.symbol.length() - 1;
+                    }
+                    else {
+                        throw invalid(tempOrigin[i], i);
+                    }
+                }
+
+                // If char does not apply to the expression rules, then show error
+                else {
+                    throw invalid(tempOrigin[i], i);
+                }
+            }
+            // Catch operators that run off either end of the expression
+            catch (IndexOutOfBoundsException e) {
+                throw new ExpressionException("THERE WAS AN ERROR PROCESSING YOUR EQUATION HERE: " + tempOrigin[i] + " HAS NOTHING AFTER IT.", i);
+            }
+        }
+        // Check for leftover numbers
+        if (number.length() > 0) {
+            result.add(number);
+        }
+        return result;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,360 @@
+/*
+Purpose: Numeric integration and root finding over an expression of one variable. The expression
+is parsed and optimized once and every point after that is one evaluation of the compiled program.
+integrate is adaptive Gauss-Kronrod quadrature: intervals whose error estimate is too large are
+halved, and the halves are forked onto a fork join pool so the subdivision spreads over every
+core. solve is Newton's method kept inside a bracket, taking the derivative from the same pass
+as the value and falling back to bisection when a Newton step would leave the bracket. Both report
+how many evaluations they took and whether they met the tolerance
+*/
+
+package calculator;
+
+// Importing Libraries
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public final class Calculus {
+
+    public static final double DEFAULT_TOLERANCE = 1e-10;
+
+    // Deepest an interval is halved, past this its estimate is taken as it is. Next to a
+    // singularity like 1/sqrt(x) at 0 an interval's share of the tolerance can't be met, but
+    // the integral still converges if the estimates add up to within the tolerance
+    private static final int MAX_DEPTH = 50;
+
+    // Halves are only forked while few tasks are waiting to be stolen, otherwise the worker keeps
+    // subdividing itself
+    private static final int SURPLUS = 3;
+
+    private static final int MAX_ITERATIONS = 200;
+
+    // 15 point Kronrod rule and the 7 point Gauss rule inside it. Nodes are on [0, 1] from the
+    // outside in, the last one is the middle, and the Gauss nodes are every other Kronrod node
+    private static final double[] KRONROD_NODES = {
+        0.991455371120812639206854697526329, 0.949107912342758524526189684047851,
+        0.864864423359769072789712788640926, 0.741531185599394439863864773280788,
+        0.586087235467691130294144845693013, 0.405845151377397166906606412076961,
+        0.207784955007898467600689403773245, 0.0};
+    private static final double[] KRONROD_WEIGHTS = {
+        0.022935322010529224963732008058970, 0.063092092629978553290700663189204,
+        0.104790010322250183839876322541518, 0.140653259715525918745189590510238,
+        0.169004726639267902826583426598550, 0.190350578064785409913256402421014,
+        0.204432940075298892414161999234649, 0.209482141084727828012999174891714};
+    private static final double[] GAUSS_WEIGHTS = {
+        0.129484966168869693270611432679082, 0.279705391489276667901467771423780,
+        0.381830050505118944950369775488975, 0.417959183673469387755102040816327};
+
+    private static final int POINTS = 15;
+
+    // Result of integrate
+    public static final class Integral {
+        public final double value;
+
+        // Sum of the error estimates of every interval
+        public final double error;
+        public final long evaluations;
+        public final long intervals;
+        public final int depth;
+        public final long tasks;
+        public final boolean converged;
+        public final long nanos;
+
+        Integral(double value, double error, long evaluations, long intervals, int depth, long tasks, boolean converged, long nanos) {
+            this.value = value;
+            this.error = error;
+            this.evaluations = evaluations;
+            this.intervals = intervals;
+            this.depth = depth;
+            this.tasks = tasks;
+            this.converged = converged;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("INTEGRAL: %s (error estimate %.3e), %d evaluations over %d intervals, depth %d, %d tasks, %s, %.3f ms",
+                value, error, evaluations, intervals, depth, tasks, converged ? "converged" : "NOT CONVERGED", nanos / 1e6);
+        }
+    }
+
+    // Result of solve
+    public static final class Root {
+        public final double root;
+
+        // Value of the expression at the root
+        public final double residual;
+
+        // Width of the bracket the root was last known to be in
+        public final double bracket;
+        public final long evaluations;
+        public final int newtonSteps;
+        public final int bisections;
+        public final boolean converged;
+        public final long nanos;
+
+        Root(double root, double residual, double bracket, long evaluations, int newtonSteps, int bisections, boolean converged, long nanos) {
+            this.root = root;
+            this.residual = residual;
+            this.bracket = bracket;
+            this.evaluations = evaluations;
+            this.newtonSteps = newtonSteps;
+            this.bisections = bisections;
+            this.converged = converged;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("ROOT: %s (residual %.3e, bracket %.3e), %d evaluations, %d newton steps, %d bisections, %s, %.3f ms",
+                root, residual, bracket, evaluations, newtonSteps, bisections, converged ? "converged" : "NOT CONVERGED", nanos / 1e6);
+        }
+    }
+
+    private final ForkJoinPool pool;
+
+    // Use the common pool, sized to the number of cores
+    public Calculus() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public Calculus(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // integrate function returns the integral of an expression of variable from a to b, to
+    // within tolerance
+    public Integral integrate(String expression, String variable, double a, double b, double tolerance) {
+        return integrate(compile(expression, variable), a, b, tolerance);
+    }
+
+    // integrate function for an expression already compiled with a single variable
+    public Integral integrate(CompiledExpression expression, double a, double b, double tolerance) {
+        checkSingleVariable(expression);
+        if (!Double.isFinite(a) || !Double.isFinite(b)) {
+            throw new IllegalArgumentException("ERROR, THE LIMITS OF AN INTEGRAL MUST BE FINITE.");
+        }
+        if (!(tolerance > 0)) {
+            throw new IllegalArgumentException("ERROR, THE TOLERANCE MUST BE GREATER THAN 0.");
+        }
+        long started = System.nanoTime();
+        if (a == b) {
+            return new Integral(0, 0, 0, 0, 0, 0, true, System.nanoTime() - started);
+        }
+        Piece whole = new Piece(expression, Math.min(a, b), Math.max(a, b), tolerance, 0);
+        pool.invoke(whole);
+        double sign = a < b ? 1 : -1;
+        return new Integral(sign * whole.value, whole.error, whole.intervals * POINTS, whole.intervals, whole.depth,
+            whole.tasks, whole.error <= tolerance, System.nanoTime() - started);
+    }
+
+    // solve function returns a root of an expression of variable between lo and hi, where it
+    // must change sign
+    public Root solve(String expression, String variable, double lo, double hi) {
+        return solve(expression, variable, lo, hi, DEFAULT_TOLERANCE);
+    }
+
+    public Root solve(String expression, String variable, double lo, double hi, double tolerance) {
+        return solve(compile(expression, variable), lo, hi, tolerance);
+    }
+
+    // solve function for an expression already compiled with a single variable. The root is
+    // found to within tolerance, or exactly when the bracket closes to neighbouring doubles first
+    public Root solve(CompiledExpression expression, double lo, double hi, double tolerance) {
+        checkSingleVariable(expression);
+        if (!Double.isFinite(lo) || !Double.isFinite(hi)) {
+            throw new IllegalArgumentException("ERROR, THE BRACKET MUST BE FINITE.");
+        }
+        if (!(tolerance > 0)) {
+            throw new IllegalArgumentException("ERROR, THE TOLERANCE MUST BE GREATER THAN 0.");
+        }
+        long started = System.nanoTime();
+        GradientEvaluator gradient = new GradientEvaluator(expression);
+        double[] x = new double[1];
+        double[] slope = new double[1];
+        double left = Math.min(lo, hi);
+        double right = Math.max(lo, hi);
+
+        x[0] = left;
+        double leftValue = gradient.evaluate(x, slope);
+        x[0] = right;
+        double rightValue = gradient.evaluate(x, slope);
+        long evaluations = 2;
+        if (leftValue == 0 || rightValue == 0) {
+            double root = leftValue == 0 ? left : right;
+            return new Root(root, 0, right - left, evaluations, 0, 0, true, System.nanoTime() - started);
+        }
+        if (Double.isNaN(leftValue) || Double.isNaN(rightValue) || (leftValue < 0) == (rightValue < 0)) {
+            throw new IllegalArgumentException("ERROR, THE EXPRESSION DOES NOT CHANGE SIGN BETWEEN " + lo + " AND " + hi + ".");
+        }
+        boolean leftNegative = leftValue < 0;
+
+        // Start in the middle and narrow the bracket with every point evaluated
+        double root = left + (right - left) / 2;
+        x[0] = root;
+        double value = gradient.evaluate(x, slope);
+        evaluations++;
+        int newtonSteps = 0;
+        int bisections = 0;
+        double lastStep = right - left;
+        boolean converged = false;
+        for (int i = 0; i < MAX_ITERATIONS; i++) {
+            if (value == 0) {
+                converged = true;
+                break;
+            }
+            if ((value < 0) == leftNegative) {
+                left = root;
+            }
+            else {
+                right = root;
+            }
+            if (right - left <= tolerance || Math.nextUp(left) >= right) {
+                converged = true;
+                break;
+            }
+            // Take the Newton step if it stays inside the bracket and at least halves the step
+            // before it, otherwise bisect
+            double step = value / slope[0];
+            double next = root - step;
+            if (Double.isFinite(next) && next > left && next < right && Math.abs(step) <= lastStep / 2) {
+                newtonSteps++;
+            }
+            else {
+                next = left + (right - left) / 2;
+                step = root - next;
+                bisections++;
+            }
+            lastStep = Math.abs(step);
+            root = next;
+            x[0] = root;
+            value = gradient.evaluate(x, slope);
+            evaluations++;
+            // A Newton step this small lands within tolerance of the root
+            if (lastStep <= tolerance / 2) {
+                converged = true;
+                break;
+            }
+        }
+        // A sign change across a pole, like tan at pi/2, closes the bracket just the same, but the
+        // value there is larger than at either end instead of 0
+        if (!(Math.abs(value) <= Math.max(Math.abs(leftValue), Math.abs(rightValue)))) {
+            converged = false;
+        }
+        return new Root(root, value, right - left, evaluations, newtonSteps, bisections, converged, System.nanoTime() - started);
+    }
+
+    // Parse and optimize an expression of one variable
+    private static CompiledExpression compile(String expression, String variable) {
+        if (expression == null) {
+            throw new ExpressionException("THERE WAS AN ERROR FROM THE EXPRESSION: RECEIVED A NULL EXPRESSION.", -1);
+        }
+        return Optimizer.optimize(new ExpressionParser(variable).compile(expression));
+    }
+
+    private static void checkSingleVariable(CompiledExpression expression) {
+        if (expression.variables().length != 1) {
+            throw new IllegalArgumentException("ERROR, THE EXPRESSION MUST BE COMPILED WITH EXACTLY ONE VARIABLE.");
+        }
+    }
+
+    // An interval and everything subdivided from it on the worker that runs it. Halves handed to
+    // other workers are their own pieces, and are added in when they finish
+    private static final class Piece extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final CompiledExpression expression;
+        private final double a;
+        private final double b;
+        private final double tolerance;
+        private final int startDepth;
+
+        // Each piece evaluates with its own scratch space
+        private final double[] x = new double[1];
+        private double[] stack;
+        private List<Piece> forked;
+
+        double value;
+        double error;
+        long intervals;
+        int depth;
+        long tasks = 1;
+
+        Piece(CompiledExpression expression, double a, double b, double tolerance, int startDepth) {
+            this.expression = expression;
+            this.a = a;
+            this.b = b;
+            this.tolerance = tolerance;
+            this.startDepth = startDepth;
+        }
+
+        @Override
+        protected void compute() {
+            stack = new double[expression.stackSize()];
+            subdivide(a, b, tolerance, startDepth);
+            if (forked == null) {
+                return;
+            }
+            // Join the latest fork first, it is the likeliest to still be on this worker's queue
+            for (int i = forked.size() - 1; i >= 0; i--) {
+                Piece piece = forked.get(i);
+                piece.join();
+                value += piece.value;
+                error += piece.error;
+                intervals += piece.intervals;
+                depth = Math.max(depth, piece.depth);
+                tasks += piece.tasks;
+            }
+        }
+
+        // Estimate the integral over a to b and halve it until the estimate is within its share
+        // of the tolerance
+        private void subdivide(double a, double b, double tolerance, int depth) {
+            double half = (b - a) / 2;
+            double middle = a + half;
+            double center = f(middle);
+            double kronrod = KRONROD_WEIGHTS[7] * center;
+            double gauss = GAUSS_WEIGHTS[3] * center;
+            for (int i = 0; i < 7; i++) {
+                double offset = half * KRONROD_NODES[i];
+                double sum = f(middle - offset) + f(middle + offset);
+                kronrod += KRONROD_WEIGHTS[i] * sum;
+                if ((i & 1) == 1) {
+                    gauss += GAUSS_WEIGHTS[i >> 1] * sum;
+                }
+            }
+            kronrod *= half;
+            gauss *= half;
+            double estimate = Math.abs(kronrod - gauss);
+            intervals++;
+
+            // Accept the interval when it is accurate enough, or when it can't be halved further
+            if (estimate <= tolerance || depth >= MAX_DEPTH || !(middle > a && middle < b) || !Double.isFinite(estimate)) {
+                value += kronrod;
+                error += estimate;
+                this.depth = Math.max(this.depth, depth);
+                return;
+            }
+            // Each half gets half the tolerance, so the errors add up to at most the tolerance
+            if (getSurplusQueuedTaskCount() < SURPLUS) {
+                Piece right = new Piece(expression, middle, b, tolerance / 2, depth + 1);
+                right.fork();
+                if (forked == null) {
+                    forked = new ArrayList<>();
+                }
+                forked.add(right);
+            }
+            else {
+                subdivide(middle, b, tolerance / 2, depth + 1);
+            }
+            subdivide(a, middle, tolerance / 2, depth + 1);
+        }
+
+        private double f(double point) {
+            x[0] = point;
+            return expression.evaluate(x, stack);
+        }
+    }
+}
@@ -0,0 +1,482 @@
+/*
+Purpose: Spreadsheet style store of named cells. A cell holds a number or a formula that can use
+other cells by name, such as c = sin(a)+b. Every cell keeps the cells that use it, so changing
+one cell marks only the cells that depend on it, directly or not, and recomputes those in
+topological order. The cost of an update grows with the number of affected cells, not with the
+size of the store. A formula that would make a cell depend on itself is rejected
+*/
+
+package calculator;
+
+// Importing Libraries
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public final class CellStore {
+
+    // Cells in one wave of a recompute below this many are evaluated on the calling thread
+    private static final int PARALLEL_THRESHOLD = 512;
+
+    private static final Cell[] NO_CELLS = new Cell[0];
+
+    private static final class Cell {
+        final String name;
+        // Text the cell was set to, null while it is only referenced by other cells
+        String formula;
+        // Compiled formula with one variable per input, null for a number
+        CompiledExpression compiled;
+        Cell[] inputs = NO_CELLS;
+        // Cells whose formulas use this one, created on first use
+        Set<Cell> dependents;
+        // Copy of dependents that recomputes walk, null once dependents has changed
+        Cell[] users = NO_CELLS;
+        double value;
+        String error;
+        // Recompute this cell last took part in, and inputs it is still waiting for
+        int mark;
+        int pending;
+
+        Cell(String name) {
+            this.name = name;
+        }
+
+        Cell[] users() {
+            if (users == null) {
+                users = dependents.toArray(NO_CELLS);
+            }
+            return users;
+        }
+    }
+
+    // Variable values and stack for evaluating on one thread
+    private static final class Scratch {
+        double[] values = new double[8];
+        double[] stack = new double[16];
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final Map<String, Cell> cells = new HashMap<>();
+    private final ForkJoinPool pool;
+    // Parser reused for every formula, its variables are set to the cells each one names
+    private final ExpressionParser parser = new ExpressionParser();
+    private int defined;
+    private int recompute;
+
+    // Recompute on the calling thread
+    public CellStore() {
+        this(null);
+    }
+
+    // Recompute waves of independent cells on the pool
+    public CellStore(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // set function gives a cell a formula and recomputes everything that depends on it. Returns
+    // the number of cells recomputed. Throws ExpressionException, leaving the store as it was,
+    // when the formula doesn't parse or would make a cell depend on itself
+    public int set(String name, String formula) {
+        Cell cell = cell(name);
+        try {
+            wire(cell, formula);
+        }
+        catch (RuntimeException e) {
+            dropIfUnused(cell);
+            throw e;
+        }
+        return recompute(List.of(cell));
+    }
+
+    // set function for a cell that holds a plain number
+    public int set(String name, double value) {
+        Cell cell = cell(name);
+        rewire(cell, NO_CELLS);
+        if (cell.formula == null) {
+            defined++;
+        }
+        cell.formula = Double.toString(value);
+        cell.compiled = null;
+        cell.value = value;
+        cell.error = null;
+        return recompute(List.of(cell));
+    }
+
+    // setAll function sets many cells and then recomputes once, so loading a sheet doesn't
+    // recompute a cell for every formula that uses it. Formulas may use cells set later in the
+    // same call. A bad formula stops the load, the cells before it keep their new formulas
+    public int setAll(Map<String, String> formulas) {
+        List<Cell> changed = new ArrayList<>(formulas.size());
+        int evaluated;
+        try {
+            for (Map.Entry<String, String> entry : formulas.entrySet()) {
+                Cell cell = cell(entry.getKey());
+                try {
+                    wire(cell, entry.getValue());
+                }
+                catch (RuntimeException e) {
+                    dropIfUnused(cell);
+                    throw e;
+                }
+                changed.add(cell);
+            }
+        }
+        finally {
+            evaluated = recompute(changed);
+        }
+        return evaluated;
+    }
+
+    // remove function clears a cell. Cells that use it stay and report it as not defined
+    public int remove(String name) {
+        Cell cell = cells.get(name);
+        if (cell == null || cell.formula == null) {
+            return 0;
+        }
+        rewire(cell, NO_CELLS);
+        cell.formula = null;
+        cell.compiled = null;
+        defined--;
+        if (cell.dependents == null || cell.dependents.isEmpty()) {
+            cells.remove(name);
+            return 0;
+        }
+        return recompute(List.of(cell));
+    }
+
+    // recomputeAll function evaluates every cell again
+    public int recomputeAll() {
+        return recompute(new ArrayList<>(cells.values()));
+    }
+
+    // value function returns a cell's value, or throws EvaluationException with the error that
+    // stopped it or one of its inputs
+    public double value(String name) {
+        Cell cell = find(name);
+        if (cell.error != null) {
+            throw new EvaluationException(cell.error);
+        }
+        return cell.value;
+    }
+
+    public String formula(String name) {
+        return find(name).formula;
+    }
+
+    public boolean contains(String name) {
+        Cell cell = cells.get(name);
+        return cell != null && cell.formula != null;
+    }
+
+    // Number of cells that have been set
+    public int size() {
+        return defined;
+    }
+
+    private Cell find(String name) {
+        Cell cell = cells.get(name);
+        if (cell == null || cell.formula == null) {
+            throw new ExpressionException("THERE IS NO CELL NAMED " + name + ".", -1);
+        }
+        return cell;
+    }
+
+    // Look up a cell, adding an empty one the first time a name is seen
+    private Cell cell(String name) {
+        Cell cell = cells.get(name);
+        if (cell == null) {
+            if (!Lexer.isValidVariable(name)) {
+                throw new ExpressionException("ERROR, " + name + " IS NOT A VALID CELL NAME, USE LOWERCASE LETTERS THAT ARE NOT AN OPERATOR.", -1);
+            }
+            cell = new Cell(name);
+            undefine(cell);
+            cells.put(name, cell);
+        }
+        return cell;
+    }
+
+    // Parse a formula, check it doesn't lead back to the cell, and point the cell at its inputs
+    private void wire(Cell cell, String formula) {
+        // Every run of letters that isn't an operator is a cell, so write sin(a) rather than sina
+        Map<String, Integer> references = references(formula);
+        String[] names = references.keySet().toArray(new String[0]);
+        parser.setVariables(names);
+        CompiledExpression compiled = Optimizer.optimize(parser.compile(formula));
+
+        // The formula can't use the cell itself or anything that already depends on it
+        Cell loop = findLoop(cell, names);
+        if (loop == cell) {
+            throw new ExpressionException("ERROR, CELL " + cell.name + " CAN'T USE ITSELF.", references.get(cell.name));
+        }
+        if (loop != null) {
+            throw new ExpressionException("ERROR, CELL " + cell.name + " CAN'T USE " + loop.name
+                + " BECAUSE " + loop.name + " DEPENDS ON " + cell.name + ".", references.get(loop.name));
+        }
+
+        Cell[] inputs = new Cell[names.length];
+        for (int i = 0; i < names.length; i++) {
+            inputs[i] = cell(names[i]);
+        }
+        rewire(cell, inputs);
+        if (cell.formula == null) {
+            defined++;
+        }
+        cell.formula = formula;
+        cell.compiled = compiled;
+    }
+
+    // Names used by a formula with the offset where each first appears
+    static Map<String, Integer> references(String formula) {
+        Map<String, Integer> references = new LinkedHashMap<>();
+        int i = 0;
+        while (i < formula.length()) {
+            char c = formula.charAt(i);
+            if (c < 'a' || c > 'z') {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < formula.length() && formula.charAt(i) >= 'a' && formula.charAt(i) <= 'z') {
+                i++;
+            }
+            String name = formula.substring(start, i);
+            if (Lexer.isValidVariable(name)) {
+                references.putIfAbsent(name, start);
+            }
+        }
+        return references;
+    }
+
+    // The first of the named cells that already depends on cell, or null. Searching forward
+    // from cell through its dependents and backward from the names through their inputs answer
+    // the same question, so both run a step at a time and whichever runs out first settles it.
+    // That keeps the check cheap whether a sheet is loaded from its inputs up or the other way
+    private Cell findLoop(Cell cell, String[] names) {
+        for (String name : names) {
+            if (name.equals(cell.name)) {
+                return cell;
+            }
+        }
+        // Nothing depends on a cell that is new or only ever used as an input so far
+        if (cell.dependents == null || cell.dependents.isEmpty()) {
+            return null;
+        }
+        Set<Cell> targets = new HashSet<>();
+        List<Cell> backward = new ArrayList<>();
+        Map<Cell, Cell> origin = new HashMap<>();
+        for (String name : names) {
+            Cell input = cells.get(name);
+            if (input != null) {
+                targets.add(input);
+                backward.add(input);
+                origin.put(input, input);
+            }
+        }
+        if (targets.isEmpty()) {
+            return null;
+        }
+        List<Cell> forward = new ArrayList<>();
+        Set<Cell> forwardSeen = new HashSet<>();
+        forward.add(cell);
+        while (!forward.isEmpty() && !backward.isEmpty()) {
+            // One cell forward, looking for any of the inputs
+            Cell next = forward.remove(forward.size() - 1);
+            if (next.dependents != null) {
+                for (Cell dependent : next.dependents) {
+                    if (targets.contains(dependent)) {
+                        return dependent;
+                    }
+                    if (forwardSeen.add(dependent)) {
+                        forward.add(dependent);
+                    }
+                }
+            }
+            // One cell backward, looking for cell
+            Cell previous = backward.remove(backward.size() - 1);
+            for (Cell input : previous.inputs) {
+                if (input == cell) {
+                    return origin.get(previous);
+                }
+                if (!origin.containsKey(input)) {
+                    origin.put(input, origin.get(previous));
+                    backward.add(input);
+                }
+            }
+        }
+        return null;
+    }
+
+    // Replace a cell's inputs, keeping the dependents of both old and new inputs in step
+    private void rewire(Cell cell, Cell[] inputs) {
+        Cell[] old = cell.inputs;
+        for (Cell input : old) {
+            input.dependents.remove(cell);
+            input.users = null;
+        }
+        for (Cell input : inputs) {
+            if (input.dependents == null) {
+                input.dependents = new HashSet<>(4);
+            }
+            input.dependents.add(cell);
+            input.users = null;
+        }
+        cell.inputs = inputs;
+        for (Cell input : old) {
+            dropIfUnused(input);
+        }
+    }
+
+    // Forget a cell that was never set once nothing refers to it
+    private void dropIfUnused(Cell cell) {
+        if (cell.formula == null && (cell.dependents == null || cell.dependents.isEmpty())) {
+            cells.remove(cell.name);
+        }
+    }
+
+    // Recompute the changed cells and everything that depends on them. Affected cells are found
+    // by walking dependents, each counts how many of its inputs are affected, and a cell is
+    // evaluated once that count reaches zero. Cells that become ready together form a wave with
+    // no dependencies between them, so a large wave is split across the pool
+    private int recompute(List<Cell> changed) {
+        int mark = ++recompute;
+        List<Cell> affected = new ArrayList<>();
+        for (Cell cell : changed) {
+            if (cell.mark != mark) {
+                cell.mark = mark;
+                affected.add(cell);
+            }
+        }
+        for (int i = 0; i < affected.size(); i++) {
+            for (Cell dependent : affected.get(i).users()) {
+                if (dependent.mark != mark) {
+                    dependent.mark = mark;
+                    affected.add(dependent);
+                }
+            }
+        }
+
+        // Count the affected inputs of every affected cell
+        for (Cell cell : affected) {
+            cell.pending = 0;
+        }
+        for (Cell cell : affected) {
+            for (Cell dependent : cell.users()) {
+                dependent.pending++;
+            }
+        }
+        Cell[] wave = new Cell[affected.size()];
+        int waveSize = 0;
+        for (Cell cell : affected) {
+            if (cell.pending == 0) {
+                wave[waveSize++] = cell;
+            }
+        }
+
+        // Evaluate a wave, then release the cells waiting on it into the next wave
+        Cell[] next = new Cell[affected.size()];
+        int evaluated = 0;
+        while (waveSize > 0) {
+            if (pool != null && waveSize >= PARALLEL_THRESHOLD) {
+                pool.invoke(new WaveTask(wave, 0, waveSize));
+            }
+            else {
+                Scratch scratch = SCRATCH.get();
+                for (int i = 0; i < waveSize; i++) {
+                    evaluate(wave[i], scratch);
+                }
+            }
+            evaluated += waveSize;
+            int nextSize = 0;
+            for (int i = 0; i < waveSize; i++) {
+                for (Cell dependent : wave[i].users()) {
+                    if (--dependent.pending == 0) {
+                        next[nextSize++] = dependent;
+                    }
+                }
+            }
+            Cell[] swap = wave;
+            wave = next;
+            next = swap;
+            waveSize = nextSize;
+        }
+        return evaluated;
+    }
+
+    // Evaluate one cell from its inputs, an input with an error passes the error on
+    private static void evaluate(Cell cell, Scratch scratch) {
+        if (cell.formula == null) {
+            undefine(cell);
+            return;
+        }
+        CompiledExpression compiled = cell.compiled;
+        if (compiled == null) {
+            return;
+        }
+        Cell[] inputs = cell.inputs;
+        if (scratch.values.length < inputs.length) {
+            scratch.values = new double[Math.max(inputs.length, scratch.values.length * 2)];
+        }
+        double[] values = scratch.values;
+        for (int i = 0; i < inputs.length; i++) {
+            if (inputs[i].error != null) {
+                cell.value = Double.NaN;
+                cell.error = inputs[i].error;
+                return;
+            }
+            values[i] = inputs[i].value;
+        }
+        if (scratch.stack.length < compiled.stackSize()) {
+            scratch.stack = new double[Math.max(compiled.stackSize(), scratch.stack.length * 2)];
+        }
+        try {
+            cell.value = compiled.evaluate(values, scratch.stack);
+            cell.error = null;
+        }
+        catch (IllegalArgumentException | ArithmeticException e) {
+            Metrics.error(e);
+            cell.value = Double.NaN;
+            cell.error = "CELL " + cell.name + ": " + e.getMessage();
+        }
+    }
+
+    // A cell that is used but was never set, or was removed
+    private static void undefine(Cell cell) {
+        cell.value = Double.NaN;
+        cell.error = "CELL " + cell.name + " IS NOT DEFINED.";
+    }
+
+    // Part of a wave evaluated on the pool
+    private static final class WaveTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Cell[] wave;
+        private final int from;
+        private final int to;
+
+        WaveTask(Cell[] wave, int from, int to) {
+            this.wave = wave;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                Scratch scratch = SCRATCH.get();
+                for (int i = from; i < to; i++) {
+                    evaluate(wave[i], scratch);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new WaveTask(wave, from, middle), new WaveTask(wave, middle, to));
+        }
+    }
+}
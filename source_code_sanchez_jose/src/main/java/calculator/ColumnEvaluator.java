@@ -0,0 +1,132 @@
+/*
+Purpose: Runs a CompiledExpression over columns of variable values. Every stack entry is a block
+of values instead of one number, so each opcode is dispatched once per block and its work is a
+tight loop over primitive arrays that ColumnOperations can vectorize. Programs with jumps take a
+different branch at different points, so they are evaluated a point at a time instead
+*/
+
+package calculator;
+
+// Importing Libraries
+import java.util.Arrays;
+
+final class ColumnEvaluator {
+
+    // Points worked on at a time, small enough that a few blocks stay in cache
+    private static final int BLOCK_SIZE = 1024;
+
+    // Doubles the blocks of one evaluation may use, deep expressions get shorter blocks
+    private static final int WORKING_SET = 1 << 18;
+
+    private ColumnEvaluator() {
+    }
+
+    // evaluate function fills out[from, to) from the columns, one column per variable
+    static void evaluate(CompiledExpression expression, double[][] columns, double[] out, int from, int to) {
+        if (Metrics.ENABLED) {
+            Metrics.evaluated(expression, to - from);
+        }
+        if (expression.branches) {
+            evaluatePoints(expression, columns, out, from, to);
+            return;
+        }
+        int blockSize = Math.max(8, Math.min(BLOCK_SIZE, WORKING_SET / Math.max(1, expression.stackSize())));
+        double[][] stack = new double[expression.stackSize()][blockSize];
+        for (int start = from; start < to; start += blockSize) {
+            int length = Math.min(blockSize, to - start);
+            run(expression, columns, stack, start, length);
+            System.arraycopy(stack[0], 0, out, start, length);
+        }
+    }
+
+    // Evaluate one point after another, so each only runs the branches it picks
+    private static void evaluatePoints(CompiledExpression expression, double[][] columns, double[] out, int from, int to) {
+        double[] values = new double[expression.variables.length];
+        double[] stack = new double[expression.stackSize()];
+        for (int i = from; i < to; i++) {
+            for (int v = 0; v < values.length; v++) {
+                values[v] = columns[v][i];
+            }
+            out[i] = expression.evaluateUncounted(values, stack);
+        }
+    }
+
+    // Run the program once over the points [start, start + length)
+    private static void run(CompiledExpression expression, double[][] columns, double[][] stack, int start, int length) {
+        ColumnOperations operations = ColumnOperations.INSTANCE;
+        int[] code = expression.code;
+        int slots = expression.maxStack;
+        int sp = 0;
+        int pc = 0;
+
+        while (pc < code.length) {
+            switch (code[pc++]) {
+                case CompiledExpression.PUSH:
+                    Arrays.fill(stack[sp++], 0, length, expression.constants[code[pc++]]);
+                    break;
+                case CompiledExpression.VAR:
+                    System.arraycopy(columns[code[pc++]], start, stack[sp++], 0, length);
+                    break;
+                case CompiledExpression.LOAD:
+                    System.arraycopy(stack[slots + code[pc++]], 0, stack[sp++], 0, length);
+                    break;
+                case CompiledExpression.STORE:
+                    System.arraycopy(stack[sp - 1], 0, stack[slots + code[pc++]], 0, length);
+                    break;
+                case CompiledExpression.ADD:
+                    sp--;
+                    operations.add(stack[sp - 1], stack[sp], 0, length);
+                    break;
+                case CompiledExpression.SUBTRACT:
+                    sp--;
+                    operations.subtract(stack[sp - 1], stack[sp], 0, length);
+                    break;
+                case CompiledExpression.MULTIPLY:
+                    sp--;
+                    operations.multiply(stack[sp - 1], stack[sp], 0, length);
+                    break;
+                case CompiledExpression.DIVIDE:
+                    sp--;
+                    operations.divide(stack[sp - 1], stack[sp], 0, length);
+                    break;
+                case CompiledExpression.NEGATE:
+                    operations.negate(stack[sp - 1], 0, length);
+                    break;
+                case CompiledExpression.SQRT:
+                    operations.sqrt(stack[sp - 1], 0, length);
+                    break;
+                // The Vector API's pow and trig functions don't round the same way as Math, so
+                // these stay scalar, along with the comparisons, min and max, and give the same
+                // numbers as evaluating one point at a time
+                case CompiledExpression.POWER:
+                case CompiledExpression.LESS:
+                case CompiledExpression.LESS_EQUAL:
+                case CompiledExpression.GREATER:
+                case CompiledExpression.GREATER_EQUAL:
+                case CompiledExpression.EQUAL:
+                case CompiledExpression.NOT_EQUAL:
+                case CompiledExpression.MIN:
+                case CompiledExpression.MAX:
+                    sp--;
+                    binary(code[pc - 1], stack[sp - 1], stack[sp], length);
+                    break;
+                default:
+                    unary(code[pc - 1], stack[sp - 1], length);
+                    break;
+            }
+        }
+    }
+
+    // Operators with no vector form, run a point at a time the same way as in CompiledExpression
+    private static void binary(int opcode, double[] a, double[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            a[i] = CompiledExpression.binary(opcode, a[i], b[i]);
+        }
+    }
+
+    private static void unary(int opcode, double[] a, int length) {
+        for (int i = 0; i < length; i++) {
+            a[i] = CompiledExpression.unary(opcode, a[i]);
+        }
+    }
+}
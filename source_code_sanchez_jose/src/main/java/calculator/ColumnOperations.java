@@ -0,0 +1,74 @@
+/*
+Purpose: Elementwise arithmetic over columns of doubles used by ColumnEvaluator. This class is the
+plain loop version, VectorColumnOperations overrides it with the incubating Vector API when the
+jdk.incubator.vector module has been added to the JVM. Both give exactly the same results
+*/
+
+package calculator;
+
+class ColumnOperations {
+
+    // The fastest version available, chosen once when the class is loaded
+    static final ColumnOperations INSTANCE = select();
+
+    // Use the Vector API only if its module is present and it hasn't been turned off with
+    // -Dcalculator.vector=false, otherwise fall back to plain loops
+    private static ColumnOperations select() {
+        if (Boolean.parseBoolean(System.getProperty("calculator.vector", "true"))
+            && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (ColumnOperations) Class.forName("calculator.VectorColumnOperations").getDeclaredConstructor().newInstance();
+            }
+            catch (ReflectiveOperationException | LinkageError e) {
+                return new ColumnOperations();
+            }
+        }
+        return new ColumnOperations();
+    }
+
+    // Name of the version in use, for reports
+    String name() {
+        return "scalar";
+    }
+
+    // Every operation works on a[from, to) in place, with b as the right hand side
+    void add(double[] a, double[] b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            a[i] = a[i] + b[i];
+        }
+    }
+
+    void subtract(double[] a, double[] b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            a[i] = a[i] - b[i];
+        }
+    }
+
+    void multiply(double[] a, double[] b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            a[i] = a[i] * b[i];
+        }
+    }
+
+    void divide(double[] a, double[] b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            // Check if the denominator is zero
+            if (b[i] == 0) {
+                throw new EvaluationException("ERROR! CANNOT DIVIDE BY ZERO!");
+            }
+            a[i] = a[i] / b[i];
+        }
+    }
+
+    void negate(double[] a, int from, int to) {
+        for (int i = from; i < to; i++) {
+            a[i] = -a[i];
+        }
+    }
+
+    void sqrt(double[] a, int from, int to) {
+        for (int i = from; i < to; i++) {
+            a[i] = Math.sqrt(a[i]);
+        }
+    }
+}
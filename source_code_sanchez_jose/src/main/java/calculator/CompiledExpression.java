@@ -0,0 +1,648 @@
+/*
+Purpose: Compiled form of an RPN expression. The tokens produced by shuntingYard are translated
+once into an opcode array and a constant pool, which can then be evaluated any number of times
+in a single pass over a primitive double stack. Expressions evaluated often enough are turned
+into bytecode by BytecodeGenerator and run from then on without the interpreter. Expressions with
+variables can also be evaluated a column at a time over arrays of values. Conditionals are
+compiled to jumps, so only the branch that is picked is ever computed
+*/
+
+package calculator;
+
+// Importing Libraries
+import java.util.Arrays;
+import java.util.List;
+
+public final class CompiledExpression {
+
+    // Opcodes, PUSH is followed by the index of its value in the constant pool, VAR by the index
+    // of a variable, and LOAD and STORE by a slot number. STORE copies the top of the stack into
+    // its slot without popping it. JUMP and JUMP_IF_FALSE are followed by how far to jump,
+    // counted from the word after that, and JUMP_IF_FALSE pops the condition it tests
+    static final int PUSH = 0;
+    static final int ADD = 1;
+    static final int SUBTRACT = 2;
+    static final int MULTIPLY = 3;
+    static final int DIVIDE = 4;
+    static final int POWER = 5;
+    static final int NEGATE = 6;
+    static final int SQRT = 7;
+    static final int SIN = 8;
+    static final int COS = 9;
+    static final int TAN = 10;
+    static final int COT = 11;
+    static final int ARCSIN = 12;
+    static final int ARCCOS = 13;
+    static final int ARCTAN = 14;
+    static final int ARCCTG = 15;
+    static final int LN = 16;
+    static final int LOG10 = 17;
+    static final int LOAD = 18;
+    static final int STORE = 19;
+    static final int VAR = 20;
+    static final int LESS = 21;
+    static final int LESS_EQUAL = 22;
+    static final int GREATER = 23;
+    static final int GREATER_EQUAL = 24;
+    static final int EQUAL = 25;
+    static final int NOT_EQUAL = 26;
+    static final int MIN = 27;
+    static final int MAX = 28;
+    static final int JUMP = 29;
+    static final int JUMP_IF_FALSE = 30;
+    static final int OPCODE_COUNT = 31;
+
+    private static final String[] NO_VARIABLES = {};
+
+    // Operator ordinal of each opcode for Metrics, negation counting as a subtraction the way
+    // shuntingYard reads it, every condition tested as an if, and -1 for opcodes that aren't an
+    // operator
+    static final int[] ORDINAL_OF_OPCODE = new int[OPCODE_COUNT];
+
+    static {
+        Arrays.fill(ORDINAL_OF_OPCODE, -1);
+        for (Calculator.Operator operator : Calculator.Operator.values()) {
+            if (operator != Calculator.Operator.IF && operator != Calculator.Operator.PIECEWISE) {
+                ORDINAL_OF_OPCODE[opcodeOf(operator)] = operator.ordinal();
+            }
+        }
+        ORDINAL_OF_OPCODE[NEGATE] = Calculator.Operator.SUBTRACTION.ordinal();
+        ORDINAL_OF_OPCODE[JUMP_IF_FALSE] = Calculator.Operator.IF.ordinal();
+    }
+
+    // Operator counts that haven't been worked out yet, and the operators whose counts fit in a
+    // long, the first sixteen ordinals
+    static final long OPERATORS_UNKNOWN = -1L;
+    private static final int PACKED_OPERATORS = 16;
+
+    private static final double[] NO_VALUES = {};
+
+    // Number of evaluations before an expression is turned into bytecode, zero or less keeps
+    // every expression in the interpreter
+    static final int COMPILE_THRESHOLD = Integer.getInteger("calculator.compileThreshold", 10000);
+
+    // Generated code for an expression, evaluate has the same contract as evaluate(double[], double[])
+    interface Kernel {
+        double evaluate(double[] variables, double[] stack);
+    }
+
+    // The program, its constant pool, the deepest the stack gets while running it, the number of
+    // slots holding shared subexpressions, and the names of the variables in order
+    final int[] code;
+    final double[] constants;
+    final int maxStack;
+    final int slotCount;
+    final String[] variables;
+
+    // Whether the program has jumps, which some evaluators can't follow
+    final boolean branches;
+
+    // Operators in the program for Metrics. The parser hands over how often each one appears
+    // packed four bits per ordinal, otherwise pairs of ordinal and count are worked out from the
+    // program the first time they are needed
+    private final long operatorsPacked;
+    private volatile int[] operatorUses;
+
+    // Scratch stack reused by evaluate(), so an instance on its own is not thread safe
+    private final double[] stack;
+
+    // Evaluations so far and the generated code once there is some. The count is not atomic,
+    // a lost update only delays generating by an evaluation
+    private int evaluations;
+    private volatile Kernel kernel;
+    private volatile boolean generateFailed;
+
+    CompiledExpression(int[] code, double[] constants, int maxStack) {
+        this(code, constants, maxStack, 0, NO_VARIABLES);
+    }
+
+    CompiledExpression(int[] code, double[] constants, int maxStack, int slotCount, String[] variables) {
+        this(code, constants, maxStack, slotCount, variables, OPERATORS_UNKNOWN);
+    }
+
+    CompiledExpression(int[] code, double[] constants, int maxStack, int slotCount, String[] variables, long operatorsPacked) {
+        this.code = code;
+        this.constants = constants;
+        this.maxStack = maxStack;
+        this.slotCount = slotCount;
+        this.variables = variables;
+        this.stack = new double[maxStack + slotCount];
+        this.operatorsPacked = operatorsPacked;
+        this.branches = hasJumps(code);
+    }
+
+    private static boolean hasJumps(int[] code) {
+        for (int pc = 0; pc < code.length; pc++) {
+            if (code[pc] == JUMP_IF_FALSE) {
+                return true;
+            }
+            if (hasOperand(code[pc])) {
+                pc++;
+            }
+        }
+        return false;
+    }
+
+    // compile function takes the rpn expression from shuntingYard and translates it into opcodes
+    public static CompiledExpression compile(List<String> rpn) {
+        // Check for null expressions
+        if (rpn == null) {
+            throw new ExpressionException("THERE WAS AN ERROR FROM RPN EXPRESSION: RECEIVED A NULL EXPRESSION.", -1);
+        }
+
+        // Every token becomes at most four ints of code and one constant
+        int[] code = new int[rpn.size() * 4];
+        double[] constants = new double[rpn.size()];
+        int codeLength = 0;
+        int constantCount = 0;
+
+        // Track the stack depth so operators can be checked before they are ever run, and where
+        // the code of each number on the stack starts so an if can put jumps around its branches
+        int depth = 0;
+        int maxDepth = 0;
+        int[] starts = new int[rpn.size()];
+
+        for (String token : rpn) {
+            Calculator.Operator operator = Calculator.opList().get(token);
+
+            // If the token is not an operator, then it is a number
+            if (operator == null) {
+                // Leftover parenthesis, braces, or brackets mean the expression is unbalanced
+                if (token.equals("(") || token.equals(")") || token.equals("[") || token.equals("]")
+                    || token.equals("{") || token.equals("}")) {
+                    throw new ExpressionException("THERE WAS AN ERROR USING THE RPN EXPRESSION: Leftover parenthesis/brace/bracket.", -1);
+                }
+                constants[constantCount] = Double.parseDouble(token);
+                starts[depth] = codeLength;
+                code[codeLength++] = PUSH;
+                code[codeLength++] = constantCount++;
+                depth++;
+                maxDepth = Math.max(maxDepth, depth);
+            }
+
+            // Basic operators take two numbers
+            else if (isBinary(operator)) {
+                if (depth >= 2) {
+                    code[codeLength++] = opcodeOf(operator);
+                    depth--;
+                }
+                // If only one number is present, a minus makes it negative and a plus keeps it
+                else if (depth == 1 && operator == Calculator.Operator.SUBTRACTION) {
+                    code[codeLength++] = NEGATE;
+                }
+                else if (depth == 1 && operator == Calculator.Operator.ADDITION) {
+                    continue;
+                }
+                else {
+                    throw new ExpressionException("ERROR, CANNOT PROCESS EXPRESSION AS THERE IS AN INVALID OPERATOR USED WITH ONLY ONE NUMBER.", -1);
+                }
+            }
+
+            // An if takes a condition and two branches, which are already in the code one after
+            // the other. Jumps go in around the branches so only one of them is run
+            else if (operator == Calculator.Operator.IF) {
+                if (depth < 3) {
+                    throw new ExpressionException("ERROR, CANNOT PROCESS EXPRESSION AS if NEEDS A CONDITION AND TWO BRANCHES.", -1);
+                }
+                int whenTrue = starts[depth - 2];
+                int whenFalse = starts[depth - 1];
+                System.arraycopy(code, whenFalse, code, whenFalse + 4, codeLength - whenFalse);
+                System.arraycopy(code, whenTrue, code, whenTrue + 2, whenFalse - whenTrue);
+                code[whenTrue] = JUMP_IF_FALSE;
+                code[whenTrue + 1] = whenFalse - whenTrue + 2;
+                code[whenFalse + 2] = JUMP;
+                code[whenFalse + 3] = codeLength - whenFalse;
+                codeLength += 4;
+                depth -= 2;
+            }
+
+            // shuntingYard writes piecewise out as ifs
+            else if (operator == Calculator.Operator.PIECEWISE) {
+                throw new ExpressionException("ERROR, CANNOT PROCESS EXPRESSION AS piecewise HAS TO BE WRITTEN OUT AS if.", -1);
+            }
+
+            // Trig and log operators take one number
+            else {
+                if (depth < 1) {
+                    throw new ExpressionException("ERROR, CANNOT PROCESS EXPRESSION AS " + token + " HAS NO NUMBER TO USE.", -1);
+                }
+                code[codeLength++] = opcodeOf(operator);
+            }
+        }
+
+        // A finished expression leaves exactly one number behind
+        if (depth != 1) {
+            throw new ExpressionException("ERROR, CANNOT PROCESS EXPRESSION AS THE NUMBERS AND OPERATORS DO NOT MATCH UP.", -1);
+        }
+        return new CompiledExpression(Arrays.copyOf(code, codeLength), Arrays.copyOf(constants, constantCount), maxDepth);
+    }
+
+    // Check if an operator takes two numbers, min and max of more are run two at a time
+    static boolean isBinary(Calculator.Operator operator) {
+        switch (operator) {
+            case ADDITION:
+            case SUBTRACTION:
+            case MULTIPLICATION:
+            case DIVISION:
+            case POWER:
+            case LESS:
+            case LESS_EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+            case EQUAL:
+            case NOT_EQUAL:
+            case MINIMUM:
+            case MAXIMUM:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Check if an operator is written with its arguments in brackets, separated by commas
+    static boolean takesArguments(Calculator.Operator operator) {
+        switch (operator) {
+            case IF:
+            case MINIMUM:
+            case MAXIMUM:
+            case PIECEWISE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Map an operator onto its opcode
+    static int opcodeOf(Calculator.Operator operator) {
+        switch (operator) {
+            case ADDITION: return ADD;
+            case SUBTRACTION: return SUBTRACT;
+            case MULTIPLICATION: return MULTIPLY;
+            case DIVISION: return DIVIDE;
+            case POWER: return POWER;
+            case SQUAREROOT: return SQRT;
+            case SINE: return SIN;
+            case COSINE: return COS;
+            case TANGENT: return TAN;
+            case COTANGENT: return COT;
+            case ARCSINE: return ARCSIN;
+            case ARCCOSINE: return ARCCOS;
+            case ARCTANGENT: return ARCTAN;
+            case ARCCOTANGENT: return ARCCTG;
+            case LOGN: return LN;
+            case LOG10: return LOG10;
+            case LESS: return LESS;
+            case LESS_EQUAL: return LESS_EQUAL;
+            case GREATER: return GREATER;
+            case GREATER_EQUAL: return GREATER_EQUAL;
+            case EQUAL: return EQUAL;
+            case NOT_EQUAL: return NOT_EQUAL;
+            case MINIMUM: return MIN;
+            case MAXIMUM: return MAX;
+            case NEGATION: return NEGATE;
+            default: throw new IllegalArgumentException("UNKNOWN OPERATOR: " + operator.symbol);
+        }
+    }
+
+    // Add the operators run by this many evaluations into counts, indexed by ordinal
+    void countOperators(long[] counts, long times) {
+        long packed = operatorsPacked;
+        if (packed != OPERATORS_UNKNOWN) {
+            // Every slot is added, even empty ones, so there is no branch that depends on the
+            // expression
+            for (int ordinal = 0; ordinal < PACKED_OPERATORS; ordinal++) {
+                counts[ordinal] += ((packed >>> (4 * ordinal)) & 15) * times;
+            }
+            return;
+        }
+        int[] uses = operatorUses;
+        if (uses == null) {
+            uses = operatorUses(code);
+            operatorUses = uses;
+        }
+        for (int i = 0; i < uses.length; i += 2) {
+            counts[uses[i]] += uses[i + 1] * times;
+        }
+    }
+
+    // Add one operator to counts packed the way the parser keeps them, four bits per ordinal.
+    // A count that would reach 15, or an operator past the packed ones, makes the whole thing
+    // OPERATORS_UNKNOWN, so that value can never be a real count
+    static long packOperator(long packed, int ordinal) {
+        if (packed == OPERATORS_UNKNOWN || ordinal >= PACKED_OPERATORS || ((packed >>> (4 * ordinal)) & 15) == 14) {
+            return OPERATORS_UNKNOWN;
+        }
+        return packed + (1L << (4 * ordinal));
+    }
+
+    // Pair the ordinal of every operator in a program with its count
+    private static int[] operatorUses(int[] code) {
+        int[] perOperator = new int[Calculator.Operator.values().length];
+        int used = 0;
+        for (int pc = 0; pc < code.length; pc++) {
+            if (ORDINAL_OF_OPCODE[code[pc]] >= 0 && perOperator[ORDINAL_OF_OPCODE[code[pc]]]++ == 0) {
+                used++;
+            }
+            if (hasOperand(code[pc])) {
+                pc++;
+            }
+        }
+        int[] uses = new int[2 * used];
+        int next = 0;
+        for (int ordinal = 0; ordinal < perOperator.length; ordinal++) {
+            if (perOperator[ordinal] > 0) {
+                uses[next++] = ordinal;
+                uses[next++] = perOperator[ordinal];
+            }
+        }
+        return uses;
+    }
+
+    // Size of the stack needed to evaluate this expression, slots included
+    public int stackSize() {
+        return maxStack + slotCount;
+    }
+
+    // Names of the variables, values are passed in this order
+    public String[] variables() {
+        return variables.clone();
+    }
+
+    // Number of operations run per evaluation, not counting loads of numbers and slots
+    public int operationCount() {
+        int count = 0;
+        for (int pc = 0; pc < code.length; pc++) {
+            if (hasOperand(code[pc])) {
+                pc++;
+            }
+            else {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Check if an opcode is followed by an operand
+    static boolean hasOperand(int opcode) {
+        return opcode == PUSH || opcode == LOAD || opcode == STORE || opcode == VAR || opcode == JUMP || opcode == JUMP_IF_FALSE;
+    }
+
+    // Change in stack depth from running an opcode, reading the program straight through. A
+    // JUMP counts as popping its branch's number, since the branch after it pushes its own in
+    // the same place
+    static int stackEffect(int opcode) {
+        switch (opcode) {
+            case PUSH:
+            case VAR:
+            case LOAD:
+                return 1;
+            case STORE:
+            case NEGATE:
+                return 0;
+            case ADD:
+            case SUBTRACT:
+            case MULTIPLY:
+            case DIVIDE:
+            case POWER:
+            case LESS:
+            case LESS_EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+            case EQUAL:
+            case NOT_EQUAL:
+            case MIN:
+            case MAX:
+            case JUMP:
+            case JUMP_IF_FALSE:
+                return -1;
+            default:
+                return 0;
+        }
+    }
+
+    // A condition holds when it is a number other than 0, comparisons give 1 or 0 and NaN
+    // holds for nothing
+    static boolean isTrue(double condition) {
+        return condition != 0 && condition == condition;
+    }
+
+    // Comparisons give 1 when they hold and 0 when they don't
+    static double truth(boolean holds) {
+        return holds ? 1 : 0;
+    }
+
+    // Evaluate using the expression's own scratch stack
+    public double evaluate() {
+        return evaluate(NO_VALUES, stack);
+    }
+
+    // Evaluate using a stack supplied by the caller, which must hold at least stackSize() numbers
+    public double evaluate(double[] stack) {
+        return evaluate(NO_VALUES, stack);
+    }
+
+    // Evaluate with one value for each variable, in the order of variables(). The interpreter
+    // runs until the expression has been evaluated COMPILE_THRESHOLD times
+    public double evaluate(double[] values, double[] stack) {
+        if (Metrics.ENABLED) {
+            long started = Metrics.evaluating(this);
+            double value = evaluateUncounted(values, stack);
+            Metrics.stop(Metrics.Stage.EVALUATE, started);
+            return value;
+        }
+        return evaluateUncounted(values, stack);
+    }
+
+    double evaluateUncounted(double[] values, double[] stack) {
+        checkVariables(values.length);
+        Kernel kernel = this.kernel;
+        if (kernel != null) {
+            return kernel.evaluate(values, stack);
+        }
+        if (evaluations < COMPILE_THRESHOLD && ++evaluations == COMPILE_THRESHOLD) {
+            generateCode();
+        }
+        return run(values, stack);
+    }
+
+    // evaluate function for an expression of x and y, out[i] is the value at x[i] and y[i].
+    // Points are worked through a block of columns at a time instead of one at a time
+    public void evaluate(double[] x, double[] y, double[] out) {
+        evaluate(new double[][] {x, y}, out);
+    }
+
+    // evaluate function over one column of values per variable
+    public void evaluate(double[][] columns, double[] out) {
+        checkVariables(columns.length);
+        for (int v = 0; v < variables.length; v++) {
+            if (columns[v].length < out.length) {
+                throw new IllegalArgumentException("ERROR, THE COLUMN FOR " + variables[v] + " HAS FEWER VALUES THAN THE OUTPUT.");
+            }
+        }
+        ColumnEvaluator.evaluate(this, columns, out, 0, out.length);
+    }
+
+    // Check that there is a value for every variable
+    void checkVariables(int count) {
+        if (count < variables.length) {
+            throw new IllegalArgumentException("ERROR, THE EXPRESSION NEEDS A VALUE FOR EACH OF ITS VARIABLES: " + String.join(", ", variables) + ".");
+        }
+    }
+
+    // generateCode function turns the expression into bytecode now instead of waiting for it to
+    // get hot, returning false if the expression is too big to be worth it
+    public boolean generateCode() {
+        if (kernel != null) {
+            return true;
+        }
+        if (generateFailed) {
+            return false;
+        }
+        Kernel generated = BytecodeGenerator.generate(this);
+        if (generated == null) {
+            generateFailed = true;
+            return false;
+        }
+        kernel = generated;
+        return true;
+    }
+
+    // Check if the expression is running as bytecode
+    public boolean isGenerated() {
+        return kernel != null;
+    }
+
+    // Evaluate with the interpreter whether or not there is generated code
+    public double interpret(double[] stack) {
+        return interpret(NO_VALUES, stack);
+    }
+
+    public double interpret(double[] values, double[] stack) {
+        checkVariables(values.length);
+        return run(values, stack);
+    }
+
+    // The interpreter loop
+    private double run(double[] values, double[] stack) {
+        int[] code = this.code;
+        double[] constants = this.constants;
+        int slots = maxStack;
+        int sp = 0;
+        int pc = 0;
+
+        while (pc < code.length) {
+            switch (code[pc++]) {
+                case PUSH:
+                    stack[sp++] = constants[code[pc++]];
+                    break;
+                case VAR:
+                    stack[sp++] = values[code[pc++]];
+                    break;
+                case LOAD:
+                    stack[sp++] = stack[slots + code[pc++]];
+                    break;
+                case STORE:
+                    stack[slots + code[pc++]] = stack[sp - 1];
+                    break;
+                // The branch that isn't picked is jumped over without being run
+                case JUMP_IF_FALSE:
+                    if (isTrue(stack[--sp])) {
+                        pc++;
+                    }
+                    else {
+                        pc += code[pc] + 1;
+                    }
+                    break;
+                case JUMP:
+                    pc += code[pc] + 1;
+                    break;
+                default:
+                    if (takesTwo(code[pc - 1])) {
+                        sp--;
+                        stack[sp - 1] = binary(code[pc - 1], stack[sp - 1], stack[sp]);
+                    }
+                    else {
+                        stack[sp - 1] = unary(code[pc - 1], stack[sp - 1]);
+                    }
+                    break;
+            }
+        }
+        return stack[0];
+    }
+
+    // Check if an opcode pops two numbers and pushes one, the ones binary runs
+    static boolean takesTwo(int opcode) {
+        return opcode >= ADD && opcode <= POWER || opcode >= LESS && opcode <= MAX;
+    }
+
+    // Run an opcode that takes two numbers. Every interpreter of the code in doubles runs these
+    // and unary's opcodes through here, so they all give the same numbers
+    static double binary(int opcode, double a, double b) {
+        switch (opcode) {
+            case ADD:
+                return a + b;
+            case SUBTRACT:
+                return a - b;
+            case MULTIPLY:
+                return a * b;
+            case DIVIDE:
+                // Check if the denominator is zero
+                if (b == 0) {
+                    throw new EvaluationException("ERROR! CANNOT DIVIDE BY ZERO!");
+                }
+                return a / b;
+            case POWER:
+                return Math.pow(a, b);
+            case LESS:
+                return truth(a < b);
+            case LESS_EQUAL:
+                return truth(a <= b);
+            case GREATER:
+                return truth(a > b);
+            case GREATER_EQUAL:
+                return truth(a >= b);
+            case EQUAL:
+                return truth(a == b);
+            case NOT_EQUAL:
+                return truth(a != b);
+            case MIN:
+                return Math.min(a, b);
+            case MAX:
+                return Math.max(a, b);
+            default:
+                throw new IllegalStateException("UNKNOWN OPCODE: " + opcode);
+        }
+    }
+
+    // Run an opcode that takes one number
+    static double unary(int opcode, double x) {
+        switch (opcode) {
+            case NEGATE:
+                return -x;
+            case SQRT:
+                return Math.sqrt(x);
+            case SIN:
+                return FastMath.sin(x);
+            case COS:
+                return FastMath.cos(x);
+            case TAN:
+                return FastMath.tan(x);
+            case COT:
+                return FastMath.cot(x);
+            case ARCSIN:
+                return FastMath.asin(x);
+            case ARCCOS:
+                return FastMath.acos(x);
+            case ARCTAN:
+                return FastMath.atan(x);
+            case ARCCTG:
+                return FastMath.arccot(x);
+            case LN:
+                return FastMath.log(x);
+            case LOG10:
+                return FastMath.log10(x);
+            default:
+                throw new IllegalStateException("UNKNOWN OPCODE: " + opcode);
+        }
+    }
+}
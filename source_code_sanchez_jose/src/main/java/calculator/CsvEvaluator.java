@@ -0,0 +1,459 @@
+/*
+Purpose: Evaluates an expression against every row of a CSV file, with each column of the header
+usable as a variable. The file is memory mapped a window at a time and the numeric fields the
+expression uses are parsed straight from the bytes into column blocks, which are evaluated a block
+at a time. Results are streamed out or folded into running aggregates, so memory use does not
+depend on the size of the file
+*/
+
+package calculator;
+
+// Importing Libraries
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public final class CsvEvaluator {
+
+    // Bytes of the file mapped at a time, a row can't be longer than this
+    private static final int WINDOW_SIZE = 64 << 20;
+
+    // Rows collected before they are evaluated together
+    private static final int BLOCK_ROWS = 4096;
+
+    // Longest header that is read
+    private static final int MAX_HEADER = 1 << 20;
+
+    // Exact powers of ten for building numbers without rounding twice
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    // Running count, sum, minimum, maximum, mean, and variance of the results, updated with
+    // Welford's method so the mean and variance stay accurate over billions of rows. Results
+    // that are not a number are counted on their own and left out of the rest
+    public static final class Aggregates {
+        public long count;
+        public long notANumber;
+        public double sum;
+        public double min = Double.POSITIVE_INFINITY;
+        public double max = Double.NEGATIVE_INFINITY;
+        public double mean;
+        private double squares;
+
+        void add(double value) {
+            if (Double.isNaN(value)) {
+                notANumber++;
+                return;
+            }
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            double delta = value - mean;
+            mean += delta / count;
+            squares += delta * (value - mean);
+        }
+
+        // Sample variance
+        public double variance() {
+            return count < 2 ? Double.NaN : squares / (count - 1);
+        }
+
+        @Override
+        public String toString() {
+            return "AGGREGATES: count=" + count + ", sum=" + sum + ", min=" + (count == 0 ? Double.NaN : min)
+                + ", max=" + (count == 0 ? Double.NaN : max) + ", mean=" + (count == 0 ? Double.NaN : mean)
+                + ", variance=" + variance() + ", not a number=" + notANumber;
+        }
+    }
+
+    // Totals for a finished run
+    public static final class Summary {
+        public final long rows;
+        public final long failures;
+        public final long bytes;
+        public final long nanos;
+        public final Aggregates aggregates;
+
+        Summary(long rows, long failures, long bytes, long nanos, Aggregates aggregates) {
+            this.rows = rows;
+            this.failures = failures;
+            this.bytes = bytes;
+            this.nanos = nanos;
+            this.aggregates = aggregates;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = nanos / 1e9;
+            return String.format("CSV COMPLETE: %d rows, %d evaluated, %d failed in %.3f s (%.0f rows/s, %.1f MB/s)",
+                rows, rows - failures, failures, seconds, rows / seconds, bytes / 1e6 / seconds);
+        }
+    }
+
+    private final CompiledExpression compiled;
+    private final Writer writer;
+    private final Aggregates aggregates;
+
+    // Variable read from each field of a row, or -1 for fields the expression doesn't use
+    private final int[] variableOfField;
+    private final int fieldsNeeded;
+    private final String[] fieldNames;
+
+    // The block of rows waiting to be evaluated, one column per variable
+    private final double[][] columns;
+    private final double[] results = new double[BLOCK_ROWS];
+    private final long[] lineNumbers = new long[BLOCK_ROWS];
+    private final String[] rowErrors = new String[BLOCK_ROWS];
+    private int blockSize;
+
+    // Row being parsed
+    private int field;
+    private String rowError;
+    private long line;
+
+    private long rows;
+    private long failures;
+
+    // run function evaluates the expression for every row of input. Results are written one per
+    // row to output, or to standard output when output is null, unless aggregate is set, in
+    // which case only the aggregates are kept
+    public static Summary run(Path input, String expression, Path output, boolean aggregate) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            // The header names the variables
+            ByteBuffer header = ByteBuffer.allocate((int) Math.min(MAX_HEADER, channel.size()));
+            channel.read(header, 0);
+            int headerLength = 0;
+            while (headerLength < header.position() && header.get(headerLength) != '\n') {
+                headerLength++;
+            }
+            if (headerLength == header.position() && headerLength < channel.size()) {
+                throw new IllegalArgumentException("ERROR, THE CSV HEADER IS TOO LONG.");
+            }
+            String[] names = parseHeader(new String(header.array(), 0, headerLength, StandardCharsets.ISO_8859_1));
+
+            Writer writer = aggregate ? null : openWriter(output);
+            CsvEvaluator csv = new CsvEvaluator(names, expression, writer, aggregate ? new Aggregates() : null);
+            try {
+                csv.line = 1;
+                csv.evaluateRows(channel, Math.min(headerLength + 1, channel.size()));
+            }
+            finally {
+                if (writer != null) {
+                    writer.flush();
+                    if (output != null) {
+                        writer.close();
+                    }
+                }
+            }
+            return new Summary(csv.rows, csv.failures, channel.size(), System.nanoTime() - start, csv.aggregates);
+        }
+    }
+
+    private CsvEvaluator(String[] names, String expression, Writer writer, Aggregates aggregates) {
+        this.writer = writer;
+        this.aggregates = aggregates;
+        this.fieldNames = names;
+
+        // Every header that can be a variable name is declared, the first of any duplicates wins
+        List<String> variables = new ArrayList<>();
+        int[] fieldOfVariable = new int[names.length];
+        for (int f = 0; f < names.length; f++) {
+            if (Lexer.isValidVariable(names[f]) && !variables.contains(names[f])) {
+                fieldOfVariable[variables.size()] = f;
+                variables.add(names[f]);
+            }
+        }
+        compiled = Optimizer.optimize(new ExpressionParser(variables.toArray(new String[0])).compile(expression));
+
+        // Only the fields the expression uses get parsed
+        variableOfField = new int[names.length];
+        Arrays.fill(variableOfField, -1);
+        columns = new double[variables.size()][];
+        int needed = 0;
+        for (int pc = 0; pc < compiled.code.length; pc++) {
+            if (compiled.code[pc] == CompiledExpression.VAR) {
+                int variable = compiled.code[pc + 1];
+                int f = fieldOfVariable[variable];
+                variableOfField[f] = variable;
+                if (columns[variable] == null) {
+                    columns[variable] = new double[BLOCK_ROWS];
+                }
+                needed = Math.max(needed, f + 1);
+            }
+            if (CompiledExpression.hasOperand(compiled.code[pc])) {
+                pc++;
+            }
+        }
+        fieldsNeeded = needed;
+    }
+
+    // Split the header into lowercase column names
+    private static String[] parseHeader(String header) {
+        String[] names = header.split(",", -1);
+        for (int i = 0; i < names.length; i++) {
+            names[i] = names[i].replace("\"", "").trim().toLowerCase();
+        }
+        return names;
+    }
+
+    // Map the file a window at a time. A window ends wherever it ends, so the row it cuts off is
+    // parsed again from its start in the next window
+    private void evaluateRows(FileChannel channel, long position) throws IOException {
+        long size = channel.size();
+        while (position < size) {
+            long length = Math.min(WINDOW_SIZE, size - position);
+            boolean last = position + length == size;
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            int consumed = parseRows(window, (int) length, last);
+            if (consumed == 0 && !last) {
+                throw new IllegalArgumentException("ERROR, A ROW IS LONGER THAN " + WINDOW_SIZE + " BYTES.");
+            }
+            position += consumed;
+        }
+        flushBlock();
+    }
+
+    // Parse every complete row of the window, returning the offset just after the last one
+    private int parseRows(ByteBuffer window, int length, boolean last) throws IOException {
+        int rowStart = 0;
+        int fieldStart = 0;
+        boolean quoted = false;
+        field = 0;
+        rowError = null;
+
+        for (int i = 0; i < length; i++) {
+            byte b = window.get(i);
+            if (b == '"') {
+                quoted = !quoted;
+            }
+            else if (!quoted && (b == ',' || b == '\n')) {
+                endField(window, fieldStart, i);
+                fieldStart = i + 1;
+                if (b == '\n') {
+                    endRow(window, rowStart, i);
+                    rowStart = i + 1;
+                }
+            }
+        }
+        // The file may not end with a newline
+        if (last && rowStart < length) {
+            endField(window, fieldStart, length);
+            endRow(window, rowStart, length);
+            rowStart = length;
+        }
+        return rowStart;
+    }
+
+    // Parse a field into its column if the expression uses it
+    private void endField(ByteBuffer window, int from, int to) {
+        int variable = field < variableOfField.length ? variableOfField[field] : -1;
+        field++;
+        if (variable < 0 || rowError != null) {
+            return;
+        }
+        try {
+            columns[variable][blockSize] = parseNumber(window, from, to);
+        }
+        catch (NumberFormatException e) {
+            Metrics.error(e);
+            rowError = "NOT A NUMBER IN COLUMN " + fieldNames[field - 1];
+        }
+    }
+
+    // Add the parsed row to the block, blank rows are skipped
+    private void endRow(ByteBuffer window, int from, int to) throws IOException {
+        line++;
+        boolean blank = to - from == 0 || (to - from == 1 && window.get(from) == '\r');
+        if (!blank) {
+            if (rowError == null && field < fieldsNeeded) {
+                rowError = "THE ROW IS MISSING THE COLUMN " + fieldNames[field];
+            }
+            lineNumbers[blockSize] = line;
+            rowErrors[blockSize] = rowError;
+            if (rowError != null) {
+                // Placeholder values keep the block evaluable
+                for (double[] column : columns) {
+                    if (column != null) {
+                        column[blockSize] = 1;
+                    }
+                }
+            }
+            if (++blockSize == BLOCK_ROWS) {
+                flushBlock();
+            }
+        }
+        field = 0;
+        rowError = null;
+    }
+
+    // Evaluate the block a column at a time and pass the results on
+    private void flushBlock() throws IOException {
+        if (blockSize == 0) {
+            return;
+        }
+        try {
+            ColumnEvaluator.evaluate(compiled, columns, results, 0, blockSize);
+        }
+        // A division by zero somewhere in the block, so find the rows it came from one at a time
+        catch (ArithmeticException e) {
+            evaluateRowByRow();
+        }
+        for (int i = 0; i < blockSize; i++) {
+            rows++;
+            if (rowErrors[i] != null) {
+                failures++;
+                if (writer != null) {
+                    writer.write("ERROR LINE " + lineNumbers[i] + ": " + rowErrors[i]);
+                    writer.write('\n');
+                }
+            }
+            else if (writer != null) {
+                writer.write(Double.toString(results[i]));
+                writer.write('\n');
+            }
+            else {
+                aggregates.add(results[i]);
+            }
+        }
+        blockSize = 0;
+    }
+
+    private void evaluateRowByRow() {
+        double[] values = new double[columns.length];
+        double[] stack = new double[compiled.stackSize()];
+        for (int i = 0; i < blockSize; i++) {
+            if (rowErrors[i] != null) {
+                continue;
+            }
+            for (int v = 0; v < columns.length; v++) {
+                values[v] = columns[v] == null ? 0 : columns[v][i];
+            }
+            try {
+                results[i] = compiled.interpret(values, stack);
+            }
+            catch (ArithmeticException e) {
+                Metrics.error(e);
+                rowErrors[i] = e.getMessage();
+            }
+        }
+    }
+
+    // parseNumber function reads a decimal number such as -12.5 or 3e-4 from the bytes, surrounding
+    // spaces and quotes are allowed. Numbers with few enough digits are built exactly from their
+    // digits, longer ones go through Double.parseDouble
+    static double parseNumber(ByteBuffer bytes, int from, int to) {
+        // Trim spaces, quotes, and the carriage return of Windows line endings
+        while (from < to && isPadding(bytes.get(from))) {
+            from++;
+        }
+        while (to > from && isPadding(bytes.get(to - 1))) {
+            to--;
+        }
+        int i = from;
+        boolean negative = false;
+        if (i < to && (bytes.get(i) == '-' || bytes.get(i) == '+')) {
+            negative = bytes.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int scale = 0;
+        int digits = 0;
+        boolean seenDot = false;
+        for (; i < to; i++) {
+            byte b = bytes.get(i);
+            if (b == '.' && !seenDot) {
+                seenDot = true;
+                continue;
+            }
+            if (b < '0' || b > '9') {
+                break;
+            }
+            digits++;
+            // Leading zeros don't count towards the digits that fit exactly
+            if (significantDigits == 0 && b == '0') {
+                if (seenDot) {
+                    scale--;
+                }
+                continue;
+            }
+            if (significantDigits < 18) {
+                mantissa = mantissa * 10 + (b - '0');
+                if (seenDot) {
+                    scale--;
+                }
+            }
+            else if (!seenDot) {
+                scale++;
+            }
+            significantDigits++;
+        }
+        if (digits == 0) {
+            throw new NumberFormatException();
+        }
+
+        // Exponent
+        if (i < to && (bytes.get(i) == 'e' || bytes.get(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (bytes.get(i) == '-' || bytes.get(i) == '+')) {
+                negativeExponent = bytes.get(i) == '-';
+                i++;
+            }
+            int exponent = 0;
+            int exponentDigits = 0;
+            for (; i < to && bytes.get(i) >= '0' && bytes.get(i) <= '9'; i++) {
+                exponent = Math.min(100000, exponent * 10 + (bytes.get(i) - '0'));
+                exponentDigits++;
+            }
+            if (exponentDigits == 0) {
+                throw new NumberFormatException();
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (i != to) {
+            throw new NumberFormatException();
+        }
+
+        double value;
+        // Both the digits and the power of ten are exact, so one operation rounds correctly
+        if (significantDigits <= MAX_EXACT_DIGITS && scale >= 0 && scale < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[scale];
+        }
+        else if (significantDigits <= MAX_EXACT_DIGITS && scale < 0 && -scale < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[-scale];
+        }
+        else {
+            byte[] text = new byte[to - from];
+            bytes.get(from, text);
+            return Double.parseDouble(new String(text, StandardCharsets.ISO_8859_1));
+        }
+        return negative ? -value : value;
+    }
+
+    private static boolean isPadding(byte b) {
+        return b == ' ' || b == '"' || b == '\r' || b == '\t';
+    }
+
+    private static Writer openWriter(Path output) throws IOException {
+        return output == null
+            ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16)
+            : Files.newBufferedWriter(output, StandardCharsets.UTF_8);
+    }
+}
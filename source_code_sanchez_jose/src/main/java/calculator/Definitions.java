@@ -0,0 +1,416 @@
+/*
+Purpose: Registry of the functions and constants expressions can use by name, such as
+hypot(x, y) = sqrt(x^2 + y^2) or g = 9.81, with pi and e built in. A function's body is compiled
+once when it is defined, with the functions it calls already inlined, and both the single-pass
+parser and the tokenizer and shuntingYard inline it into every expression that calls it, so a
+call costs nothing when the expression is evaluated. Redefining a name compiles the definitions
+built on it again and tells the caches holding expressions that used any of them, so only those
+are parsed again. Definitions are read through an immutable Table, so parsing never waits on a
+definition being changed
+*/
+
+package calculator;
+
+// Importing Libraries
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+public final class Definitions {
+
+    private static final String[] NO_PARAMETERS = {};
+
+    // Inputs a body's rpn is checked on against its compiled code
+    private static final double[] SAMPLES = {0.75, -1.5, 2.25, -0.375};
+
+    // Most tokens a body's rpn is kept at. It has every call inlined as text, so one definition
+    // calling another a few times over grows it by a power of the depth, while the compiled body
+    // shares what repeats. Past this the body is left to the single-pass parser
+    static final int RPN_LIMIT = 256;
+
+    // A function, or a constant when it has no parameters. The body is kept as written so the
+    // definition can be compiled again when a function it uses changes
+    static final class Definition {
+        final String name;
+        final String[] parameters;
+        final String body;
+        final boolean builtIn;
+
+        // Compiled body of a function, its parameters are its variables
+        final CompiledExpression code;
+        final double value;
+
+        // Body as rpn for shuntingYard, parameter i is the token $i. Null when the older
+        // tokenizer can't read the body or it is longer than RPN_LIMIT
+        final List<String> rpn;
+
+        // Names of the definitions the body inlines, built in ones left out since they never change
+        final String[] uses;
+
+        Definition(String name, String[] parameters, String body, boolean builtIn, CompiledExpression code, double value,
+                   List<String> rpn, String[] uses) {
+            this.name = name;
+            this.parameters = parameters;
+            this.body = body;
+            this.builtIn = builtIn;
+            this.code = code;
+            this.value = value;
+            this.rpn = rpn;
+            this.uses = uses;
+        }
+
+        boolean isFunction() {
+            return parameters.length > 0;
+        }
+
+        boolean uses(String other) {
+            for (String use : uses) {
+                if (use.equals(other)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return isFunction() ? name + "(" + String.join(", ", parameters) + ") = " + body : name + " = " + body;
+        }
+    }
+
+    // Snapshot of the definitions at one moment. Names are matched through a trie like the one
+    // the Lexer builds over the operators, so looking a name up makes no garbage
+    static final class Table {
+        private static final int ALPHABET = 26;
+
+        final Definition[] entries;
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final int[] children;
+        private final int[] terminal;
+
+        Table(Iterable<Definition> definitions) {
+            List<Definition> list = new ArrayList<>();
+            int nodes = 1;
+            for (Definition definition : definitions) {
+                indexes.put(definition.name, list.size());
+                list.add(definition);
+                nodes += definition.name.length();
+            }
+            entries = list.toArray(new Definition[0]);
+            children = new int[nodes * ALPHABET];
+            terminal = new int[nodes];
+            Arrays.fill(children, -1);
+            Arrays.fill(terminal, -1);
+            int used = 1;
+            for (int index = 0; index < entries.length; index++) {
+                String name = entries[index].name;
+                int node = 0;
+                for (int i = 0; i < name.length(); i++) {
+                    int slot = node * ALPHABET + (name.charAt(i) - 'a');
+                    if (children[slot] == -1) {
+                        children[slot] = used++;
+                    }
+                    node = children[slot];
+                }
+                terminal[node] = index;
+            }
+        }
+
+        Definition get(String name) {
+            Integer index = indexes.get(name);
+            return index == null ? null : entries[index];
+        }
+
+        // Index of the longest definition whose name text[from, to) starts with, or -1
+        int match(char[] text, int from, int to) {
+            int node = 0;
+            int matched = -1;
+            for (int i = from; i < to; i++) {
+                char c = text[i];
+                if (c < 'a' || c > 'z') {
+                    break;
+                }
+                node = children[node * ALPHABET + (c - 'a')];
+                if (node == -1) {
+                    break;
+                }
+                if (terminal[node] != -1) {
+                    matched = terminal[node];
+                }
+            }
+            return matched;
+        }
+    }
+
+    // The constants every parser knows, with or without a registry
+    static final Table BUILT_IN = new Table(Arrays.asList(builtIn("pi", Math.PI), builtIn("e", Math.E)));
+
+    private volatile Table table = BUILT_IN;
+
+    // Called with the names whose meaning changed, after the new table is in place
+    private final List<Consumer<Set<String>>> listeners = new CopyOnWriteArrayList<>();
+
+    // A registry holding only pi and e
+    public Definitions() {
+    }
+
+    Table table() {
+        return table;
+    }
+
+    void addListener(Consumer<Set<String>> listener) {
+        listeners.add(listener);
+    }
+
+    // define function adds or replaces a definition written as f(x, y) = body or name = body.
+    // A constant's body is worked out once, here
+    public synchronized void define(CharSequence definition) {
+        String text = ExpressionCache.normalize(definition.toString());
+        int equals = text.indexOf('=');
+        if (equals < 0) {
+            throw new ExpressionException("ERROR, A DEFINITION NEEDS AN = BETWEEN ITS NAME AND ITS BODY.", -1);
+        }
+        String head = text.substring(0, equals);
+        String body = text.substring(equals + 1);
+        String name = head;
+        String[] parameters = NO_PARAMETERS;
+        int open = head.indexOf('(');
+        if (open >= 0) {
+            if (!head.endsWith(")")) {
+                throw new ExpressionException("ERROR, THE PARAMETERS OF A FUNCTION GO IN PARENTHESES, AS IN f(x, y) = x*y.", open);
+            }
+            name = head.substring(0, open);
+            parameters = head.substring(open + 1, head.length() - 1).split(",", -1);
+            for (int i = 0; i < parameters.length; i++) {
+                checkName(parameters[i], "PARAMETER");
+                for (int j = 0; j < i; j++) {
+                    if (parameters[i].equals(parameters[j])) {
+                        throw new ExpressionException("ERROR, THE PARAMETER " + parameters[i] + " IS LISTED TWICE.", -1);
+                    }
+                }
+            }
+        }
+        checkName(name, "NAME");
+        replace(compile(name, parameters, body, table));
+    }
+
+    // defineConstant function adds or replaces a constant with a value worked out elsewhere
+    public synchronized void defineConstant(String name, double value) {
+        checkName(name, "NAME");
+        replace(new Definition(name, NO_PARAMETERS, Double.toString(value), false, null, value,
+            Collections.singletonList(Double.toString(value)), NO_PARAMETERS));
+    }
+
+    // remove function deletes a definition no other definition uses
+    public synchronized void remove(String name) {
+        Table current = table;
+        Definition removed = current.get(name);
+        if (removed == null) {
+            return;
+        }
+        checkNotBuiltIn(removed);
+        for (Definition definition : current.entries) {
+            if (definition.uses(name)) {
+                throw new ExpressionException("ERROR, " + name + " IS USED BY " + definition.name + " AND CAN'T BE REMOVED.", -1);
+            }
+        }
+        Map<String, Definition> next = byName(current);
+        next.remove(name);
+        publish(next, Collections.singleton(name));
+    }
+
+    public boolean contains(String name) {
+        return table.get(name) != null;
+    }
+
+    // Every definition as it was written, built in ones first
+    public List<String> list() {
+        List<String> written = new ArrayList<>();
+        for (Definition definition : table.entries) {
+            written.add(definition.toString());
+        }
+        return written;
+    }
+
+    // Put a definition in place, compiling every definition that uses it again after it
+    private void replace(Definition created) {
+        Table current = table;
+        String name = created.name;
+        Definition previous = current.get(name);
+        if (previous != null) {
+            checkNotBuiltIn(previous);
+        }
+        for (String use : created.uses) {
+            if (dependsOn(current, use, name)) {
+                throw new ExpressionException("ERROR, " + name + " CAN'T USE " + use + " BECAUSE " + use + " USES " + name + ".", -1);
+            }
+        }
+
+        // Everything built on the new definition, directly or through another definition
+        Set<String> changed = new LinkedHashSet<>();
+        changed.add(name);
+        boolean grew = true;
+        while (grew) {
+            grew = false;
+            for (Definition definition : current.entries) {
+                if (!changed.contains(definition.name) && usesAny(definition, changed)) {
+                    changed.add(definition.name);
+                    grew = true;
+                }
+            }
+        }
+
+        // Compile them again, each once the ones it uses are done
+        Map<String, Definition> next = byName(current);
+        next.put(name, created);
+        Set<String> waiting = new LinkedHashSet<>(changed);
+        waiting.remove(name);
+        while (!waiting.isEmpty()) {
+            for (String dependent : waiting) {
+                Definition definition = next.get(dependent);
+                if (usesAny(definition, waiting)) {
+                    continue;
+                }
+                try {
+                    next.put(dependent, compile(dependent, definition.parameters, definition.body, new Table(next.values())));
+                }
+                catch (ExpressionException | ArithmeticException e) {
+                    throw new ExpressionException("ERROR, CHANGING " + name + " BREAKS " + definition + ": " + e.getMessage(), -1);
+                }
+                waiting.remove(dependent);
+                break;
+            }
+        }
+        publish(next, changed);
+    }
+
+    private void publish(Map<String, Definition> next, Set<String> changed) {
+        table = new Table(next.values());
+        Set<String> names = Collections.unmodifiableSet(changed);
+        for (Consumer<Set<String>> listener : listeners) {
+            listener.accept(names);
+        }
+    }
+
+    // Compile a body against a table, with the functions it calls inlined
+    private static Definition compile(String name, String[] parameters, String body, Table table) {
+        ExpressionParser parser = new ExpressionParser(parameters);
+        CompiledExpression code = Optimizer.optimize(parser.compile(body, table));
+        String[] uses = parser.dependencies();
+        for (String use : uses) {
+            if (use.equals(name)) {
+                throw new ExpressionException("ERROR, " + name + " CAN'T BE DEFINED IN TERMS OF ITSELF.", -1);
+            }
+        }
+        List<String> rpn;
+        try {
+            rpn = Collections.unmodifiableList(Calculator.shuntingYard(Calculator.tokenize(body, table, parameters), table));
+            if (rpn.size() > RPN_LIMIT || !matches(rpn, code, parameters.length)) {
+                rpn = null;
+            }
+        }
+        catch (RuntimeException e) {
+            rpn = null;
+        }
+        if (parameters.length == 0) {
+            return new Definition(name, parameters, body, false, null, code.evaluate(), rpn, uses);
+        }
+        return new Definition(name, parameters, body, false, code, 0, rpn, uses);
+    }
+
+    // Check that the older tokenizer's rpn gives what the compiled body gives, on a few inputs
+    // where each parameter takes the samples in turn from its own place. Division by zero counts
+    // as NaN on both sides
+    private static boolean matches(List<String> rpn, CompiledExpression code, int parameters) {
+        double[] values = new double[parameters];
+        double[] stack = new double[code.stackSize()];
+        List<String> filled = new ArrayList<>(rpn.size());
+        for (int sample = 0; sample < SAMPLES.length; sample++) {
+            for (int i = 0; i < parameters; i++) {
+                values[i] = SAMPLES[(sample + i) % SAMPLES.length];
+            }
+            filled.clear();
+            for (String token : rpn) {
+                filled.add(token.charAt(0) == '$' ? Double.toString(values[Integer.parseInt(token.substring(1))]) : token);
+            }
+            double expected;
+            try {
+                expected = code.evaluateUncounted(values, stack);
+            }
+            catch (ArithmeticException e) {
+                expected = Double.NaN;
+            }
+            double actual;
+            try {
+                actual = Calculator.compute(filled);
+            }
+            catch (ArithmeticException e) {
+                actual = Double.NaN;
+            }
+            // The optimizer may fold constants in another order than the rpn is worked out in
+            if (Double.compare(expected, actual) != 0 && !(Math.abs(expected - actual) <= 1e-9 * Math.max(1, Math.abs(expected)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Definition builtIn(String name, double value) {
+        return new Definition(name, NO_PARAMETERS, Double.toString(value), true, null, value,
+            Collections.singletonList(Double.toString(value)), NO_PARAMETERS);
+    }
+
+    // Check if from, or anything it uses, uses target
+    private static boolean dependsOn(Table table, String from, String target) {
+        if (from.equals(target)) {
+            return true;
+        }
+        Definition definition = table.get(from);
+        if (definition == null) {
+            return false;
+        }
+        for (String use : definition.uses) {
+            if (dependsOn(table, use, target)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean usesAny(Definition definition, Set<String> names) {
+        for (String use : definition.uses) {
+            if (names.contains(use)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Map<String, Definition> byName(Table table) {
+        Map<String, Definition> map = new LinkedHashMap<>();
+        for (Definition definition : table.entries) {
+            map.put(definition.name, definition);
+        }
+        return map;
+    }
+
+    private static void checkName(String name, String kind) {
+        if (!Lexer.isValidVariable(name)) {
+            throw new ExpressionException("ERROR, THE " + kind + " " + name + " IS NOT VALID, NAMES ARE LOWERCASE LETTERS AND CAN'T BE AN OPERATOR.", -1);
+        }
+    }
+
+    private static void checkNotBuiltIn(Definition definition) {
+        if (definition.builtIn) {
+            throw new ExpressionException("ERROR, " + definition.name + " IS BUILT IN AND CAN'T BE CHANGED.", -1);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+/*
+Purpose: Error for an expression that parsed but can't be evaluated, such as one that divides by
+zero. Like ExpressionException it doesn't capture a stack trace, so a failing row in a batch
+costs no more than a successful one
+*/
+
+package calculator;
+
+public class EvaluationException extends ArithmeticException {
+
+    private static final long serialVersionUID = 1L;
+
+    public EvaluationException(String message) {
+        super(message);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,284 @@
+/*
+Purpose: Long running server mode, so other processes on the same host can use the calculator
+without paying for JVM startup on every call. Clients connect over TCP and send one expression
+per line. Every line gets back one line with the result or ERROR offset: message, in the order
+the lines were sent, and a client can pipeline as many lines as it likes without waiting.
+Each connection gets its own thread, a virtual thread when the JVM has them, and all
+connections share one cache of compiled expressions. A Budget bounds the work one line may take,
+so a pathological expression is answered with an error instead of holding its thread
+*/
+
+package calculator;
+
+// Importing Libraries
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class EvaluationServer implements Closeable {
+
+    // Connections served at once unless told otherwise
+    public static final int DEFAULT_MAX_CONNECTIONS = 256;
+
+    // Longest request line accepted, a longer line is answered with an error and skipped
+    static final int MAX_LINE = 1 << 16;
+
+    // Starting size of each connection's read buffer and size of its write buffer
+    private static final int BUFFER_SIZE = 1 << 13;
+
+    private static final byte[] NEWLINE = {'\n'};
+
+    private final ServerSocket server;
+    private final ExpressionCache cache;
+    private final Budget budget;
+    private final int maxConnections;
+    private final Semaphore permits;
+    private final ExecutorService threads;
+    private final boolean virtual;
+    private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder overBudget = new LongAdder();
+    private final long start = System.nanoTime();
+    private volatile boolean closed;
+
+    // Bind to the port on the loopback address, 0 picks a free port. The cache may be null
+    public EvaluationServer(int port, int maxConnections, ExpressionCache cache) throws IOException {
+        this(port, maxConnections, cache, Budget.UNLIMITED);
+    }
+
+    // Same, holding every line to the budget, its timeout counts from when the line was read
+    public EvaluationServer(int port, int maxConnections, ExpressionCache cache, Budget budget) throws IOException {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("ERROR, THE SERVER NEEDS ROOM FOR AT LEAST ONE CONNECTION.");
+        }
+        this.cache = cache;
+        this.budget = budget;
+        this.maxConnections = maxConnections;
+        this.permits = new Semaphore(maxConnections);
+        ExecutorService virtualThreads = virtualThreads();
+        this.virtual = virtualThreads != null;
+        this.threads = virtual ? virtualThreads : Executors.newCachedThreadPool(platformThreads());
+        // Only processes on this host can connect
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), maxConnections);
+    }
+
+    // Virtual threads arrived in Java 21, so they are looked up by name and the server still
+    // runs on older JVMs
+    private static ExecutorService virtualThreads() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // Otherwise every connection gets a platform thread, at most maxConnections of them
+    private static ThreadFactory platformThreads() {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, "calculator-connection-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    // Kind of thread each connection runs on, for reports
+    public String threadKind() {
+        return virtual ? "virtual" : "platform";
+    }
+
+    // serve function accepts connections until the server is closed. Once maxConnections are
+    // open it stops accepting, so new clients wait in the listen backlog and then in connect
+    // until a connection finishes, instead of the server taking on more than it can handle.
+    // Within a connection the server only reads a request once it has answered the ones
+    // before it, so a client that sends faster than it is answered is slowed down by TCP
+    public void serve() throws IOException {
+        while (!closed) {
+            try {
+                permits.acquire();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            Socket socket;
+            try {
+                socket = server.accept();
+            }
+            catch (IOException e) {
+                permits.release();
+                if (closed) {
+                    return;
+                }
+                throw e;
+            }
+            connections.increment();
+            open.add(socket);
+            threads.execute(() -> {
+                try {
+                    handle(socket);
+                }
+                finally {
+                    open.remove(socket);
+                    permits.release();
+                }
+            });
+        }
+    }
+
+    // Answer every line of one connection until the client closes it
+    private void handle(Socket socket) {
+        try (Socket connection = socket) {
+            connection.setTcpNoDelay(true);
+            InputStream in = connection.getInputStream();
+            OutputStream out = new BufferedOutputStream(connection.getOutputStream(), BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int start = 0;
+            int end = 0;
+            // True while throwing away the rest of a line that was too long
+            boolean skipping = false;
+
+            while (true) {
+                // Answer every complete line read so far
+                int newline;
+                while ((newline = indexOf(buffer, start, end, (byte) '\n')) >= 0) {
+                    if (skipping) {
+                        skipping = false;
+                    }
+                    else {
+                        respond(buffer, start, newline, out);
+                    }
+                    start = newline + 1;
+                }
+
+                // Move the start of the next line to the front of the buffer
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+                if (end == buffer.length) {
+                    if (buffer.length < MAX_LINE) {
+                        buffer = Arrays.copyOf(buffer, Math.min(MAX_LINE, buffer.length * 2));
+                    }
+                    else {
+                        if (!skipping) {
+                            requests.increment();
+                            failures.increment();
+                            write(out, "ERROR -1: THE EXPRESSION IS LONGER THAN " + MAX_LINE + " BYTES.");
+                            skipping = true;
+                        }
+                        end = 0;
+                    }
+                }
+
+                // Answers are only flushed when the client has nothing more waiting, so a burst
+                // of pipelined requests is answered with a few large writes
+                if (in.available() == 0) {
+                    out.flush();
+                }
+                int read = in.read(buffer, end, buffer.length - end);
+                if (read < 0) {
+                    break;
+                }
+                end += read;
+            }
+
+            // A last line without a newline still gets an answer
+            if (end > 0 && !skipping) {
+                respond(buffer, 0, end, out);
+            }
+            out.flush();
+        }
+        // The client went away, there is no one left to answer
+        catch (IOException e) {
+        }
+    }
+
+    // Evaluate the line buffer[from, to) and write its answer, blank lines stay blank
+    private void respond(byte[] buffer, int from, int to, OutputStream out) throws IOException {
+        // Lines may end in \r\n
+        if (to > from && buffer[to - 1] == '\r') {
+            to--;
+        }
+        if (to == from) {
+            out.write(NEWLINE);
+            return;
+        }
+        requests.increment();
+        String expression = new String(buffer, from, to - from, StandardCharsets.ISO_8859_1);
+        String answer;
+        try {
+            answer = Double.toString(Evaluator.evaluate(expression, cache, budget == Budget.UNLIMITED ? null : budget.start()));
+        }
+        catch (BudgetExceededException e) {
+            failures.increment();
+            overBudget.increment();
+            answer = "ERROR " + e.offset() + ": " + e.getMessage();
+        }
+        catch (ExpressionException e) {
+            failures.increment();
+            answer = "ERROR " + e.offset() + ": " + e.getMessage();
+        }
+        catch (IllegalArgumentException | ArithmeticException e) {
+            failures.increment();
+            answer = "ERROR -1: " + e.getMessage();
+        }
+        write(out, answer);
+    }
+
+    private static void write(OutputStream out, String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(NEWLINE);
+    }
+
+    private static int indexOf(byte[] buffer, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Totals since the server started
+    public String summary() {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return String.format("SERVER STOPPED: %d connections (%d open, at most %d), %d requests, %d failed (%d over budget) in %.3f s (%.0f requests/s)",
+            connections.sum(), open.size(), maxConnections, requests.sum(), failures.sum(), overBudget.sum(), seconds, requests.sum() / seconds);
+    }
+
+    // Stop accepting and close every open connection
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        for (Socket socket : open) {
+            socket.close();
+        }
+        threads.shutdown();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+Purpose: Entry point for using the calculator as a library. evaluate returns the value of an
+expression or throws ExpressionException or EvaluationException, it never prints or exits. It can
+be called from any number of threads at once, each thread reuses its own parser and stack
+*/
+
+package calculator;
+
+public final class Evaluator {
+
+    // Parser and stack owned by one thread
+    private static final class Worker {
+        final ExpressionParser parser = new ExpressionParser();
+        double[] stack = new double[16];
+
+        double[] stack(int size) {
+            if (stack.length < size) {
+                stack = new double[Math.max(size, stack.length * 2)];
+            }
+            return stack;
+        }
+    }
+
+    // An anonymous class, not Worker::new, so the first evaluation doesn't have to bootstrap a
+    // lambda, which is a large part of a one-shot run's startup
+    private static final ThreadLocal<Worker> WORKERS = new ThreadLocal<Worker>() {
+        @Override
+        protected Worker initialValue() {
+            return new Worker();
+        }
+    };
+
+    private Evaluator() {
+    }
+
+    // evaluate function parses and calculates an expression such as 2*{sin(1)+[3/4]}
+    public static double evaluate(String expression) {
+        return evaluate(expression, null);
+    }
+
+    // evaluate function that looks the compiled expression up in a cache first, so repeated
+    // expressions skip parsing
+    public static double evaluate(String expression, ExpressionCache cache) {
+        return evaluate(expression, cache, null);
+    }
+
+    // evaluate function that holds the expression to a budget, throwing BudgetExceededException
+    // when it goes over. The ticket may be null, and may be cancelled from another thread
+    public static double evaluate(String expression, ExpressionCache cache, Budget.Ticket ticket) {
+        if (expression == null) {
+            throw new ExpressionException("THERE WAS AN ERROR FROM THE EXPRESSION: RECEIVED A NULL EXPRESSION.", -1);
+        }
+        Worker worker = WORKERS.get();
+        try {
+            CompiledExpression compiled;
+            if (ticket == null) {
+                compiled = cache != null ? cache.get(expression) : worker.parser.compile(expression);
+            }
+            else {
+                // The length is checked before the cache normalizes the expression
+                ticket.checkLength(expression.length());
+                compiled = cache != null ? cache.get(expression, ticket) : worker.parser.compile(expression, ticket);
+                // The program has no loops and its operations are within the budget, so once
+                // it starts it finishes quickly, this is the last place it can be stopped
+                ticket.checkCancelled(-1);
+            }
+            return compiled.evaluate(worker.stack(compiled.stackSize()));
+        }
+        // Errors are counted here once for every caller going through the library
+        catch (RuntimeException e) {
+            Metrics.error(e);
+            throw e;
+        }
+    }
+}
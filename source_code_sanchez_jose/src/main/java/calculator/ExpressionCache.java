@@ -0,0 +1,487 @@
+/*
+Purpose: Concurrent cache of compiled expressions keyed by the normalized expression text, so a
+formula that is seen again skips parsing entirely. Loaded expressions go through the Optimizer
+since they are expected to be evaluated many times. The cache is bounded by entry count and by
+estimated memory, the eviction policy can be swapped out, and hits, misses, evictions, load
+time, and operations saved by optimizing are counted. A cache given Definitions drops only
+the expressions that used a function or constant when it is defined again
+*/
+
+package calculator;
+
+// Importing Libraries
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+public final class ExpressionCache {
+
+    // Decides which key leaves the cache when it is over its bounds. Calls are made under the
+    // cache's lock, so implementations don't need to be thread safe
+    public interface EvictionPolicy {
+        void recordInsert(String key);
+        void recordAccess(String key);
+        void recordRemoval(String key);
+        String selectVictim();
+    }
+
+    // Snapshot of the cache counters
+    public static final class Stats {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final long invalidations;
+        public final long loadNanos;
+        public final long size;
+        public final long weight;
+
+        // Operations in every loaded expression before and after optimizing
+        public final long operationsBefore;
+        public final long operationsAfter;
+
+        Stats(long hits, long misses, long evictions, long invalidations, long loadNanos, long size, long weight,
+              long operationsBefore, long operationsAfter) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+            this.loadNanos = loadNanos;
+            this.size = size;
+            this.weight = weight;
+            this.operationsBefore = operationsBefore;
+            this.operationsAfter = operationsAfter;
+        }
+
+        public double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+
+        // Average time spent parsing and optimizing on a miss
+        public double averageLoadNanos() {
+            return misses == 0 ? 0 : (double) loadNanos / misses;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("CACHE: %d hits, %d misses (%.1f%% hit rate), %d evictions, %d invalidations, %.0f ns average load, %d entries, %d bytes, %d operations optimized to %d",
+                hits, misses, hitRate() * 100, evictions, invalidations, averageLoadNanos(), size, weight, operationsBefore, operationsAfter);
+        }
+    }
+
+    // A cached expression, the memory it is estimated to use, and the definitions inlined into it
+    private static final class Entry {
+        final CompiledExpression compiled;
+        final long weight;
+        final String[] uses;
+
+        Entry(CompiledExpression compiled, long weight, String[] uses) {
+            this.compiled = compiled;
+            this.weight = weight;
+            this.uses = uses;
+        }
+
+        boolean usesAny(Set<String> names) {
+            for (String use : uses) {
+                if (names.contains(use)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // Parsers aren't thread safe, so every thread loads with its own
+    private final ThreadLocal<ExpressionParser> parsers;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final EvictionPolicy policy;
+    private final int maximumEntries;
+    private final long maximumWeight;
+
+    // Policy bookkeeping and the weight total are guarded by this lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private long weight;
+
+    // Counts changes to the definitions, so a load that raced with one can tell. Guarded by the lock
+    private long generation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+    private final LongAdder operationsBefore = new LongAdder();
+    private final LongAdder operationsAfter = new LongAdder();
+
+    public ExpressionCache(int maximumEntries, long maximumWeight, EvictionPolicy policy) {
+        this(maximumEntries, maximumWeight, policy, null);
+    }
+
+    // Cache whose expressions may use the functions and constants in the registry
+    public ExpressionCache(int maximumEntries, long maximumWeight, EvictionPolicy policy, Definitions definitions) {
+        this.maximumEntries = maximumEntries;
+        this.maximumWeight = maximumWeight;
+        this.policy = policy;
+        this.parsers = ThreadLocal.withInitial(() -> new ExpressionParser(definitions));
+        if (definitions != null) {
+            definitions.addListener(this::invalidate);
+        }
+        if (Metrics.ENABLED) {
+            Metrics.watch(this);
+        }
+    }
+
+    // Least recently used eviction
+    public static EvictionPolicy lru() {
+        return new LruPolicy();
+    }
+
+    // Window TinyLFU eviction, which keeps frequently used expressions through bursts of one-off ones
+    public static EvictionPolicy tinyLfu(int maximumEntries) {
+        return new TinyLfuPolicy(maximumEntries);
+    }
+
+    // get function returns the compiled form of an expression, parsing it only on a miss.
+    // Compiled expressions are shared, so callers on different threads must evaluate them
+    // with their own stack through evaluate(double[])
+    public CompiledExpression get(String expression) {
+        return get(expression, null);
+    }
+
+    // get function for an evaluation under a budget, a miss is parsed under the ticket. A hit was
+    // parsed already, so only its operations are held to the budget
+    public CompiledExpression get(String expression, Budget.Ticket ticket) {
+        String key = normalize(expression);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hits.increment();
+            // Recording the access is skipped when another thread holds the lock, the
+            // policy only needs an approximate picture of use
+            if (lock.tryLock()) {
+                try {
+                    if (entries.get(key) == entry) {
+                        policy.recordAccess(key);
+                    }
+                }
+                finally {
+                    lock.unlock();
+                }
+            }
+            if (ticket != null) {
+                ticket.checkOperations(entry.compiled);
+            }
+            return entry.compiled;
+        }
+        return load(key, ticket);
+    }
+
+    // Parse and optimize an expression that wasn't cached and make room for it
+    private CompiledExpression load(String key, Budget.Ticket ticket) {
+        misses.increment();
+        long start = System.nanoTime();
+        long loadedIn = generation();
+        ExpressionParser parser = parsers.get();
+        CompiledExpression compiled;
+        String[] uses;
+        try {
+            CompiledExpression parsed = ticket != null ? parser.compile(key, ticket) : parser.compile(key);
+            uses = parser.dependencies();
+            compiled = Optimizer.optimize(parsed);
+            operationsBefore.add(parsed.operationCount());
+            operationsAfter.add(compiled.operationCount());
+        }
+        finally {
+            loadNanos.add(System.nanoTime() - start);
+        }
+        Entry loaded = new Entry(compiled, weigh(key, compiled), uses);
+
+        lock.lock();
+        try {
+            // A definition it used may have changed while it was parsed, it is returned but not kept
+            if (uses.length > 0 && generation != loadedIn) {
+                return loaded.compiled;
+            }
+
+            // Another thread may have loaded the same expression in the meantime
+            Entry existing = entries.putIfAbsent(key, loaded);
+            if (existing != null) {
+                return existing.compiled;
+            }
+            policy.recordInsert(key);
+            weight += loaded.weight;
+
+            // Evict until the cache is back inside both bounds
+            while (!entries.isEmpty() && (entries.size() > maximumEntries || weight > maximumWeight)) {
+                String victim = policy.selectVictim();
+                Entry removed = entries.remove(victim);
+                policy.recordRemoval(victim);
+                if (removed != null) {
+                    weight -= removed.weight;
+                    evictions.increment();
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        return loaded.compiled;
+    }
+
+    private long generation() {
+        lock.lock();
+        try {
+            return generation;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // Remove the expressions that inlined any of the definitions that changed
+    private void invalidate(Set<String> changed) {
+        lock.lock();
+        try {
+            generation++;
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Entry> cached = iterator.next();
+                if (cached.getValue().usesAny(changed)) {
+                    iterator.remove();
+                    policy.recordRemoval(cached.getKey());
+                    weight -= cached.getValue().weight;
+                    invalidations.increment();
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // Remove every cached expression
+    public void clear() {
+        lock.lock();
+        try {
+            for (String key : entries.keySet()) {
+                policy.recordRemoval(key);
+            }
+            entries.clear();
+            weight = 0;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public Stats stats() {
+        lock.lock();
+        try {
+            return new Stats(hits.sum(), misses.sum(), evictions.sum(), invalidations.sum(), loadNanos.sum(), entries.size(), weight,
+                operationsBefore.sum(), operationsAfter.sum());
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // Estimate the bytes used by a cached expression, key included
+    static long weigh(String key, CompiledExpression compiled) {
+        return 40 + 2L * key.length()
+            + 32 + 16 + 4L * compiled.code.length + 16 + 8L * compiled.constants.length + 16 + 8L * compiled.stackSize();
+    }
+
+    // normalize function lowercases the expression and strips whitespace like the menu does,
+    // returning the expression itself when there is nothing to change
+    public static String normalize(String expression) {
+        boolean clean = true;
+        for (int i = 0; i < expression.length() && clean; i++) {
+            char c = expression.charAt(i);
+            clean = !Character.isWhitespace(c) && Character.toLowerCase(c) == c;
+        }
+        if (clean) {
+            return expression;
+        }
+        StringBuilder normalized = new StringBuilder(expression.length());
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                normalized.append(Character.toLowerCase(c));
+            }
+        }
+        return normalized.toString();
+    }
+
+    // Least recently used order kept by an access ordered LinkedHashMap
+    private static final class LruPolicy implements EvictionPolicy {
+        private final LinkedHashMap<String, Boolean> order = new LinkedHashMap<>(16, 0.75f, true);
+
+        @Override
+        public void recordInsert(String key) {
+            order.put(key, Boolean.TRUE);
+        }
+
+        @Override
+        public void recordAccess(String key) {
+            order.get(key);
+        }
+
+        @Override
+        public void recordRemoval(String key) {
+            order.remove(key);
+        }
+
+        @Override
+        public String selectVictim() {
+            return order.keySet().iterator().next();
+        }
+    }
+
+    // Window TinyLFU: new keys enter a small LRU window. Keys leaving the window only make it
+    // into the main space if a frequency sketch says they are used more than the key they
+    // would push out. The main space is a segmented LRU with probation and protected parts
+    private static final class TinyLfuPolicy implements EvictionPolicy {
+        private final LinkedHashMap<String, Boolean> window = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<String, Boolean> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<String, Boolean> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+        private final int windowMaximum;
+        private final int protectedMaximum;
+        private final FrequencySketch sketch;
+
+        // Key most recently moved from the window into probation
+        private String candidate;
+
+        TinyLfuPolicy(int maximumEntries) {
+            windowMaximum = Math.max(1, maximumEntries / 100);
+            protectedMaximum = (int) ((maximumEntries - windowMaximum) * 0.8);
+            sketch = new FrequencySketch(maximumEntries);
+        }
+
+        @Override
+        public void recordInsert(String key) {
+            sketch.increment(key);
+            window.put(key, Boolean.TRUE);
+
+            // The window's oldest key moves on and competes for a place in the main space
+            if (window.size() > windowMaximum) {
+                String oldest = eldest(window);
+                window.remove(oldest);
+                probation.put(oldest, Boolean.TRUE);
+                candidate = oldest;
+            }
+        }
+
+        @Override
+        public void recordAccess(String key) {
+            sketch.increment(key);
+            if (window.containsKey(key)) {
+                window.get(key);
+            }
+            else if (probation.remove(key) != null) {
+                // A second use promotes a key to protected, demoting protected's oldest if it is full
+                protectedSegment.put(key, Boolean.TRUE);
+                if (protectedSegment.size() > protectedMaximum) {
+                    String demoted = eldest(protectedSegment);
+                    protectedSegment.remove(demoted);
+                    probation.put(demoted, Boolean.TRUE);
+                }
+            }
+            else {
+                protectedSegment.get(key);
+            }
+        }
+
+        @Override
+        public void recordRemoval(String key) {
+            if (window.remove(key) == null && probation.remove(key) == null) {
+                protectedSegment.remove(key);
+            }
+            if (key.equals(candidate)) {
+                candidate = null;
+            }
+        }
+
+        @Override
+        public String selectVictim() {
+            if (!probation.isEmpty()) {
+                String victim = eldest(probation);
+                // The newcomer only gets in if it is used more often than the key it would replace
+                if (candidate != null && !candidate.equals(victim) && probation.containsKey(candidate)
+                    && sketch.frequency(candidate) <= sketch.frequency(victim)) {
+                    return candidate;
+                }
+                return victim;
+            }
+            if (!protectedSegment.isEmpty()) {
+                return eldest(protectedSegment);
+            }
+            return eldest(window);
+        }
+
+        private static String eldest(LinkedHashMap<String, Boolean> segment) {
+            Iterator<String> keys = segment.keySet().iterator();
+            return keys.next();
+        }
+    }
+
+    // Count-min sketch of how often keys are used, with small saturating counters that are
+    // halved periodically so old popularity fades
+    private static final class FrequencySketch {
+        private static final int MAXIMUM_COUNT = 15;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximumEntries) {
+            int size = Integer.highestOneBit(Math.max(16, maximumEntries) * 2 - 1) * 4;
+            counters = new byte[size];
+            mask = size - 1;
+            sampleSize = 10 * Math.max(16, maximumEntries);
+        }
+
+        void increment(String key) {
+            int hash = key.hashCode();
+            boolean added = false;
+            for (int seed : SEEDS) {
+                int slot = index(hash, seed);
+                if (counters[slot] < MAXIMUM_COUNT) {
+                    counters[slot]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(String key) {
+            int hash = key.hashCode();
+            int frequency = MAXIMUM_COUNT;
+            for (int seed : SEEDS) {
+                frequency = Math.min(frequency, counters[index(hash, seed)]);
+            }
+            return frequency;
+        }
+
+        // Halve every counter
+        private void reset() {
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] = (byte) (counters[i] >>> 1);
+            }
+            additions /= 2;
+        }
+
+        private int index(int hash, int seed) {
+            int h = (hash ^ seed) * 0x45D9F3B;
+            h ^= h >>> 16;
+            return h & mask;
+        }
+    }
+}
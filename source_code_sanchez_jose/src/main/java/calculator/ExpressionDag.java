@@ -0,0 +1,398 @@
+/*
+Purpose: Hash consed store for large sets of expressions. Every expression added is turned from its
+compiled program into nodes, and a node that is already stored, the same operator on the same
+children or the same number, is looked up instead of stored again, so a fragment that thousands of
+formulas share is held once. Nodes are kept in parallel arrays in the order they were made, which
+puts children before their parents, so a Batch can evaluate every expression at once by working
+through the arrays and computing each shared fragment once. Add every expression first, then any
+number of threads can evaluate, each with its own Batch. Every node is computed, so expressions
+with if or piecewise, whose point is to skip a branch, are not taken
+*/
+
+package calculator;
+
+// Importing Libraries
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public final class ExpressionDag {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final String[] variables;
+    private final ExpressionParser parser;
+
+    // Node i is opcodes[i] applied to lefts[i] and rights[i], or -1 where there is no child. A
+    // PUSH node keeps its number in numbers[i] and a VAR node its variable in lefts[i]
+    private int[] opcodes = new int[INITIAL_CAPACITY];
+    private int[] lefts = new int[INITIAL_CAPACITY];
+    private int[] rights = new int[INITIAL_CAPACITY];
+    private double[] numbers = new double[INITIAL_CAPACITY];
+    private int nodeCount;
+
+    // Open addressing table of node ids plus one, 0 for an empty entry, kept at most half full
+    private int[] table = new int[2 * INITIAL_CAPACITY];
+
+    // Root node of each expression, and the nodes their programs would have held on their own
+    private int[] roots = new int[INITIAL_CAPACITY];
+    private int expressionCount;
+    private long programNodes;
+
+    // The memory taken, and how much the sharing saved
+    public static final class Footprint {
+        public final int expressions;
+        public final long programNodes;
+        public final int nodes;
+        public final long bytes;
+
+        Footprint(int expressions, long programNodes, int nodes, long bytes) {
+            this.expressions = expressions;
+            this.programNodes = programNodes;
+            this.nodes = nodes;
+            this.bytes = bytes;
+        }
+
+        // Nodes the expressions would hold on their own for every node stored
+        public double sharing() {
+            return nodes == 0 ? 1 : (double) programNodes / nodes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("DAG: %d expressions, %d nodes stored for %d program nodes (%.1fx sharing), %d bytes",
+                expressions, nodes, programNodes, sharing(), bytes);
+        }
+    }
+
+    // Store for expressions of numbers only
+    public ExpressionDag() {
+        this(new String[0]);
+    }
+
+    // Store for expressions that may use the given variables, a Batch takes their values in
+    // this order
+    public ExpressionDag(String... variables) {
+        this.variables = variables.clone();
+        this.parser = new ExpressionParser(variables);
+    }
+
+    // add function parses an expression and stores it, returning its index
+    public int add(CharSequence expression) {
+        return add(parser.compile(expression));
+    }
+
+    // add function for an expression already compiled, optimized or not. Its variables must be
+    // variables of the DAG
+    public int add(CompiledExpression expression) {
+        if (expression.branches) {
+            throw new IllegalArgumentException("ERROR, THE DAG COMPUTES EVERY NODE, SO IT CAN'T HOLD if OR piecewise.");
+        }
+        String[] names = expression.variables();
+        int[] variableOf = new int[names.length];
+        for (int v = 0; v < names.length; v++) {
+            variableOf[v] = Arrays.asList(variables).indexOf(names[v]);
+            if (variableOf[v] < 0) {
+                throw new IllegalArgumentException("ERROR, " + names[v] + " IS NOT A VARIABLE OF THE DAG.");
+            }
+        }
+
+        // Run the program on node ids instead of numbers
+        int[] code = expression.code;
+        int[] stack = new int[expression.stackSize()];
+        int slots = expression.maxStack;
+        int sp = 0;
+        int pc = 0;
+        while (pc < code.length) {
+            int opcode = code[pc++];
+            switch (opcode) {
+                case CompiledExpression.PUSH:
+                    stack[sp++] = intern(opcode, -1, -1, expression.constants[code[pc++]]);
+                    programNodes++;
+                    break;
+                case CompiledExpression.VAR:
+                    stack[sp++] = intern(opcode, variableOf[code[pc++]], -1, 0);
+                    programNodes++;
+                    break;
+                case CompiledExpression.LOAD:
+                    stack[sp++] = stack[slots + code[pc++]];
+                    programNodes++;
+                    break;
+                case CompiledExpression.STORE:
+                    stack[slots + code[pc++]] = stack[sp - 1];
+                    break;
+                case CompiledExpression.ADD:
+                case CompiledExpression.MULTIPLY:
+                case CompiledExpression.EQUAL:
+                case CompiledExpression.NOT_EQUAL:
+                case CompiledExpression.MIN:
+                case CompiledExpression.MAX:
+                    // a + b and b + a are the same double, as are the two orders of ==, !=, min, and
+                    // max, so both orders share one node
+                    sp--;
+                    stack[sp - 1] = intern(opcode, Math.min(stack[sp - 1], stack[sp]), Math.max(stack[sp - 1], stack[sp]), 0);
+                    programNodes++;
+                    break;
+                case CompiledExpression.SUBTRACT:
+                case CompiledExpression.DIVIDE:
+                case CompiledExpression.POWER:
+                case CompiledExpression.LESS:
+                case CompiledExpression.LESS_EQUAL:
+                case CompiledExpression.GREATER:
+                case CompiledExpression.GREATER_EQUAL:
+                    sp--;
+                    stack[sp - 1] = intern(opcode, stack[sp - 1], stack[sp], 0);
+                    programNodes++;
+                    break;
+                default:
+                    stack[sp - 1] = intern(opcode, stack[sp - 1], -1, 0);
+                    programNodes++;
+                    break;
+            }
+        }
+        if (expressionCount == roots.length) {
+            roots = Arrays.copyOf(roots, roots.length + (roots.length >> 1));
+        }
+        roots[expressionCount] = stack[0];
+        return expressionCount++;
+    }
+
+    // Number of expressions stored
+    public int size() {
+        return expressionCount;
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public String[] variables() {
+        return variables.clone();
+    }
+
+    public Footprint footprint() {
+        long bytes = 4L * (opcodes.length + lefts.length + rights.length + table.length + roots.length) + 8L * numbers.length;
+        return new Footprint(expressionCount, programNodes, nodeCount, bytes);
+    }
+
+    // Find a node, or store it if it is new
+    private int intern(int opcode, int left, int right, double number) {
+        long bits = Double.doubleToRawLongBits(number);
+        int mask = table.length - 1;
+        int slot = hash(opcode, left, right, bits) & mask;
+        while (table[slot] != 0) {
+            int node = table[slot] - 1;
+            if (opcodes[node] == opcode && lefts[node] == left && rights[node] == right
+                && Double.doubleToRawLongBits(numbers[node]) == bits) {
+                return node;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (nodeCount == opcodes.length) {
+            int capacity = opcodes.length + (opcodes.length >> 1);
+            opcodes = Arrays.copyOf(opcodes, capacity);
+            lefts = Arrays.copyOf(lefts, capacity);
+            rights = Arrays.copyOf(rights, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+        }
+        int node = nodeCount++;
+        opcodes[node] = opcode;
+        lefts[node] = left;
+        rights[node] = right;
+        numbers[node] = number;
+        table[slot] = node + 1;
+        if (2 * nodeCount > table.length) {
+            rehash();
+        }
+        return node;
+    }
+
+    private static int hash(int opcode, int left, int right, long bits) {
+        long h = bits * 0x9E3779B97F4A7C15L + opcode;
+        h = h * 0x9E3779B97F4A7C15L + left;
+        h = h * 0x9E3779B97F4A7C15L + right;
+        return (int) (h ^ (h >>> 29));
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int node = 0; node < nodeCount; node++) {
+            int slot = hash(opcodes[node], lefts[node], rights[node], Double.doubleToRawLongBits(numbers[node])) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = node + 1;
+        }
+    }
+
+    // compile function rebuilds one expression as a program that runs on its own. A node the
+    // expression reaches more than once is computed once and kept in a slot
+    public CompiledExpression compile(int expression) {
+        checkIndex(expression);
+        int root = roots[expression];
+
+        // Count how often each node is reached
+        Map<Integer, Integer> uses = new HashMap<>();
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        int references = 0;
+        work.push(root);
+        while (!work.isEmpty()) {
+            int node = work.pop();
+            references++;
+            if (uses.merge(node, 1, Integer::sum) == 1 && !isLeaf(node)) {
+                work.push(lefts[node]);
+                if (rights[node] >= 0) {
+                    work.push(rights[node]);
+                }
+            }
+        }
+
+        // Emit the nodes children first. A node pushed as ~node has had its children emitted.
+        // Numbers and loads are emitted at every reference, operators once with a store
+        int[] code = new int[2 * references + 3 * uses.size()];
+        double[] constants = new double[references];
+        Map<Integer, Integer> slotOf = new HashMap<>();
+        int codeLength = 0;
+        int constantCount = 0;
+        int depth = 0;
+        int maxDepth = 0;
+        work.push(root);
+        while (!work.isEmpty()) {
+            int node = work.pop();
+            if (node < 0) {
+                node = ~node;
+                code[codeLength++] = opcodes[node];
+                if (rights[node] >= 0) {
+                    depth--;
+                }
+                if (uses.get(node) > 1) {
+                    int slot = slotOf.size();
+                    slotOf.put(node, slot);
+                    code[codeLength++] = CompiledExpression.STORE;
+                    code[codeLength++] = slot;
+                }
+            }
+            else if (slotOf.containsKey(node)) {
+                code[codeLength++] = CompiledExpression.LOAD;
+                code[codeLength++] = slotOf.get(node);
+                maxDepth = Math.max(maxDepth, ++depth);
+            }
+            else if (opcodes[node] == CompiledExpression.PUSH) {
+                code[codeLength++] = CompiledExpression.PUSH;
+                code[codeLength++] = constantCount;
+                constants[constantCount++] = numbers[node];
+                maxDepth = Math.max(maxDepth, ++depth);
+            }
+            else if (opcodes[node] == CompiledExpression.VAR) {
+                code[codeLength++] = CompiledExpression.VAR;
+                code[codeLength++] = lefts[node];
+                maxDepth = Math.max(maxDepth, ++depth);
+            }
+            else {
+                work.push(~node);
+                if (rights[node] >= 0) {
+                    work.push(rights[node]);
+                }
+                work.push(lefts[node]);
+            }
+        }
+        return new CompiledExpression(Arrays.copyOf(code, codeLength), Arrays.copyOf(constants, constantCount), maxDepth,
+            slotOf.size(), variables.clone());
+    }
+
+    private boolean isLeaf(int node) {
+        return opcodes[node] == CompiledExpression.PUSH || opcodes[node] == CompiledExpression.VAR;
+    }
+
+    private void checkIndex(int expression) {
+        if (expression < 0 || expression >= expressionCount) {
+            throw new IndexOutOfBoundsException("ERROR, THERE IS NO EXPRESSION " + expression + " IN THE DAG.");
+        }
+    }
+
+    // newBatch function returns scratch space for evaluating every expression at once, owned by
+    // one thread
+    public Batch newBatch() {
+        return new Batch();
+    }
+
+    // Values of every node for one set of variable values. A division by zero makes its node,
+    // and every expression that uses it, fail with NaN instead of stopping the whole batch
+    public final class Batch {
+        private double[] values = new double[0];
+        private boolean[] failed = new boolean[0];
+        private int evaluated;
+
+        private Batch() {
+        }
+
+        // evaluate function computes every node once, children before parents
+        public void evaluate(double... variableValues) {
+            if (variableValues.length < variables.length) {
+                throw new IllegalArgumentException("ERROR, THE DAG NEEDS A VALUE FOR EACH OF ITS VARIABLES: " + String.join(", ", variables) + ".");
+            }
+            int count = nodeCount;
+            if (values.length < count) {
+                values = new double[opcodes.length];
+                failed = new boolean[opcodes.length];
+            }
+            int[] opcodes = ExpressionDag.this.opcodes;
+            int[] lefts = ExpressionDag.this.lefts;
+            int[] rights = ExpressionDag.this.rights;
+            double[] numbers = ExpressionDag.this.numbers;
+            double[] v = values;
+            boolean[] bad = failed;
+            for (int node = 0; node < count; node++) {
+                int left = lefts[node];
+                int right = rights[node];
+                switch (opcodes[node]) {
+                    case CompiledExpression.PUSH:
+                        v[node] = numbers[node];
+                        bad[node] = false;
+                        continue;
+                    case CompiledExpression.VAR:
+                        v[node] = variableValues[left];
+                        bad[node] = false;
+                        continue;
+                    case CompiledExpression.DIVIDE:
+                        // A division by zero fails its node instead of throwing, so the rest of
+                        // the batch goes on
+                        if (v[right] == 0) {
+                            v[node] = Double.NaN;
+                            bad[node] = true;
+                            continue;
+                        }
+                        v[node] = v[left] / v[right];
+                        break;
+                    // Operators run the same way as in CompiledExpression
+                    default:
+                        v[node] = right >= 0 ? CompiledExpression.binary(opcodes[node], v[left], v[right])
+                            : CompiledExpression.unary(opcodes[node], v[left]);
+                        break;
+                }
+                bad[node] = bad[left] || right >= 0 && bad[right];
+            }
+            evaluated = count;
+        }
+
+        // Value of an expression in the last evaluate, NaN if it divided by zero
+        public double value(int expression) {
+            return values[evaluatedRoot(expression)];
+        }
+
+        // Check if an expression divided by zero in the last evaluate
+        public boolean failed(int expression) {
+            return failed[evaluatedRoot(expression)];
+        }
+
+        private int evaluatedRoot(int expression) {
+            checkIndex(expression);
+            if (roots[expression] >= evaluated) {
+                throw new IllegalStateException("ERROR, EXPRESSION " + expression + " WAS ADDED AFTER THE LAST EVALUATE.");
+            }
+            return roots[expression];
+        }
+    }
+}
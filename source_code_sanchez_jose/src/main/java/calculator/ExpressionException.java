@@ -0,0 +1,30 @@
+/*
+Purpose: Error for an expression that can't be parsed or compiled. It carries the offset in the
+expression where the problem was found and doesn't capture a stack trace, so rejecting bad input
+costs about as much as parsing good input
+*/
+
+package calculator;
+
+public class ExpressionException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    // Offset of the problem in the expression, or -1 when it isn't tied to one place
+    private final long offset;
+
+    public ExpressionException(String message, long offset) {
+        super(message);
+        this.offset = offset;
+    }
+
+    public long offset() {
+        return offset;
+    }
+
+    // The message and offset say everything needed, so the stack is never walked
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
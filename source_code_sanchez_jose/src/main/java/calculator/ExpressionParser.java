@@ -0,0 +1,816 @@
+/*
+Purpose: Single pass parser that reads an infix expression from a Reader or CharSequence and
+emits its CompiledExpression directly. The Lexer fills a fixed block of tokens which the shunting
+yard conversion takes straight away, so no List<String> is ever built and the time taken is
+linear in the input length. A parser can be given the names of variables the expression may use,
+and Definitions whose functions are inlined where they are called. The branches of if and
+piecewise are written with jumps around them as their commas go by
+*/
+
+package calculator;
+
+// Importing Libraries
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+public final class ExpressionParser {
+
+    // Markers kept on the operator stack next to operator ordinals
+    private static final int OPEN_PARENTHESIS = -1;
+    private static final int OPEN_BRACKET = -2;
+    private static final int OPEN_BRACE = -3;
+    private static final int NEGATE = -4;
+
+    // A bracket that holds the arguments of a function is its marker plus CALL
+    private static final int CALL = -8;
+
+    // Unary minus binds tighter than * and / but looser than ^, so -(2)^2 is -(2^2)
+    private static final int NEGATE_PRECEDENCE = 7;
+
+    // Operators in ordinal order
+    private static final Calculator.Operator[] OPERATORS = Calculator.Operator.values();
+
+    // Size of the chunks read from a Reader
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    // Tokenizer feeding this parser
+    private final Lexer lexer = new Lexer();
+
+    // Operator stack, it only grows as deep as the expression is nested
+    private int[] operators = new int[16];
+    private int operatorCount;
+
+    // Output program and constant pool
+    private int[] code = new int[64];
+    private int codeLength;
+    private double[] constants = new double[32];
+    private int constantCount;
+
+    // Stack depth of the program emitted so far
+    private int depth;
+    private int maxDepth;
+
+    // Whether the next token has to be a number, function, or opening bracket
+    private boolean expectOperand;
+    private boolean empty;
+    private long position;
+
+    // Parses so far, whether Metrics picked this one to be timed, the time spent so far in each
+    // stage, and the operators emitted packed for CompiledExpression
+    private long parses;
+    private long operatorsPacked;
+    private Metrics.Recorder recorder;
+    private boolean timed;
+    private long tokenizeNanos;
+    private long convertNanos;
+
+    // Budget of the expression being parsed, its limits stay at MAX_VALUE when there is none, so
+    // the checks on the common path are compares that never fail
+    private Budget.Ticket ticket;
+    private int maxTokens = Integer.MAX_VALUE;
+    private int maxNesting = Integer.MAX_VALUE;
+    private int maxOperations = Integer.MAX_VALUE;
+    private int tokens;
+    private int operations;
+    private int nextClockCheck;
+
+    private char[] readBuffer;
+    private CharBuffer readView;
+
+    // Names of the variables, in the order their values are passed to evaluate
+    private String[] variables;
+
+    // Functions and constants, the table is taken from the registry when each parse starts, or
+    // pinned to one table by the registry itself while it compiles a definition
+    private Definitions definitions;
+    private Definitions.Table pinned;
+    private Definitions.Table table;
+
+    // Definitions the expression used, by index in the table
+    private int[] used = new int[8];
+    private int usedCount;
+
+    // Function or operator such as if named by the last token, which has to be followed by its
+    // bracket, or -1
+    private int pendingCall;
+    private int pendingOperator;
+
+    // Calls whose closing bracket hasn't come yet, three numbers each: the definition, or -1
+    // minus the ordinal of an operator, where its arguments start in argumentStarts, and the
+    // stack depth before them
+    private int[] calls = new int[12];
+    private int callCount;
+    private int[] argumentStarts = new int[8];
+    private int argumentCount;
+
+    // Slots taken by inlined bodies and by arguments they use more than once
+    private int slotCount;
+
+    // Parser for expressions made only of numbers
+    public ExpressionParser() {
+        this(new String[0]);
+    }
+
+    // Parser for expressions that may use the given variables, names are lowercase letters
+    public ExpressionParser(String... variables) {
+        this(null, variables);
+    }
+
+    // Parser for expressions that may also call the functions and use the constants defined in
+    // the registry, a null registry knows only pi and e
+    public ExpressionParser(Definitions definitions, String... variables) {
+        this.definitions = definitions;
+        setVariables(variables);
+    }
+
+    // Change the variables later expressions may use, so one parser can serve many formulas
+    void setVariables(String... variables) {
+        lexer.setVariables(variables);
+        this.variables = variables.clone();
+    }
+
+    // Parse an expression held in memory
+    public static CompiledExpression parse(CharSequence expression) {
+        return new ExpressionParser().compile(expression);
+    }
+
+    // Parse an expression streamed from a reader
+    public static CompiledExpression parse(Reader expression) throws IOException {
+        return new ExpressionParser().compile(expression);
+    }
+
+    // compile function parses an expression held in memory, the parser can be reused afterwards
+    public CompiledExpression compile(CharSequence expression) {
+        reset();
+        lex(expression, 0, expression.length());
+        return finish();
+    }
+
+    // compile function parses an expression streamed from a reader, one chunk at a time
+    public CompiledExpression compile(Reader expression) throws IOException {
+        reset();
+        if (readBuffer == null) {
+            readBuffer = new char[READ_BUFFER_SIZE];
+            readView = CharBuffer.wrap(readBuffer);
+        }
+        int read;
+        while ((read = expression.read(readBuffer)) != -1) {
+            lex(readView, 0, read);
+        }
+        return finish();
+    }
+
+    // compile function parses an expression under a budget, throwing BudgetExceededException as
+    // soon as it goes over one of the limits
+    public CompiledExpression compile(CharSequence expression, Budget.Ticket ticket) {
+        ticket.checkLength(expression.length());
+        ticket.checkCancelled(0);
+        setBudget(ticket);
+        try {
+            return compile(expression);
+        }
+        finally {
+            setBudget(null);
+        }
+    }
+
+    // Same for an expression streamed from a reader, its length is checked as it arrives
+    public CompiledExpression compile(Reader expression, Budget.Ticket ticket) throws IOException {
+        ticket.checkCancelled(0);
+        setBudget(ticket);
+        try {
+            return compile(expression);
+        }
+        finally {
+            setBudget(null);
+        }
+    }
+
+    // Parse against one table of definitions, used by the registry while it changes
+    CompiledExpression compile(CharSequence expression, Definitions.Table table) {
+        pinned = table;
+        try {
+            return compile(expression);
+        }
+        finally {
+            pinned = null;
+        }
+    }
+
+    // Names of the definitions the last expression inlined, leaving out the built in ones
+    String[] dependencies() {
+        int names = 0;
+        for (int i = 0; i < usedCount; i++) {
+            if (!table.entries[used[i]].builtIn) {
+                names++;
+            }
+        }
+        String[] dependencies = new String[names];
+        names = 0;
+        for (int i = 0; i < usedCount; i++) {
+            if (!table.entries[used[i]].builtIn) {
+                dependencies[names++] = table.entries[used[i]].name;
+            }
+        }
+        return dependencies;
+    }
+
+    // Table of definitions the last expression was parsed against
+    Definitions.Table table() {
+        return table;
+    }
+
+    // Change the registry later expressions are parsed against
+    void setDefinitions(Definitions definitions) {
+        this.definitions = definitions;
+    }
+
+    private void setBudget(Budget.Ticket ticket) {
+        this.ticket = ticket;
+        maxTokens = ticket != null ? ticket.budget.maxTokens : Integer.MAX_VALUE;
+        maxNesting = ticket != null ? ticket.budget.maxDepth : Integer.MAX_VALUE;
+        maxOperations = ticket != null ? ticket.budget.maxOperations : Integer.MAX_VALUE;
+    }
+
+    // Clear the state left behind by the previous expression
+    private void reset() {
+        lexer.reset();
+        timed = Metrics.ENABLED && Metrics.sampled(++parses);
+        tokenizeNanos = 0;
+        convertNanos = 0;
+        operatorsPacked = 0;
+        operatorCount = 0;
+        codeLength = 0;
+        constantCount = 0;
+        depth = 0;
+        maxDepth = 0;
+        expectOperand = true;
+        empty = true;
+        position = 0;
+        tokens = 0;
+        operations = 0;
+        nextClockCheck = Lexer.DEFAULT_CAPACITY;
+        table = pinned != null ? pinned : definitions != null ? definitions.table() : Definitions.BUILT_IN;
+        lexer.setDefinitions(table);
+        usedCount = 0;
+        pendingCall = -1;
+        pendingOperator = -1;
+        callCount = 0;
+        argumentCount = 0;
+        slotCount = 0;
+    }
+
+    // Tokenize a chunk, handing the tokens over every time the lexer's block fills up
+    private void lex(CharSequence input, int from, int to) {
+        if (Metrics.ENABLED && timed) {
+            lexTimed(input, from, to);
+            return;
+        }
+        while (from < to) {
+            from = lexer.lex(input, from, to);
+            takeTokens();
+        }
+    }
+
+    // Same as lex, timing the lexer and the shunting yard apart for Metrics
+    private void lexTimed(CharSequence input, int from, int to) {
+        while (from < to) {
+            long lexing = System.nanoTime();
+            from = lexer.lex(input, from, to);
+            long converting = System.nanoTime();
+            takeTokens();
+            tokenizeNanos += converting - lexing;
+            convertNanos += System.nanoTime() - converting;
+        }
+    }
+
+    // Run the shunting yard algorithm over the tokens the lexer has collected
+    private void takeTokens() {
+        int[] kinds = lexer.kinds;
+        int[] operands = lexer.operands;
+        if (lexer.count > 0) {
+            empty = false;
+        }
+        // The budget's length, tokens, and cancellation are checked once per block
+        if (ticket != null) {
+            checkBlock();
+        }
+        for (int i = 0; i < lexer.count; i++) {
+            position = lexer.offsets[i];
+            if ((pendingCall >= 0 || pendingOperator >= 0) && kinds[i] != Lexer.OPEN) {
+                throw error("THE ARGUMENTS OF " + pendingName() + " HAVE TO BE IN BRACKETS");
+            }
+            switch (kinds[i]) {
+                case Lexer.NUMBER:
+                    emitNumber(lexer.values[i]);
+                    break;
+                case Lexer.VARIABLE:
+                    emitVariable(operands[i]);
+                    break;
+                case Lexer.OPERATOR:
+                    acceptOperator(OPERATORS[operands[i]]);
+                    break;
+                case Lexer.OPEN:
+                    openGroup(markerOf(operands[i]));
+                    break;
+                case Lexer.CONSTANT:
+                    use(operands[i]);
+                    emitNumber(table.entries[operands[i]].value);
+                    break;
+                case Lexer.FUNCTION:
+                    if (!expectOperand) {
+                        throw error("AN OPERATOR IS MISSING BEFORE THE FUNCTION");
+                    }
+                    use(operands[i]);
+                    pendingCall = operands[i];
+                    break;
+                case Lexer.COMMA:
+                    acceptComma();
+                    break;
+                default:
+                    closeGroup(markerOf(operands[i]));
+                    break;
+            }
+        }
+        lexer.clear();
+    }
+
+    // Check a block of tokens against the budget before any of them is converted
+    private void checkBlock() {
+        if (lexer.position() > ticket.budget.maxLength) {
+            ticket.checkLength((int) Math.min(lexer.position(), Integer.MAX_VALUE));
+        }
+        tokens += lexer.count;
+        if (tokens > maxTokens) {
+            long offset = lexer.offsets[lexer.count - (tokens - maxTokens)];
+            throw new BudgetExceededException(BudgetExceededException.Limit.TOKENS,
+                "THE EXPRESSION HAS MORE THAN THE LIMIT OF " + maxTokens + " TOKENS", offset);
+        }
+        long offset = lexer.count > 0 ? lexer.offsets[0] : lexer.position();
+        ticket.checkCancelled(offset);
+        // The clock only once a block's worth of tokens has gone by, a short expression is
+        // finished long before any deadline worth setting
+        if (tokens >= nextClockCheck) {
+            ticket.checkDeadline(offset);
+            nextClockCheck = tokens + Lexer.DEFAULT_CAPACITY;
+        }
+    }
+
+    // Place an operator token on the operator stack
+    private void acceptOperator(Calculator.Operator operator) {
+        // if, min, max, and piecewise are called like the functions in the registry
+        if (CompiledExpression.takesArguments(operator)) {
+            if (!expectOperand) {
+                throw error("AN OPERATOR IS MISSING BEFORE THE FUNCTION");
+            }
+            pendingOperator = operator.ordinal();
+        }
+        // Functions wait on the stack for their number
+        else if (!CompiledExpression.isBinary(operator)) {
+            if (!expectOperand) {
+                throw error("AN OPERATOR IS MISSING BEFORE THE FUNCTION");
+            }
+            pushOperator(operator.ordinal());
+        }
+        // Unary plus is ignored and unary minus negates what follows
+        else if (expectOperand && operator == Calculator.Operator.SUBTRACTION) {
+            pushOperator(NEGATE);
+        }
+        else if (expectOperand && operator == Calculator.Operator.ADDITION) {
+            return;
+        }
+        else {
+            pushBinary(operator);
+        }
+    }
+
+    // Push a binary operator after popping the operators that have to run before it
+    private void pushBinary(Calculator.Operator current) {
+        if (expectOperand) {
+            throw error("CANNOT USE " + current.symbol + " WITHOUT A NUMBER IN FRONT OF IT");
+        }
+        while (operatorCount > 0 && !isGroup(operators[operatorCount - 1])) {
+            int top = operators[operatorCount - 1];
+            int topPrecedence = top == NEGATE ? NEGATE_PRECEDENCE : OPERATORS[top].precedence;
+            if ((current.associativity == Calculator.Associativity.LEFT && current.precedence <= topPrecedence)
+                || (current.associativity == Calculator.Associativity.RIGHT && current.precedence < topPrecedence)) {
+                emitOperator(operators[--operatorCount]);
+                continue;
+            }
+            break;
+        }
+        pushOperator(current.ordinal());
+        expectOperand = true;
+    }
+
+    // Open a parenthesis, bracket, or brace
+    private void openGroup(int marker) {
+        if (!expectOperand) {
+            throw error("AN OPERATOR IS MISSING BEFORE THE OPENING BRACKET");
+        }
+        if (pendingCall < 0 && pendingOperator < 0) {
+            pushOperator(marker);
+            return;
+        }
+        // The bracket of a call, its first argument starts here
+        if (callCount + 3 > calls.length) {
+            calls = Arrays.copyOf(calls, calls.length * 2);
+        }
+        calls[callCount++] = pendingCall >= 0 ? pendingCall : -1 - pendingOperator;
+        calls[callCount++] = argumentCount;
+        calls[callCount++] = depth;
+        pendingCall = -1;
+        pendingOperator = -1;
+        startArgument();
+        pushOperator(marker + CALL);
+    }
+
+    // A comma ends one argument of a call and starts the next
+    private void acceptComma() {
+        if (expectOperand) {
+            throw error("AN ARGUMENT IS MISSING BEFORE THE COMMA");
+        }
+        while (operatorCount > 0 && !isGroup(operators[operatorCount - 1])) {
+            emitOperator(operators[--operatorCount]);
+        }
+        if (operatorCount == 0 || operators[operatorCount - 1] > CALL) {
+            throw error("A COMMA CAN ONLY SEPARATE THE ARGUMENTS OF A FUNCTION");
+        }
+        if (calls[callCount - 3] < 0) {
+            separateArgument(OPERATORS[-1 - calls[callCount - 3]], calls[callCount - 2]);
+        }
+        startArgument();
+        expectOperand = true;
+    }
+
+    // Emit what goes between two arguments of an operator. In if and piecewise a condition is
+    // followed by a jump over its value when it fails, and a value by a jump to the end that
+    // skips the rest. min and max fold in each argument after the second as it comes
+    private void separateArgument(Calculator.Operator operator, int firstArgument) {
+        int finished = argumentCount - firstArgument;
+        if (operator == Calculator.Operator.MINIMUM || operator == Calculator.Operator.MAXIMUM) {
+            if (finished >= 2) {
+                emitOperator(operator.ordinal());
+            }
+            return;
+        }
+        if (operator == Calculator.Operator.IF && finished == 3) {
+            throw error("if TAKES 3 ARGUMENTS, A CONDITION AND TWO BRANCHES");
+        }
+        if (finished % 2 == 1) {
+            if (++operations > maxOperations) {
+                throw ticket.operations(position);
+            }
+            emitJump(CompiledExpression.JUMP_IF_FALSE);
+        }
+        else {
+            emitJump(CompiledExpression.JUMP);
+            patchJump(argumentStarts[argumentCount - 1] - 1, codeLength);
+        }
+    }
+
+    private void emitJump(int opcode) {
+        emitCode(opcode);
+        emitCode(0);
+        depth--;
+    }
+
+    // Point the jump whose operand is at code[operand] at target
+    private void patchJump(int operand, int target) {
+        code[operand] = target - operand - 1;
+    }
+
+    private void startArgument() {
+        if (argumentCount == argumentStarts.length) {
+            argumentStarts = Arrays.copyOf(argumentStarts, argumentCount * 2);
+        }
+        argumentStarts[argumentCount++] = codeLength;
+    }
+
+    // Close a parenthesis, bracket, or brace, the same way for all three
+    private void closeGroup(int marker) {
+        if (expectOperand) {
+            throw error("A NUMBER IS MISSING BEFORE THE CLOSING BRACKET");
+        }
+        while (operatorCount > 0 && !isGroup(operators[operatorCount - 1])) {
+            emitOperator(operators[--operatorCount]);
+        }
+        if (operatorCount == 0 || (operators[operatorCount - 1] != marker && operators[operatorCount - 1] != marker + CALL)) {
+            throw error("THE PARENTHESIS/BRACE/BRACKET DO NOT MATCH UP");
+        }
+        if (operators[--operatorCount] == marker + CALL) {
+            finishCall();
+        }
+    }
+
+    // The closing bracket of a call, its body replaces the arguments in the program
+    private void finishCall() {
+        int entryDepth = calls[--callCount];
+        int firstArgument = calls[--callCount];
+        int callee = calls[--callCount];
+        int count = argumentCount - firstArgument;
+        if (callee < 0) {
+            finishOperator(OPERATORS[-1 - callee], firstArgument, count);
+            return;
+        }
+        Definitions.Definition function = table.entries[callee];
+        if (count != function.parameters.length) {
+            throw error(function.name + " TAKES " + function.parameters.length + (function.parameters.length == 1 ? " ARGUMENT" : " ARGUMENTS")
+                + " BUT WAS GIVEN " + count);
+        }
+        int start = argumentStarts[firstArgument];
+        int[] arguments = Arrays.copyOfRange(code, start, codeLength);
+        int[] bounds = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            bounds[i] = argumentStarts[firstArgument + i] - start;
+        }
+        bounds[count] = arguments.length;
+        argumentCount = firstArgument;
+        codeLength = start;
+        inline(function.code, arguments, bounds);
+
+        // Each argument may now run deeper in the stack than where it was parsed
+        int level = entryDepth;
+        for (int pc = start; pc < codeLength; pc++) {
+            level += CompiledExpression.stackEffect(code[pc]);
+            if (CompiledExpression.hasOperand(code[pc])) {
+                pc++;
+            }
+            maxDepth = Math.max(maxDepth, level);
+        }
+        depth = entryDepth + 1;
+    }
+
+    // The closing bracket of if, min, max, or piecewise. The jumps to the end written after
+    // each value of if and piecewise can be pointed here now
+    private void finishOperator(Calculator.Operator operator, int firstArgument, int count) {
+        if (operator == Calculator.Operator.MINIMUM || operator == Calculator.Operator.MAXIMUM) {
+            if (count < 2) {
+                throw error(operator.symbol + " TAKES AT LEAST 2 ARGUMENTS");
+            }
+            emitOperator(operator.ordinal());
+        }
+        else {
+            if (operator == Calculator.Operator.IF ? count != 3 : count < 3 || count % 2 == 0) {
+                throw error(operator == Calculator.Operator.IF ? "if TAKES 3 ARGUMENTS, A CONDITION AND TWO BRANCHES"
+                    : "piecewise TAKES PAIRS OF A CONDITION AND A VALUE FOLLOWED BY A DEFAULT VALUE");
+            }
+            for (int i = firstArgument + 2; i < argumentCount; i += 2) {
+                patchJump(argumentStarts[i] - 1, codeLength);
+            }
+            if (Metrics.ENABLED) {
+                operatorsPacked = CompiledExpression.packOperator(operatorsPacked, operator.ordinal());
+            }
+        }
+        argumentCount = firstArgument;
+    }
+
+    // Copy a function body into the program. A parameter used once takes its argument's code where
+    // it is used. One used more than once keeps its argument in a slot after the first use,
+    // unless the argument is a single number, variable, or load that is as cheap to repeat, or
+    // the first use might be in a branch that is skipped. Jumps in the body are moved to where
+    // their targets end up
+    private void inline(CompiledExpression body, int[] arguments, int[] bounds) {
+        int[] program = body.code;
+        int count = bounds.length - 1;
+        int[] uses = new int[count];
+        for (int pc = 0; pc < program.length; pc++) {
+            if (program[pc] == CompiledExpression.VAR) {
+                uses[program[++pc]]++;
+            }
+            else if (CompiledExpression.hasOperand(program[pc])) {
+                pc++;
+            }
+        }
+        int[] slots = new int[count];
+        Arrays.fill(slots, -1);
+        int bodySlots = slotCount;
+        slotCount += body.slotCount;
+        int[] moved = body.branches ? new int[program.length + 1] : null;
+        int[] jumps = body.branches ? new int[program.length] : null;
+        int jumpCount = 0;
+        for (int pc = 0; pc < program.length; pc++) {
+            int opcode = program[pc];
+            if (moved != null) {
+                moved[pc] = codeLength;
+            }
+            switch (opcode) {
+                case CompiledExpression.PUSH:
+                    emitCode(CompiledExpression.PUSH);
+                    emitCode(constant(body.constants[program[++pc]]));
+                    break;
+                case CompiledExpression.LOAD:
+                case CompiledExpression.STORE:
+                    emitCode(opcode);
+                    emitCode(bodySlots + program[++pc]);
+                    break;
+                case CompiledExpression.VAR: {
+                    int parameter = program[++pc];
+                    int from = bounds[parameter];
+                    int to = bounds[parameter + 1];
+                    if (slots[parameter] >= 0) {
+                        emitCode(CompiledExpression.LOAD);
+                        emitCode(slots[parameter]);
+                        break;
+                    }
+                    for (int i = from; i < to; i++) {
+                        emitCode(arguments[i]);
+                    }
+                    if (uses[parameter] > 1 && to - from > 2 && !body.branches) {
+                        slots[parameter] = slotCount++;
+                        emitCode(CompiledExpression.STORE);
+                        emitCode(slots[parameter]);
+                    }
+                    break;
+                }
+                // Old target and where the operand went, patched once every target has moved
+                case CompiledExpression.JUMP:
+                case CompiledExpression.JUMP_IF_FALSE:
+                    emitCode(opcode);
+                    jumps[jumpCount++] = pc + 2 + program[pc + 1];
+                    jumps[jumpCount++] = codeLength;
+                    emitCode(0);
+                    pc++;
+                    break;
+                default:
+                    emitCode(opcode);
+                    if (++operations > maxOperations) {
+                        throw ticket.operations(position);
+                    }
+                    break;
+            }
+        }
+        if (moved != null) {
+            moved[program.length] = codeLength;
+            for (int i = 0; i < jumpCount; i += 2) {
+                patchJump(jumps[i + 1], moved[jumps[i]]);
+            }
+        }
+    }
+
+    // Note a definition the expression uses, once
+    private void use(int index) {
+        for (int i = 0; i < usedCount; i++) {
+            if (used[i] == index) {
+                return;
+            }
+        }
+        if (usedCount == used.length) {
+            used = Arrays.copyOf(used, usedCount * 2);
+        }
+        used[usedCount++] = index;
+    }
+
+    // Finish the expression and build its compiled form
+    private CompiledExpression finish() {
+        if (Metrics.ENABLED) {
+            return finishCounted();
+        }
+        lexer.finish();
+        takeTokens();
+        return validate();
+    }
+
+    // Same as finish, counting the parse for Metrics and timing its stages when it was picked
+    private CompiledExpression finishCounted() {
+        if (!timed) {
+            lexer.finish();
+            takeTokens();
+            CompiledExpression compiled = validate();
+            recorder = Metrics.parsed(recorder, false, 0, 0, 0);
+            return compiled;
+        }
+        long lexing = System.nanoTime();
+        lexer.finish();
+        long converting = System.nanoTime();
+        takeTokens();
+        long validating = System.nanoTime();
+        CompiledExpression compiled = validate();
+        recorder = Metrics.parsed(recorder, true, tokenizeNanos + converting - lexing, convertNanos + validating - converting,
+            System.nanoTime() - validating);
+        return compiled;
+    }
+
+    // Check nothing is left hanging at the end and build the compiled form
+    private CompiledExpression validate() {
+        position = lexer.position();
+        if (pendingCall >= 0 || pendingOperator >= 0) {
+            throw error("THE ARGUMENTS OF " + pendingName() + " HAVE TO BE IN BRACKETS");
+        }
+        if (expectOperand) {
+            throw error(empty ? "THE EXPRESSION IS EMPTY" : "THE EXPRESSION ENDS WITH AN OPERATOR");
+        }
+
+        // Pop the remaining operators into the output
+        while (operatorCount > 0) {
+            int top = operators[--operatorCount];
+            if (isGroup(top)) {
+                throw error("Leftover parenthesis/brace/bracket");
+            }
+            emitOperator(top);
+        }
+        CompiledExpression compiled = new CompiledExpression(Arrays.copyOf(code, codeLength), Arrays.copyOf(constants, constantCount),
+            maxDepth, slotCount, variables, Metrics.ENABLED && usedCount == 0 ? operatorsPacked : CompiledExpression.OPERATORS_UNKNOWN);
+        // Inlined bodies are optimized into the expression around them, so f(2) folds to a number
+        return usedCount == 0 ? compiled : Optimizer.optimize(compiled);
+    }
+
+    // Add a number from the lexer into the constant pool
+    private void emitNumber(double value) {
+        if (!expectOperand) {
+            throw error("A NUMBER CANNOT FOLLOW A NUMBER OR CLOSING BRACKET WITHOUT AN OPERATOR");
+        }
+        emitCode(CompiledExpression.PUSH);
+        emitCode(constant(value));
+        depth++;
+        maxDepth = Math.max(maxDepth, depth);
+        expectOperand = false;
+    }
+
+    // Index of a new entry in the constant pool
+    private int constant(double value) {
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        return constantCount++;
+    }
+
+    // Add a variable from the lexer into the program
+    private void emitVariable(int index) {
+        if (!expectOperand) {
+            throw error("A VARIABLE CANNOT FOLLOW A NUMBER OR CLOSING BRACKET WITHOUT AN OPERATOR");
+        }
+        emitCode(CompiledExpression.VAR);
+        emitCode(index);
+        depth++;
+        maxDepth = Math.max(maxDepth, depth);
+        expectOperand = false;
+    }
+
+    // Add an operator from the operator stack into the program
+    private void emitOperator(int operator) {
+        if (++operations > maxOperations) {
+            throw ticket.operations(position);
+        }
+        if (Metrics.ENABLED) {
+            operatorsPacked = CompiledExpression.packOperator(operatorsPacked,
+                operator == NEGATE ? Calculator.Operator.SUBTRACTION.ordinal() : operator);
+        }
+        if (operator == NEGATE) {
+            emitCode(CompiledExpression.NEGATE);
+            return;
+        }
+        Calculator.Operator op = OPERATORS[operator];
+        emitCode(CompiledExpression.opcodeOf(op));
+        if (CompiledExpression.isBinary(op)) {
+            depth--;
+        }
+    }
+
+    private void emitCode(int value) {
+        if (codeLength == code.length) {
+            code = Arrays.copyOf(code, codeLength * 2);
+        }
+        code[codeLength++] = value;
+    }
+
+    private void pushOperator(int operator) {
+        if (operatorCount >= maxNesting) {
+            throw new BudgetExceededException(BudgetExceededException.Limit.DEPTH,
+                "THE EXPRESSION IS NESTED DEEPER THAN THE LIMIT OF " + maxNesting + " LEVELS", position);
+        }
+        if (operatorCount == operators.length) {
+            operators = Arrays.copyOf(operators, operatorCount * 2);
+        }
+        operators[operatorCount++] = operator;
+    }
+
+    // Name of the function or operator waiting for its bracket
+    private String pendingName() {
+        return pendingCall >= 0 ? table.entries[pendingCall].name : OPERATORS[pendingOperator].symbol;
+    }
+
+    // Map a lexer bracket type onto its stack marker
+    private static int markerOf(int bracket) {
+        if (bracket == Lexer.PARENTHESIS) {
+            return OPEN_PARENTHESIS;
+        }
+        else if (bracket == Lexer.BRACKET) {
+            return OPEN_BRACKET;
+        }
+        return OPEN_BRACE;
+    }
+
+    // Check if a stack entry is a parenthesis, bracket, or brace, the bracket of a call included
+    private static boolean isGroup(int entry) {
+        return entry < 0 && entry != NEGATE;
+    }
+
+    // Build an error that says where in the expression the problem is
+    private ExpressionException error(String message) {
+        return Lexer.error(position, message);
+    }
+}
@@ -0,0 +1,463 @@
+/*
+Purpose: On-disk store of compiled expressions, so a formula library is parsed once and every
+restart after that only maps a file. write compiles a library and saves the programs, constant
+pools, and slot counts in a versioned binary file with a checksum. open maps the file and reads
+nothing per expression: a formula is found through a hash table in the file and evaluated
+straight from the mapped buffer. A file that is missing, from another format or opcode set, or
+fails its checksum is compiled again from the library
+*/
+
+package calculator;
+
+// Importing Libraries
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+public final class ExpressionStore {
+
+    // Header: magic, format version, opcode count, expressions, hash table size, largest stack,
+    // bytes after the header, and the CRC32 of those bytes
+    private static final int MAGIC = 0x43414C43;
+    static final int FORMAT_VERSION = 1;
+    private static final int OPCODES = CompiledExpression.OPCODE_COUNT;
+    private static final int HEADER = 40;
+
+    // Fixed part of a record: status, stack size, slots, code length, constants, key length,
+    // message length, padding. A formula that failed to compile keeps the offset of the problem
+    // where the stack size would be
+    private static final int RECORD_HEADER = 32;
+    private static final int OK = 0;
+    private static final int FAILED = 1;
+
+    private static final String[] NO_VARIABLES = {};
+    private static final double[] NO_VALUES = {};
+
+    // Why a file can't be used as it is, a new one is compiled when this is thrown
+    private static final class StaleException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        StaleException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int tableSize;
+    private final int maxStackSize;
+    private final String[] variables;
+
+    // Where the hash table and the record offsets in library order start
+    private final int table;
+    private final int index;
+
+    // Why the file was compiled again when it was opened, or null
+    private final String rebuildReason;
+
+    private ExpressionStore(ByteBuffer buffer, String rebuildReason) throws StaleException {
+        this.buffer = buffer;
+        this.rebuildReason = rebuildReason;
+        if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC) {
+            throw new StaleException("NOT AN EXPRESSION STORE");
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION || buffer.getInt(8) != OPCODES) {
+            throw new StaleException("WRITTEN BY FORMAT " + buffer.getInt(4) + " WITH " + buffer.getInt(8) + " OPCODES");
+        }
+        if (buffer.getLong(24) != buffer.capacity() - HEADER) {
+            throw new StaleException("THE FILE IS TRUNCATED");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(HEADER));
+        if (crc.getValue() != buffer.getLong(32)) {
+            throw new StaleException("THE CHECKSUM DOES NOT MATCH");
+        }
+        count = buffer.getInt(12);
+        tableSize = buffer.getInt(16);
+        maxStackSize = buffer.getInt(20);
+        int namesLength = buffer.getInt(HEADER);
+        String names = readString(HEADER + 4, namesLength);
+        variables = names.isEmpty() ? NO_VARIABLES : names.split(",");
+        table = align(HEADER + 4 + namesLength);
+        index = table + 8 * tableSize;
+    }
+
+    // open function maps a store written by write, compiling the library into it first when the
+    // file is missing or can't be used. The library is only asked for then. The file isn't checked
+    // against the library, write it again when the library changes
+    public static ExpressionStore open(Path file, Supplier<? extends Iterable<? extends CharSequence>> library,
+                                       String... variables) throws IOException {
+        String reason = "THE FILE DOES NOT EXIST";
+        if (Files.exists(file)) {
+            try {
+                ExpressionStore store = new ExpressionStore(map(file), null);
+                if (Arrays.equals(store.variables, variables)) {
+                    return store;
+                }
+                reason = "COMPILED FOR THE VARIABLES " + String.join(", ", store.variables);
+            }
+            catch (StaleException e) {
+                reason = e.getMessage();
+            }
+        }
+        write(file, library.get(), variables);
+        try {
+            return new ExpressionStore(map(file), reason);
+        }
+        catch (StaleException e) {
+            throw new IOException("ERROR, THE EXPRESSION STORE " + file + " WAS CHANGED WHILE IT WAS OPENED: " + e.getMessage());
+        }
+    }
+
+    // open function for a store that must already be valid
+    public static ExpressionStore open(Path file) throws IOException {
+        try {
+            return new ExpressionStore(map(file), null);
+        }
+        catch (StaleException e) {
+            throw new IOException("ERROR, " + file + " CAN'T BE USED AS AN EXPRESSION STORE: " + e.getMessage());
+        }
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("ERROR, THE EXPRESSION STORE " + file + " IS LARGER THAN 2 GB.");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return mapped.order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    // write function compiles every formula of a library, in order, and saves them to the file.
+    // A formula that fails is saved with its error, which evaluating it throws again. The file is
+    // written beside the old one and moved over it, so a reader never sees half of it
+    public static void write(Path file, Iterable<? extends CharSequence> library, String... variables) throws IOException {
+        ExpressionParser parser = new ExpressionParser(variables);
+        Records records = new Records();
+        for (CharSequence formula : library) {
+            String key = ExpressionCache.normalize(formula.toString());
+            try {
+                records.add(key, Optimizer.optimize(parser.compile(key)));
+            }
+            catch (ExpressionException | ArithmeticException e) {
+                records.addFailure(key, e.getMessage(), e instanceof ExpressionException ? ((ExpressionException) e).offset() : -1);
+            }
+        }
+
+        // Open addressing table of key hash and one more than the formula's index, at most half full
+        byte[] names = String.join(",", variables).getBytes(StandardCharsets.UTF_8);
+        int tableSize = Integer.highestOneBit(Math.max(1, records.count) * 2 - 1) << 1;
+        int table = align(HEADER + 4 + names.length);
+        int index = table + 8 * tableSize;
+        int recordsStart = align(index + 4 * records.count);
+        long size = (long) recordsStart + records.length;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("ERROR, THE LIBRARY TAKES " + size + " BYTES, AN EXPRESSION STORE HOLDS AT MOST 2 GB.");
+        }
+        ByteBuffer front = ByteBuffer.allocate(recordsStart).order(ByteOrder.LITTLE_ENDIAN);
+        front.putInt(0, MAGIC);
+        front.putInt(4, FORMAT_VERSION);
+        front.putInt(8, OPCODES);
+        front.putInt(12, records.count);
+        front.putInt(16, tableSize);
+        front.putInt(20, records.maxStackSize);
+        front.putLong(24, size - HEADER);
+        front.putInt(HEADER, names.length);
+        front.put(HEADER + 4, names);
+        for (int i = 0; i < records.count; i++) {
+            front.putInt(index + 4 * i, recordsStart + records.offsets[i]);
+            int slot = records.hashes[i] & (tableSize - 1);
+            while (front.getInt(table + 8 * slot + 4) != 0) {
+                slot = (slot + 1) & (tableSize - 1);
+            }
+            front.putInt(table + 8 * slot, records.hashes[i]);
+            front.putInt(table + 8 * slot + 4, i + 1);
+        }
+        ByteBuffer back = ByteBuffer.wrap(records.bytes, 0, records.length);
+        CRC32 crc = new CRC32();
+        crc.update(front.duplicate().position(HEADER));
+        crc.update(back.duplicate());
+        front.putLong(32, crc.getValue());
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            front.clear();
+            while (front.hasRemaining()) {
+                channel.write(front);
+            }
+            while (back.hasRemaining()) {
+                channel.write(back);
+            }
+            channel.force(false);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Records laid out one after another in a growing array, offsets relative to the first
+    private static final class Records {
+        byte[] bytes = new byte[1 << 16];
+        int length;
+        int count;
+        int[] offsets = new int[1024];
+        int[] hashes = new int[1024];
+        int maxStackSize;
+
+        void add(String key, CompiledExpression compiled) {
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            int codeBytes = align(4 * compiled.code.length);
+            ByteBuffer record = start(key, RECORD_HEADER + codeBytes + 8 * compiled.constants.length + keyBytes.length);
+            record.putInt(OK);
+            record.putInt(compiled.maxStack);
+            record.putInt(compiled.slotCount);
+            record.putInt(compiled.code.length);
+            record.putInt(compiled.constants.length);
+            record.putInt(keyBytes.length);
+            record.putInt(0);
+            record.putInt(0);
+            for (int word : compiled.code) {
+                record.putInt(word);
+            }
+            record.position(record.position() + codeBytes - 4 * compiled.code.length);
+            for (double constant : compiled.constants) {
+                record.putDouble(constant);
+            }
+            record.put(keyBytes);
+            maxStackSize = Math.max(maxStackSize, compiled.stackSize());
+        }
+
+        void addFailure(String key, String message, long offset) {
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer record = start(key, RECORD_HEADER + messageBytes.length + keyBytes.length);
+            record.putInt(FAILED);
+            record.putInt((int) offset);
+            record.putInt(0);
+            record.putInt(0);
+            record.putInt(0);
+            record.putInt(keyBytes.length);
+            record.putInt(messageBytes.length);
+            record.putInt(0);
+            record.put(messageBytes);
+            record.put(keyBytes);
+        }
+
+        // Room for a record of this many bytes, starting on an 8 byte boundary so its constants are aligned
+        private ByteBuffer start(String key, int size) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                hashes = Arrays.copyOf(hashes, count * 2);
+            }
+            int end = length + align(size);
+            if (end < 0) {
+                throw new IllegalStateException("ERROR, THE LIBRARY IS TOO LARGE FOR AN EXPRESSION STORE.");
+            }
+            if (end > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(end, (int) Math.min(Integer.MAX_VALUE - 8, 2L * bytes.length)));
+            }
+            offsets[count] = length;
+            hashes[count] = key.hashCode();
+            count++;
+            ByteBuffer record = ByteBuffer.wrap(bytes, length, size).order(ByteOrder.LITTLE_ENDIAN);
+            length = end;
+            return record;
+        }
+    }
+
+    // Number of formulas in the store, in the order of the library
+    public int size() {
+        return count;
+    }
+
+    // Size of a stack that can evaluate any formula in the store
+    public int stackSize() {
+        return maxStackSize;
+    }
+
+    // Names of the variables, values are passed in this order
+    public String[] variables() {
+        return variables.clone();
+    }
+
+    // Check if the file was compiled again when it was opened, and why
+    public boolean rebuilt() {
+        return rebuildReason != null;
+    }
+
+    public String rebuildReason() {
+        return rebuildReason;
+    }
+
+    // find function returns the index of a formula in the store, or -1. The text is normalized
+    // the way the cache does it
+    public int find(CharSequence expression) {
+        String key = ExpressionCache.normalize(expression.toString());
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int hash = key.hashCode();
+        int mask = tableSize - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = buffer.getInt(table + 8 * slot + 4);
+            if (entry == 0) {
+                return -1;
+            }
+            if (buffer.getInt(table + 8 * slot) == hash && keyMatches(buffer.getInt(index + 4 * (entry - 1)), keyBytes)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    private boolean keyMatches(int offset, byte[] key) {
+        if (buffer.getInt(offset + 20) != key.length) {
+            return false;
+        }
+        int start = keyStart(offset);
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(start + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The normalized text of a formula
+    public String expression(int i) {
+        int offset = record(i);
+        return readString(keyStart(offset), buffer.getInt(offset + 20));
+    }
+
+    // Check if a formula failed to compile, evaluating it throws its error
+    public boolean failed(int i) {
+        return buffer.getInt(record(i)) == FAILED;
+    }
+
+    // Size of the stack needed to evaluate one formula, slots included
+    public int stackSize(int i) {
+        int offset = record(i);
+        return buffer.getInt(offset) == FAILED ? 0 : buffer.getInt(offset + 4) + buffer.getInt(offset + 8);
+    }
+
+    // compiled function copies one formula out of the file, for code that needs a
+    // CompiledExpression, such as a cache or one that should become bytecode
+    public CompiledExpression compiled(int i) {
+        int offset = record(i);
+        checkCompiled(offset);
+        int codeLength = buffer.getInt(offset + 12);
+        int[] code = new int[codeLength];
+        buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(offset + RECORD_HEADER).asIntBuffer().get(code);
+        double[] constants = new double[buffer.getInt(offset + 16)];
+        buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(constantsStart(offset)).asDoubleBuffer().get(constants);
+        return new CompiledExpression(code, constants, buffer.getInt(offset + 4), buffer.getInt(offset + 8), variables);
+    }
+
+    // evaluate function for a store compiled without variables
+    public double evaluate(int i, double[] stack) {
+        return evaluate(i, NO_VALUES, stack);
+    }
+
+    // evaluate function runs a formula straight from the file, with one value per variable and a
+    // stack of at least stackSize(i). Only absolute reads are made, so any number of threads can
+    // evaluate at once with their own stacks
+    public double evaluate(int i, double[] values, double[] stack) {
+        if (values.length < variables.length) {
+            throw new IllegalArgumentException("ERROR, THE EXPRESSION NEEDS A VALUE FOR EACH OF ITS VARIABLES: " + String.join(", ", variables) + ".");
+        }
+        int offset = record(i);
+        checkCompiled(offset);
+        ByteBuffer buffer = this.buffer;
+        int slots = buffer.getInt(offset + 4);
+        int constants = constantsStart(offset);
+        int pc = offset + RECORD_HEADER;
+        int end = pc + 4 * buffer.getInt(offset + 12);
+        int sp = 0;
+
+        while (pc < end) {
+            int opcode = buffer.getInt(pc);
+            pc += 4;
+            switch (opcode) {
+                case CompiledExpression.PUSH:
+                    stack[sp++] = buffer.getDouble(constants + 8 * buffer.getInt(pc));
+                    pc += 4;
+                    break;
+                case CompiledExpression.VAR:
+                    stack[sp++] = values[buffer.getInt(pc)];
+                    pc += 4;
+                    break;
+                case CompiledExpression.LOAD:
+                    stack[sp++] = stack[slots + buffer.getInt(pc)];
+                    pc += 4;
+                    break;
+                case CompiledExpression.STORE:
+                    stack[slots + buffer.getInt(pc)] = stack[sp - 1];
+                    pc += 4;
+                    break;
+                // Jump offsets count words from the one after the operand
+                case CompiledExpression.JUMP_IF_FALSE:
+                    pc += CompiledExpression.isTrue(stack[--sp]) ? 4 : 4 + 4 * buffer.getInt(pc);
+                    break;
+                case CompiledExpression.JUMP:
+                    pc += 4 + 4 * buffer.getInt(pc);
+                    break;
+                // Operators run the same way as in CompiledExpression
+                default:
+                    if (CompiledExpression.takesTwo(opcode)) {
+                        sp--;
+                        stack[sp - 1] = CompiledExpression.binary(opcode, stack[sp - 1], stack[sp]);
+                    }
+                    else {
+                        stack[sp - 1] = CompiledExpression.unary(opcode, stack[sp - 1]);
+                    }
+                    break;
+            }
+        }
+        return stack[0];
+    }
+
+    // Offset of a formula's record, checking the index is in range
+    private int record(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("ERROR, THE STORE HAS NO FORMULA " + i + ".");
+        }
+        return buffer.getInt(index + 4 * i);
+    }
+
+    // Throw the error a formula failed with when it was compiled
+    private void checkCompiled(int offset) {
+        if (buffer.getInt(offset) == FAILED) {
+            throw new ExpressionException(readString(offset + RECORD_HEADER, buffer.getInt(offset + 24)), buffer.getInt(offset + 4));
+        }
+    }
+
+    private int constantsStart(int offset) {
+        return offset + RECORD_HEADER + align(4 * buffer.getInt(offset + 12));
+    }
+
+    // The key comes after the program and constants, or after the message of a failure
+    private int keyStart(int offset) {
+        if (buffer.getInt(offset) == FAILED) {
+            return offset + RECORD_HEADER + buffer.getInt(offset + 24);
+        }
+        return constantsStart(offset) + 8 * buffer.getInt(offset + 16);
+    }
+
+    private String readString(int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Round up to a multiple of 8
+    private static int align(int bytes) {
+        return (bytes + 7) & ~7;
+    }
+}
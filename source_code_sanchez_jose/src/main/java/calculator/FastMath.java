@@ -0,0 +1,332 @@
+/*
+Purpose: The trig and log functions behind the Operators, with an opt in fast mode. By
+default every function calls straight through to Math. Started with -Dcalculator.fastMath=<max
+error>, they switch to table driven polynomials whose error stays within that bound, counted as
+absolute for results no bigger than 1 and as relative above that. Each polynomial is cut to the
+fewest Taylor terms whose remainder fits the bound, and inputs the approximations can't promise
+the bound for, like angles past half a million radians, are still handed to Math. Powers are
+left to Math.pow, which HotSpot's intrinsic already runs as fast as a table driven exp and log
+*/
+
+package calculator;
+
+public final class FastMath {
+
+    // Bound used by -Dcalculator.fastMath=true
+    public static final double DEFAULT_TOLERANCE = 1e-9;
+
+    // Rounding in the approximations adds up to ROUNDING on top of the polynomial error, so no
+    // bound tighter than MIN_TOLERANCE is accepted
+    public static final double MIN_TOLERANCE = 1e-14;
+    private static final double ROUNDING = 1e-15;
+
+    // Largest error allowed, or 0 when fast math is off
+    public static final double TOLERANCE = tolerance(System.getProperty("calculator.fastMath"));
+    public static final boolean ENABLED = TOLERANCE > 0;
+
+    // What is left of the tolerance for the polynomials to use up
+    private static final double BUDGET = TOLERANCE - ROUNDING;
+
+    // Longest polynomial built, enough for any tolerance down to MIN_TOLERANCE
+    private static final int MAX_TERMS = 12;
+
+    // pi/2 in pieces, as in fdlibm. The first three pieces have 33 bits each so their products
+    // with a quadrant number below 2^20 are exact, the T pieces are what is left after each
+    private static final double PIO2_1 = Double.longBitsToDouble(0x3FF921FB54400000L);
+    private static final double PIO2_1T = Double.longBitsToDouble(0x3DD0B4611A626331L);
+    private static final double PIO2_2 = Double.longBitsToDouble(0x3DD0B4611A600000L);
+    private static final double PIO2_2T = Double.longBitsToDouble(0x3BA3198A2E037073L);
+    private static final double PIO2_3 = Double.longBitsToDouble(0x3BA3198A2E000000L);
+    private static final double PIO2_3T = Double.longBitsToDouble(0x397B839A252049C1L);
+    private static final double PIO2_HI = Double.longBitsToDouble(0x3FF921FB54442D18L);
+    private static final double PIO2_LO = Double.longBitsToDouble(0x3C91A62633145C07L);
+    private static final double TWO_OVER_PI = 2 / Math.PI;
+
+    // Angles up to 2^19 * pi/2 reduce accurately with the pieces above, bigger ones go to Math
+    private static final double REDUCTION_LIMIT = 0x1p19 * Math.PI / 2;
+
+    // ln 2 with the high part's low bits cleared, so multiples of it by an exponent are exact
+    private static final double LN2_HI = Double.longBitsToDouble(0x3FE62E42FEE00000L);
+    private static final double LN2_LO = Double.longBitsToDouble(0x3DEA39EF35793C76L);
+    private static final double INV_LN10 = 1 / Math.log(10);
+
+    // atan is looked up at multiples of 1/16 and the polynomial covers the distance from there
+    private static final int ATAN_STEPS = 16;
+    private static final double[] ATAN_TABLE = new double[ATAN_STEPS + 1];
+
+    // log is looked up at multiples of 1/128 between sqrt(1/2) and sqrt(2), the centre at 1 is
+    // exact so logarithms close to 0 keep their relative accuracy
+    private static final int LOG_STEPS = 128;
+    private static final int LOG_BIAS = 38;
+    private static final long SQRT_HALF_BITS = Double.doubleToRawLongBits(Math.sqrt(0.5));
+    private static final long EXPONENT_MASK = 0xFFF0000000000000L;
+    private static final double[] LOG_CENTER = new double[96];
+    private static final double[] LOG_INVERSE = new double[96];
+    private static final double[] LOG_VALUE = new double[96];
+
+    // Taylor coefficients after the leading terms, sin r = r + r^3 * (SIN[0] + r^2 * ...),
+    // cos r = 1 + r^2 * (COS[0] + ...), atan t = t + t^3 * (ATAN[0] + ...),
+    // and log(1 + u) = u + u^2 * (LOG[0] + u * ...)
+    private static final double[] SIN = new double[MAX_TERMS];
+    private static final double[] COS = new double[MAX_TERMS];
+    private static final double[] ATAN = new double[MAX_TERMS];
+    private static final double[] LOG = new double[MAX_TERMS];
+
+    // The tables are only filled when fast math is on, so exact math costs nothing at startup
+    static {
+        if (ENABLED) {
+            fillTables();
+        }
+    }
+
+    private static void fillTables() {
+        double factorial = 1;
+        for (int k = 0; k < MAX_TERMS; k++) {
+            factorial *= (2 * k + 2);
+            COS[k] = (k % 2 == 0 ? -1 : 1) / factorial;
+            factorial *= (2 * k + 3);
+            SIN[k] = (k % 2 == 0 ? -1 : 1) / factorial;
+            ATAN[k] = (k % 2 == 0 ? -1.0 : 1.0) / (2 * k + 3);
+            LOG[k] = (k % 2 == 0 ? -1.0 : 1.0) / (k + 2);
+        }
+        for (int i = 0; i <= ATAN_STEPS; i++) {
+            ATAN_TABLE[i] = StrictMath.atan((double) i / ATAN_STEPS);
+        }
+        for (int i = 0; i < LOG_CENTER.length; i++) {
+            LOG_CENTER[i] = 1 + (double) (i - LOG_BIAS) / LOG_STEPS;
+            LOG_INVERSE[i] = 1 / LOG_CENTER[i];
+            LOG_VALUE[i] = StrictMath.log(LOG_CENTER[i]);
+        }
+    }
+
+    // Terms kept in each polynomial, the fewest whose remainder over the reduced range fits the
+    // share of the budget each function gets. sin and cos get a quarter each so tan, their
+    // quotient, stays within half
+    private static final int SIN_TERMS = ENABLED ? terms(Math.PI / 4, BUDGET / 4, Series.SIN) : 0;
+    private static final int COS_TERMS = ENABLED ? terms(Math.PI / 4, BUDGET / 4, Series.COS) : 0;
+    private static final int ATAN_TERMS = ENABLED ? terms(0.5 / ATAN_STEPS, BUDGET / 2, Series.ATAN) : 0;
+    private static final int LOG_TERMS = ENABLED ? terms(0.72 / LOG_STEPS, BUDGET / 2, Series.LOG) : 0;
+
+    private enum Series {
+        SIN, COS, ATAN, LOG
+    }
+
+    private FastMath() {
+    }
+
+    // Read -Dcalculator.fastMath, an unusable bound leaves exact math on
+    private static double tolerance(String setting) {
+        if (setting == null || setting.equals("false")) {
+            return 0;
+        }
+        double tolerance;
+        try {
+            tolerance = setting.equals("true") ? DEFAULT_TOLERANCE : Double.parseDouble(setting);
+        }
+        catch (NumberFormatException e) {
+            tolerance = Double.NaN;
+        }
+        if (!(tolerance >= MIN_TOLERANCE)) {
+            System.err.println("ERROR, FAST MATH NEEDS A TOLERANCE OF AT LEAST " + MIN_TOLERANCE + ", USING EXACT MATH");
+            return 0;
+        }
+        return tolerance;
+    }
+
+    // Count the coefficients after the leading terms needed for the remainder, bounded by the
+    // first term left out, to be at most the target when the argument is at most range
+    private static int terms(double range, double target, Series series) {
+        for (int terms = 1; terms < MAX_TERMS; terms++) {
+            double remainder;
+            switch (series) {
+                case SIN:
+                    remainder = Math.pow(range, 2 * terms + 3) * Math.abs(SIN[terms]);
+                    break;
+                case COS:
+                    remainder = Math.pow(range, 2 * terms + 2) * Math.abs(COS[terms]);
+                    break;
+                case ATAN:
+                    remainder = Math.pow(range, 2 * terms + 3) * Math.abs(ATAN[terms]);
+                    break;
+                default:
+                    remainder = Math.pow(range, terms + 2) * Math.abs(LOG[terms]) / (1 - range);
+                    break;
+            }
+            if (remainder <= target) {
+                return terms;
+            }
+        }
+        return MAX_TERMS;
+    }
+
+    public static double sin(double x) {
+        if (!ENABLED || !(Math.abs(x) <= REDUCTION_LIMIT)) {
+            return Math.sin(x);
+        }
+        double n = Math.rint(x * TWO_OVER_PI);
+        return quadrant(reduce(x, n), (int) n);
+    }
+
+    public static double cos(double x) {
+        if (!ENABLED || !(Math.abs(x) <= REDUCTION_LIMIT)) {
+            return Math.cos(x);
+        }
+        // cos x is sin(x + pi/2), one quadrant on
+        double n = Math.rint(x * TWO_OVER_PI);
+        return quadrant(reduce(x, n), (int) n + 1);
+    }
+
+    public static double tan(double x) {
+        if (!ENABLED || !(Math.abs(x) <= REDUCTION_LIMIT)) {
+            return Math.tan(x);
+        }
+        double n = Math.rint(x * TWO_OVER_PI);
+        double r = reduce(x, n);
+        return ((int) n & 1) == 0 ? sinKernel(r) / cosKernel(r) : -cosKernel(r) / sinKernel(r);
+    }
+
+    public static double cot(double x) {
+        if (!ENABLED || !(Math.abs(x) <= REDUCTION_LIMIT)) {
+            return 1 / Math.tan(x);
+        }
+        double n = Math.rint(x * TWO_OVER_PI);
+        double r = reduce(x, n);
+        return ((int) n & 1) == 0 ? cosKernel(r) / sinKernel(r) : -sinKernel(r) / cosKernel(r);
+    }
+
+    public static double asin(double x) {
+        if (!ENABLED) {
+            return Math.asin(x);
+        }
+        // 1 - x and 1 + x are exact where the square root is small, past 1 it is NaN
+        return atan(x / Math.sqrt((1 - x) * (1 + x)));
+    }
+
+    public static double acos(double x) {
+        if (!ENABLED) {
+            return Math.acos(x);
+        }
+        // Half angle form, exact at 1 and -1 where pi/2 - asin x would round
+        return 2 * atan(Math.sqrt((1 - x) / (1 + x)));
+    }
+
+    public static double atan(double x) {
+        if (!ENABLED) {
+            return Math.atan(x);
+        }
+        double a = Math.abs(x);
+        double value = a <= 1 ? atanReduced(a) : (PIO2_HI - atanReduced(1 / a)) + PIO2_LO;
+        return Math.copySign(value, x);
+    }
+
+    public static double arccot(double x) {
+        if (!ENABLED) {
+            return Math.PI / 2 - Math.atan(x);
+        }
+        return (PIO2_HI - atan(x)) + PIO2_LO;
+    }
+
+    public static double log(double x) {
+        if (!ENABLED) {
+            return Math.log(x);
+        }
+        return logReduced(x);
+    }
+
+    public static double log10(double x) {
+        if (!ENABLED) {
+            return Math.log10(x);
+        }
+        return logReduced(x) * INV_LN10;
+    }
+
+    // Reduce x to r between -pi/4 and pi/4 with x = r + n * pi/2. This is the medium case of
+    // fdlibm's __ieee754_rem_pio2: when cancellation leaves r short of bits, the next piece of
+    // pi/2 is taken into account, so r stays accurate even right next to a multiple of pi/2
+    private static double reduce(double x, double n) {
+        if (n == 0) {
+            return x;
+        }
+        double r = x - n * PIO2_1;
+        double w = n * PIO2_1T;
+        double y = r - w;
+        int exponent = Math.getExponent(x);
+        if (exponent - Math.getExponent(y) > 16) {
+            double t = r;
+            w = n * PIO2_2;
+            r = t - w;
+            w = n * PIO2_2T - ((t - r) - w);
+            y = r - w;
+            if (exponent - Math.getExponent(y) > 49) {
+                t = r;
+                w = n * PIO2_3;
+                r = t - w;
+                w = n * PIO2_3T - ((t - r) - w);
+                y = r - w;
+            }
+        }
+        return y;
+    }
+
+    // sin(r + quadrant * pi/2)
+    private static double quadrant(double r, int quadrant) {
+        double value = (quadrant & 1) == 0 ? sinKernel(r) : cosKernel(r);
+        return (quadrant & 2) == 0 ? value : -value;
+    }
+
+    private static double sinKernel(double r) {
+        // sin r rounds to r this close to 0, which also keeps the sign of -0
+        if (Math.abs(r) < 0x1p-27) {
+            return r;
+        }
+        double r2 = r * r;
+        double p = SIN[SIN_TERMS - 1];
+        for (int i = SIN_TERMS - 2; i >= 0; i--) {
+            p = p * r2 + SIN[i];
+        }
+        return r + r * r2 * p;
+    }
+
+    private static double cosKernel(double r) {
+        double r2 = r * r;
+        double p = COS[COS_TERMS - 1];
+        for (int i = COS_TERMS - 2; i >= 0; i--) {
+            p = p * r2 + COS[i];
+        }
+        return 1 + r2 * p;
+    }
+
+    // atan of a between 0 and 1, as atan c + atan((a - c) / (1 + a * c)) for the nearest c in
+    // the table, which leaves the polynomial an argument of at most 1/32
+    private static double atanReduced(double a) {
+        int i = (int) (a * ATAN_STEPS + 0.5);
+        double c = (double) i / ATAN_STEPS;
+        double t = (a - c) / (1 + a * c);
+        double t2 = t * t;
+        double p = ATAN[ATAN_TERMS - 1];
+        for (int k = ATAN_TERMS - 2; k >= 0; k--) {
+            p = p * t2 + ATAN[k];
+        }
+        return ATAN_TABLE[i] + (t + t * t2 * p);
+    }
+
+    // log x as k * ln 2 + log c + log(1 + u) with x = 2^k * z, c the table centre nearest z,
+    // and u = (z - c) / c
+    private static double logReduced(double x) {
+        // Zero, negative, subnormal, infinite, and NaN inputs are left to Math
+        if (!(x >= Double.MIN_NORMAL && x <= Double.MAX_VALUE)) {
+            return Math.log(x);
+        }
+        long bits = Double.doubleToRawLongBits(x);
+        long shifted = bits - SQRT_HALF_BITS;
+        int k = (int) (shifted >> 52);
+        double z = Double.longBitsToDouble(bits - (shifted & EXPONENT_MASK));
+        int i = (int) ((z - 1) * LOG_STEPS + (LOG_BIAS + 0.5));
+        double u = (z - LOG_CENTER[i]) * LOG_INVERSE[i];
+        double p = LOG[LOG_TERMS - 1];
+        for (int j = LOG_TERMS - 2; j >= 0; j--) {
+            p = p * u + LOG[j];
+        }
+        return k * LN2_HI + (LOG_VALUE[i] + (u + u * u * p + k * LN2_LO));
+    }
+}
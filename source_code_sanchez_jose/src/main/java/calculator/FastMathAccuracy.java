@@ -0,0 +1,222 @@
+/*
+Purpose: Accuracy suite for fast math. Every function FastMath replaces is run over a dense grid
+of its domain, random inputs spread over every magnitude, the inputs where approximations go
+wrong first (next to multiples of pi/2, next to 1 for the logarithm and arcsine, past the end of
+the domain), and the special values, and compared with StrictMath. Errors count the same way as
+the tolerance, absolute for results up to 1 and relative above that, less the ulp StrictMath
+itself may be off by. FastMathAccuracyTest runs it on every build with fewer inputs. As a program
+it uses 2^20 inputs of each kind. With -Dcalculator.fastMath set it checks that tolerance,
+otherwise it starts one JVM for each tolerance given (default 1e-6 1e-9 1e-12 1e-14). Exits with
+1 if any bound is broken. Run with
+java -cp source_code_sanchez_jose/target/calculator-1.0-SNAPSHOT.jar calculator.FastMathAccuracy [tolerance...]
+*/
+
+package calculator;
+
+// Importing Libraries
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.DoubleUnaryOperator;
+
+public final class FastMathAccuracy {
+
+    private static final String[] DEFAULT_TOLERANCES = {"1e-6", "1e-9", "1e-12", "1e-14"};
+
+    // Inputs of each kind generated for every function when run as a program
+    private static final int SAMPLES = 1 << 20;
+
+    private static final double REDUCTION_LIMIT = 0x1p19 * Math.PI / 2;
+
+    // Values every function is also given
+    private static final double[] SPECIAL = {0.0, -0.0, Double.MIN_VALUE, -Double.MIN_VALUE, Double.MIN_NORMAL,
+        -Double.MIN_NORMAL, 1e-300, -1e-300, 1.0, -1.0, 0.5, -0.5, 2.0, Math.PI, -Math.PI, Math.PI / 2, -Math.PI / 2,
+        1e300, -1e300, Double.MAX_VALUE, -Double.MAX_VALUE, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN};
+
+    // One function with the inputs it is checked over
+    private static final class Check {
+        final String name;
+        final DoubleUnaryOperator fast;
+        final DoubleUnaryOperator reference;
+        final double[] inputs;
+        double worst;
+        double worstX;
+        long count;
+
+        Check(String name, DoubleUnaryOperator fast, DoubleUnaryOperator reference, double[] inputs) {
+            this.name = name;
+            this.fast = fast;
+            this.reference = reference;
+            this.inputs = inputs;
+        }
+
+        void run() {
+            for (double x : inputs) {
+                double error = error(fast.applyAsDouble(x), reference.applyAsDouble(x));
+                count++;
+                if (error > worst) {
+                    worst = error;
+                    worstX = x;
+                }
+            }
+        }
+    }
+
+    private FastMathAccuracy() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (FastMath.ENABLED) {
+            System.exit(check(SAMPLES) ? 0 : 1);
+        }
+        // FastMath has already said why it turned the tolerance down
+        if (System.getProperty("calculator.fastMath") != null) {
+            System.exit(1);
+        }
+        // Each tolerance needs its own JVM, FastMath reads it once when it is loaded
+        String[] tolerances = args.length > 0 ? args : DEFAULT_TOLERANCES;
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        boolean passed = true;
+        for (String tolerance : tolerances) {
+            Process child = new ProcessBuilder(java, "-Dcalculator.fastMath=" + tolerance, "-cp",
+                System.getProperty("java.class.path"), FastMathAccuracy.class.getName()).inheritIO().start();
+            passed &= child.waitFor() == 0;
+        }
+        System.out.println(passed ? "ALL TOLERANCES HELD" : "ERROR, A TOLERANCE WAS BROKEN");
+        System.exit(passed ? 0 : 1);
+    }
+
+    // Check every function at the tolerance this JVM was started with, on samples inputs of each kind
+    static boolean check(int samples) {
+        double tolerance = FastMath.TOLERANCE;
+        SplittableRandom random = new SplittableRandom(42);
+        List<Check> checks = new ArrayList<>();
+
+        double[] angles = angles(random, samples);
+        checks.add(new Check("sin", FastMath::sin, StrictMath::sin, angles));
+        checks.add(new Check("cos", FastMath::cos, StrictMath::cos, angles));
+        checks.add(new Check("tan", FastMath::tan, StrictMath::tan, angles));
+        checks.add(new Check("cot", FastMath::cot, x -> 1 / StrictMath.tan(x), angles));
+
+        double[] sines = sines(random, samples);
+        checks.add(new Check("arcsin", FastMath::asin, StrictMath::asin, sines));
+        checks.add(new Check("arccos", FastMath::acos, StrictMath::acos, sines));
+
+        double[] slopes = slopes(random, samples);
+        checks.add(new Check("arctan", FastMath::atan, StrictMath::atan, slopes));
+        checks.add(new Check("arcctg", FastMath::arccot, x -> Math.PI / 2 - StrictMath.atan(x), slopes));
+
+        double[] positives = positives(random, samples);
+        checks.add(new Check("ln", FastMath::log, StrictMath::log, positives));
+        checks.add(new Check("log", FastMath::log10, StrictMath::log10, positives));
+
+        System.out.printf("FAST MATH ACCURACY: tolerance %s%n", tolerance);
+        boolean passed = true;
+        for (Check check : checks) {
+            check.run();
+            boolean held = check.worst <= tolerance;
+            passed &= held;
+            System.out.printf("%-8s %9d inputs, worst error %.3e (%5.1f%% of the tolerance) at x = %s  %s%n", check.name,
+                check.count, check.worst, 100 * check.worst / tolerance, check.worstX, held ? "OK" : "BROKEN");
+        }
+        return passed;
+    }
+
+    // Error of a value against the StrictMath reference, measured the way the tolerance is, or
+    // infinity when a special value doesn't match
+    private static double error(double value, double reference) {
+        if (Double.isNaN(reference) || Double.isInfinite(reference) || Double.isNaN(value) || Double.isInfinite(value)) {
+            return Double.compare(value, reference) == 0 ? 0 : Double.POSITIVE_INFINITY;
+        }
+        double off = Math.max(0, Math.abs(value - reference) - Math.ulp(reference));
+        return off / Math.max(1, Math.abs(reference));
+    }
+
+    // Grid over a few turns, every magnitude up to and past the reduction limit, and the doubles
+    // closest to multiples of pi/2, where tan and cot blow up and sin and cos pass through 0
+    private static double[] angles(SplittableRandom random, int samples) {
+        double[] values = new double[3 * samples + SPECIAL.length];
+        int n = 0;
+        for (int i = 0; i < samples; i++) {
+            values[n++] = -100 + 200.0 * i / samples;
+        }
+        for (int i = 0; i < samples; i++) {
+            values[n++] = signed(random, Math.pow(10, random.nextDouble(-12, 6.1)));
+        }
+        for (int i = 0; i < samples; i += 4) {
+            long k = i < samples / 2 ? i / 4 + 1 : random.nextLong(1, (long) (REDUCTION_LIMIT / (Math.PI / 2)));
+            double x = k * (Math.PI / 2);
+            values[n++] = Math.nextDown(x);
+            values[n++] = x;
+            values[n++] = Math.nextUp(x);
+            values[n++] = -x;
+        }
+        System.arraycopy(SPECIAL, 0, values, n, SPECIAL.length);
+        return values;
+    }
+
+    // Grid over [-1, 1], the last bits before 1 and -1, and a little past them where the
+    // answer is NaN
+    private static double[] sines(SplittableRandom random, int samples) {
+        double[] values = new double[2 * samples + 4 * 60 + SPECIAL.length];
+        int n = 0;
+        for (int i = 0; i < samples; i++) {
+            values[n++] = -1 + 2.0 * i / samples;
+        }
+        for (int i = 0; i < samples; i++) {
+            values[n++] = random.nextDouble(-1.1, 1.1);
+        }
+        for (int k = 1; k <= 60; k++) {
+            double near = 1 - Math.scalb(1.0, -k);
+            values[n++] = near;
+            values[n++] = -near;
+            values[n++] = Math.scalb(1.0, -k);
+            values[n++] = -Math.scalb(1.0, -k);
+        }
+        System.arraycopy(SPECIAL, 0, values, n, SPECIAL.length);
+        return values;
+    }
+
+    // Grid around 0 and every magnitude of either sign
+    private static double[] slopes(SplittableRandom random, int samples) {
+        double[] values = new double[2 * samples + SPECIAL.length];
+        int n = 0;
+        for (int i = 0; i < samples; i++) {
+            values[n++] = -50 + 100.0 * i / samples;
+        }
+        for (int i = 0; i < samples; i++) {
+            values[n++] = signed(random, Math.pow(10, random.nextDouble(-300, 300)));
+        }
+        System.arraycopy(SPECIAL, 0, values, n, SPECIAL.length);
+        return values;
+    }
+
+    // Every positive double, subnormals included, a grid either side of 1, and the doubles right
+    // next to 1 where the logarithm is smallest
+    private static double[] positives(SplittableRandom random, int samples) {
+        double[] values = new double[3 * samples + SPECIAL.length + 1];
+        int n = 0;
+        for (int i = 0; i < samples; i++) {
+            values[n++] = Double.longBitsToDouble(random.nextLong(1, Double.doubleToRawLongBits(Double.POSITIVE_INFINITY)));
+        }
+        for (int i = 0; i < samples; i++) {
+            values[n++] = 0.5 + 1.5 * i / samples;
+        }
+        double below = 1;
+        double above = 1;
+        for (int i = 0; i < samples; i += 2) {
+            below = Math.nextDown(below);
+            above = Math.nextUp(above);
+            values[n++] = below;
+            values[n++] = above;
+        }
+        System.arraycopy(SPECIAL, 0, values, n, SPECIAL.length);
+        values[n + SPECIAL.length] = -2;
+        return values;
+    }
+
+    private static double signed(SplittableRandom random, double magnitude) {
+        return random.nextBoolean() ? magnitude : -magnitude;
+    }
+}
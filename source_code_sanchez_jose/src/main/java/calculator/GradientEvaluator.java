@@ -0,0 +1,393 @@
+/*
+Purpose: Forward mode automatic differentiation. The program of a CompiledExpression is run on dual
+numbers: next to every value on the stack is its derivative with respect to each chosen variable,
+carried through every operator by the chain rule. One pass gives the value, exactly as evaluate
+would return it, and the whole gradient, with no step size to pick, where finite differences need
+two evaluations for every variable. Conditionals follow the branch evaluate would take and give
+its derivatives, comparisons are flat. An evaluator keeps its stacks between calls, so use one
+per thread
+*/
+
+package calculator;
+
+// Importing Libraries
+import java.util.Arrays;
+
+public final class GradientEvaluator {
+
+    private static final double LN10 = Math.log(10);
+
+    private final CompiledExpression expression;
+    private final String[] withRespectTo;
+
+    // For every variable of the expression, its place in the gradient, or -1 when it is held fixed
+    private final int[] seeds;
+
+    // Value stack, and the derivatives of each stack entry in a row of n. Only the window
+    // lo to hi of a row can be nonzero: a term of a long sum depends on few of the variables, so
+    // it costs its own few derivatives, not all n
+    private final int n;
+    private final double[] stack;
+    private final double[] tangents;
+    private final int[] lo;
+    private final int[] hi;
+
+    // The value and gradient of an expression at one point
+    public static final class Gradient {
+        private final double value;
+        private final double[] derivatives;
+        private final String[] variables;
+
+        Gradient(double value, double[] derivatives, String[] variables) {
+            this.value = value;
+            this.derivatives = derivatives;
+            this.variables = variables;
+        }
+
+        public double value() {
+            return value;
+        }
+
+        // Derivatives in the order the variables were chosen
+        public double[] derivatives() {
+            return derivatives.clone();
+        }
+
+        public double derivative(int index) {
+            return derivatives[index];
+        }
+
+        public double derivative(String variable) {
+            for (int i = 0; i < variables.length; i++) {
+                if (variables[i].equals(variable)) {
+                    return derivatives[i];
+                }
+            }
+            throw new IllegalArgumentException("ERROR, THE GRADIENT IS NOT WITH RESPECT TO " + variable + ".");
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder().append(value);
+            for (int i = 0; i < variables.length; i++) {
+                text.append(", d/d").append(variables[i]).append(" = ").append(derivatives[i]);
+            }
+            return text.toString();
+        }
+    }
+
+    // Differentiate with respect to every variable of the expression
+    public GradientEvaluator(CompiledExpression expression) {
+        this(expression, expression.variables());
+    }
+
+    // Differentiate with respect to some of the expression's variables, the others are held fixed
+    public GradientEvaluator(CompiledExpression expression, String... withRespectTo) {
+        String[] variables = expression.variables();
+        this.expression = expression;
+        this.withRespectTo = withRespectTo.clone();
+        this.seeds = new int[variables.length];
+        Arrays.fill(seeds, -1);
+        for (int i = 0; i < withRespectTo.length; i++) {
+            int index = Arrays.asList(variables).indexOf(withRespectTo[i]);
+            if (index < 0) {
+                throw new IllegalArgumentException("ERROR, " + withRespectTo[i] + " IS NOT A VARIABLE OF THE EXPRESSION.");
+            }
+            if (seeds[index] >= 0) {
+                throw new IllegalArgumentException("ERROR, " + withRespectTo[i] + " IS CHOSEN TWICE.");
+            }
+            seeds[index] = i;
+        }
+        this.n = withRespectTo.length;
+        this.stack = new double[expression.stackSize()];
+        this.tangents = new double[expression.stackSize() * n];
+        this.lo = new int[expression.stackSize()];
+        this.hi = new int[expression.stackSize()];
+    }
+
+    public String[] withRespectTo() {
+        return withRespectTo.clone();
+    }
+
+    // evaluate function returns the value and gradient at the given values of the variables
+    public Gradient evaluate(double... values) {
+        double[] derivatives = new double[n];
+        double value = evaluate(values, derivatives);
+        return new Gradient(value, derivatives, withRespectTo);
+    }
+
+    // evaluate function that writes the gradient into derivatives and returns the value, without
+    // allocating anything
+    public double evaluate(double[] values, double[] derivatives) {
+        expression.checkVariables(values.length);
+        if (derivatives.length < n) {
+            throw new IllegalArgumentException("ERROR, THE GRADIENT NEEDS ROOM FOR " + n + " DERIVATIVES.");
+        }
+        int[] code = expression.code;
+        double[] constants = expression.constants;
+        double[] stack = this.stack;
+        double[] t = this.tangents;
+        int[] lo = this.lo;
+        int[] hi = this.hi;
+        int n = this.n;
+        int slots = expression.maxStack;
+        int sp = 0;
+        int pc = 0;
+
+        while (pc < code.length) {
+            double a;
+            double b;
+            double r;
+            int top;
+            int below;
+            switch (code[pc++]) {
+                case CompiledExpression.PUSH:
+                    stack[sp] = constants[code[pc++]];
+                    lo[sp] = 0;
+                    hi[sp] = 0;
+                    sp++;
+                    break;
+                case CompiledExpression.VAR:
+                    stack[sp] = values[code[pc]];
+                    // A variable's derivative with respect to itself is 1, and to every other 0
+                    int seed = seeds[code[pc++]];
+                    if (seed >= 0) {
+                        t[sp * n + seed] = 1;
+                        lo[sp] = seed;
+                        hi[sp] = seed + 1;
+                    } else {
+                        lo[sp] = 0;
+                        hi[sp] = 0;
+                    }
+                    sp++;
+                    break;
+                case CompiledExpression.LOAD:
+                    stack[sp] = stack[slots + code[pc]];
+                    copy(slots + code[pc++], sp);
+                    sp++;
+                    break;
+                case CompiledExpression.STORE:
+                    stack[slots + code[pc]] = stack[sp - 1];
+                    copy(sp - 1, slots + code[pc++]);
+                    break;
+                case CompiledExpression.ADD:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] + stack[sp];
+                    widen(sp - 1, sp);
+                    top = sp * n;
+                    below = top - n;
+                    for (int k = lo[sp]; k < hi[sp]; k++) {
+                        t[below + k] += t[top + k];
+                    }
+                    break;
+                case CompiledExpression.SUBTRACT:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] - stack[sp];
+                    widen(sp - 1, sp);
+                    top = sp * n;
+                    below = top - n;
+                    for (int k = lo[sp]; k < hi[sp]; k++) {
+                        t[below + k] -= t[top + k];
+                    }
+                    break;
+                case CompiledExpression.MULTIPLY:
+                    // (ab)' = a'b + ab'
+                    sp--;
+                    a = stack[sp - 1];
+                    b = stack[sp];
+                    stack[sp - 1] = a * b;
+                    top = sp * n;
+                    below = top - n;
+                    for (int k = lo[sp - 1]; k < hi[sp - 1]; k++) {
+                        t[below + k] *= b;
+                    }
+                    widen(sp - 1, sp);
+                    for (int k = lo[sp]; k < hi[sp]; k++) {
+                        t[below + k] += a * t[top + k];
+                    }
+                    break;
+                case CompiledExpression.DIVIDE:
+                    // (a/b)' = (a' - (a/b)b') / b
+                    sp--;
+                    a = stack[sp - 1];
+                    b = stack[sp];
+                    // Check if the denominator is zero
+                    if (b == 0) {
+                        throw new EvaluationException("ERROR! CANNOT DIVIDE BY ZERO!");
+                    }
+                    r = a / b;
+                    stack[sp - 1] = r;
+                    widen(sp - 1, sp);
+                    top = sp * n;
+                    below = top - n;
+                    for (int k = lo[sp]; k < hi[sp]; k++) {
+                        t[below + k] -= r * t[top + k];
+                    }
+                    for (int k = lo[sp - 1]; k < hi[sp - 1]; k++) {
+                        t[below + k] /= b;
+                    }
+                    break;
+                case CompiledExpression.POWER:
+                    sp--;
+                    a = stack[sp - 1];
+                    b = stack[sp];
+                    r = Math.pow(a, b);
+                    stack[sp - 1] = r;
+                    power(a, b, r, sp - 1, sp);
+                    break;
+                // A comparison only changes where it jumps from 1 to 0, so its derivative is 0
+                case CompiledExpression.LESS:
+                case CompiledExpression.LESS_EQUAL:
+                case CompiledExpression.GREATER:
+                case CompiledExpression.GREATER_EQUAL:
+                case CompiledExpression.EQUAL:
+                case CompiledExpression.NOT_EQUAL:
+                    sp--;
+                    a = stack[sp - 1];
+                    b = stack[sp];
+                    stack[sp - 1] = CompiledExpression.binary(code[pc - 1], a, b);
+                    lo[sp - 1] = 0;
+                    hi[sp - 1] = 0;
+                    break;
+                // min and max take the derivatives of the number they pick
+                case CompiledExpression.MIN:
+                case CompiledExpression.MAX:
+                    sp--;
+                    a = stack[sp - 1];
+                    b = stack[sp];
+                    r = CompiledExpression.binary(code[pc - 1], a, b);
+                    stack[sp - 1] = r;
+                    if (Double.compare(r, a) != 0) {
+                        copy(sp, sp - 1);
+                    }
+                    break;
+                case CompiledExpression.JUMP_IF_FALSE:
+                    if (CompiledExpression.isTrue(stack[--sp])) {
+                        pc++;
+                    }
+                    else {
+                        pc += code[pc] + 1;
+                    }
+                    break;
+                case CompiledExpression.JUMP:
+                    pc += code[pc] + 1;
+                    break;
+                case CompiledExpression.NEGATE:
+                    stack[sp - 1] = -stack[sp - 1];
+                    below = (sp - 1) * n;
+                    for (int k = lo[sp - 1]; k < hi[sp - 1]; k++) {
+                        t[below + k] = -t[below + k];
+                    }
+                    break;
+                default:
+                    a = stack[sp - 1];
+                    r = CompiledExpression.unary(code[pc - 1], a);
+                    stack[sp - 1] = r;
+                    if (lo[sp - 1] == hi[sp - 1]) {
+                        break;
+                    }
+                    // Chain rule, f(a)' = f'(a) a'. A constant stays constant even where f' is
+                    // infinite, like sqrt at 0
+                    double slope = derivative(code[pc - 1], a, r);
+                    below = (sp - 1) * n;
+                    for (int k = lo[sp - 1]; k < hi[sp - 1]; k++) {
+                        if (t[below + k] != 0) {
+                            t[below + k] *= slope;
+                        }
+                    }
+                    break;
+            }
+        }
+        Arrays.fill(derivatives, 0, n, 0);
+        System.arraycopy(t, lo[0], derivatives, lo[0], hi[0] - lo[0]);
+        return stack[0];
+    }
+
+    // Copy the derivatives of one entry into another, as LOAD and STORE copy values
+    private void copy(int from, int to) {
+        lo[to] = lo[from];
+        hi[to] = hi[from];
+        System.arraycopy(tangents, from * n + lo[from], tangents, to * n + lo[from], hi[from] - lo[from]);
+    }
+
+    // Grow the window of entry so it also covers the window of other. Derivatives outside a
+    // window are 0 and never stored, so the part newly covered is cleared
+    private void widen(int entry, int other) {
+        if (lo[other] == hi[other]) {
+            return;
+        }
+        int base = entry * n;
+        if (lo[entry] == hi[entry]) {
+            Arrays.fill(tangents, base + lo[other], base + hi[other], 0);
+            lo[entry] = lo[other];
+            hi[entry] = hi[other];
+            return;
+        }
+        if (lo[other] < lo[entry]) {
+            Arrays.fill(tangents, base + lo[other], base + lo[entry], 0);
+            lo[entry] = lo[other];
+        }
+        if (hi[other] > hi[entry]) {
+            Arrays.fill(tangents, base + hi[entry], base + hi[other], 0);
+            hi[entry] = hi[other];
+        }
+    }
+
+    // (a^b)' = b a^(b - 1) a' + a^b ln(a) b'. Each term is only taken where its derivative isn't
+    // 0, so x^2 has a derivative at negative x, where ln x is NaN, and at 0
+    private void power(double a, double b, double r, int base, int exponent) {
+        double[] t = tangents;
+        boolean constantBase = lo[base] == hi[base];
+        boolean constantExponent = lo[exponent] == hi[exponent];
+        int below = base * n;
+        int top = exponent * n;
+        if (!constantBase) {
+            // a^(b - 1) is r / a, without a second pow, wherever that division is exact enough
+            double slope = b == 0 ? 0 : a != 0 && r != 0 && !Double.isInfinite(r) ? b * (r / a) : b * Math.pow(a, b - 1);
+            for (int k = lo[base]; k < hi[base]; k++) {
+                if (t[below + k] != 0) {
+                    t[below + k] *= slope;
+                }
+            }
+        }
+        if (!constantExponent) {
+            double slope = r * FastMath.log(a);
+            widen(base, exponent);
+            for (int k = lo[exponent]; k < hi[exponent]; k++) {
+                if (t[top + k] != 0) {
+                    t[below + k] += slope * t[top + k];
+                }
+            }
+        }
+    }
+
+    // Derivative of a function at x, where r is the function's value
+    private static double derivative(int opcode, double x, double r) {
+        switch (opcode) {
+            case CompiledExpression.SQRT:
+                return 1 / (2 * r);
+            case CompiledExpression.SIN:
+                return FastMath.cos(x);
+            case CompiledExpression.COS:
+                return -FastMath.sin(x);
+            case CompiledExpression.TAN:
+                return 1 + r * r;
+            case CompiledExpression.COT:
+                return -(1 + r * r);
+            case CompiledExpression.ARCSIN:
+                return 1 / Math.sqrt((1 - x) * (1 + x));
+            case CompiledExpression.ARCCOS:
+                return -1 / Math.sqrt((1 - x) * (1 + x));
+            case CompiledExpression.ARCTAN:
+                return 1 / (1 + x * x);
+            case CompiledExpression.ARCCTG:
+                return -1 / (1 + x * x);
+            case CompiledExpression.LN:
+                return 1 / x;
+            case CompiledExpression.LOG10:
+                return 1 / (x * LN10);
+            default:
+                throw new IllegalStateException("UNKNOWN OPCODE: " + opcode);
+        }
+    }
+}
@@ -0,0 +1,534 @@
+/*
+Purpose: Tokenizer for infix expressions that writes token kinds, offsets, and values into
+primitive arrays. Operator names are matched through a trie built from the Operator enum and
+numbers are parsed without creating strings, so tokenizing produces no garbage. Names that are
+not operators are looked up in the variables the lexer was given, then in its table of Definitions
+*/
+
+package calculator;
+
+// Importing Libraries
+import java.util.Arrays;
+
+public final class Lexer {
+
+    // Token kinds
+    static final int NUMBER = 0;
+    static final int OPERATOR = 1;
+    static final int OPEN = 2;
+    static final int CLOSE = 3;
+    static final int VARIABLE = 4;
+    static final int CONSTANT = 5;
+    static final int FUNCTION = 6;
+    static final int COMMA = 7;
+
+    // Bracket types stored as the operand of OPEN and CLOSE tokens
+    static final int PARENTHESIS = 0;
+    static final int BRACKET = 1;
+    static final int BRACE = 2;
+
+    // Number of tokens held before the parser has to take them
+    static final int DEFAULT_CAPACITY = 1024;
+
+    // Trie over the operator names, one row of 26 children per node
+    private static final int ALPHABET = 26;
+    private static final int[] TRIE_CHILDREN;
+    private static final int[] TRIE_OPERATOR;
+    private static final Calculator.Operator[] OPERATORS = Calculator.Operator.values();
+
+    // Exact powers of ten used to build numbers without rounding twice
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    private static final String[] NO_VARIABLES = {};
+
+    // Fill the trie with every operator whose symbol is a word, the comparisons are read a
+    // character at a time
+    static {
+        int nodes = 1;
+        for (Calculator.Operator operator : OPERATORS) {
+            nodes += operator.symbol.length();
+        }
+        int[] children = new int[nodes * ALPHABET];
+        int[] terminal = new int[nodes];
+        Arrays.fill(children, -1);
+        Arrays.fill(terminal, -1);
+
+        int used = 1;
+        for (Calculator.Operator operator : OPERATORS) {
+            if (!Character.isLetter(operator.symbol.charAt(0))) {
+                continue;
+            }
+            int node = 0;
+            for (int i = 0; i < operator.symbol.length(); i++) {
+                int slot = node * ALPHABET + (operator.symbol.charAt(i) - 'a');
+                if (children[slot] == -1) {
+                    children[slot] = used++;
+                }
+                node = children[slot];
+            }
+            terminal[node] = operator.ordinal();
+        }
+        TRIE_CHILDREN = children;
+        TRIE_OPERATOR = terminal;
+    }
+
+    // Token output, read by the parser and then cleared
+    int[] kinds;
+    int[] operands;
+    long[] offsets;
+    double[] values;
+    int count;
+
+    // Number being collected, kept as digits so it can be carried across chunks
+    private long mantissa;
+    private int significantDigits;
+    private int scale;
+    private boolean inNumber;
+    private boolean negative;
+    private boolean seenDot;
+    private long numberStart;
+    private char[] numberText = new char[32];
+    private int numberTextLength;
+
+    // Run of letters being collected, it is split into operators and variables once it ends
+    private char[] name = new char[16];
+    private int nameLength;
+    private long nameStart;
+
+    // Names that are read as variables, the operand of a VARIABLE token is the index in here
+    private String[] variables = NO_VARIABLES;
+
+    // Functions and constants, the operand of a CONSTANT or FUNCTION token is the index in here
+    private Definitions.Table definitions = Definitions.BUILT_IN;
+
+    // A minus that may turn out to be the sign of a number
+    private boolean pendingMinus;
+    private long pendingMinusOffset;
+
+    // The first character of a comparison that may be followed by =, or 0
+    private char pendingComparison;
+    private long pendingComparisonOffset;
+
+    // Whether the last token leaves the lexer waiting for a number
+    private boolean operandPosition;
+    private long position;
+
+    public Lexer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public Lexer(int capacity) {
+        kinds = new int[capacity];
+        operands = new int[capacity];
+        offsets = new long[capacity];
+        values = new double[capacity];
+        reset();
+    }
+
+    // Set the names read as variables, each has to be lowercase letters and not an operator name
+    public void setVariables(String... names) {
+        for (String variable : names) {
+            if (!isValidVariable(variable)) {
+                throw new IllegalArgumentException("INVALID VARIABLE NAME: " + variable);
+            }
+        }
+        variables = names.clone();
+    }
+
+    // Check if a name can be used for a variable
+    static boolean isValidVariable(String variable) {
+        if (variable == null || variable.isEmpty() || Calculator.opList().containsKey(variable)) {
+            return false;
+        }
+        for (int i = 0; i < variable.length(); i++) {
+            if (variable.charAt(i) < 'a' || variable.charAt(i) > 'z') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Change the functions and constants later expressions may use
+    void setDefinitions(Definitions.Table definitions) {
+        this.definitions = definitions;
+    }
+
+    // Start a new expression
+    public void reset() {
+        count = 0;
+        inNumber = false;
+        numberTextLength = 0;
+        nameLength = 0;
+        pendingMinus = false;
+        pendingComparison = 0;
+        operandPosition = true;
+        position = 0;
+    }
+
+    // Drop the tokens the parser has already taken
+    public void clear() {
+        count = 0;
+    }
+
+    // Number of tokens waiting to be taken
+    public int size() {
+        return count;
+    }
+
+    // Offset of the next character to be read
+    public long position() {
+        return position;
+    }
+
+    // lex function tokenizes input[from, to) and returns where it stopped, which is before to
+    // only when the token arrays are close to full
+    public int lex(CharSequence input, int from, int to) {
+        int i = from;
+        // A single character can finish up to three tokens, so stop while there is still room
+        while (i < to && count + 3 <= kinds.length) {
+            accept(input.charAt(i++));
+        }
+        return i;
+    }
+
+    // Finish the expression, flushing any number or name that is still open
+    public void finish() {
+        if (pendingComparison != 0) {
+            finishComparison();
+        }
+        if (pendingMinus) {
+            pendingMinus = false;
+            addToken(OPERATOR, Calculator.Operator.SUBTRACTION.ordinal(), pendingMinusOffset);
+        }
+        if (inNumber) {
+            finishNumber();
+        }
+        finishName();
+    }
+
+    // Take in the next character of the expression
+    private void accept(char c) {
+        // Whitespace is ignored and everything is lowercase, like the menu input
+        if (Character.isWhitespace(c)) {
+            position++;
+            return;
+        }
+
+        // <= and the like are one token, a < or > on its own is one too
+        if (pendingComparison != 0) {
+            if (c == '=') {
+                addToken(OPERATOR, comparisonOf(pendingComparison, true).ordinal(), pendingComparisonOffset);
+                pendingComparison = 0;
+                position++;
+                return;
+            }
+            finishComparison();
+        }
+        c = Character.toLowerCase(c);
+        boolean numeric = (c >= '0' && c <= '9') || c == '.';
+
+        // A minus in front of a number becomes its sign, otherwise it is a normal operator token
+        if (pendingMinus) {
+            pendingMinus = false;
+            if (numeric) {
+                negative = true;
+                startNumber(pendingMinusOffset);
+                appendNumberText('-');
+            }
+            else {
+                addToken(OPERATOR, Calculator.Operator.SUBTRACTION.ordinal(), pendingMinusOffset);
+            }
+        }
+
+        // Checking for digits
+        if (numeric) {
+            finishName();
+            if (!inNumber) {
+                negative = false;
+                startNumber(position);
+            }
+            appendDigit(c);
+            position++;
+            return;
+        }
+        if (inNumber) {
+            finishNumber();
+        }
+
+        // Checking for operator names such as sin or arcctg, and variables
+        if (c >= 'a' && c <= 'z') {
+            acceptLetter(c);
+            position++;
+            return;
+        }
+        finishName();
+
+        switch (c) {
+            case '-':
+                if (operandPosition) {
+                    pendingMinus = true;
+                    pendingMinusOffset = position;
+                }
+                else {
+                    addToken(OPERATOR, Calculator.Operator.SUBTRACTION.ordinal(), position);
+                }
+                break;
+            case '+':
+                addToken(OPERATOR, Calculator.Operator.ADDITION.ordinal(), position);
+                break;
+            case '*':
+                addToken(OPERATOR, Calculator.Operator.MULTIPLICATION.ordinal(), position);
+                break;
+            case '/':
+                addToken(OPERATOR, Calculator.Operator.DIVISION.ordinal(), position);
+                break;
+            case '^':
+                addToken(OPERATOR, Calculator.Operator.POWER.ordinal(), position);
+                break;
+            case '(':
+                addToken(OPEN, PARENTHESIS, position);
+                break;
+            case '[':
+                addToken(OPEN, BRACKET, position);
+                break;
+            case '{':
+                addToken(OPEN, BRACE, position);
+                break;
+            case ')':
+                addToken(CLOSE, PARENTHESIS, position);
+                break;
+            case ']':
+                addToken(CLOSE, BRACKET, position);
+                break;
+            case '}':
+                addToken(CLOSE, BRACE, position);
+                break;
+            case ',':
+                addToken(COMMA, 0, position);
+                break;
+            case '<':
+            case '>':
+            case '=':
+            case '!':
+                pendingComparison = c;
+                pendingComparisonOffset = position;
+                break;
+            default:
+                throw error(position, c + " is not a valid expression");
+        }
+        position++;
+    }
+
+    // Add the comparison waiting for an =, which = and ! can't do without
+    private void finishComparison() {
+        char c = pendingComparison;
+        pendingComparison = 0;
+        if (c == '=' || c == '!') {
+            throw error(pendingComparisonOffset, c + " HAS TO BE FOLLOWED BY =");
+        }
+        addToken(OPERATOR, comparisonOf(c, false).ordinal(), pendingComparisonOffset);
+    }
+
+    // The comparison starting with c, with or without an = after it
+    private static Calculator.Operator comparisonOf(char c, boolean orEqual) {
+        switch (c) {
+            case '<':
+                return orEqual ? Calculator.Operator.LESS_EQUAL : Calculator.Operator.LESS;
+            case '>':
+                return orEqual ? Calculator.Operator.GREATER_EQUAL : Calculator.Operator.GREATER;
+            case '=':
+                return Calculator.Operator.EQUAL;
+            default:
+                return Calculator.Operator.NOT_EQUAL;
+        }
+    }
+
+    // Collect a letter of a name
+    private void acceptLetter(char c) {
+        if (nameLength == 0) {
+            nameStart = position;
+        }
+        else if (nameLength == name.length) {
+            name = Arrays.copyOf(name, nameLength * 2);
+        }
+        name[nameLength++] = c;
+    }
+
+    // Split the collected letters into tokens. Whatever is left is taken as a variable if it is
+    // one, otherwise the longest operator or definition name is taken off the front, so sinx is
+    // sin of x
+    private void finishName() {
+        int from = 0;
+        while (from < nameLength) {
+            int variable = variableIndex(from);
+            if (variable != -1) {
+                addToken(VARIABLE, variable, nameStart + from);
+                break;
+            }
+            int node = 0;
+            int operator = -1;
+            int end = from;
+            for (int i = from; i < nameLength; i++) {
+                node = TRIE_CHILDREN[node * ALPHABET + (name[i] - 'a')];
+                if (node == -1) {
+                    break;
+                }
+                if (TRIE_OPERATOR[node] != -1) {
+                    operator = TRIE_OPERATOR[node];
+                    end = i + 1;
+                }
+            }
+            // A definition wins over an operator its name starts with, so sinh can be defined
+            int definition = definitions.match(name, from, nameLength);
+            if (definition != -1 && from + definitions.entries[definition].name.length() > end) {
+                addToken(definitions.entries[definition].isFunction() ? FUNCTION : CONSTANT, definition, nameStart + from);
+                from += definitions.entries[definition].name.length();
+                continue;
+            }
+            if (operator == -1) {
+                nameLength = 0;
+                if (TRIE_CHILDREN[name[from] - 'a'] == -1 && variables.length == 0) {
+                    throw error(nameStart + from, name[from] + " is not a valid expression");
+                }
+                throw error(nameStart + from, variables.length == 0
+                    ? "THE NAME STARTING HERE IS NOT A VALID OPERATOR"
+                    : "THE NAME STARTING HERE IS NOT A VALID OPERATOR OR VARIABLE");
+            }
+            addToken(OPERATOR, operator, nameStart + from);
+            from = end;
+        }
+        nameLength = 0;
+    }
+
+    // Index of the variable spelled by name[from, nameLength), or -1
+    private int variableIndex(int from) {
+        int length = nameLength - from;
+        for (int v = 0; v < variables.length; v++) {
+            String variable = variables[v];
+            if (variable.length() != length) {
+                continue;
+            }
+            int i = 0;
+            while (i < length && variable.charAt(i) == name[from + i]) {
+                i++;
+            }
+            if (i == length) {
+                return v;
+            }
+        }
+        return -1;
+    }
+
+    private void startNumber(long offset) {
+        inNumber = true;
+        mantissa = 0;
+        significantDigits = 0;
+        scale = 0;
+        seenDot = false;
+        numberStart = offset;
+        numberTextLength = 0;
+    }
+
+    private void appendDigit(char c) {
+        appendNumberText(c);
+        if (c == '.') {
+            if (seenDot) {
+                throw error(numberStart, "A NUMBER CAN ONLY HAVE ONE DECIMAL POINT");
+            }
+            seenDot = true;
+            return;
+        }
+        // Leading zeros don't count towards the digits that fit exactly
+        if (significantDigits == 0 && c == '0') {
+            if (seenDot) {
+                scale++;
+            }
+            return;
+        }
+        if (significantDigits < 18) {
+            mantissa = mantissa * 10 + (c - '0');
+        }
+        else if (!seenDot) {
+            scale--;
+        }
+        significantDigits++;
+        if (seenDot && significantDigits <= 18) {
+            scale++;
+        }
+    }
+
+    // Turn the collected digits into a value
+    private void finishNumber() {
+        inNumber = false;
+        if (numberTextLength == (negative ? 2 : 1) && seenDot) {
+            throw error(numberStart, "A DECIMAL POINT NEEDS DIGITS");
+        }
+        double value;
+        // Both the digits and the power of ten are exact, so one division rounds correctly
+        if (significantDigits <= MAX_EXACT_DIGITS && scale >= 0 && scale < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[scale];
+        }
+        else if (significantDigits <= MAX_EXACT_DIGITS && scale < 0 && -scale < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[-scale];
+        }
+        // Numbers that are too long to build exactly are rare, so they go through the library
+        else {
+            value = Math.abs(Double.parseDouble(new String(numberText, 0, numberTextLength)));
+        }
+        addToken(NUMBER, 0, numberStart);
+        values[count - 1] = negative ? -value : value;
+    }
+
+    private void appendNumberText(char c) {
+        if (numberTextLength == numberText.length) {
+            numberText = Arrays.copyOf(numberText, numberTextLength * 2);
+        }
+        numberText[numberTextLength++] = c;
+    }
+
+    private void addToken(int kind, int operand, long offset) {
+        // A long name can finish many tokens at once, so the block grows instead of overflowing
+        if (count == kinds.length) {
+            kinds = Arrays.copyOf(kinds, count * 2);
+            operands = Arrays.copyOf(operands, count * 2);
+            offsets = Arrays.copyOf(offsets, count * 2);
+            values = Arrays.copyOf(values, count * 2);
+        }
+        kinds[count] = kind;
+        operands[count] = operand;
+        offsets[count] = offset;
+        count++;
+
+        // Numbers, variables, constants, and closing brackets complete an operand, everything else waits for one
+        operandPosition = kind == OPERATOR || kind == OPEN || kind == FUNCTION || kind == COMMA;
+    }
+
+    // matchOperator function finds the operator whose name starts at text[from], or null
+    public static Calculator.Operator matchOperator(char[] text, int from) {
+        int node = 0;
+        int matched = -1;
+        for (int i = from; i < text.length; i++) {
+            char c = text[i];
+            if (c < 'a' || c > 'z') {
+                break;
+            }
+            node = TRIE_CHILDREN[node * ALPHABET + (c - 'a')];
+            if (node == -1) {
+                break;
+            }
+            if (TRIE_OPERATOR[node] != -1) {
+                matched = TRIE_OPERATOR[node];
+            }
+        }
+        return matched == -1 ? null : OPERATORS[matched];
+    }
+
+    // Build an error that says where in the expression the problem is
+    static ExpressionException error(long offset, String message) {
+        return new ExpressionException("THERE WAS AN ERROR PROCESSING YOUR EQUATION AT POSITION " + offset + ": " + message + ".", offset);
+    }
+}
@@ -0,0 +1,524 @@
+/*
+Purpose: Built in instrumentation of the calculator, turned on with -Dcalculator.metrics=true. It
+keeps latency histograms for the tokenize, convert, validate, and evaluate stages, counts every
+operator evaluated and every error by type, and reports the statistics of the live expression
+caches. Everything is published through a JMX MXBean and can be printed every few seconds. When
+metrics are off ENABLED is a constant false, so the JIT removes every call site along with it
+*/
+
+package calculator;
+
+// Importing Libraries
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+public final class Metrics {
+
+    public static final boolean ENABLED = Boolean.getBoolean("calculator.metrics");
+
+    // One call in this many of each stage is timed, the rest are only counted. Rounded down to
+    // a power of two so picking the calls is a mask
+    public static final int SAMPLE_RATE = Integer.highestOneBit(Math.max(1, Integer.getInteger("calculator.metrics.sampleRate", 64)));
+    private static final int SAMPLE_MASK = SAMPLE_RATE - 1;
+
+    // Seconds between reports printed to standard error, 0 for none
+    private static final int DUMP_SECONDS = Integer.getInteger("calculator.metrics.dumpSeconds", 0);
+
+    public static final String OBJECT_NAME = "calculator:type=Metrics";
+
+    // Stages of working out an expression. The single pass parser reads in tokenize, runs the
+    // shunting yard in convert, and checks what is left over in validate. The List<String>
+    // methods of Calculator map onto createExpression, shuntingYard, confirmExpression, and
+    // computeExpression
+    public enum Stage {TOKENIZE, CONVERT, VALIDATE, EVALUATE}
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final Calculator.Operator[] OPERATORS = Calculator.Operator.values();
+
+    // Histogram buckets hold every value below 8 ns exactly and then 8 buckets per power of two,
+    // so a percentile is within 12.5% of the latency measured. The last bucket holds everything
+    // from about 18 minutes on
+    private static final int SUB_BUCKETS = 8;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - 2) * SUB_BUCKETS;
+
+    // Counters owned by one thread. Only that thread writes them, so updates are plain adds,
+    // and a report reads them as they are, a few calls behind at most
+    static final class Recorder {
+        final Thread owner;
+        final long[] calls = new long[STAGES.length];
+        final long[][] buckets = new long[STAGES.length][BUCKETS];
+        final long[] totalNanos = new long[STAGES.length];
+        final long[] maxNanos = new long[STAGES.length];
+        final long[] operators = new long[OPERATORS.length];
+
+        Recorder(Thread owner) {
+            this.owner = owner;
+        }
+
+        void record(Stage stage, long nanos) {
+            int s = stage.ordinal();
+            buckets[s][bucket(nanos)]++;
+            totalNanos[s] += nanos;
+            if (nanos > maxNanos[s]) {
+                maxNanos[s] = nanos;
+            }
+        }
+
+        void addTo(Recorder total) {
+            for (int s = 0; s < STAGES.length; s++) {
+                total.calls[s] += calls[s];
+                total.totalNanos[s] += totalNanos[s];
+                total.maxNanos[s] = Math.max(total.maxNanos[s], maxNanos[s]);
+                for (int b = 0; b < BUCKETS; b++) {
+                    total.buckets[s][b] += buckets[s][b];
+                }
+            }
+            for (int o = 0; o < OPERATORS.length; o++) {
+                total.operators[o] += operators[o];
+            }
+        }
+    }
+
+    // Recorders of live threads, and the sum of those whose threads have ended. Both are guarded
+    // by the lock, which is only taken when a thread first records and when a report is made
+    private static final Object LOCK = new Object();
+    private static final List<Recorder> RECORDERS = new ArrayList<>();
+    private static final Recorder RETIRED = new Recorder(null);
+    private static int registered;
+
+    // An anonymous class, not a method reference, so loading Metrics with metrics off doesn't
+    // bootstrap a lambda at startup
+    private static final ThreadLocal<Recorder> CURRENT = new ThreadLocal<Recorder>() {
+        @Override
+        protected Recorder initialValue() {
+            return register();
+        }
+    };
+
+    private static final Map<String, LongAdder> ERRORS = new ConcurrentHashMap<>();
+    private static final List<WeakReference<ExpressionCache>> CACHES = new ArrayList<>();
+
+    // Starting the platform MBean server takes a good part of a second, so the bean is
+    // registered from the thread that prints the reports instead of holding up the first call
+    static {
+        if (ENABLED) {
+            ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "calculator-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.execute(Metrics::registerBean);
+            if (DUMP_SECONDS > 0) {
+                reporter.scheduleAtFixedRate(() -> dump(System.err), DUMP_SECONDS, DUMP_SECONDS, TimeUnit.SECONDS);
+            }
+            else {
+                reporter.shutdown();
+            }
+        }
+    }
+
+    private Metrics() {
+    }
+
+    private static void registerBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(OBJECT_NAME));
+        }
+        catch (JMException e) {
+            System.err.println("ERROR, METRICS COULD NOT BE REGISTERED WITH JMX: " + e.getMessage());
+        }
+    }
+
+    private static Recorder register() {
+        Recorder recorder = new Recorder(Thread.currentThread());
+        synchronized (LOCK) {
+            // Threads that come and go, like a virtual thread per connection, are folded into
+            // the retired totals now and then even when nobody asks for a report
+            if (++registered % 256 == 0) {
+                retireEnded();
+            }
+            RECORDERS.add(recorder);
+        }
+        return recorder;
+    }
+
+    // Fold the recorders of threads that have ended into the retired totals. A thread found
+    // not alive has finished all its writes, so its counters can be read safely
+    private static void retireEnded() {
+        Iterator<Recorder> iterator = RECORDERS.iterator();
+        while (iterator.hasNext()) {
+            Recorder recorder = iterator.next();
+            if (!recorder.owner.isAlive()) {
+                recorder.addTo(RETIRED);
+                iterator.remove();
+            }
+        }
+    }
+
+    // start function counts a call of a stage and returns the time it started, or 0 when the
+    // call isn't one of the sampled ones
+    static long start(Stage stage) {
+        if (!ENABLED) {
+            return 0;
+        }
+        return (++CURRENT.get().calls[stage.ordinal()] & SAMPLE_MASK) == 0 ? System.nanoTime() : 0;
+    }
+
+    // stop function records the time taken by a call that start picked for sampling
+    static void stop(Stage stage, long started) {
+        if (ENABLED && started != 0) {
+            CURRENT.get().record(stage, System.nanoTime() - started);
+        }
+    }
+
+    // Check if the call with this number is one of the sampled ones, for callers that count
+    // their own calls
+    static boolean sampled(long call) {
+        return (call & SAMPLE_MASK) == 0;
+    }
+
+    // Record the three stages of one parse, the times are only used when the parse was sampled.
+    // A parser passes back the recorder it was given last time, which saves looking it up as
+    // long as the parser stays on the same thread
+    static Recorder parsed(Recorder last, boolean sampled, long tokenizeNanos, long convertNanos, long validateNanos) {
+        Recorder recorder = last != null && last.owner == Thread.currentThread() ? last : CURRENT.get();
+        recorder.calls[Stage.TOKENIZE.ordinal()]++;
+        recorder.calls[Stage.CONVERT.ordinal()]++;
+        recorder.calls[Stage.VALIDATE.ordinal()]++;
+        if (sampled) {
+            recorder.record(Stage.TOKENIZE, tokenizeNanos);
+            recorder.record(Stage.CONVERT, convertNanos);
+            recorder.record(Stage.VALIDATE, validateNanos);
+        }
+        return recorder;
+    }
+
+    // Count one evaluation of a compiled expression and its operators, returns the time it
+    // started when it is sampled
+    static long evaluating(CompiledExpression expression) {
+        Recorder recorder = CURRENT.get();
+        expression.countOperators(recorder.operators, 1);
+        return (++recorder.calls[Stage.EVALUATE.ordinal()] & SAMPLE_MASK) == 0 ? System.nanoTime() : 0;
+    }
+
+    // Count the evaluations of a compiled expression over columns of values
+    static void evaluated(CompiledExpression expression, int rows) {
+        Recorder recorder = CURRENT.get();
+        expression.countOperators(recorder.operators, rows);
+        recorder.calls[Stage.EVALUATE.ordinal()] += rows;
+    }
+
+    // Count the operators in an rpn expression from shuntingYard
+    static void evaluating(List<String> rpn) {
+        Recorder recorder = CURRENT.get();
+        for (String token : rpn) {
+            Calculator.Operator operator = Calculator.opList().get(token);
+            if (operator != null) {
+                recorder.operators[operator.ordinal()]++;
+            }
+        }
+    }
+
+    // Time a call of a stage, counting the error if it throws
+    static <T, R> R time(Stage stage, Function<T, R> call, T argument) {
+        long started = start(stage);
+        try {
+            R result = call.apply(argument);
+            stop(stage, started);
+            return result;
+        }
+        catch (RuntimeException e) {
+            error(e);
+            throw e;
+        }
+    }
+
+    // Count an error by its type
+    static void error(RuntimeException e) {
+        if (ENABLED) {
+            ERRORS.computeIfAbsent(e.getClass().getSimpleName(), type -> new LongAdder()).increment();
+        }
+    }
+
+    // Include a cache in the reports for as long as it is in use
+    static void watch(ExpressionCache cache) {
+        synchronized (LOCK) {
+            CACHES.add(new WeakReference<>(cache));
+        }
+    }
+
+    // Bucket of a latency in nanoseconds
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(0, nanos);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        return (exponent - 2) * SUB_BUCKETS + (int) ((nanos >>> (exponent - 3)) & (SUB_BUCKETS - 1));
+    }
+
+    // Largest latency that falls in a bucket
+    static long bucketLimit(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + 2;
+        long low = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 3);
+        return low + (1L << (exponent - 3)) - 1;
+    }
+
+    // Latencies sampled from one stage
+    public static final class Histogram {
+        // Calls of the stage and how many of them were timed
+        public final long calls;
+        public final long samples;
+        public final long totalNanos;
+        public final long maxNanos;
+        private final long[] buckets;
+
+        Histogram(long calls, long[] buckets, long totalNanos, long maxNanos) {
+            long samples = 0;
+            for (long count : buckets) {
+                samples += count;
+            }
+            this.calls = calls;
+            this.samples = samples;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.buckets = buckets;
+        }
+
+        public double meanNanos() {
+            return samples == 0 ? 0 : (double) totalNanos / samples;
+        }
+
+        // Latency that the given fraction of the samples came in under, rounded up to the end
+        // of its bucket
+        public long percentileNanos(double fraction) {
+            if (samples == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * samples));
+            long seen = 0;
+            for (int b = 0; b < buckets.length; b++) {
+                seen += buckets[b];
+                if (seen >= rank) {
+                    return Math.min(bucketLimit(b), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+    }
+
+    // Everything recorded up to the moment it was taken
+    public static final class Snapshot {
+        private final Histogram[] stages;
+        private final long[] operators;
+        private final Map<String, Long> errors;
+        private final List<ExpressionCache.Stats> caches;
+
+        Snapshot(Histogram[] stages, long[] operators, Map<String, Long> errors, List<ExpressionCache.Stats> caches) {
+            this.stages = stages;
+            this.operators = operators;
+            this.errors = errors;
+            this.caches = caches;
+        }
+
+        public Histogram stage(Stage stage) {
+            return stages[stage.ordinal()];
+        }
+
+        // Compiled and rpn expressions evaluated
+        public long evaluations() {
+            return stage(Stage.EVALUATE).calls;
+        }
+
+        public long operatorCount(Calculator.Operator operator) {
+            return operators[operator.ordinal()];
+        }
+
+        // Operators that were evaluated at least once, in declaration order
+        public Map<String, Long> operatorCounts() {
+            Map<String, Long> counts = new LinkedHashMap<>();
+            for (Calculator.Operator operator : OPERATORS) {
+                if (operators[operator.ordinal()] > 0) {
+                    counts.put(operator.name(), operators[operator.ordinal()]);
+                }
+            }
+            return counts;
+        }
+
+        // Errors counted by the simple name of the exception
+        public Map<String, Long> errorCounts() {
+            return errors;
+        }
+
+        public List<ExpressionCache.Stats> caches() {
+            return caches;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("METRICS: %d evaluations, 1 in %d calls timed%n", evaluations(), SAMPLE_RATE));
+            report.append(String.format("%-9s %12s %9s %10s %10s %10s %10s %10s%n",
+                "STAGE", "CALLS", "SAMPLES", "MEAN us", "P50 us", "P99 us", "P99.9 us", "MAX us"));
+            for (Stage stage : STAGES) {
+                Histogram histogram = stage(stage);
+                report.append(String.format("%-9s %12d %9d %10.3f %10.3f %10.3f %10.3f %10.3f%n", stage, histogram.calls,
+                    histogram.samples, histogram.meanNanos() / 1e3, histogram.percentileNanos(0.50) / 1e3,
+                    histogram.percentileNanos(0.99) / 1e3, histogram.percentileNanos(0.999) / 1e3, histogram.maxNanos / 1e3));
+            }
+            report.append("OPERATORS: ").append(operatorCounts()).append(System.lineSeparator());
+            report.append("ERRORS: ").append(errors).append(System.lineSeparator());
+            for (ExpressionCache.Stats stats : caches) {
+                report.append(stats).append(System.lineSeparator());
+            }
+            return report.toString();
+        }
+    }
+
+    // snapshot function adds up the counters of every thread
+    public static Snapshot snapshot() {
+        Recorder total = new Recorder(null);
+        List<ExpressionCache.Stats> caches = new ArrayList<>();
+        List<ExpressionCache> live = new ArrayList<>();
+        synchronized (LOCK) {
+            retireEnded();
+            RETIRED.addTo(total);
+            for (Recorder recorder : RECORDERS) {
+                recorder.addTo(total);
+            }
+            Iterator<WeakReference<ExpressionCache>> iterator = CACHES.iterator();
+            while (iterator.hasNext()) {
+                ExpressionCache cache = iterator.next().get();
+                if (cache == null) {
+                    iterator.remove();
+                }
+                else {
+                    live.add(cache);
+                }
+            }
+        }
+        // A cache takes its own lock for its stats, so ask outside this one
+        for (ExpressionCache cache : live) {
+            caches.add(cache.stats());
+        }
+        Histogram[] stages = new Histogram[STAGES.length];
+        for (int s = 0; s < STAGES.length; s++) {
+            stages[s] = new Histogram(total.calls[s], total.buckets[s], total.totalNanos[s], total.maxNanos[s]);
+        }
+        Map<String, Long> errors = new TreeMap<>();
+        ERRORS.forEach((type, count) -> errors.put(type, count.sum()));
+        return new Snapshot(stages, total.operators, errors, caches);
+    }
+
+    // dump function prints a report of everything recorded so far
+    public static void dump(PrintStream out) {
+        out.print(snapshot());
+        out.flush();
+    }
+
+    // What the MXBean shows, every attribute is read from a new snapshot
+    public interface MetricsMXBean {
+        long getEvaluations();
+        int getSampleRate();
+        Map<String, Long> getStageCalls();
+        Map<String, Double> getStageMeanMicros();
+        Map<String, Double> getStageP50Micros();
+        Map<String, Double> getStageP99Micros();
+        Map<String, Double> getStageMaxMicros();
+        Map<String, Long> getOperatorCounts();
+        Map<String, Long> getErrorCounts();
+        List<String> getCacheStats();
+        String getReport();
+    }
+
+    private static final class Bean implements MetricsMXBean {
+        @Override
+        public long getEvaluations() {
+            return snapshot().evaluations();
+        }
+
+        @Override
+        public int getSampleRate() {
+            return SAMPLE_RATE;
+        }
+
+        @Override
+        public Map<String, Long> getStageCalls() {
+            return perStage(histogram -> histogram.calls);
+        }
+
+        @Override
+        public Map<String, Double> getStageMeanMicros() {
+            return perStage(histogram -> histogram.meanNanos() / 1e3);
+        }
+
+        @Override
+        public Map<String, Double> getStageP50Micros() {
+            return perStage(histogram -> histogram.percentileNanos(0.50) / 1e3);
+        }
+
+        @Override
+        public Map<String, Double> getStageP99Micros() {
+            return perStage(histogram -> histogram.percentileNanos(0.99) / 1e3);
+        }
+
+        @Override
+        public Map<String, Double> getStageMaxMicros() {
+            return perStage(histogram -> histogram.maxNanos / 1e3);
+        }
+
+        @Override
+        public Map<String, Long> getOperatorCounts() {
+            return snapshot().operatorCounts();
+        }
+
+        @Override
+        public Map<String, Long> getErrorCounts() {
+            return snapshot().errorCounts();
+        }
+
+        @Override
+        public List<String> getCacheStats() {
+            List<String> stats = new ArrayList<>();
+            for (ExpressionCache.Stats cache : snapshot().caches()) {
+                stats.add(cache.toString());
+            }
+            return stats;
+        }
+
+        @Override
+        public String getReport() {
+            return snapshot().toString();
+        }
+
+        private static <V> Map<String, V> perStage(Function<Histogram, V> value) {
+            Snapshot snapshot = snapshot();
+            Map<String, V> values = new LinkedHashMap<>();
+            for (Stage stage : STAGES) {
+                values.put(stage.name(), value.apply(snapshot.stage(stage)));
+            }
+            return values;
+        }
+    }
+}
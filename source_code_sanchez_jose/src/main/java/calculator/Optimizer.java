@@ -0,0 +1,493 @@
+/*
+Purpose: Optimizing pass run on a CompiledExpression before it is evaluated. The program is
+rebuilt as a graph where equal subexpressions become one node, constant subtrees are folded into
+a single number, and identities that hold exactly under IEEE 754 are applied. Nodes used more
+than once are computed once and kept in a slot for the other uses. A conditional becomes one
+node choosing between its branches, and one whose condition is a constant becomes the branch
+it picks
+*/
+
+package calculator;
+
+// Importing Libraries
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public final class Optimizer {
+
+    // Raw bits of positive and negative zero, which the identities have to tell apart
+    private static final long POSITIVE_ZERO = Double.doubleToRawLongBits(0.0);
+    private static final long NEGATIVE_ZERO = Double.doubleToRawLongBits(-0.0);
+
+    // Opcode of a node choosing between left and right by its condition
+    private static final int SELECT = -1;
+
+    // Stages of writing out a SELECT node on the work stack
+    private static final int CONDITION = 0;
+    private static final int WHEN_TRUE = 1;
+    private static final int WHEN_FALSE = 2;
+    private static final int DONE = 3;
+
+    // One operation or number of the expression. Children are merged before their parents are
+    // built, so two nodes are equal when they have the same opcode, value, and child nodes
+    private static final class Node {
+        final int opcode;
+        final double value;
+        final Node left;
+        final Node right;
+        final Node condition;
+
+        // Number of parents using this node, and the slot holding it once it has been emitted
+        int uses;
+        int slot = -1;
+        boolean expanded;
+
+        Node(int opcode, double value, Node left, Node right) {
+            this(opcode, value, left, right, null);
+        }
+
+        Node(int opcode, double value, Node left, Node right, Node condition) {
+            this.opcode = opcode;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.condition = condition;
+        }
+
+        boolean isConstant() {
+            return opcode == CompiledExpression.PUSH;
+        }
+
+        boolean isConstant(double number) {
+            return isConstant() && Double.doubleToRawLongBits(value) == Double.doubleToRawLongBits(number);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Node)) {
+                return false;
+            }
+            Node node = (Node) other;
+            return opcode == node.opcode && left == node.left && right == node.right && condition == node.condition
+                && Double.doubleToRawLongBits(value) == Double.doubleToRawLongBits(node.value);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = opcode * 31 + Long.hashCode(Double.doubleToRawLongBits(value));
+            hash = hash * 31 + System.identityHashCode(left);
+            hash = hash * 31 + System.identityHashCode(right);
+            return hash * 31 + System.identityHashCode(condition);
+        }
+    }
+
+    // Every distinct node, and the same nodes in the order they were made, children first
+    private final HashMap<Node, Node> nodes = new HashMap<>();
+    private final ArrayList<Node> created = new ArrayList<>();
+
+    // Output program
+    private int[] code = new int[16];
+    private int codeLength;
+    private double[] constants = new double[8];
+    private int constantCount;
+    private final HashMap<Long, Integer> constantIndex = new HashMap<>();
+    private int depth;
+    private int maxDepth;
+    private int slotCount;
+
+    // Nodes written out inside the branches being written, a node's slot only holds its value
+    // on the path through the branch that stored it
+    private Node[] inBranch = new Node[16];
+    private int inBranchCount;
+    private int branchDepth;
+
+    private Optimizer() {
+    }
+
+    // optimize function returns an expression giving the same result as the one passed in,
+    // including the same errors, with as few operations as possible
+    public static CompiledExpression optimize(CompiledExpression expression) {
+        return new Optimizer().rebuild(expression);
+    }
+
+    private CompiledExpression rebuild(CompiledExpression expression) {
+        Node root = buildGraph(expression);
+        countUses(root);
+        emit(root);
+        return new CompiledExpression(Arrays.copyOf(code, codeLength), Arrays.copyOf(constants, constantCount), maxDepth,
+            slotCount, expression.variables);
+    }
+
+    // Run the program over nodes instead of numbers to get its graph. Both branches of a jump
+    // are run, one after the other, and joined into a SELECT node where they meet
+    private Node buildGraph(CompiledExpression expression) {
+        int[] program = expression.code;
+        Node[] stack = new Node[expression.maxStack];
+        Node[] slots = new Node[expression.slotCount];
+        int sp = 0;
+        int pc = 0;
+
+        // Conditionals whose branches are being run, each with its condition, where its false
+        // branch starts or, once the true branch is done, its value, and where the branches meet
+        Node[] conditions = new Node[4];
+        Node[] whenTrue = new Node[4];
+        int[] ends = new int[4];
+        int open = 0;
+
+        while (pc < program.length || open > 0) {
+            // A false branch ends where the jump after its true branch goes
+            if (open > 0 && whenTrue[open - 1] != null && ends[open - 1] == pc) {
+                open--;
+                stack[sp - 1] = select(conditions[open], whenTrue[open], stack[sp - 1]);
+                continue;
+            }
+            int opcode = program[pc++];
+            switch (opcode) {
+                case CompiledExpression.PUSH:
+                    stack[sp++] = constant(expression.constants[program[pc++]]);
+                    break;
+                // The value of a variable node is the variable's index
+                case CompiledExpression.VAR:
+                    stack[sp++] = intern(new Node(CompiledExpression.VAR, program[pc++], null, null));
+                    break;
+                case CompiledExpression.LOAD:
+                    stack[sp++] = slots[program[pc++]];
+                    break;
+                case CompiledExpression.STORE:
+                    slots[program[pc++]] = stack[sp - 1];
+                    break;
+                case CompiledExpression.JUMP_IF_FALSE:
+                    if (open == conditions.length) {
+                        conditions = Arrays.copyOf(conditions, open * 2);
+                        whenTrue = Arrays.copyOf(whenTrue, open * 2);
+                        ends = Arrays.copyOf(ends, open * 2);
+                    }
+                    conditions[open] = stack[--sp];
+                    whenTrue[open] = null;
+                    ends[open++] = pc + 1 + program[pc++];
+                    break;
+                // The true branch is done, the false one starts after this jump
+                case CompiledExpression.JUMP:
+                    whenTrue[open - 1] = stack[--sp];
+                    ends[open - 1] = pc + 1 + program[pc++];
+                    break;
+                case CompiledExpression.ADD:
+                case CompiledExpression.SUBTRACT:
+                case CompiledExpression.MULTIPLY:
+                case CompiledExpression.DIVIDE:
+                case CompiledExpression.POWER:
+                case CompiledExpression.LESS:
+                case CompiledExpression.LESS_EQUAL:
+                case CompiledExpression.GREATER:
+                case CompiledExpression.GREATER_EQUAL:
+                case CompiledExpression.EQUAL:
+                case CompiledExpression.NOT_EQUAL:
+                case CompiledExpression.MIN:
+                case CompiledExpression.MAX:
+                    sp--;
+                    stack[sp - 1] = binary(opcode, stack[sp - 1], stack[sp]);
+                    break;
+                default:
+                    stack[sp - 1] = unary(opcode, stack[sp - 1]);
+                    break;
+            }
+        }
+        return stack[0];
+    }
+
+    // Build a node for a conditional, a constant condition leaves only the branch it picks
+    private Node select(Node condition, Node whenTrue, Node whenFalse) {
+        if (condition.isConstant()) {
+            return CompiledExpression.isTrue(condition.value) ? whenTrue : whenFalse;
+        }
+        return intern(new Node(SELECT, 0, whenTrue, whenFalse, condition));
+    }
+
+    private Node constant(double value) {
+        return intern(new Node(CompiledExpression.PUSH, value, null, null));
+    }
+
+    // Build a node for an operator taking two numbers, simplifying it where that is exact
+    private Node binary(int opcode, Node left, Node right) {
+        if (left.isConstant() && right.isConstant()) {
+            Node folded = fold(opcode, left, right);
+            if (folded != null) {
+                return folded;
+            }
+        }
+        switch (opcode) {
+            // x*1 and 1*x are x for every x, NaN and signed zeros included
+            case CompiledExpression.MULTIPLY:
+                if (right.isConstant(1)) {
+                    return left;
+                }
+                if (left.isConstant(1)) {
+                    return right;
+                }
+                break;
+            // x/1 and x^1 are x
+            case CompiledExpression.DIVIDE:
+            case CompiledExpression.POWER:
+                if (right.isConstant(1)) {
+                    return left;
+                }
+                break;
+            // x-0 is x, but x-(-0) is not when x is -0
+            case CompiledExpression.SUBTRACT:
+                if (Double.doubleToRawLongBits(right.value) == POSITIVE_ZERO && right.isConstant()) {
+                    return left;
+                }
+                break;
+            // x+(-0) is x, but x+0 is not when x is -0 since -0+0 is 0
+            case CompiledExpression.ADD:
+                if (Double.doubleToRawLongBits(right.value) == NEGATIVE_ZERO && right.isConstant()) {
+                    return left;
+                }
+                if (Double.doubleToRawLongBits(left.value) == NEGATIVE_ZERO && left.isConstant()) {
+                    return right;
+                }
+                break;
+            default:
+                break;
+        }
+        return intern(new Node(opcode, 0, left, right));
+    }
+
+    // Build a node for a function or negation
+    private Node unary(int opcode, Node operand) {
+        if (operand.isConstant()) {
+            return fold(opcode, operand, null);
+        }
+        // --x is x
+        if (opcode == CompiledExpression.NEGATE && operand.opcode == CompiledExpression.NEGATE) {
+            return operand.left;
+        }
+        return intern(new Node(opcode, 0, operand, null));
+    }
+
+    // Work out an operation on constants by running it, so the folded number is exactly what
+    // evaluating would give. Operations that would fail are left for evaluation to report
+    private Node fold(int opcode, Node left, Node right) {
+        int[] program = right == null
+            ? new int[] {CompiledExpression.PUSH, 0, opcode}
+            : new int[] {CompiledExpression.PUSH, 0, CompiledExpression.PUSH, 1, opcode};
+        double[] values = right == null ? new double[] {left.value} : new double[] {left.value, right.value};
+        try {
+            return constant(new CompiledExpression(program, values, 2).interpret(new double[2]));
+        }
+        catch (ArithmeticException e) {
+            return right == null ? intern(new Node(opcode, 0, left, null)) : null;
+        }
+    }
+
+    // Return the existing node equal to this one, or keep this one if it is new
+    private Node intern(Node node) {
+        Node existing = nodes.putIfAbsent(node, node);
+        if (existing != null) {
+            return existing;
+        }
+        created.add(node);
+        return node;
+    }
+
+    // Count the parents of every node reachable from the root. Parents are always made after
+    // their children, so going through the nodes newest first sees every parent before its children
+    private void countUses(Node root) {
+        root.uses = 1;
+        for (int i = created.size() - 1; i >= 0; i--) {
+            Node node = created.get(i);
+            if (node.uses == 0) {
+                continue;
+            }
+            if (node.left != null) {
+                node.left.uses++;
+            }
+            if (node.right != null) {
+                node.right.uses++;
+            }
+            if (node.condition != null) {
+                node.condition.uses++;
+            }
+        }
+    }
+
+    // Write the graph back out in postfix order. The first use of a shared node computes it and
+    // stores it in a slot, later uses load it from there. A SELECT node is written as its
+    // condition and its two branches with jumps between them, and nodes first written inside a
+    // branch are written again when they are used after it
+    private void emit(Node root) {
+        Node[] work = new Node[16];
+        // For SELECT nodes on the work stack, the stage reached, the jump waiting for its
+        // target, and where the nodes written in the current branch start in inBranch
+        int[] stage = new int[16];
+        int[] jump = new int[16];
+        int[] branchStart = new int[16];
+        int top = 0;
+        work[top++] = root;
+
+        while (top > 0) {
+            Node node = work[top - 1];
+            if (node.opcode == SELECT && node.slot < 0) {
+                if (work.length < top + 1) {
+                    work = Arrays.copyOf(work, work.length * 2);
+                    stage = Arrays.copyOf(stage, work.length);
+                    jump = Arrays.copyOf(jump, work.length);
+                    branchStart = Arrays.copyOf(branchStart, work.length);
+                }
+                int current = top - 1;
+                switch (stage[current]) {
+                    case CONDITION:
+                        stage[current] = WHEN_TRUE;
+                        stage[top] = CONDITION;
+                        work[top++] = node.condition;
+                        break;
+                    case WHEN_TRUE:
+                        jump[current] = emitJump(CompiledExpression.JUMP_IF_FALSE);
+                        branchStart[current] = enterBranch();
+                        stage[current] = WHEN_FALSE;
+                        stage[top] = CONDITION;
+                        work[top++] = node.left;
+                        break;
+                    case WHEN_FALSE:
+                        leaveBranch(branchStart[current]);
+                        int skip = emitJump(CompiledExpression.JUMP);
+                        patchJump(jump[current]);
+                        jump[current] = skip;
+                        branchStart[current] = enterBranch();
+                        stage[current] = DONE;
+                        stage[top] = CONDITION;
+                        work[top++] = node.right;
+                        break;
+                    default:
+                        leaveBranch(branchStart[current]);
+                        patchJump(jump[current]);
+                        top--;
+                        store(node);
+                        break;
+                }
+            }
+            else if (node.isConstant()) {
+                top--;
+                emitCode(CompiledExpression.PUSH, constantIndex(node.value));
+                push();
+            }
+            else if (node.opcode == CompiledExpression.VAR) {
+                top--;
+                emitCode(CompiledExpression.VAR, (int) node.value);
+                push();
+            }
+            else if (node.slot >= 0) {
+                top--;
+                emitCode(CompiledExpression.LOAD, node.slot);
+                push();
+            }
+            else if (!node.expanded) {
+                // Children go on the work stack right first so the left one is written first
+                node.expanded = true;
+                remember(node);
+                if (work.length < top + 2) {
+                    work = Arrays.copyOf(work, work.length * 2);
+                    stage = Arrays.copyOf(stage, work.length);
+                    jump = Arrays.copyOf(jump, work.length);
+                    branchStart = Arrays.copyOf(branchStart, work.length);
+                }
+                if (node.right != null) {
+                    stage[top] = CONDITION;
+                    work[top++] = node.right;
+                }
+                stage[top] = CONDITION;
+                work[top++] = node.left;
+            }
+            else {
+                top--;
+                emitCode(node.opcode);
+                if (node.right != null) {
+                    depth--;
+                }
+                store(node);
+            }
+        }
+    }
+
+    // Keep a node in a slot for its other uses once it has been written
+    private void store(Node node) {
+        if (node.uses > 1) {
+            node.slot = slotCount++;
+            emitCode(CompiledExpression.STORE, node.slot);
+            remember(node);
+        }
+    }
+
+    // Note a node written inside a branch, so it can be forgotten when the branch ends
+    private void remember(Node node) {
+        if (branchDepth == 0) {
+            return;
+        }
+        if (inBranchCount == inBranch.length) {
+            inBranch = Arrays.copyOf(inBranch, inBranchCount * 2);
+        }
+        inBranch[inBranchCount++] = node;
+    }
+
+    private int enterBranch() {
+        branchDepth++;
+        return inBranchCount;
+    }
+
+    // Forget the nodes written since a branch started, the code after the branch can't rely
+    // on them having been computed
+    private void leaveBranch(int start) {
+        branchDepth--;
+        for (int i = start; i < inBranchCount; i++) {
+            inBranch[i].expanded = false;
+            inBranch[i].slot = -1;
+            inBranch[i] = null;
+        }
+        inBranchCount = start;
+    }
+
+    // Write a jump with its target still to come, returning where its operand is. Reading the
+    // program straight through, both kinds of jump take a number off the stack
+    private int emitJump(int opcode) {
+        emitCode(opcode, 0);
+        depth--;
+        return codeLength - 1;
+    }
+
+    // Point the jump whose operand is at code[operand] at the end of the code so far
+    private void patchJump(int operand) {
+        code[operand] = codeLength - operand - 1;
+    }
+
+    private void push() {
+        depth++;
+        maxDepth = Math.max(maxDepth, depth);
+    }
+
+    // Index of a number in the constant pool, each distinct number is stored once
+    private int constantIndex(double value) {
+        Integer index = constantIndex.get(Double.doubleToRawLongBits(value));
+        if (index != null) {
+            return index;
+        }
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        constantIndex.put(Double.doubleToRawLongBits(value), constantCount);
+        return constantCount++;
+    }
+
+    private void emitCode(int opcode) {
+        if (codeLength == code.length) {
+            code = Arrays.copyOf(code, codeLength * 2);
+        }
+        code[codeLength++] = opcode;
+    }
+
+    private void emitCode(int opcode, int operand) {
+        emitCode(opcode);
+        emitCode(operand);
+    }
+}
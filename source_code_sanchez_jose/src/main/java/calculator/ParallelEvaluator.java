@@ -0,0 +1,201 @@
+/*
+Purpose: Evaluates many expressions at once across every core. Input is split into chunks that
+run on a fork join pool, each worker thread reuses its own parser and scratch stack through
+Evaluator, and results always come back in input order
+*/
+
+package calculator;
+
+// Importing Libraries
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+public final class ParallelEvaluator {
+
+    // Fewest expressions handed to one task, smaller chunks cost more in scheduling than they save
+    private static final int MIN_CHUNK = 64;
+
+    // Receives streamed results in input order, error is null when the expression evaluated
+    public interface ResultSink {
+        void accept(long index, String expression, double value, String error);
+    }
+
+    // Results of evaluateAll, in the same order as the input
+    public static final class Results {
+        private final double[] values;
+        private final String[] errors;
+
+        Results(int size) {
+            values = new double[size];
+            errors = new String[size];
+        }
+
+        public int size() {
+            return values.length;
+        }
+
+        // Value of expression i, NaN if it failed
+        public double value(int i) {
+            return values[i];
+        }
+
+        // Error message for expression i, or null if it evaluated
+        public String error(int i) {
+            return errors[i];
+        }
+
+        public boolean failed(int i) {
+            return errors[i] != null;
+        }
+    }
+
+    // Evaluate one expression into slot i of the output arrays, Evaluator keeps a parser and
+    // stack for each worker thread
+    private static void evaluate(String expression, ExpressionCache cache, int i, double[] values, String[] errors) {
+        try {
+            values[i] = Evaluator.evaluate(expression, cache);
+            errors[i] = null;
+        }
+        catch (IllegalArgumentException | ArithmeticException e) {
+            values[i] = Double.NaN;
+            errors[i] = e.getMessage();
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final ExpressionCache cache;
+
+    // Use the common pool, sized to the number of cores
+    public ParallelEvaluator() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ParallelEvaluator(ForkJoinPool pool) {
+        this(pool, null);
+    }
+
+    // Compiled expressions come from the cache when one is given, so repeats skip parsing
+    public ParallelEvaluator(ForkJoinPool pool, ExpressionCache cache) {
+        this.pool = pool;
+        this.cache = cache;
+    }
+
+    // evaluateAll function evaluates every expression in the list, in parallel
+    public Results evaluateAll(List<String> expressions) {
+        Results results = new Results(expressions.size());
+        int chunk = chunkSize(expressions.size());
+        pool.invoke(new RangeTask(expressions, cache, results.values, results.errors, 0, expressions.size(), chunk));
+        return results;
+    }
+
+    // evaluateAll function for input that is too big to hold at once. Expressions are read
+    // chunkSize at a time, a bounded number of chunks run at once, and the sink sees every
+    // result in input order
+    public void evaluateAll(Iterator<String> expressions, int chunkSize, ResultSink sink) {
+        int maxInFlight = 4 * pool.getParallelism();
+        ArrayDeque<ChunkTask> inFlight = new ArrayDeque<>();
+        long index = 0;
+
+        while (expressions.hasNext()) {
+            // Fill the next chunk
+            String[] chunk = new String[chunkSize];
+            int size = 0;
+            while (size < chunkSize && expressions.hasNext()) {
+                chunk[size++] = expressions.next();
+            }
+            ChunkTask task = new ChunkTask(chunk, size, index, cache);
+            index += size;
+            pool.execute(task);
+            inFlight.addLast(task);
+
+            // Wait on the oldest chunk once enough are running, which keeps memory bounded
+            if (inFlight.size() >= maxInFlight) {
+                inFlight.removeFirst().drainTo(sink);
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            inFlight.removeFirst().drainTo(sink);
+        }
+    }
+
+    // Split the input so every thread gets several chunks to balance the load with
+    private int chunkSize(int size) {
+        return Math.max(MIN_CHUNK, size / (8 * pool.getParallelism()));
+    }
+
+    // Splits a range of the input in half until it is small enough to evaluate directly
+    private static final class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> expressions;
+        private final ExpressionCache cache;
+        private final double[] values;
+        private final String[] errors;
+        private final int from;
+        private final int to;
+        private final int chunk;
+
+        RangeTask(List<String> expressions, ExpressionCache cache, double[] values, String[] errors, int from, int to, int chunk) {
+            this.expressions = expressions;
+            this.cache = cache;
+            this.values = values;
+            this.errors = errors;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunk) {
+                for (int i = from; i < to; i++) {
+                    evaluate(expressions.get(i), cache, i, values, errors);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            ForkJoinTask.invokeAll(new RangeTask(expressions, cache, values, errors, from, middle, chunk),
+                new RangeTask(expressions, cache, values, errors, middle, to, chunk));
+        }
+    }
+
+    // One chunk of streamed input
+    private static final class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] expressions;
+        private final int size;
+        private final long firstIndex;
+        private final ExpressionCache cache;
+        private final double[] values;
+        private final String[] errors;
+
+        ChunkTask(String[] expressions, int size, long firstIndex, ExpressionCache cache) {
+            this.expressions = expressions;
+            this.size = size;
+            this.firstIndex = firstIndex;
+            this.cache = cache;
+            this.values = new double[size];
+            this.errors = new String[size];
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = 0; i < size; i++) {
+                evaluate(expressions[i], cache, i, values, errors);
+            }
+        }
+
+        // Wait for the chunk and pass its results on
+        void drainTo(ResultSink sink) {
+            join();
+            for (int i = 0; i < size; i++) {
+                sink.accept(firstIndex + i, expressions[i], values[i], errors[i]);
+            }
+        }
+    }
+}
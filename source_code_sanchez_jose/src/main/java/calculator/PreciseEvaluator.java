@@ -0,0 +1,541 @@
+/*
+Purpose: Precision mode. An expression is evaluated in double first, carrying a bound on how far
+each value can be from the exact decimal answer. When every number inside that bound rounds to
+the same result at the requested MathContext, that result is returned. Only the expressions
+where it doesn't are evaluated again in BigDecimal, with the functions from BigDecimalMath
+*/
+
+package calculator;
+
+// Importing Libraries
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class PreciseEvaluator {
+
+    // Largest double below which every whole number is exact
+    private static final double EXACT_LIMIT = 0x1p53;
+
+    // Digits past the requested precision for the first BigDecimal run, and the most it tries
+    private static final int GUARD_DIGITS = 10;
+    private static final int MAX_GUARD_DIGITS = 320;
+
+    // Powers of ten that are exact doubles
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final MathContext precision;
+    private final LongAdder fast = new LongAdder();
+    private final LongAdder escalated = new LongAdder();
+
+    public PreciseEvaluator(MathContext precision) {
+        if (precision.getPrecision() == 0) {
+            throw new IllegalArgumentException("ERROR, PRECISION MODE NEEDS A LIMITED NUMBER OF DIGITS.");
+        }
+        this.precision = precision;
+    }
+
+    public MathContext precision() {
+        return precision;
+    }
+
+    // evaluate function parses and calculates an expression to the evaluator's precision
+    public BigDecimal evaluate(String expression) {
+        return evaluate(ExpressionParser.parse(expression), new double[0]);
+    }
+
+    // evaluate function for an expression with variables. Numbers are read as the shortest
+    // decimal that gives the same double, so 0.1 means exactly one tenth. The optimizer folds
+    // constants in double, so pass the parser's output rather than an optimized expression
+    public BigDecimal evaluate(CompiledExpression expression, double[] values) {
+        expression.checkVariables(values.length);
+        BigDecimal result = estimate(expression, values);
+        if (result != null) {
+            fast.increment();
+            return result;
+        }
+        escalated.increment();
+        return exact(expression, values);
+    }
+
+    // Evaluations answered from the double estimate and evaluations redone in BigDecimal
+    public long fastCount() {
+        return fast.sum();
+    }
+
+    public long escalatedCount() {
+        return escalated.sum();
+    }
+
+    // Run the program in double with an error bound next to every value, and return the rounded
+    // result if the bound is tight enough or null if BigDecimal is needed. The bounds for
+    // + - * / are exact error terms, for Math's functions they are first order estimates from the
+    // derivative plus the 1 ulp Math allows
+    BigDecimal estimate(CompiledExpression expression, double[] values) {
+        int[] code = expression.code;
+        int slots = expression.maxStack;
+        double[] stack = new double[expression.stackSize()];
+        double[] error = new double[expression.stackSize()];
+        int sp = 0;
+        int pc = 0;
+
+        while (pc < code.length) {
+            double a;
+            double b;
+            double ea;
+            double eb;
+            double r;
+            switch (code[pc++]) {
+                case CompiledExpression.PUSH:
+                    a = expression.constants[code[pc++]];
+                    stack[sp] = a;
+                    error[sp++] = inputError(a);
+                    break;
+                case CompiledExpression.VAR:
+                    a = values[code[pc++]];
+                    stack[sp] = a;
+                    error[sp++] = inputError(a);
+                    break;
+                case CompiledExpression.LOAD:
+                    stack[sp] = stack[slots + code[pc]];
+                    error[sp++] = error[slots + code[pc++]];
+                    break;
+                case CompiledExpression.STORE:
+                    stack[slots + code[pc]] = stack[sp - 1];
+                    error[slots + code[pc++]] = error[sp - 1];
+                    break;
+                case CompiledExpression.ADD:
+                case CompiledExpression.SUBTRACT:
+                    sp--;
+                    a = stack[sp - 1];
+                    b = code[pc - 1] == CompiledExpression.ADD ? stack[sp] : -stack[sp];
+                    r = a + b;
+                    // TwoSum gives the rounding error of a + b exactly
+                    double bVirtual = r - a;
+                    double roundoff = (a - (r - bVirtual)) + (b - bVirtual);
+                    stack[sp - 1] = r;
+                    error[sp - 1] = error[sp - 1] + error[sp] + Math.abs(roundoff);
+                    break;
+                case CompiledExpression.MULTIPLY:
+                    sp--;
+                    a = stack[sp - 1];
+                    b = stack[sp];
+                    ea = error[sp - 1];
+                    eb = error[sp];
+                    r = a * b;
+                    // fma gives the rounding error of a * b exactly
+                    stack[sp - 1] = r;
+                    error[sp - 1] = Math.abs(a) * eb + Math.abs(b) * ea + ea * eb + Math.abs(Math.fma(a, b, -r));
+                    break;
+                case CompiledExpression.DIVIDE:
+                    sp--;
+                    a = stack[sp - 1];
+                    b = stack[sp];
+                    ea = error[sp - 1];
+                    eb = error[sp];
+                    // A denominator that might be zero can't be bounded
+                    if (Math.abs(b) <= eb) {
+                        return null;
+                    }
+                    r = a / b;
+                    // fma gives the remainder a - r * b exactly
+                    stack[sp - 1] = r;
+                    error[sp - 1] = (Math.abs(a) * eb + Math.abs(b) * ea) / (Math.abs(b) * (Math.abs(b) - eb))
+                        + Math.abs(Math.fma(-r, b, a) / b);
+                    break;
+                case CompiledExpression.POWER:
+                    sp--;
+                    a = stack[sp - 1];
+                    b = stack[sp];
+                    ea = error[sp - 1];
+                    eb = error[sp];
+                    if (!isSmall(ea, a)) {
+                        return null;
+                    }
+                    r = Math.pow(a, b);
+                    stack[sp - 1] = r;
+                    // Math.pow is exact for whole numbers whose power is a whole double
+                    if (ea == 0 && eb == 0 && isWhole(a) && isWhole(b) && isWhole(r)) {
+                        error[sp - 1] = 0;
+                    }
+                    else {
+                        double lnA = a == 0 ? 0 : Math.log(Math.abs(a));
+                        error[sp - 1] = Math.abs(b * r / a) * ea + Math.abs(r * lnA) * eb + Math.ulp(r);
+                    }
+                    break;
+                case CompiledExpression.NEGATE:
+                    stack[sp - 1] = -stack[sp - 1];
+                    break;
+                // A comparison is exact once its bounds can't overlap, otherwise it might
+                // come out the other way
+                case CompiledExpression.LESS:
+                case CompiledExpression.LESS_EQUAL:
+                case CompiledExpression.GREATER:
+                case CompiledExpression.GREATER_EQUAL:
+                case CompiledExpression.EQUAL:
+                case CompiledExpression.NOT_EQUAL:
+                    sp--;
+                    a = stack[sp - 1];
+                    b = stack[sp];
+                    if (overlap(a, error[sp - 1], b, error[sp])) {
+                        return null;
+                    }
+                    stack[sp - 1] = CompiledExpression.binary(code[pc - 1], a, b);
+                    error[sp - 1] = 0;
+                    break;
+                // min and max move by no more than the larger of the two bounds
+                case CompiledExpression.MIN:
+                case CompiledExpression.MAX:
+                    sp--;
+                    stack[sp - 1] = CompiledExpression.binary(code[pc - 1], stack[sp - 1], stack[sp]);
+                    error[sp - 1] = Math.max(error[sp - 1], error[sp]);
+                    break;
+                // A condition that might be 0 can't pick a branch
+                case CompiledExpression.JUMP_IF_FALSE:
+                    sp--;
+                    if (error[sp] != 0 && !(Math.abs(stack[sp]) > error[sp])) {
+                        return null;
+                    }
+                    if (CompiledExpression.isTrue(stack[sp])) {
+                        pc++;
+                    }
+                    else {
+                        pc += code[pc] + 1;
+                    }
+                    break;
+                case CompiledExpression.JUMP:
+                    pc += code[pc] + 1;
+                    break;
+                default:
+                    a = stack[sp - 1];
+                    ea = error[sp - 1];
+                    if (!isSmall(ea, a)) {
+                        return null;
+                    }
+                    r = function(code[pc - 1], a);
+                    stack[sp - 1] = r;
+                    error[sp - 1] = (ea == 0 ? 0 : derivative(code[pc - 1], a, r) * ea) + roundoff(code[pc - 1], a, r);
+                    break;
+            }
+        }
+        return round(stack[0], error[0]);
+    }
+
+    // Check if two numbers with their bounds could be equal or in the other order. The
+    // difference is rounded, so a little more than the bounds has to separate them
+    private static boolean overlap(double a, double ea, double b, double eb) {
+        if (ea == 0 && eb == 0) {
+            return false;
+        }
+        return !(Math.abs(a - b) > ea + eb + Math.ulp(a) + Math.ulp(b));
+    }
+
+    // The first order bounds only hold while an error is tiny next to the value it is on
+    private static boolean isSmall(double error, double value) {
+        return error <= Math.abs(value) * 1e-6;
+    }
+
+    // Rounding error of Math's function, sqrt is correctly rounded and exact when r * r is a,
+    // cot rounds twice, and the rest are within 1 ulp. arcctg is pi/2 - atan(x), which cancels for
+    // large x, so the errors of pi/2 and atan are sized by those numbers and not by the result
+    private static double roundoff(int opcode, double x, double r) {
+        switch (opcode) {
+            case CompiledExpression.SQRT:
+                return Math.fma(r, r, -x) == 0 ? 0 : Math.ulp(r) / 2;
+            case CompiledExpression.COT:
+                return 3 * Math.ulp(r);
+            case CompiledExpression.ARCCTG:
+                return Math.ulp(Math.PI / 2) + Math.ulp(Math.atan(x)) + Math.ulp(r);
+            default:
+                return Math.ulp(r);
+        }
+    }
+
+    // A number read from the expression is the shortest decimal for its double. Whole numbers
+    // are exact, others may be up to half an ulp away
+    private static double inputError(double value) {
+        return isWhole(value) ? 0 : Math.ulp(value) / 2;
+    }
+
+    private static boolean isWhole(double value) {
+        return Math.abs(value) < EXACT_LIMIT && value == Math.rint(value);
+    }
+
+    // The result if everything within error of value rounds to it, otherwise null
+    private BigDecimal round(double value, double error) {
+        if (!Double.isFinite(value) || !Double.isFinite(error)) {
+            return null;
+        }
+        if (error == 0) {
+            return new BigDecimal(value).round(precision).stripTrailingZeros();
+        }
+        // A double carries 17 significant digits at most, so an inexact one can't settle more
+        if (precision.getPrecision() > 17) {
+            return null;
+        }
+        BigDecimal scaled = roundScaled(value, error);
+        if (scaled != null) {
+            return scaled;
+        }
+        // Widen by an ulp each way, since value - error and value + error are rounded too
+        BigDecimal low = new BigDecimal(Math.nextDown(value - error)).round(precision);
+        BigDecimal high = new BigDecimal(Math.nextUp(value + error)).round(precision);
+        return low.compareTo(high) == 0 ? high.stripTrailingZeros() : null;
+    }
+
+    // Quicker check for 15 digits or fewer. value is scaled so the digits to keep are left of
+    // the point, and if everything within error of it lands well inside one whole number that
+    // number is the result. Returns null when this can't decide
+    private BigDecimal roundScaled(double value, double error) {
+        int digits = precision.getPrecision();
+        RoundingMode mode = precision.getRoundingMode();
+        if (digits > 15 || value == 0
+            || (mode != RoundingMode.HALF_EVEN && mode != RoundingMode.HALF_UP && mode != RoundingMode.HALF_DOWN)) {
+            return null;
+        }
+        int shift = digits - 1 - (int) Math.floor(Math.log10(Math.abs(value)));
+        if (Math.abs(shift) >= POWERS_OF_TEN.length) {
+            return null;
+        }
+        double power = POWERS_OF_TEN[Math.abs(shift)];
+        double scaled = shift >= 0 ? value * power : value / power;
+        // The scaling rounds once, allow for that and for rounding the error itself
+        double scaledError = (shift >= 0 ? error * power : error / power) * (1 + 0x1p-50) + 2 * Math.ulp(scaled);
+        double whole = Math.rint(scaled);
+        // The log10 above can be one out near powers of ten, and a result at the edge of the
+        // digit range could have one digit more or less
+        if (Math.abs(whole) <= POWERS_OF_TEN[digits - 1] || Math.abs(whole) >= POWERS_OF_TEN[digits] - 1) {
+            return null;
+        }
+        if (Math.abs(scaled - whole) + scaledError >= 0.5) {
+            return null;
+        }
+        return BigDecimal.valueOf((long) whole, shift).stripTrailingZeros();
+    }
+
+    // Same functions as CompiledExpression
+    private static double function(int opcode, double x) {
+        switch (opcode) {
+            case CompiledExpression.SQRT:
+                return Math.sqrt(x);
+            case CompiledExpression.SIN:
+                return Math.sin(x);
+            case CompiledExpression.COS:
+                return Math.cos(x);
+            case CompiledExpression.TAN:
+                return Math.tan(x);
+            case CompiledExpression.COT:
+                return 1 / Math.tan(x);
+            case CompiledExpression.ARCSIN:
+                return Math.asin(x);
+            case CompiledExpression.ARCCOS:
+                return Math.acos(x);
+            case CompiledExpression.ARCTAN:
+                return Math.atan(x);
+            case CompiledExpression.ARCCTG:
+                return Math.PI / 2 - Math.atan(x);
+            case CompiledExpression.LN:
+                return Math.log(x);
+            case CompiledExpression.LOG10:
+                return Math.log10(x);
+            default:
+                throw new IllegalStateException("UNKNOWN OPCODE: " + opcode);
+        }
+    }
+
+    // Size of the derivative of a function at x, where r is the function's value
+    private static double derivative(int opcode, double x, double r) {
+        switch (opcode) {
+            case CompiledExpression.SQRT:
+                return 1 / (2 * r);
+            case CompiledExpression.SIN:
+            case CompiledExpression.COS:
+                return 1;
+            case CompiledExpression.TAN:
+            case CompiledExpression.COT:
+                return 1 + r * r;
+            case CompiledExpression.ARCSIN:
+            case CompiledExpression.ARCCOS:
+                return 1 / Math.sqrt(1 - x * x);
+            case CompiledExpression.ARCTAN:
+            case CompiledExpression.ARCCTG:
+                return 1 / (1 + x * x);
+            case CompiledExpression.LN:
+                return 1 / Math.abs(x);
+            case CompiledExpression.LOG10:
+                return 1 / (Math.abs(x) * Math.log(10));
+            default:
+                throw new IllegalStateException("UNKNOWN OPCODE: " + opcode);
+        }
+    }
+
+    // Run the program in BigDecimal with more and more guard digits until two runs round to the
+    // same result, so an expression that loses digits, such as tan of a large number, still
+    // comes out right. Both paths drop trailing zeros, so they print alike. Called directly it
+    // skips the double estimate
+    public BigDecimal exact(CompiledExpression expression, double[] values) {
+        expression.checkVariables(values.length);
+        int guard = GUARD_DIGITS;
+        BigDecimal previous = run(expression, values, guarded(guard));
+        while (true) {
+            guard *= 2;
+            BigDecimal next = run(expression, values, guarded(guard));
+            if (next.compareTo(previous) == 0 || guard >= MAX_GUARD_DIGITS) {
+                return next.stripTrailingZeros();
+            }
+            previous = next;
+        }
+    }
+
+    private MathContext guarded(int guard) {
+        return new MathContext(precision.getPrecision() + guard, precision.getRoundingMode());
+    }
+
+    // Run the program once at the working precision wc and round the result
+    private BigDecimal run(CompiledExpression expression, double[] values, MathContext wc) {
+        int[] code = expression.code;
+        int slots = expression.maxStack;
+        BigDecimal[] stack = new BigDecimal[expression.stackSize()];
+        int sp = 0;
+        int pc = 0;
+
+        while (pc < code.length) {
+            BigDecimal b;
+            switch (code[pc++]) {
+                case CompiledExpression.PUSH:
+                    stack[sp++] = decimal(expression.constants[code[pc++]]);
+                    break;
+                case CompiledExpression.VAR:
+                    stack[sp++] = decimal(values[code[pc++]]);
+                    break;
+                case CompiledExpression.LOAD:
+                    stack[sp++] = stack[slots + code[pc++]];
+                    break;
+                case CompiledExpression.STORE:
+                    stack[slots + code[pc++]] = stack[sp - 1];
+                    break;
+                case CompiledExpression.ADD:
+                    b = stack[--sp];
+                    stack[sp - 1] = stack[sp - 1].add(b, wc);
+                    break;
+                case CompiledExpression.SUBTRACT:
+                    b = stack[--sp];
+                    stack[sp - 1] = stack[sp - 1].subtract(b, wc);
+                    break;
+                case CompiledExpression.MULTIPLY:
+                    b = stack[--sp];
+                    stack[sp - 1] = stack[sp - 1].multiply(b, wc);
+                    break;
+                case CompiledExpression.DIVIDE:
+                    b = stack[--sp];
+                    // Check if the denominator is zero
+                    if (b.signum() == 0) {
+                        throw BigDecimalMath.divideByZero();
+                    }
+                    stack[sp - 1] = stack[sp - 1].divide(b, wc);
+                    break;
+                case CompiledExpression.POWER:
+                    b = stack[--sp];
+                    stack[sp - 1] = BigDecimalMath.pow(stack[sp - 1], b, wc);
+                    break;
+                case CompiledExpression.NEGATE:
+                    stack[sp - 1] = stack[sp - 1].negate();
+                    break;
+                case CompiledExpression.SQRT:
+                    stack[sp - 1] = BigDecimalMath.sqrt(stack[sp - 1], wc);
+                    break;
+                case CompiledExpression.SIN:
+                    stack[sp - 1] = BigDecimalMath.sin(stack[sp - 1], wc);
+                    break;
+                case CompiledExpression.COS:
+                    stack[sp - 1] = BigDecimalMath.cos(stack[sp - 1], wc);
+                    break;
+                case CompiledExpression.TAN:
+                    stack[sp - 1] = BigDecimalMath.tan(stack[sp - 1], wc);
+                    break;
+                case CompiledExpression.COT:
+                    stack[sp - 1] = BigDecimalMath.cot(stack[sp - 1], wc);
+                    break;
+                case CompiledExpression.ARCSIN:
+                    stack[sp - 1] = BigDecimalMath.arcsin(stack[sp - 1], wc);
+                    break;
+                case CompiledExpression.ARCCOS:
+                    stack[sp - 1] = BigDecimalMath.arccos(stack[sp - 1], wc);
+                    break;
+                case CompiledExpression.ARCTAN:
+                    stack[sp - 1] = BigDecimalMath.arctan(stack[sp - 1], wc);
+                    break;
+                case CompiledExpression.ARCCTG:
+                    stack[sp - 1] = BigDecimalMath.arccot(stack[sp - 1], wc);
+                    break;
+                case CompiledExpression.LN:
+                    stack[sp - 1] = BigDecimalMath.ln(stack[sp - 1], wc);
+                    break;
+                case CompiledExpression.LOG10:
+                    stack[sp - 1] = BigDecimalMath.log10(stack[sp - 1], wc);
+                    break;
+                case CompiledExpression.LESS:
+                case CompiledExpression.LESS_EQUAL:
+                case CompiledExpression.GREATER:
+                case CompiledExpression.GREATER_EQUAL:
+                case CompiledExpression.EQUAL:
+                case CompiledExpression.NOT_EQUAL:
+                    b = stack[--sp];
+                    stack[sp - 1] = compare(code[pc - 1], stack[sp - 1].compareTo(b)) ? BigDecimal.ONE : BigDecimal.ZERO;
+                    break;
+                case CompiledExpression.MIN:
+                    b = stack[--sp];
+                    stack[sp - 1] = stack[sp - 1].min(b);
+                    break;
+                case CompiledExpression.MAX:
+                    b = stack[--sp];
+                    stack[sp - 1] = stack[sp - 1].max(b);
+                    break;
+                case CompiledExpression.JUMP_IF_FALSE:
+                    if (stack[--sp].signum() != 0) {
+                        pc++;
+                    }
+                    else {
+                        pc += code[pc] + 1;
+                    }
+                    break;
+                case CompiledExpression.JUMP:
+                    pc += code[pc] + 1;
+                    break;
+                default:
+                    throw new IllegalStateException("UNKNOWN OPCODE: " + code[pc - 1]);
+            }
+        }
+        return stack[0].round(precision);
+    }
+
+    // Check if a comparison holds, given the sign of compareTo
+    private static boolean compare(int opcode, int order) {
+        switch (opcode) {
+            case CompiledExpression.LESS:
+                return order < 0;
+            case CompiledExpression.LESS_EQUAL:
+                return order <= 0;
+            case CompiledExpression.GREATER:
+                return order > 0;
+            case CompiledExpression.GREATER_EQUAL:
+                return order >= 0;
+            case CompiledExpression.EQUAL:
+                return order == 0;
+            default:
+                return order != 0;
+        }
+    }
+
+    // Numbers that aren't finite can't be written in BigDecimal
+    private static BigDecimal decimal(double value) {
+        if (!Double.isFinite(value)) {
+            throw BigDecimalMath.notANumber();
+        }
+        return BigDecimal.valueOf(value);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+Purpose: ColumnOperations written with the incubating Vector API, so every loop runs a full SIMD
+register of doubles at a time. Only loaded when the JVM is started with
+--add-modules jdk.incubator.vector. The leftover elements at the end of a column go through the
+plain loops
+*/
+
+package calculator;
+
+// Importing Libraries
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+final class VectorColumnOperations extends ColumnOperations {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    String name() {
+        return "vector " + SPECIES.vectorBitSize() + " bit";
+    }
+
+    @Override
+    void add(double[] a, double[] b, int from, int to) {
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).add(DoubleVector.fromArray(SPECIES, b, i)).intoArray(a, i);
+        }
+        super.add(a, b, i, to);
+    }
+
+    @Override
+    void subtract(double[] a, double[] b, int from, int to) {
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).sub(DoubleVector.fromArray(SPECIES, b, i)).intoArray(a, i);
+        }
+        super.subtract(a, b, i, to);
+    }
+
+    @Override
+    void multiply(double[] a, double[] b, int from, int to) {
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).mul(DoubleVector.fromArray(SPECIES, b, i)).intoArray(a, i);
+        }
+        super.multiply(a, b, i, to);
+    }
+
+    @Override
+    void divide(double[] a, double[] b, int from, int to) {
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+            DoubleVector denominator = DoubleVector.fromArray(SPECIES, b, i);
+            // Check if any denominator is zero
+            if (denominator.compare(VectorOperators.EQ, 0).anyTrue()) {
+                throw new EvaluationException("ERROR! CANNOT DIVIDE BY ZERO!");
+            }
+            DoubleVector.fromArray(SPECIES, a, i).div(denominator).intoArray(a, i);
+        }
+        super.divide(a, b, i, to);
+    }
+
+    @Override
+    void negate(double[] a, int from, int to) {
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).neg().intoArray(a, i);
+        }
+        super.negate(a, i, to);
+    }
+
+    @Override
+    void sqrt(double[] a, int from, int to) {
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).lanewise(VectorOperators.SQRT).intoArray(a, i);
+        }
+        super.sqrt(a, i, to);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+Purpose: Runs the FastMathAccuracy suite on every build, with fewer inputs than the program does.
+The pom runs this class once with exact math and once for each tolerance it sets with
+-Dcalculator.fastMath
+*/
+
+package calculator;
+
+// Importing Libraries
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import org.junit.jupiter.api.Test;
+
+class FastMathAccuracyTest {
+
+    // Inputs of each kind, a multiple of 4 as the suite fills some of them four at a time
+    private static final int SAMPLES = 1 << 14;
+
+    private static final double[] POINTS = {0.0, -0.0, 0.3, -2.5, 1.0, 7e5, 1e-300, Double.NaN, Double.POSITIVE_INFINITY};
+
+    @Test
+    void boundsHoldAtTheTolerance() {
+        assumeTrue(FastMath.ENABLED);
+        assertTrue(FastMathAccuracy.check(SAMPLES), "a function broke the tolerance " + FastMath.TOLERANCE);
+    }
+
+    @Test
+    void exactMathCallsMath() {
+        assumeFalse(FastMath.ENABLED);
+        for (double x : POINTS) {
+            assertEquals(Math.sin(x), FastMath.sin(x));
+            assertEquals(Math.cos(x), FastMath.cos(x));
+            assertEquals(Math.tan(x), FastMath.tan(x));
+            assertEquals(Math.asin(x), FastMath.asin(x));
+            assertEquals(Math.acos(x), FastMath.acos(x));
+            assertEquals(Math.atan(x), FastMath.atan(x));
+            assertEquals(Math.log(x), FastMath.log(x));
+            assertEquals(Math.log10(x), FastMath.log10(x));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+Purpose: Differential check of precision mode's double estimate against its BigDecimal run. Random
+expressions mixing every function with + - * / are worked out at 15 digits both ways, and
+wherever the estimate settles on a result it has to be the one exact gives
+*/
+
+package calculator;
+
+// Importing Libraries
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+class PreciseEvaluatorTest {
+
+    private static final int EXPRESSIONS = 4000;
+
+    // Functions of any number, and the ones only given a number inside their domain
+    private static final String[] FUNCTIONS = {"sin", "cos", "tan", "cot", "arctan", "arcctg"};
+    private static final String[] BOUNDED = {"arcsin", "arccos"};
+    private static final String[] POSITIVE = {"ln", "log", "sqrt"};
+    private static final String[] OPERATORS = {"+", "-", "*", "/"};
+
+    private final PreciseEvaluator evaluator = new PreciseEvaluator(new MathContext(15));
+
+    @Test
+    void estimateAgreesWithExact() {
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < EXPRESSIONS; i++) {
+            check(expression(random, 2));
+        }
+    }
+
+    // pi/2 - atan(x) cancels for large x, where the estimate used to round the last digit wrong
+    @Test
+    void arcctgOfLargeNumbers() {
+        check("arcctg(61.16)");
+        check("arcctg(-61.16)");
+        check("arcctg(12345.678)");
+        check("1+arcctg(3.5)*arcctg(250.25)");
+    }
+
+    private void check(String text) {
+        CompiledExpression expression = ExpressionParser.parse(text);
+        BigDecimal estimate = evaluator.estimate(expression, new double[0]);
+        if (estimate != null) {
+            assertEquals(evaluator.exact(expression, new double[0]), estimate, text);
+        }
+    }
+
+    private static String expression(SplittableRandom random, int depth) {
+        StringBuilder out = new StringBuilder(term(random, depth));
+        int terms = random.nextInt(3);
+        for (int t = 0; t < terms; t++) {
+            out.append(OPERATORS[random.nextInt(OPERATORS.length)]).append(term(random, depth));
+        }
+        return out.toString();
+    }
+
+    private static String term(SplittableRandom random, int depth) {
+        switch (depth <= 0 ? random.nextInt(3) : random.nextInt(6)) {
+            case 0:
+                return number(random);
+            case 1:
+                return BOUNDED[random.nextInt(BOUNDED.length)] + "(" + random.nextInt(-99, 100) / 100.0 + ")";
+            case 2:
+                return POSITIVE[random.nextInt(POSITIVE.length)] + "(" + number(random) + ")";
+            case 3:
+                return "(" + expression(random, depth - 1) + ")";
+            default:
+                return FUNCTIONS[random.nextInt(FUNCTIONS.length)] + "(" + expression(random, depth - 1) + ")";
+        }
+    }
+
+    // Positive numbers with two decimals, spread from hundredths to thousands
+    private static String number(SplittableRandom random) {
+        long hundredths = (long) Math.pow(10, random.nextDouble(0, 5)) + 1;
+        return BigDecimal.valueOf(hundredths, 2).toPlainString();
+    }
+}